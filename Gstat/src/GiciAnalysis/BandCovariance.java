@@ -0,0 +1,289 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * This class accumulates the covariance between all the components of an image (the means of the components and the sums of the products of their deviations from the means).<br>
+ * Samples are added in blocks of pixels with all the components (see addBlock): the products of the block are computed around its own means, in chunks of pixels that fit in the cache, and blocks and accumulators are merged with the pairwise update of Chan et al. (the same used for the variance in {@link StatisticalAccumulator}). Only the lower triangle of the symmetric matrix is kept.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class BandCovariance{
+
+	/**
+	 * Number of pixels of the chunks in which the products of a block are computed (the chunks of all the components are expected to fit in the cache).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int CHUNK_PIXELS = 256;
+
+	/**
+	 * Number of image components.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int zSize;
+
+	/**
+	 * Number of pixels accumulated.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long count = 0;
+
+	/**
+	 * Mean of each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] mean;
+
+	/**
+	 * Sums of the products of the deviations of each pair of components (lower triangle by rows: position i*(i+1)/2+j for the components i and j, with j not greater than i).
+	 * <p>
+	 * All values allowed.
+	 */
+	double[] comoments;
+
+	/**
+	 * Constructor of an empty accumulator.
+	 *
+	 * @param zSize number of image components
+	 */
+	public BandCovariance(int zSize){
+		this.zSize = zSize;
+		mean = new double[zSize];
+		comoments = new double[zSize * (zSize + 1) / 2];
+	}
+
+	/**
+	 * Adds a block of pixels. The block is centered on its means (so its samples are modified) and the products of all the pairs of components are summed in 2x2 tiles, so each sample loaded from the cache is used twice.
+	 *
+	 * @param block samples of the block (index meaning [component][pixel]); it must have an even number of rows, and the row after the last component (if zSize is odd) must be zeros
+	 * @param length number of pixels of the block
+	 * @param blockMean array where the means of the block are computed (zSize positions)
+	 * @param blockComoments array where the products of the block are computed (as many positions as comoments)
+	 */
+	public void addBlock(double[][] block, int length, double[] blockMean, double[] blockComoments){
+		if(length <= 0){
+			return;
+		}
+		for(int z = 0; z < zSize; z++){
+			double[] row = block[z];
+			double sum = 0;
+			for(int c = 0; c < length; c++){
+				sum += row[c];
+			}
+			double rowMean = sum / length;
+			for(int c = 0; c < length; c++){
+				row[c] -= rowMean;
+			}
+			blockMean[z] = rowMean;
+		}
+		Arrays.fill(blockComoments, 0);
+		for(int chunk = 0; chunk < length; chunk += CHUNK_PIXELS){
+			int end = Math.min(length, chunk + CHUNK_PIXELS);
+			for(int i = 0; i < zSize; i += 2){
+				double[] a0 = block[i];
+				double[] a1 = block[i + 1];
+				int row0 = i * (i + 1) / 2;
+				int row1 = row0 + i + 1;
+				for(int j = 0; j <= i; j += 2){
+					double[] b0 = block[j];
+					double[] b1 = block[j + 1];
+					double s00 = 0, s01 = 0, s10 = 0, s11 = 0;
+					for(int c = chunk; c < end; c++){
+						double x0 = a0[c];
+						double x1 = a1[c];
+						double y0 = b0[c];
+						double y1 = b1[c];
+						s00 += x0 * y0;
+						s01 += x0 * y1;
+						s10 += x1 * y0;
+						s11 += x1 * y1;
+					}
+					blockComoments[row0 + j] += s00;
+					if(j < i){
+						blockComoments[row0 + j + 1] += s01;
+					}
+					if(i + 1 < zSize){
+						blockComoments[row1 + j] += s10;
+						blockComoments[row1 + j + 1] += s11;
+					}
+				}
+			}
+		}
+		merge(length, blockMean, blockComoments);
+	}
+
+	/**
+	 * Merges the means and the products of another set of pixels (Chan et al.).
+	 *
+	 * @param otherCount number of pixels of the other set
+	 * @param otherMean mean of each component of the other set
+	 * @param otherComoments products of the deviations of the other set (lower triangle by rows)
+	 */
+	void merge(long otherCount, double[] otherMean, double[] otherComoments){
+		if(otherCount == 0){
+			return;
+		}
+		long newCount = count + otherCount;
+		double factor = (double)count * otherCount / newCount;
+		double[] delta = new double[zSize];
+		for(int z = 0; z < zSize; z++){
+			delta[z] = otherMean[z] - mean[z];
+		}
+		int position = 0;
+		for(int i = 0; i < zSize; i++){
+			double scaled = delta[i] * factor;
+			for(int j = 0; j <= i; j++){
+				comoments[position] += otherComoments[position] + scaled * delta[j];
+				position++;
+			}
+		}
+		for(int z = 0; z < zSize; z++){
+			mean[z] += delta[z] * otherCount / newCount;
+		}
+		count = newCount;
+	}
+
+	/**
+	 * Merges another accumulator of the same components into this one.
+	 *
+	 * @param other the accumulator to be merged
+	 */
+	public void merge(BandCovariance other){
+		if(other.zSize != zSize){
+			throw new IllegalArgumentException("Covariances of a different number of components cannot be merged.");
+		}
+		merge(other.count, other.mean, other.comoments);
+	}
+
+	/**
+	 * Writes the accumulator so it can be read back with read.
+	 *
+	 * @param out the output where the accumulator is written
+	 * @throws IOException when the accumulator cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeInt(zSize);
+		out.writeLong(count);
+		for(int z = 0; z < zSize; z++){
+			out.writeDouble(mean[z]);
+		}
+		for(int i = 0; i < comoments.length; i++){
+			out.writeDouble(comoments[i]);
+		}
+	}
+
+	/**
+	 * Reads an accumulator written with write.
+	 *
+	 * @param in the input where the accumulator is read
+	 * @return the accumulator
+	 * @throws IOException when the accumulator cannot be read
+	 */
+	public static BandCovariance read(DataInput in) throws IOException{
+		int zSize = in.readInt();
+		long count = in.readLong();
+		if((zSize <= 0) || (count < 0)){
+			throw new IOException("Malformed band covariance.");
+		}
+		BandCovariance covariance = new BandCovariance(zSize);
+		covariance.count = count;
+		for(int z = 0; z < zSize; z++){
+			covariance.mean[z] = in.readDouble();
+		}
+		for(int i = 0; i < covariance.comoments.length; i++){
+			covariance.comoments[i] = in.readDouble();
+		}
+		return(covariance);
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return count definition in this class
+	 */
+	public long getCount(){
+		return(count);
+	}
+
+	/**
+	 * @return mean definition in this class
+	 */
+	public double[] getMean(){
+		return(mean);
+	}
+
+	/**
+	 * Computes the covariance matrix (divided by the number of pixels, so its diagonal is the variance of each component).
+	 *
+	 * @return the symmetric covariance matrix (index meaning [component][component])
+	 */
+	public double[][] getCovariance(){
+		double[][] covariance = new double[zSize][zSize];
+		int position = 0;
+		for(int i = 0; i < zSize; i++){
+			for(int j = 0; j <= i; j++){
+				covariance[i][j] = comoments[position++] / count;
+				covariance[j][i] = covariance[i][j];
+			}
+		}
+		return(covariance);
+	}
+
+	/**
+	 * Computes the correlation matrix (Pearson coefficients; NaN for the components whose samples are all equal).
+	 *
+	 * @return the symmetric correlation matrix (index meaning [component][component])
+	 */
+	public double[][] getCorrelation(){
+		double[][] correlation = getCovariance();
+		double[] deviation = new double[zSize];
+		for(int z = 0; z < zSize; z++){
+			deviation[z] = Math.sqrt(correlation[z][z]);
+		}
+		for(int i = 0; i < zSize; i++){
+			for(int j = 0; j < zSize; j++){
+				correlation[i][j] = ((i == j) && (deviation[i] > 0)) ? 1: correlation[i][j] / (deviation[i] * deviation[j]);
+			}
+		}
+		return(correlation);
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * This class accumulates the central moments of a set of samples up to the fourth one (mean and sums of the squared, cubed and fourth powers of the deviations from the mean), from which the skewness and the kurtosis are computed.<br>
+ * Each row is reduced in two passes while it is in the cache (its mean and then the powers of the deviations from it), so the image is scanned once. Rows and accumulators are combined with the pairwise update formulas of Pebay, which never subtract large power sums, so the moments are numerically stable whatever the offset of the samples is.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class CentralMoments{
+
+	/**
+	 * Number of samples accumulated.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long count = 0;
+
+	/**
+	 * Mean of the samples.
+	 * <p>
+	 * All values allowed.
+	 */
+	double mean = 0;
+
+	/**
+	 * Sums of the second, third and fourth powers of the deviations from the mean.
+	 * <p>
+	 * m2 and m4 can not be negative, m3 can have any value.
+	 */
+	double m2 = 0, m3 = 0, m4 = 0;
+
+	/**
+	 * Adds a row of unsigned 1 byte samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(byte[] row, int offset, int length){
+		int end = offset + length;
+		long sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x] & 0xff;
+		}
+		double rowMean = (double)sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = (row[x] & 0xff) - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Adds a row of 2 bytes samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 * @param unsigned true if the samples are unsigned (char), false otherwise
+	 */
+	public void addRow(short[] row, int offset, int length, boolean unsigned){
+		int end = offset + length;
+		int valueMask = unsigned ? 0xffff: 0xffffffff;
+		long sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x] & valueMask;
+		}
+		double rowMean = (double)sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = (row[x] & valueMask) - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Adds a row of signed 4 bytes samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(int[] row, int offset, int length){
+		int end = offset + length;
+		long sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x];
+		}
+		double rowMean = (double)sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = row[x] - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Adds a row of signed 8 bytes samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(long[] row, int offset, int length){
+		int end = offset + length;
+		double sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x];
+		}
+		double rowMean = sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = row[x] - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Adds a row of float samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(float[] row, int offset, int length){
+		int end = offset + length;
+		double sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x];
+		}
+		double rowMean = sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = row[x] - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Adds a row of double samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(double[] row, int offset, int length){
+		int end = offset + length;
+		double sum = 0;
+		for(int x = offset; x < end; x++){
+			sum += row[x];
+		}
+		double rowMean = sum / length;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for(int x = offset; x < end; x++){
+			double d = row[x] - rowMean;
+			double d2 = d * d;
+			s2 += d2;
+			s3 += d2 * d;
+			s4 += d2 * d2;
+		}
+		merge(length, rowMean, s2, s3, s4);
+	}
+
+	/**
+	 * Merges the moments of another set of samples (Pebay).
+	 *
+	 * @param otherCount number of samples of the other set
+	 * @param otherMean mean of the other set
+	 * @param otherM2 sum of the squared deviations of the other set
+	 * @param otherM3 sum of the cubed deviations of the other set
+	 * @param otherM4 sum of the fourth powers of the deviations of the other set
+	 */
+	void merge(long otherCount, double otherMean, double otherM2, double otherM3, double otherM4){
+		if(otherCount == 0){
+			return;
+		}
+		if(count == 0){
+			count = otherCount;
+			mean = otherMean;
+			m2 = otherM2;
+			m3 = otherM3;
+			m4 = otherM4;
+			return;
+		}
+		double na = count;
+		double nb = otherCount;
+		double n = na + nb;
+		double delta = otherMean - mean;
+		double deltaN = delta / n;
+		double deltaN2 = deltaN * deltaN;
+		double term = delta * deltaN * na * nb;
+		m4 += otherM4 + term * deltaN2 * (na * na - na * nb + nb * nb) + 6 * deltaN2 * (na * na * otherM2 + nb * nb * m2) + 4 * deltaN * (na * otherM3 - nb * m3);
+		m3 += otherM3 + term * deltaN * (na - nb) + 3 * deltaN * (na * otherM2 - nb * m2);
+		m2 += otherM2 + term;
+		mean += nb * deltaN;
+		count += otherCount;
+	}
+
+	/**
+	 * Merges the moments of another accumulator into this one.
+	 *
+	 * @param other the moments to be merged
+	 */
+	public void merge(CentralMoments other){
+		merge(other.count, other.mean, other.m2, other.m3, other.m4);
+	}
+
+	/**
+	 * Writes the moments so they can be read back with read.
+	 *
+	 * @param out the output where the moments are written
+	 * @throws IOException when the moments cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeLong(count);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+		out.writeDouble(m3);
+		out.writeDouble(m4);
+	}
+
+	/**
+	 * Reads moments written with write.
+	 *
+	 * @param in the input where the moments are read
+	 * @return the moments
+	 * @throws IOException when the moments cannot be read
+	 */
+	public static CentralMoments read(DataInput in) throws IOException{
+		CentralMoments moments = new CentralMoments();
+		moments.count = in.readLong();
+		moments.mean = in.readDouble();
+		moments.m2 = in.readDouble();
+		moments.m3 = in.readDouble();
+		moments.m4 = in.readDouble();
+		if(moments.count < 0){
+			throw new IOException("Malformed central moments.");
+		}
+		return(moments);
+	}
+
+	/**
+	 * @return count definition in this class
+	 */
+	public long getCount(){
+		return(count);
+	}
+
+	/**
+	 * @return the third central moment of the samples (mean of the cubed deviations)
+	 */
+	public double getThirdMoment(){
+		return(m3 / count);
+	}
+
+	/**
+	 * @return the fourth central moment of the samples (mean of the fourth powers of the deviations)
+	 */
+	public double getFourthMoment(){
+		return(m4 / count);
+	}
+
+	/**
+	 * Computes the skewness of the samples: the third central moment divided by the variance raised to 3/2 (NaN if all the samples are equal).
+	 *
+	 * @return the skewness of the samples
+	 */
+	public double getSkewness(){
+		return(m2 > 0 ? Math.sqrt((double)count) * m3 / Math.pow(m2, 1.5D): Double.NaN);
+	}
+
+	/**
+	 * Computes the excess kurtosis of the samples: the fourth central moment divided by the squared variance, minus 3 (so it is 0 for a normal distribution; NaN if all the samples are equal).
+	 *
+	 * @return the excess kurtosis of the samples
+	 */
+	public double getKurtosis(){
+		return(m2 > 0 ? count * m4 / (m2 * m2) - 3: Double.NaN);
+	}
+}
@@ -0,0 +1,696 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * This class is a histogram whose memory is bounded whatever the range and type of the samples is.<br>
+ * Samples are assigned to bins of a fixed width (by default, the integer part of the sample as in previous versions). Narrow ranges are counted in a dense array; when the range of bins becomes too wide the bins are moved to an open-addressing hash table, and when the number of distinct bins exceeds MAX_BINS the bin width is doubled (adjacent bins are merged) and the table is shrunk. Counts are kept in integers; the few bins with more samples than an integer can hold are counted apart. Hence a histogram never takes more than about 1.5 MB, whatever the number of samples is. Two histograms can be merged.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class Histogram{
+
+	/**
+	 * Maximum number of positions of the dense array (enough to count exactly any 16-bit sample).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int MAX_DENSE_BINS = 1 << 16;
+
+	/**
+	 * Maximum absolute bin index that can be counted in the dense array.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final long MAX_DENSE_INDEX = Long.MAX_VALUE >> 2;
+
+	/**
+	 * Maximum number of distinct bins (when exceeded, the bin width is doubled).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int MAX_BINS = 1 << 16;
+
+	/**
+	 * Maximum capacity of the hash table (it always keeps at least half of the slots free before coarsening).
+	 * <p>
+	 * Only positive powers of 2 allowed.
+	 */
+	static final int MAX_CAPACITY = 2 * MAX_BINS;
+
+	/**
+	 * Minimum capacity of the hash table.
+	 * <p>
+	 * Only positive powers of 2 allowed.
+	 */
+	static final int MIN_CAPACITY = 1024;
+
+	/**
+	 * Stored count of the bins whose count does not fit in an integer (their count is kept in largeCounts).
+	 * <p>
+	 * Only negative values allowed.
+	 */
+	static final int LARGE_COUNT = -1;
+
+	/**
+	 * Width of the bins. If 0, the bin of a sample is its integer part (truncation).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	double binWidth;
+
+	/**
+	 * Number of times that the bins have been merged (the index of a bin is shifted to the right this number of bits).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int level = 0;
+
+	/**
+	 * Number of samples counted.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long count = 0;
+
+	/**
+	 * Dense counts. The position 0 corresponds to the bin denseOffset. Null when the histogram is empty or uses the hash table.
+	 * <p>
+	 * Non-negative values and LARGE_COUNT allowed.
+	 */
+	int[] dense = null;
+
+	/**
+	 * Bin index of the first position of dense.
+	 * <p>
+	 * All values allowed.
+	 */
+	long denseOffset = 0;
+
+	/**
+	 * Bin indexes of the hash table. Null while the dense array is used.
+	 * <p>
+	 * All values allowed.
+	 */
+	long[] hashBins = null;
+
+	/**
+	 * Counts of the hash table (0 indicates an empty slot).
+	 * <p>
+	 * Non-negative values and LARGE_COUNT allowed.
+	 */
+	int[] hashCounts = null;
+
+	/**
+	 * Number of occupied slots of the hash table.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int hashUsed = 0;
+
+	/**
+	 * Counts of the bins stored as LARGE_COUNT, indexed by bin. Null while there are none.
+	 * <p>
+	 * Only counts greater than Integer.MAX_VALUE allowed.
+	 */
+	HashMap<Long, Long> largeCounts = null;
+
+	/**
+	 * Constructor of a histogram whose bins are the integer part of the samples.
+	 */
+	public Histogram(){
+		this(0);
+	}
+
+	/**
+	 * Constructor of a histogram with fixed-width bins.
+	 *
+	 * @param binWidth width of the bins (0 to use the integer part of the samples)
+	 */
+	public Histogram(double binWidth){
+		this.binWidth = binWidth;
+	}
+
+	/**
+	 * Computes the bin of a sample.
+	 *
+	 * @param sample the sample value
+	 * @return the bin index of the sample, before applying the merging level
+	 */
+	public long getBin(double sample){
+		return(binWidth > 0 ? (long)Math.floor(sample / binWidth): (long)sample);
+	}
+
+	/**
+	 * Counts a sample.
+	 *
+	 * @param sample the sample value
+	 */
+	public void add(double sample){
+		addBin(getBin(sample), 1);
+	}
+
+	/**
+	 * Counts an integer sample (avoiding its conversion to floating point when the bins are the integer values).
+	 *
+	 * @param sample the sample value
+	 * @param times number of times that the sample is counted
+	 */
+	public void addInteger(long sample, long times){
+		addBin(binWidth > 0 ? (long)Math.floor(sample / binWidth): sample, times);
+	}
+
+	/**
+	 * Counts samples of a bin.
+	 *
+	 * @param bin the bin index (as returned by getBin)
+	 * @param times number of samples to add to the bin
+	 */
+	public void addBin(long bin, long times){
+		addLevelBin(bin >> level, times);
+	}
+
+	/**
+	 * Counts samples of a bin whose index has the merging level of this histogram already applied.
+	 *
+	 * @param bin bin index
+	 * @param times number of samples to add to the bin
+	 */
+	void addLevelBin(long bin, long times){
+		count += times;
+		if(hashBins == null){
+			long pos = bin - denseOffset;
+			if((dense == null) || (pos < 0) || (pos >= dense.length)){
+				pos = growDense(bin) ? bin - denseOffset: -1;
+			}
+			if(pos >= 0){
+				dense[(int)pos] = addCount(bin, dense[(int)pos], times);
+				return;
+			}
+		}
+		hashAdd(bin, times);
+		while(hashUsed > MAX_BINS){
+			coarsen(1);
+		}
+	}
+
+	/**
+	 * Adds samples to a stored count, moving the count to largeCounts when it does not fit in an integer.
+	 *
+	 * @param bin bin index of the count
+	 * @param stored the stored count (0 if the bin is empty)
+	 * @param times number of samples to add
+	 * @return the new stored count
+	 */
+	int addCount(long bin, int stored, long times){
+		long total = getCount(bin, stored) + times;
+		if(total <= Integer.MAX_VALUE){
+			return((int)total);
+		}
+		if(largeCounts == null){
+			largeCounts = new HashMap<Long, Long>();
+		}
+		largeCounts.put(bin, total);
+		return(LARGE_COUNT);
+	}
+
+	/**
+	 * Returns the count of a bin from its stored count.
+	 *
+	 * @param bin bin index of the count
+	 * @param stored the stored count
+	 * @return the number of samples of the bin
+	 */
+	long getCount(long bin, int stored){
+		return(stored == LARGE_COUNT ? largeCounts.get(bin): stored);
+	}
+
+	/**
+	 * Grows the dense array to cover the given bin (at least doubling its size). If the dense array would be too large, the bins are moved to the hash table.
+	 *
+	 * @param bin bin index that must fit in the dense array
+	 * @return true if the dense array covers the bin, false if the hash table is used from now on
+	 */
+	boolean growDense(long bin){
+		//Far bins go to the hash table (this also avoids overflows computing the dense range)
+		if((bin > MAX_DENSE_INDEX) || (bin < -MAX_DENSE_INDEX)){
+			denseToHash();
+			return(false);
+		}
+		if(dense == null){
+			dense = new int[16];
+			denseOffset = bin;
+			return(true);
+		}
+		long low = Math.min(bin, denseOffset);
+		long high = Math.max(bin, denseOffset + dense.length - 1);
+		long needed = high - low + 1;
+		if((needed <= 0) || (needed > MAX_DENSE_BINS)){
+			denseToHash();
+			return(false);
+		}
+		long length = Math.min(Math.max(needed, 2L * dense.length), MAX_DENSE_BINS);
+		if(bin < denseOffset){
+			low = high - length + 1;
+		}
+		int[] newDense = new int[(int)length];
+		System.arraycopy(dense, 0, newDense, (int)(denseOffset - low), dense.length);
+		dense = newDense;
+		denseOffset = low;
+		return(true);
+	}
+
+	/**
+	 * Moves the bins of the dense array to the hash table.
+	 */
+	void denseToHash(){
+		int[] oldDense = dense;
+		HashMap<Long, Long> oldLarge = largeCounts;
+		dense = null;
+		largeCounts = null;
+		hashBins = new long[MIN_CAPACITY];
+		hashCounts = new int[MIN_CAPACITY];
+		hashUsed = 0;
+		if(oldDense != null){
+			for(int i = 0; i < oldDense.length; i++){
+				if(oldDense[i] != 0){
+					long bin = denseOffset + i;
+					hashAdd(bin, oldDense[i] == LARGE_COUNT ? oldLarge.get(bin): oldDense[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds samples to a bin of the hash table (linear probing). The table is grown up to MAX_CAPACITY, which always has free slots because the bins are merged as soon as there are more than MAX_BINS.
+	 *
+	 * @param bin bin index (with the merging level already applied)
+	 * @param times number of samples
+	 */
+	void hashAdd(long bin, long times){
+		int mask = hashBins.length - 1;
+		int slot = hash(bin) & mask;
+		while(hashCounts[slot] != 0){
+			if(hashBins[slot] == bin){
+				hashCounts[slot] = addCount(bin, hashCounts[slot], times);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		hashBins[slot] = bin;
+		hashCounts[slot] = addCount(bin, 0, times);
+		hashUsed++;
+		if((2 * hashUsed > hashBins.length) && (hashBins.length < MAX_CAPACITY)){
+			rehash(hashBins.length * 2, 0);
+		}
+	}
+
+	/**
+	 * Spreads the bits of a bin index.
+	 *
+	 * @param bin bin index
+	 * @return a hash code of the bin
+	 */
+	static int hash(long bin){
+		long h = bin * 0x9E3779B97F4A7C15L;
+		return((int)(h ^ (h >>> 32)));
+	}
+
+	/**
+	 * Rebuilds the hash table with another capacity, optionally shifting the bin indexes.
+	 *
+	 * @param capacity new capacity of the table (a power of 2)
+	 * @param shift number of bits to shift right the bin indexes
+	 */
+	void rehash(int capacity, int shift){
+		long[] oldBins = hashBins;
+		int[] oldCounts = hashCounts;
+		HashMap<Long, Long> oldLarge = largeCounts;
+		hashBins = new long[capacity];
+		hashCounts = new int[capacity];
+		hashUsed = 0;
+		largeCounts = null;
+		for(int i = 0; i < oldBins.length; i++){
+			if(oldCounts[i] != 0){
+				hashAdd(oldBins[i] >> shift, oldCounts[i] == LARGE_COUNT ? oldLarge.get(oldBins[i]): oldCounts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Merges adjacent bins, doubling the bin width the given number of times. The hash table is shrunk afterwards so it keeps a quarter of its slots occupied at most.
+	 *
+	 * @param times number of times that the bin width is doubled
+	 */
+	void coarsen(int times){
+		if(times <= 0){
+			return;
+		}
+		level += times;
+		if(hashBins == null){
+			denseToHash();
+		}
+		rehash(hashBins.length, times);
+		int capacity = MIN_CAPACITY;
+		while((capacity < 4 * hashUsed) && (capacity < MAX_CAPACITY)){
+			capacity *= 2;
+		}
+		if(capacity < hashBins.length){
+			rehash(capacity, 0);
+		}
+	}
+
+	/**
+	 * Merges another histogram into this one. If the bins have been merged a different number of times, the finest histogram is coarsened. This histogram is coarsened before adding the bins of the other one when together they would have more than MAX_BINS bins, so the table never grows beyond its limit while merging.
+	 *
+	 * @param other the histogram to be merged (it is not modified)
+	 */
+	public void merge(Histogram other){
+		if(other.count == 0){
+			return;
+		}
+		if(other.level > level){
+			coarsen(other.level - level);
+		}
+		long[] otherBins = other.getSortedBins();
+		while(getUsedBins() + countNewBins(otherBins, level - other.level) > MAX_BINS){
+			coarsen(1);
+		}
+		int shift = level - other.level;
+		for(int i = 0; i < otherBins.length; i++){
+			addLevelBin(otherBins[i] >> shift, other.getBinCount(otherBins[i]));
+		}
+	}
+
+	/**
+	 * Counts how many bins would be added to this histogram by some sorted bins of another histogram.
+	 *
+	 * @param bins bin indexes in increasing order
+	 * @param shift number of bits to shift right the bin indexes to get the level of this histogram
+	 * @return the number of distinct shifted bins without samples in this histogram
+	 */
+	int countNewBins(long[] bins, int shift){
+		int newBins = 0;
+		for(int i = 0; i < bins.length; i++){
+			long bin = bins[i] >> shift;
+			if(((i == 0) || ((bins[i - 1] >> shift) != bin)) && (getBinCount(bin) == 0)){
+				newBins++;
+			}
+		}
+		return(newBins);
+	}
+
+	/**
+	 * @return count definition in this class
+	 */
+	public long getCount(){
+		return(count);
+	}
+
+	/**
+	 * @return the number of bins with at least one sample
+	 */
+	public int getUsedBins(){
+		int used = 0;
+		if(hashBins != null){
+			used = hashUsed;
+		}else if(dense != null){
+			for(int i = 0; i < dense.length; i++){
+				if(dense[i] != 0){
+					used++;
+				}
+			}
+		}
+		return(used);
+	}
+
+	/**
+	 * @return the indexes of the bins with at least one sample, in increasing order
+	 */
+	long[] getSortedBins(){
+		long[] bins = new long[getUsedBins()];
+		int used = 0;
+		if(hashBins != null){
+			for(int i = 0; i < hashBins.length; i++){
+				if(hashCounts[i] != 0){
+					bins[used++] = hashBins[i];
+				}
+			}
+			Arrays.sort(bins);
+		}else if(dense != null){
+			for(int i = 0; i < dense.length; i++){
+				if(dense[i] != 0){
+					bins[used++] = denseOffset + i;
+				}
+			}
+		}
+		return(bins);
+	}
+
+	/**
+	 * Computes the entropy (in bits) of the histogram. Bins are visited in increasing order, so the result does not depend on the layout of the hash table.
+	 *
+	 * @return the entropy of the counted samples
+	 */
+	public double getEntropy(){
+		double entropy = 0.0D;
+		long[] bins = getSortedBins();
+		for(int i = 0; i < bins.length; i++){
+			double p = ((double)getBinCount(bins[i])) / count;
+			entropy -= p * Math.log(p);
+		}
+		return(entropy / Math.log(2.0D));
+	}
+
+	/**
+	 * Selects some quantiles from the bins, visited in increasing order. The quantile q is the lowest value of the first bin where the number of samples up to it reaches q times the number of samples (rounded up), so it is exact when the bins are the integer values and they have not been merged.
+	 *
+	 * @param fractions the quantiles to compute (between 0 and 1)
+	 * @return the value of each quantile (NaN if the histogram is empty)
+	 */
+	public double[] getQuantiles(double[] fractions){
+		double[] quantiles = new double[fractions.length];
+		Arrays.fill(quantiles, Double.NaN);
+		if(count == 0){
+			return(quantiles);
+		}
+		long[] bins = getSortedBins();
+		long[] ranks = new long[fractions.length];
+		for(int q = 0; q < fractions.length; q++){
+			ranks[q] = Math.max(1, Math.min(count, (long)Math.ceil(fractions[q] * count)));
+		}
+		long cumulative = 0;
+		for(int i = 0; i < bins.length; i++){
+			cumulative += getBinCount(bins[i]);
+			for(int q = 0; q < fractions.length; q++){
+				if(Double.isNaN(quantiles[q]) && (cumulative >= ranks[q])){
+					quantiles[q] = getBinValue(bins[i]);
+				}
+			}
+		}
+		return(quantiles);
+	}
+
+	/**
+	 * Adds the bins to a quantile sketch, each one as its lowest value repeated as many times as samples it has.
+	 *
+	 * @param sketch the sketch
+	 */
+	void addTo(QuantileSketch sketch){
+		if(hashBins != null){
+			for(int i = 0; i < hashBins.length; i++){
+				if(hashCounts[i] != 0){
+					sketch.add(getBinValue(hashBins[i]), getCount(hashBins[i], hashCounts[i]));
+				}
+			}
+		}else if(dense != null){
+			for(int i = 0; i < dense.length; i++){
+				if(dense[i] != 0){
+					sketch.add(getBinValue(denseOffset + i), getCount(denseOffset + i, dense[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the lowest value of a bin.
+	 *
+	 * @param bin bin index (with the merging level already applied)
+	 * @return the lowest sample value of the bin
+	 */
+	public double getBinValue(long bin){
+		double value = (double)(bin << level);
+		return(binWidth > 0 ? value * binWidth: value);
+	}
+
+	/**
+	 * Writes the histogram so it can be read back with read: bin width, merging level, number of bins with at least one sample and, if there is any, the first bin. When the bins are dense (their range is less than twice their number) the count of each bin of the range is written; otherwise, the distance from each bin to the previous one and its count. Counts and distances are written as variable-length integers, so an 8-bit histogram takes a few hundred bytes.
+	 *
+	 * @param out the output where the histogram is written
+	 * @throws IOException when the histogram cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		long[] bins = getSortedBins();
+		out.writeDouble(binWidth);
+		out.writeInt(level);
+		out.writeInt(bins.length);
+		if(bins.length == 0){
+			return;
+		}
+		long first = bins[0];
+		long range = bins[bins.length - 1] - first;
+		boolean dense = (range >= 0) && (range < 2L * bins.length);
+		out.writeLong(first);
+		out.writeBoolean(dense);
+		if(dense){
+			writeVarLong(out, range);
+			for(long i = 0; i <= range; i++){
+				writeVarLong(out, getBinCount(first + i));
+			}
+		}else{
+			writeVarLong(out, getBinCount(first));
+			for(int i = 1; i < bins.length; i++){
+				//The distance between two bins fits in 64 bits when it is read as an unsigned number
+				writeVarLong(out, bins[i] - bins[i - 1]);
+				writeVarLong(out, getBinCount(bins[i]));
+			}
+		}
+	}
+
+	/**
+	 * Reads a histogram written with write.
+	 *
+	 * @param in the input where the histogram is read
+	 * @return the histogram
+	 * @throws IOException when the histogram cannot be read
+	 */
+	public static Histogram read(DataInput in) throws IOException{
+		Histogram histogram = new Histogram(in.readDouble());
+		histogram.level = in.readInt();
+		int usedBins = in.readInt();
+		if((histogram.level < 0) || (usedBins < 0) || (usedBins > MAX_BINS)){
+			throw new IOException("Malformed histogram.");
+		}
+		if(usedBins == 0){
+			return(histogram);
+		}
+		long bin = in.readLong();
+		if(in.readBoolean()){
+			long range = readVarLong(in);
+			if((range < 0) || (range >= 2L * usedBins)){
+				throw new IOException("Malformed histogram.");
+			}
+			for(long i = 0; i <= range; i++){
+				long binCount = readVarLong(in);
+				if(binCount < 0){
+					throw new IOException("Malformed histogram.");
+				}
+				if(binCount > 0){
+					histogram.addLevelBin(bin + i, binCount);
+				}
+			}
+		}else{
+			for(int i = 0; i < usedBins; i++){
+				if(i > 0){
+					bin += readVarLong(in);
+				}
+				long binCount = readVarLong(in);
+				if(binCount <= 0){
+					throw new IOException("Malformed histogram.");
+				}
+				histogram.addLevelBin(bin, binCount);
+			}
+		}
+		if(histogram.getUsedBins() != usedBins){
+			throw new IOException("Malformed histogram.");
+		}
+		return(histogram);
+	}
+
+	/**
+	 * Writes a number as a variable-length integer (7 bits per byte, the lowest first; the highest bit of a byte indicates that more bytes follow). Negative numbers are written as unsigned ones.
+	 *
+	 * @param out the output where the number is written
+	 * @param value the number
+	 * @throws IOException when the number cannot be written
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException{
+		while((value & ~0x7FL) != 0){
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	/**
+	 * Reads a number written with writeVarLong.
+	 *
+	 * @param in the input where the number is read
+	 * @return the number
+	 * @throws IOException when the number cannot be read
+	 */
+	static long readVarLong(DataInput in) throws IOException{
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= ((long)(b & 0x7F)) << shift;
+			if((b & 0x80) == 0){
+				return(value);
+			}
+		}
+		throw new IOException("Malformed histogram.");
+	}
+
+	/**
+	 * Returns the number of samples of a bin.
+	 *
+	 * @param bin bin index (with the merging level already applied)
+	 * @return the count of the bin
+	 */
+	long getBinCount(long bin){
+		if(hashBins == null){
+			long pos = bin - denseOffset;
+			return(((dense != null) && (pos >= 0) && (pos < dense.length)) ? getCount(bin, dense[(int)pos]): 0);
+		}
+		int mask = hashBins.length - 1;
+		int slot = hash(bin) & mask;
+		while(hashCounts[slot] != 0){
+			if(hashBins[slot] == bin){
+				return(getCount(bin, hashCounts[slot]));
+			}
+			slot = (slot + 1) & mask;
+		}
+		return(0);
+	}
+}
@@ -25,6 +25,8 @@
  * gici-info@deic.uab.es
  */
 package GiciAnalysis;
+import GiciFile.ArrayImageSamples;
+import GiciFile.ImageSamples;
 
 
 /**
@@ -34,7 +36,17 @@ package GiciAnalysis;
  * @version 1.0
  */
 public class ImageStatistical{
-	
+
+	/**
+	 * Statistics that can be selected to be computed. They can be combined with the OR operator.
+	 */
+	public static final int MIN_MAX = 1, AVERAGE = 2, CENTER_RANGE = 4, COUNTED_VALUES = 8, ENERGY = 16, VARIANCE = 32, ENTROPY = 64, QUANTILES = 128, MOMENTS = 256;
+
+	/**
+	 * All the statistics.
+	 */
+	public static final int ALL = MIN_MAX | AVERAGE | CENTER_RANGE | COUNTED_VALUES | ENERGY | VARIANCE | ENTROPY | QUANTILES | MOMENTS;
+
 	/**
 	 * Array where min (minMax[component][0]) and max (minMax[component][1]) values of each component will be stored.
 	 * <p>
@@ -82,7 +94,7 @@ public class ImageStatistical{
 	 * <p>
 	 * All values allowed-
 	 */
-	int[][] countedValues = null;
+	long[][] countedValues = null;
 	
 	/**
 	 * Energy of each component.
@@ -113,280 +125,237 @@ public class ImageStatistical{
 	double totalVariance = 0;
 	
 	/**
-	 * Histogram of image.
-	 * <p>
-	 * Only values between the mininum and maximum values of the image are allowed.
+	 * Entropy of the image.
 	 */
-	int hist[][] = null;
+	double entropy[] = null;
 	
 	/**
-	 * Histogram of whole image
+	 * Entropy of whole image.
+	 */
+	double totalEntropy = 0.0D;
+
+	/**
+	 * Skewness of each component.
 	 * <p>
-	 * Only values between the mininum and maximum values of the image are allowed.
+	 * All values allowed (NaN if all the samples are equal).
 	 */
-	int totalHist[] = null;
-	
+	double skewness[] = null;
+
 	/**
-	 * Entropy of the image.
+	 * Skewness of whole image.
+	 * <p>
+	 * All values allowed.
 	 */
-	double entropy[] = null;
-	
+	double totalSkewness = 0;
+
 	/**
-	 * Entropy of whole image.
+	 * Excess kurtosis of each component.
+	 * <p>
+	 * All values allowed (NaN if all the samples are equal).
 	 */
-	double totalEntropy = 0.0D;
+	double kurtosis[] = null;
+
+	/**
+	 * Excess kurtosis of whole image.
+	 * <p>
+	 * All values allowed.
+	 */
+	double totalKurtosis = 0;
+
+	/**
+	 * Accumulators of each component, kept to compute the quantiles that are asked for (see getQuantiles).
+	 * <p>
+	 * Null if quantiles are not computed.
+	 */
+	StatisticalAccumulator[] quantileAccumulators = null;
+
+	/**
+	 * Accumulator of whole image, kept to compute its quantiles.
+	 * <p>
+	 * Null if quantiles are not computed.
+	 */
+	StatisticalAccumulator totalQuantileAccumulator = null;
 	
 	/**
-	 * Constructor that does all the operations to calculate min and max, average and center range of the image.
+	 * Constructor that does all the operations to calculate min and max, average and center range of the image. All the statistics are computed in a single pass over the samples using all the available processors.
 	 *
 	 * @param imageSamples a 3D float array that contains image samples
 	 */
 	public ImageStatistical(float[][][] imageSamples){
-		//Size set
-		int zSize = imageSamples.length;
-		int ySize = imageSamples[0].length;
-		int xSize = imageSamples[0][0].length;
+		this(imageSamples, 0);
+	}
+
+	/**
+	 * Constructor that does all the operations to calculate min and max, average and center range of the image. All the statistics are computed in a single pass over the samples, split in tiles that are computed in parallel.
+	 *
+	 * @param imageSamples a 3D float array that contains image samples
+	 * @param threads number of threads used to compute the statistics (0 uses all the available processors)
+	 */
+	public ImageStatistical(float[][][] imageSamples, int threads){
+		this(imageSamples, ALL, threads);
+	}
+
+	/**
+	 * Constructor that calculates only the selected statistics of the image. The arrays of the statistics that are not selected are not allocated (their get functions return null).
+	 *
+	 * @param imageSamples a 3D float array that contains image samples
+	 * @param mask statistics to compute (a combination of MIN_MAX, AVERAGE, CENTER_RANGE, COUNTED_VALUES, ENERGY, VARIANCE, ENTROPY, QUANTILES and MOMENTS)
+	 * @param threads number of threads used to compute the statistics (0 uses all the available processors)
+	 */
+	public ImageStatistical(float[][][] imageSamples, int mask, int threads){
+		this(imageSamples, mask, threads, 0);
+	}
+
+	/**
+	 * Constructor that calculates only the selected statistics of the image, using histogram bins of a fixed width to compute the entropy.
+	 *
+	 * @param imageSamples a 3D float array that contains image samples
+	 * @param mask statistics to compute (a combination of MIN_MAX, AVERAGE, CENTER_RANGE, COUNTED_VALUES, ENERGY, VARIANCE, ENTROPY, QUANTILES and MOMENTS)
+	 * @param threads number of threads used to compute the statistics (0 uses all the available processors)
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 */
+	public ImageStatistical(float[][][] imageSamples, int mask, int threads, double binWidth){
+		StatisticalEngine engine = new StatisticalEngine(mask, threads, binWidth);
+		setStatistics(engine.compute(imageSamples), engine);
+	}
+
+	/**
+	 * Constructor that calculates only the selected statistics of the image reading the samples in their native type (integer samples are accumulated with exact integer arithmetic).
+	 *
+	 * @param image the image samples
+	 * @param mask statistics to compute (a combination of MIN_MAX, AVERAGE, CENTER_RANGE, COUNTED_VALUES, ENERGY, VARIANCE, ENTROPY, QUANTILES and MOMENTS)
+	 * @param threads number of threads used to compute the statistics (0 uses all the available processors)
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 */
+	public ImageStatistical(ImageSamples image, int mask, int threads, double binWidth){
+		StatisticalEngine engine = new StatisticalEngine(mask, threads, binWidth);
+		setStatistics(engine.compute(image), engine);
+	}
+
+	/**
+	 * Constructor that sets the statistics from the accumulators of the image components computed by an engine (for instance, with a {@link StatisticalStream}).
+	 *
+	 * @param accumulators an array with the statistical accumulator of each component
+	 * @param engine the engine that computed the accumulators
+	 */
+	public ImageStatistical(StatisticalAccumulator[] accumulators, StatisticalEngine engine){
+		setStatistics(accumulators, engine);
+	}
+
+	/**
+	 * Sets the selected statistics of the image from the accumulators of its components.
+	 *
+	 * @param accumulators an array with the statistical accumulator of each component
+	 * @param engine the engine that computed the accumulators
+	 */
+	void setStatistics(StatisticalAccumulator[] accumulators, StatisticalEngine engine){
+		int mask = engine.mask;
+		int zSize = accumulators.length;
+		boolean minMaxSelected = (mask & (MIN_MAX | CENTER_RANGE)) != 0;
+		boolean averageSelected = (mask & AVERAGE) != 0;
+		boolean centerRangeSelected = (mask & CENTER_RANGE) != 0;
+		boolean countedValuesSelected = (mask & COUNTED_VALUES) != 0;
+		boolean energySelected = (mask & ENERGY) != 0;
+		boolean varianceSelected = (mask & VARIANCE) != 0;
+		boolean entropySelected = (mask & ENTROPY) != 0;
+		boolean quantilesSelected = (mask & QUANTILES) != 0;
+		boolean momentsSelected = (mask & MOMENTS) != 0;
 
 		//Memory allocation
-		minMax = new double[zSize][2];
-		average = new double[zSize];
-		centerRange = new double[zSize];
-		totalMinMax = new double[2];
-		countedValues = new int[zSize][256];
-		energy = new double[zSize];
-		variance = new double[zSize];
-		//Initializations
-		totalMinMax[0] = Float.POSITIVE_INFINITY;
-		totalMinMax[1] = Float.NEGATIVE_INFINITY;
-		for(int z = 0; z < zSize; z++){
-			minMax[z][0] = Float.POSITIVE_INFINITY;
-			minMax[z][1] = Float.NEGATIVE_INFINITY;
-			average[z] = 0;
-			energy[z] = 0;
-			variance[z] = 0;
+		if(minMaxSelected){
+			minMax = new double[zSize][2];
+			totalMinMax = new double[2];
 		}
-		
-		
-		//Calculus
+		if(averageSelected) average = new double[zSize];
+		if(centerRangeSelected) centerRange = new double[zSize];
+		if(countedValuesSelected) countedValues = new long[zSize][];
+		if(energySelected) energy = new double[zSize];
+		if(varianceSelected) variance = new double[zSize];
+		if(entropySelected) entropy = new double[zSize];
+		if(momentsSelected){
+			skewness = new double[zSize];
+			kurtosis = new double[zSize];
+		}
+
+		//Components
+		StatisticalAccumulator total = new StatisticalAccumulator(mask & (MIN_MAX | CENTER_RANGE | VARIANCE | ENTROPY | QUANTILES | MOMENTS), engine.binWidth, engine.rankError);
 		for(int z = 0; z < zSize; z++){
-			for(int y = 0; y < ySize; y++){
-				for(int x = 0; x < xSize; x++){
-					energy[z] += (imageSamples[z][y][x] * imageSamples[z][y][x]);
-					//to count values
-					if(Math.abs(imageSamples[z][y][x]) < 256){
-						countedValues[z][(int)Math.abs(imageSamples[z][y][x])]++;
-					}
-					//Min and max
-					if(imageSamples[z][y][x] < minMax[z][0]){
-						minMax[z][0] = imageSamples[z][y][x];
-						if(imageSamples[z][y][x] < totalMinMax[0]){
-							totalMinMax[0] = imageSamples[z][y][x];
-						}
-					}
-					if(imageSamples[z][y][x] > minMax[z][1]){
-						minMax[z][1] = imageSamples[z][y][x];
-						if(imageSamples[z][y][x] > totalMinMax[1]){
-							totalMinMax[1] = imageSamples[z][y][x];
-						}
-					}
-					//Average
-					average[z] += imageSamples[z][y][x];
-				}
+			if(minMaxSelected){
+				minMax[z][0] = accumulators[z].getMin();
+				minMax[z][1] = accumulators[z].getMax();
 			}
-			average[z] /= (xSize*ySize);
-			
-				
-			for(int y = 0; y < ySize; y++){
-				for(int x = 0; x < xSize; x++){
-					variance[z] += ((imageSamples[z][y][x] - average[z]) * (imageSamples[z][y][x] - average[z]));
-				}
+			if(averageSelected) average[z] = accumulators[z].getAverage();
+			if(centerRangeSelected) centerRange[z] = (minMax[z][0] + minMax[z][1]) / 2;
+			if(countedValuesSelected) countedValues[z] = accumulators[z].getCountedValues();
+			if(energySelected) energy[z] = accumulators[z].getEnergy();
+			if(varianceSelected) variance[z] = accumulators[z].getVariance();
+			if(entropySelected) entropy[z] = accumulators[z].getEntropy();
+			if(momentsSelected){
+				skewness[z] = accumulators[z].getSkewness();
+				kurtosis[z] = accumulators[z].getKurtosis();
 			}
-			variance[z] /= (imageSamples[z].length * imageSamples[z][0].length);
-		}
-		
-		//centerRange, totalVariance
-		for(int z = 0; z < zSize; z++){
-			centerRange[z] = (minMax[z][0] + minMax[z][1]) / 2;
+			total.merge(accumulators[z]);
 		}
-		
+
 		//Totals
+		if(minMaxSelected){
+			totalMinMax[0] = total.getMin();
+			totalMinMax[1] = total.getMax();
+		}
 		totalAverage = 0F;
 		totalCenterRange = 0F;
+		totalEnergy = 0;
 		for(int z = 0; z < zSize; z++){
-			totalAverage += average[z];
-			totalCenterRange += centerRange[z];
-			totalEnergy += energy[z];
+			if(averageSelected) totalAverage += average[z];
+			if(centerRangeSelected) totalCenterRange += centerRange[z];
+			if(energySelected) totalEnergy += energy[z];
 		}
 		totalAverage /= zSize;
 		totalCenterRange /= zSize;
-		
-		// Histogram, totalVariance
-		hist = new int[zSize][];
-		totalHist = new int[(int)totalMinMax[1] - (int)totalMinMax[0] + 1];
-		int totalMin = (int)totalMinMax[0];
-		for(int z = 0; z < zSize; z++) {
-			int min = (int)minMax[z][0];
-			hist[z] = new int[(int)minMax[z][1] - (int)minMax[z][0] + 1];
-			for (int i = 0; i < hist[z].length; i++) {
-				hist[z][i] = 0;
-			}
-			for(int y = 0; y < ySize; y++) {
-				for(int x = 0; x < xSize; x++){
-					totalVariance += (imageSamples[z][y][x] - totalAverage) * (imageSamples[z][y][x] - totalAverage);
-					hist[z][(int)imageSamples[z][y][x]-min]++;
-					totalHist[(int)imageSamples[z][y][x]-totalMin]++;
-				}
-			}
+		if(varianceSelected) totalVariance = total.getVariance();
+		if(entropySelected) totalEntropy = total.getEntropy();
+		if(momentsSelected){
+			totalSkewness = total.getSkewness();
+			totalKurtosis = total.getKurtosis();
 		}
-		totalVariance /= (imageSamples.length * imageSamples[0].length * imageSamples[0][0].length);
-		
-		// Entropy
-		entropy = new double[zSize];
-		for(int z = 0; z < zSize; z++) {
-			entropy[z] = 0.0D;
-			for (int i = 0; i < hist[z].length; i++) {
-				double p = ((double)hist[z][i]) / (ySize*xSize);
-				if (p > 0.0D) {
-					entropy[z] -= p * Math.log(p);
-				}
-			}
-			entropy[z] /= Math.log(2.0D);		
-		}
-		
-		totalEntropy = 0.0D;
-		for (int i = 0; i < totalHist.length; i++) {
-			double totalP = ((double)totalHist[i]) / (zSize*ySize*xSize);
-			if (totalP > 0.0D) {
-				totalEntropy -= totalP * Math.log(totalP);
-			}
+		if(quantilesSelected){
+			quantileAccumulators = accumulators;
+			totalQuantileAccumulator = total;
 		}
-		totalEntropy /= Math.log(2);
-
 	}
 
 	/**
-	 * Constructor that does all the operations to calculate min and max, average and center range of the image.
+	 * Constructor that does all the operations to calculate min and max, average and center range of an integer image. The samples are copied to a container of 4 bytes integers, so sums are computed with exact integer arithmetic.
 	 *
-	 * @param imageSamples a 3D float array that contains image samples
+	 * @param imageSamples a 3D integer array that contains image samples
 	 */
 	public ImageStatistical(int[][][] imageSamples){
-		//Size set
+		this(toImageSamples(imageSamples), ALL, 0, 0);
+	}
+
+	/**
+	 * Copies a 3D integer array to an image container of 4 bytes integers.
+	 *
+	 * @param imageSamples a 3D integer array that contains image samples
+	 * @return the image container
+	 */
+	static ImageSamples toImageSamples(int[][][] imageSamples){
 		int zSize = imageSamples.length;
 		int ySize = imageSamples[0].length;
 		int xSize = imageSamples[0][0].length;
-
-		//Memory allocation
-		minMax = new double[zSize][2];
-		countedValues = new int[zSize][256];
-		average = new double[zSize];
-		centerRange = new double[zSize];
-		totalMinMax = new double[2];
-		double E[] = new double[zSize];
-		double totalE = 0;
-		//Initializations
-		totalMinMax[0] = Float.POSITIVE_INFINITY;
-		totalMinMax[1] = Float.NEGATIVE_INFINITY;
+		ArrayImageSamples image = new ArrayImageSamples(zSize, ySize, xSize, 4);
 		for(int z = 0; z < zSize; z++){
-			minMax[z][0] = Float.POSITIVE_INFINITY;
-			minMax[z][1] = Float.NEGATIVE_INFINITY;
-			average[z] = 0;
-			E[z] = 0;
-		}
-		//Calculus
-		for(int z = 0; z < zSize; z++){
-			for(int y = 0; y < ySize; y++){
-				for(int x = 0; x < xSize; x++){
-					energy[z] += (imageSamples[z][y][x] * imageSamples[z][y][x]);
-					//to count values
-					countedValues[z][(int)imageSamples[z][y][x]]++;
-					//Min and max
-					if(imageSamples[z][y][x] < minMax[z][0]){
-						minMax[z][0] = imageSamples[z][y][x];
-						if(imageSamples[z][y][x] < totalMinMax[0]){
-							totalMinMax[0] = imageSamples[z][y][x];
-						}
-					}
-					if(imageSamples[z][y][x] > minMax[z][1]){
-						minMax[z][1] = imageSamples[z][y][x];
-						if(imageSamples[z][y][x] > totalMinMax[1]){
-							totalMinMax[1] = imageSamples[z][y][x];
-						}
-					}
-					//Average
-					average[z] += (imageSamples[z][y][x] / (xSize*ySize));
-				}
-
-			}
-			E[z] /= (imageSamples[z].length * imageSamples[z][0].length);
-			totalE += E[z];
-			
 			for(int y = 0; y < ySize; y++){
-				for(int x = 0; x < xSize; x++){
-					variance[z] = (imageSamples[z][y][x] - E[z]) * (imageSamples[z][y][x] - E[z]);
-				}
+				System.arraycopy(imageSamples[z][y], 0, (int[]) image.getRowArray(z, y), image.getRowOffset(z, y), xSize);
 			}
-			variance[z] /= (imageSamples[z].length * imageSamples[z][0].length);
 		}
-		totalE /= zSize;
-		
-		//centerRange, totalVariance, hist
-		hist = new int[zSize][];
-		totalHist = new int[(int)totalMinMax[1] - (int)totalMinMax[0] + 1];
-		int totalMin = (int)totalMinMax[0];
-		for(int z = 0; z < zSize; z++){
-			int min = (int)minMax[z][0];
-			hist[z] = new int[(int)minMax[z][1] - (int)minMax[z][0] + 1];
-			for (int i = 0; i < hist[z].length; i++) {
-				hist[z][i] = 0;
-			}
-			centerRange[z] = (minMax[z][0] + minMax[z][1]) / 2;
-			for(int y = 0; y < ySize; y++){
-				for(int x = 0; x < xSize; x++){
-					totalVariance = (imageSamples[z][y][x] - totalE) * (imageSamples[z][y][x] - totalE);
-					hist[z][imageSamples[z][y][x]-min]++;
-					totalHist[(int)imageSamples[z][y][x]-totalMin]++;
-				}
-			}
-		}
-		
-		// Entropy
-		entropy = new double[zSize];
-		for(int z = 0; z < zSize; z++) {
-			entropy[z] = 0.0D;
-			for (int i = 0; i < hist[z].length; i++) {
-				double p = ((double)hist[z][i]) / (ySize*xSize);
-				if (p > 0.0D) {
-					entropy[z] -= p * Math.log(p);
-				}
-			}
-			entropy[z] /= Math.log(2.0D);
-		}
-		
-		totalEntropy = 0.0D;
-		for (int i = 0; i < totalHist.length; i++) {
-			double totalP = ((double)totalHist[i]) / (zSize*ySize*xSize);
-			if (totalP > 0.0D) {
-				totalEntropy -= totalP * Math.log(totalP);
-			}
-		}
-		totalEntropy /= Math.log(2);
-				
-		//Totals
-		totalAverage = 0F;
-		totalCenterRange = 0F;
-		for(int z = 0; z < zSize; z++){
-			totalAverage += average[z];
-			totalCenterRange += centerRange[z];
-			totalEnergy += energy[z];
-		}
-		totalAverage /= zSize;
-		totalCenterRange /= zSize;
-		totalVariance /= (imageSamples.length * imageSamples[0].length * imageSamples[0][0].length);
+		return(image);
 	}
+
 	/**
 	 * @return countedValues definition in this class
 	 */
-	public int[][] getcountedValues(){
+	public long[][] getcountedValues(){
 		return(countedValues);
 	}
 	
@@ -473,4 +442,70 @@ public class ImageStatistical{
 	public double getTotalEntropy() {
 		return(totalEntropy);
 	}
+
+	/**
+	 * @return skewness definition in this class
+	 */
+	public double[] getSkewness(){
+		return(skewness);
+	}
+
+	/**
+	 * @return totalSkewness definition in this class
+	 */
+	public double getTotalSkewness(){
+		return(totalSkewness);
+	}
+
+	/**
+	 * @return kurtosis definition in this class
+	 */
+	public double[] getKurtosis(){
+		return(kurtosis);
+	}
+
+	/**
+	 * @return totalKurtosis definition in this class
+	 */
+	public double getTotalKurtosis(){
+		return(totalKurtosis);
+	}
+
+	/**
+	 * Computes some quantiles of each component (see {@link StatisticalAccumulator#getQuantiles}).
+	 *
+	 * @param fractions the quantiles to compute (between 0 and 1, for instance 0.5 for the median)
+	 * @return the value of each quantile of each component (index meaning [component][quantile]), or null if quantiles are not computed
+	 */
+	public double[][] getQuantiles(double[] fractions){
+		if(quantileAccumulators == null){
+			return(null);
+		}
+		double[][] quantiles = new double[quantileAccumulators.length][];
+		for(int z = 0; z < quantileAccumulators.length; z++){
+			quantiles[z] = quantileAccumulators[z].getQuantiles(fractions);
+		}
+		return(quantiles);
+	}
+
+	/**
+	 * Computes some quantiles of a component.
+	 *
+	 * @param z the component
+	 * @param fractions the quantiles to compute (between 0 and 1)
+	 * @return the value of each quantile, or null if quantiles are not computed
+	 */
+	public double[] getQuantiles(int z, double[] fractions){
+		return(quantileAccumulators != null ? quantileAccumulators[z].getQuantiles(fractions): null);
+	}
+
+	/**
+	 * Computes some quantiles of whole image.
+	 *
+	 * @param fractions the quantiles to compute (between 0 and 1)
+	 * @return the value of each quantile, or null if quantiles are not computed
+	 */
+	public double[] getTotalQuantiles(double[] fractions){
+		return(totalQuantileAccumulator != null ? totalQuantileAccumulator.getQuantiles(fractions): null);
+	}
 }
@@ -0,0 +1,129 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+
+/**
+ * This class is an exact sum of integers, kept as a 128-bit two's complement integer (a pair of longs), so the sum and the energy of integer samples do not lose precision whatever the number of samples is. It is only converted to floating point when the result is shown.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class IntegerSum{
+
+	/**
+	 * Highest 64 bits of the sum (with its sign).
+	 * <p>
+	 * All values allowed.
+	 */
+	long high = 0;
+
+	/**
+	 * Lowest 64 bits of the sum (unsigned).
+	 * <p>
+	 * All values allowed.
+	 */
+	long low = 0;
+
+	/**
+	 * Adds a number to the sum.
+	 *
+	 * @param value the number
+	 */
+	public void add(long value){
+		add(value >> 63, value);
+	}
+
+	/**
+	 * Adds a 128-bit number to the sum.
+	 *
+	 * @param valueHigh highest 64 bits of the number (with its sign)
+	 * @param valueLow lowest 64 bits of the number (unsigned)
+	 */
+	public void add(long valueHigh, long valueLow){
+		long newLow = low + valueLow;
+		//There is a carry when the unsigned addition overflows
+		high += valueHigh + (Long.compareUnsigned(newLow, low) < 0 ? 1: 0);
+		low = newLow;
+	}
+
+	/**
+	 * Adds another sum to this one.
+	 *
+	 * @param other the sum to be added
+	 */
+	public void add(IntegerSum other){
+		add(other.high, other.low);
+	}
+
+	/**
+	 * @return the sum as a BigInteger
+	 */
+	public BigInteger toBigInteger(){
+		return(BigInteger.valueOf(high).shiftLeft(64).add(new BigInteger(Long.toUnsignedString(low))));
+	}
+
+	/**
+	 * @return the sum, rounded to the nearest double
+	 */
+	public double doubleValue(){
+		//When the sum fits in a long it is converted directly
+		if(high == (low >> 63)){
+			return((double)low);
+		}
+		return(toBigInteger().doubleValue());
+	}
+
+	/**
+	 * Writes the sum so it can be read back with read.
+	 *
+	 * @param out the output where the sum is written
+	 * @throws IOException when the sum cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeLong(high);
+		out.writeLong(low);
+	}
+
+	/**
+	 * Reads a sum written with write.
+	 *
+	 * @param in the input where the sum is read
+	 * @return the sum
+	 * @throws IOException when the sum cannot be read
+	 */
+	public static IntegerSum read(DataInput in) throws IOException{
+		IntegerSum sum = new IntegerSum();
+		sum.high = in.readLong();
+		sum.low = in.readLong();
+		return(sum);
+	}
+}
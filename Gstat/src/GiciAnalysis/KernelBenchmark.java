@@ -0,0 +1,238 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.util.Random;
+
+
+/**
+ * Benchmark of the row kernels. Rows of random samples are reduced on one core with the scalar loops of {@link StatisticalAccumulator} and with the vector kernels (when the module jdk.incubator.vector is available), and the throughput of each path is printed in GB/s. The baseline is the original per-sample loop of ImageStatistical (min, max, average, energy and counted values in one pass over the float image, then the variance in a second pass), run over the same samples already converted to float as the original image loader did; the conversion is not timed. Before measuring, the results of the scalar loops and the vector kernels are checked to be identical on some rows (including rows with NaN samples).<br>
+ * Usage: java --add-modules jdk.incubator.vector -cp Gstat.jar GiciAnalysis.KernelBenchmark [rowLength [megabytes [repetitions]]]
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class KernelBenchmark{
+
+	/**
+	 * Statistics computed in the benchmark (the ones reduced by the kernels).
+	 */
+	static final int MASK = StatisticalAccumulator.REDUCED;
+
+	/**
+	 * Main method of the benchmark.
+	 *
+	 * @param args row length (samples), size of the data of each type (megabytes) and number of repetitions
+	 */
+	public static void main(String[] args){
+		int rowLength = args.length > 0 ? Integer.parseInt(args[0]): 4096;
+		int megabytes = args.length > 1 ? Integer.parseInt(args[1]): 64;
+		int repetitions = args.length > 2 ? Integer.parseInt(args[2]): 10;
+		RowKernels vector = StatisticalAccumulator.loadKernels();
+		if(vector == null){
+			System.out.println("Vector kernels not available (run with --add-modules jdk.incubator.vector). Only the baseline and the scalar loops are measured.");
+		}else{
+			String failed = check(vector);
+			System.out.println("CHECK : " + (failed == null ? "vector kernels give the same results as the scalar loops": "FAILED in " + failed));
+		}
+
+		//Random samples of each type (the same bytes for all of them)
+		Random random = new Random(0);
+		byte[] bytes = new byte[megabytes << 20];
+		random.nextBytes(bytes);
+		short[] shorts = new short[bytes.length / 2];
+		for(int i = 0; i < shorts.length; i++){
+			shorts[i] = (short) random.nextInt();
+		}
+		float[] floats = new float[bytes.length / 4];
+		for(int i = 0; i < floats.length; i++){
+			floats[i] = (float) random.nextGaussian() * 1000F;
+		}
+
+		String[] names = {"byte", "char", "short", "float"};
+		Object[] arrays = {bytes, shorts, shorts, floats};
+		int[] sampleTypes = {1, 2, 3, 6};
+		int[] sampleBytes = {1, 2, 2, 4};
+		float[] widened = new float[floats.length];
+		System.out.println("BASELINE : original per-sample loops of ImageStatistical over float samples (GB/s of the sample type); SPEEDUP is the fastest current path over the baseline");
+		System.out.println("TYPE  : BASELINE GB/s : SCALAR GB/s : VECTOR GB/s : SPEEDUP");
+		for(int t = 0; t < names.length; t++){
+			int samples = bytes.length / sampleBytes[t];
+			//The baseline is measured over the first samples (as many as fit in the float array)
+			for(int i = 0; i < widened.length; i++){
+				switch(sampleTypes[t]){
+				case 1:
+					widened[i] = bytes[i] & 0xFF;
+					break;
+				case 2:
+					widened[i] = shorts[i] & 0xFFFF;
+					break;
+				case 3:
+					widened[i] = shorts[i];
+					break;
+				default:
+					widened[i] = floats[i];
+				}
+			}
+			double originalRate = measureOriginal(widened, rowLength, repetitions) * sampleBytes[t];
+			double scalarRate = measure(arrays[t], samples, sampleTypes[t], rowLength, repetitions, null) * sampleBytes[t];
+			double vectorRate = vector != null ? measure(arrays[t], samples, sampleTypes[t], rowLength, repetitions, vector) * sampleBytes[t]: 0;
+			System.out.println(names[t] + "\t: " + (float) originalRate + "\t: " + (float) scalarRate + "\t: " + (vector != null ? Float.toString((float) vectorRate): "-") + "\t: " + (float)(Math.max(scalarRate, vectorRate) / originalRate));
+		}
+	}
+
+	/**
+	 * Checks that the vector kernels give the same minimum, maximum, average, energy and variance (bit by bit) as the scalar loops in some rows: random rows whose length is not a multiple of the vector length, rows with a NaN sample in the vectorized part and in the remainder, a row whose first sample is NaN and a row of NaN samples.
+	 *
+	 * @param vector the vector kernels
+	 * @return the name of the first row where the results differ, or null if all of them are the same
+	 */
+	static String check(RowKernels vector){
+		Random random = new Random(1);
+		int length = 1000 + 7;
+		String[] names = {"random", "NaN in the vectorized part", "NaN in the remainder", "NaN first sample", "only NaN"};
+		for(int c = 0; c < names.length; c++){
+			float[] row = new float[length];
+			for(int x = 0; x < length; x++){
+				row[x] = c == 4 ? Float.NaN: (float) random.nextGaussian() * 1000F;
+			}
+			if(c == 1){
+				row[length / 2] = Float.NaN;
+			}else if(c == 2){
+				row[length - 1] = Float.NaN;
+			}else if(c == 3){
+				row[0] = Float.NaN;
+			}
+			StatisticalAccumulator scalarAccumulator = new StatisticalAccumulator(MASK);
+			scalarAccumulator.setKernels(null);
+			StatisticalAccumulator vectorAccumulator = new StatisticalAccumulator(MASK);
+			vectorAccumulator.setKernels(vector);
+			//Two rows, so the running min and max are also compared
+			for(int r = 0; r < 2; r++){
+				scalarAccumulator.addRow(row, 0, length);
+				vectorAccumulator.addRow(row, 0, length);
+			}
+			//Sums are compared bit by bit, since both paths add the samples in the same order
+			if((Double.compare(scalarAccumulator.getMin(), vectorAccumulator.getMin()) != 0) || (Double.compare(scalarAccumulator.getMax(), vectorAccumulator.getMax()) != 0)
+			|| (Double.compare(scalarAccumulator.getAverage(), vectorAccumulator.getAverage()) != 0) || (Double.compare(scalarAccumulator.getEnergy(), vectorAccumulator.getEnergy()) != 0)
+			|| (Double.compare(scalarAccumulator.getVariance(), vectorAccumulator.getVariance()) != 0)){
+				return(names[c] + " float row");
+			}
+		}
+		return(null);
+	}
+
+	/**
+	 * Measures the throughput of reducing an array row by row. The best repetition is taken (the first ones warm up the JIT).
+	 *
+	 * @param array the samples
+	 * @param samples number of samples of the array
+	 * @param sampleType sample type (see {@link GiciFile.ImageSamples})
+	 * @param rowLength number of samples of each row
+	 * @param repetitions number of times that the array is reduced
+	 * @param kernels kernels to be used (null for the scalar loops)
+	 * @return the number of samples reduced per nanosecond (giga samples per second)
+	 */
+	static double measure(Object array, int samples, int sampleType, int rowLength, int repetitions, RowKernels kernels){
+		double best = 0;
+		double checksum = 0;
+		for(int r = 0; r < repetitions; r++){
+			StatisticalAccumulator accumulator = new StatisticalAccumulator(MASK);
+			accumulator.setKernels(kernels);
+			long start = System.nanoTime();
+			for(int offset = 0; offset + rowLength <= samples; offset += rowLength){
+				accumulator.addRow(array, offset, rowLength, sampleType);
+			}
+			long time = System.nanoTime() - start;
+			best = Math.max(best, (double)(samples / rowLength * rowLength) / time);
+			checksum += accumulator.getVariance();
+		}
+		//Prevents the elimination of the reductions
+		if(checksum == 0.5){
+			System.out.println();
+		}
+		return(best);
+	}
+
+	/**
+	 * Measures the original per-sample loops of ImageStatistical: a first pass that computes the energy, the counted values, the minimum and maximum (of the component and of the image), and the sum of the samples, and a second pass that computes the variance from the average. The samples are taken as one component of rows of rowLength samples.
+	 *
+	 * @param samples the samples, already converted to float
+	 * @param rowLength number of samples of each row
+	 * @param repetitions number of measures
+	 * @return best throughput in samples per nanosecond
+	 */
+	static double measureOriginal(float[] samples, int rowLength, int repetitions){
+		int ySize = samples.length / rowLength;
+		double best = 0;
+		double checksum = 0;
+		for(int r = 0; r < repetitions; r++){
+			double[] minMax = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+			double[] totalMinMax = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+			int[] countedValues = new int[256];
+			double energy = 0;
+			double average = 0;
+			double variance = 0;
+			long start = System.nanoTime();
+			for(int y = 0; y < ySize; y++){
+				for(int x = y * rowLength; x < (y + 1) * rowLength; x++){
+					energy += (samples[x] * samples[x]);
+					if(Math.abs(samples[x]) < 256){
+						countedValues[(int)Math.abs(samples[x])]++;
+					}
+					if(samples[x] < minMax[0]){
+						minMax[0] = samples[x];
+						if(samples[x] < totalMinMax[0]){
+							totalMinMax[0] = samples[x];
+						}
+					}
+					if(samples[x] > minMax[1]){
+						minMax[1] = samples[x];
+						if(samples[x] > totalMinMax[1]){
+							totalMinMax[1] = samples[x];
+						}
+					}
+					average += samples[x];
+				}
+			}
+			average /= (ySize * rowLength);
+			for(int y = 0; y < ySize; y++){
+				for(int x = y * rowLength; x < (y + 1) * rowLength; x++){
+					variance += ((samples[x] - average) * (samples[x] - average));
+				}
+			}
+			variance /= (ySize * rowLength);
+			long time = System.nanoTime() - start;
+			best = Math.max(best, (double)(ySize * rowLength) / time);
+			checksum += variance + energy + minMax[0] + totalMinMax[1] + countedValues[0];
+		}
+		//Prevents the elimination of the loops
+		if(checksum == 0.5){
+			System.out.println();
+		}
+		return(best);
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.util.Arrays;
+
+
+/**
+ * This class computes, from the covariance between the components of an image, what a Karhunen-Loeve transform (KLT, or PCA) of the components would achieve: the eigenvalues of the covariance (variance of each transformed component), the energy compacted by the first transformed components and the coding gain.<br>
+ * The coding gain is the arithmetic mean of the variances of the components divided by the geometric mean of the eigenvalues (the reduction of the distortion of high rate transform coding with respect to coding the components independently). The eigenvalues are computed reducing the symmetric matrix to tridiagonal form with Householder reflections and applying the implicit QL algorithm, which takes a small part of the time of computing the covariance even with hundreds of components.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class KltAnalysis{
+
+	/**
+	 * Maximum number of QL iterations for each eigenvalue.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int MAX_ITERATIONS = 60;
+
+	/**
+	 * Eigenvalues of the covariance matrix, in decreasing order.
+	 * <p>
+	 * All values allowed (negative values are rounding errors of singular matrices).
+	 */
+	double[] eigenvalues;
+
+	/**
+	 * Fraction of the energy of all the eigenvalues that is in the first eigenvalues (energy[i] is the one of the first i+1).
+	 * <p>
+	 * Values between 0 and 1 (except rounding errors).
+	 */
+	double[] energy;
+
+	/**
+	 * Coding gain of the KLT.
+	 * <p>
+	 * Positive values, or infinite if some eigenvalue is not positive (NaN if all the components are constant).
+	 */
+	double codingGain;
+
+	/**
+	 * Constructor that computes the analysis of a covariance.
+	 *
+	 * @param covariance the covariance between the components of an image
+	 */
+	public KltAnalysis(BandCovariance covariance){
+		double[][] matrix = covariance.getCovariance();
+		int zSize = matrix.length;
+		double trace = 0;
+		for(int z = 0; z < zSize; z++){
+			trace += matrix[z][z];
+		}
+		eigenvalues = computeEigenvalues(matrix);
+
+		double total = 0;
+		for(int z = 0; z < zSize; z++){
+			total += eigenvalues[z];
+		}
+		energy = new double[zSize];
+		double cumulative = 0;
+		double logSum = 0;
+		boolean singular = false;
+		for(int z = 0; z < zSize; z++){
+			cumulative += eigenvalues[z];
+			energy[z] = cumulative / total;
+			if(eigenvalues[z] > 0){
+				logSum += Math.log(eigenvalues[z]);
+			}else{
+				singular = true;
+			}
+		}
+		double arithmeticMean = trace / zSize;
+		codingGain = singular ? arithmeticMean / 0D: arithmeticMean / Math.exp(logSum / zSize);
+	}
+
+	/**
+	 * Computes the eigenvalues of a symmetric matrix.
+	 *
+	 * @param matrix the symmetric matrix (it is modified)
+	 * @return the eigenvalues in decreasing order
+	 *
+	 * @throws ArithmeticException when the QL algorithm does not converge
+	 */
+	public static double[] computeEigenvalues(double[][] matrix){
+		int n = matrix.length;
+		double[] diagonal = new double[n];
+		double[] offDiagonal = new double[n];
+		tridiagonalize(matrix, diagonal, offDiagonal);
+		diagonalize(diagonal, offDiagonal);
+		Arrays.sort(diagonal);
+		for(int i = 0; i < n / 2; i++){
+			double swap = diagonal[i];
+			diagonal[i] = diagonal[n - 1 - i];
+			diagonal[n - 1 - i] = swap;
+		}
+		return(diagonal);
+	}
+
+	/**
+	 * Reduces a symmetric matrix to tridiagonal form with Householder reflections (the eigenvalues are kept).
+	 *
+	 * @param a the symmetric matrix (it is modified)
+	 * @param diagonal array where the diagonal of the tridiagonal matrix is stored
+	 * @param offDiagonal array where the element below each element of the diagonal is stored (the last one is 0)
+	 */
+	static void tridiagonalize(double[][] a, double[] diagonal, double[] offDiagonal){
+		int n = a.length;
+		double[] v = new double[n];
+		double[] w = new double[n];
+		for(int k = 0; k < n - 2; k++){
+			//Reflection that zeroes the column k below the subdiagonal
+			double norm = 0;
+			for(int i = k + 1; i < n; i++){
+				norm = Math.hypot(norm, a[i][k]);
+			}
+			diagonal[k] = a[k][k];
+			if(norm == 0){
+				offDiagonal[k] = 0;
+				continue;
+			}
+			double alpha = a[k + 1][k] > 0 ? -norm: norm;
+			double vNorm = 0;
+			for(int i = k + 1; i < n; i++){
+				v[i] = a[i][k];
+			}
+			v[k + 1] -= alpha;
+			for(int i = k + 1; i < n; i++){
+				vNorm += v[i] * v[i];
+			}
+			vNorm = Math.sqrt(vNorm);
+			for(int i = k + 1; i < n; i++){
+				v[i] /= vNorm;
+			}
+			//A = A - v w' - w v', with p = A v and w = 2p - 2(v'p) v
+			double vp = 0;
+			for(int i = k + 1; i < n; i++){
+				double[] row = a[i];
+				double p = 0;
+				for(int j = k + 1; j < n; j++){
+					p += row[j] * v[j];
+				}
+				w[i] = 2 * p;
+				vp += v[i] * p;
+			}
+			for(int i = k + 1; i < n; i++){
+				w[i] -= 2 * vp * v[i];
+			}
+			for(int i = k + 1; i < n; i++){
+				double[] row = a[i];
+				double vi = v[i];
+				double wi = w[i];
+				for(int j = k + 1; j < n; j++){
+					row[j] -= vi * w[j] + wi * v[j];
+				}
+			}
+			offDiagonal[k] = alpha;
+		}
+		if(n > 1){
+			diagonal[n - 2] = a[n - 2][n - 2];
+			offDiagonal[n - 2] = a[n - 1][n - 2];
+		}
+		diagonal[n - 1] = a[n - 1][n - 1];
+		offDiagonal[n - 1] = 0;
+	}
+
+	/**
+	 * Computes the eigenvalues of a symmetric tridiagonal matrix with the implicit QL algorithm (with Wilkinson shifts).
+	 *
+	 * @param d the diagonal of the matrix, where the eigenvalues are stored (unordered)
+	 * @param e the element below each element of the diagonal (the last one is 0); it is destroyed
+	 *
+	 * @throws ArithmeticException when the algorithm does not converge
+	 */
+	static void diagonalize(double[] d, double[] e){
+		int n = d.length;
+		double epsilon = Math.ulp(1D);
+		for(int l = 0; l < n; l++){
+			int iterations = 0;
+			int m;
+			do{
+				//Small subdiagonal element that splits the matrix
+				for(m = l; m < n - 1; m++){
+					if(Math.abs(e[m]) <= epsilon * (Math.abs(d[m]) + Math.abs(d[m + 1]))){
+						break;
+					}
+				}
+				if(m != l){
+					if(iterations++ == MAX_ITERATIONS){
+						throw new ArithmeticException("Eigenvalues do not converge.");
+					}
+					double g = (d[l + 1] - d[l]) / (2 * e[l]);
+					double r = Math.hypot(g, 1);
+					g = d[m] - d[l] + e[l] / (g + (g >= 0 ? r: -r));
+					double s = 1, c = 1, p = 0;
+					int i;
+					for(i = m - 1; i >= l; i--){
+						double f = s * e[i];
+						double b = c * e[i];
+						r = Math.hypot(f, g);
+						e[i + 1] = r;
+						if(r == 0){
+							//Underflow: the rotations stop here
+							d[i + 1] -= p;
+							e[m] = 0;
+							break;
+						}
+						s = f / r;
+						c = g / r;
+						g = d[i + 1] - p;
+						r = (d[i] - g) * s + 2 * c * b;
+						p = s * r;
+						d[i + 1] = g + p;
+						g = c * r - b;
+					}
+					if((r == 0) && (i >= l)){
+						continue;
+					}
+					d[l] -= p;
+					e[l] = g;
+					e[m] = 0;
+				}
+			}while(m != l);
+		}
+	}
+
+	/**
+	 * @return eigenvalues definition in this class
+	 */
+	public double[] getEigenvalues(){
+		return(eigenvalues);
+	}
+
+	/**
+	 * @return energy definition in this class
+	 */
+	public double[] getEnergy(){
+		return(energy);
+	}
+
+	/**
+	 * @return codingGain definition in this class
+	 */
+	public double getCodingGain(){
+		return(codingGain);
+	}
+
+	/**
+	 * @return the coding gain in decibels
+	 */
+	public double getCodingGainDb(){
+		return(10 * Math.log10(codingGain));
+	}
+}
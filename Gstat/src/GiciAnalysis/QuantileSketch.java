@@ -0,0 +1,423 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * This class is a mergeable quantile sketch (KLL, Karnin, Lang and Liberty) whose memory only depends on the rank error bound, whatever the number of samples is.<br>
+ * Samples are kept in levels: an item of the level h stands for 2^h samples. When a level exceeds its capacity it is sorted and compacted: one of each two consecutive items is promoted to the next level. The capacity of the levels decreases geometrically from the top one, so the sketch keeps about 3k items. The items promoted by a compaction (the even or the odd ones) are chosen by a pseudo-random generator with a fixed seed, so the result only depends on the samples and on the order in which sketches are merged. Quantiles are exact while no compaction has been needed (fewer than about k samples).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class QuantileSketch{
+
+	/**
+	 * Rank error used when none is given.
+	 */
+	public static final double DEFAULT_RANK_ERROR = 0.01D;
+
+	/**
+	 * Initial state of the pseudo-random generator.
+	 */
+	static final long SEED = 0x2545F4914F6CDD1DL;
+
+	/**
+	 * Ratio between the capacities of two consecutive levels.
+	 */
+	static final double CAPACITY_RATIO = 2.0D / 3.0D;
+
+	/**
+	 * Minimum capacity of a level.
+	 */
+	static final int MIN_CAPACITY = 8;
+
+	/**
+	 * Maximum number of levels (enough for 2^62 samples).
+	 */
+	static final int MAX_LEVELS = 62;
+
+	/**
+	 * Capacity of the top level. It is 3 / rankError (see getCapacity), which keeps the normalized rank error of the quantiles below rankError in practice.
+	 * <p>
+	 * Only values greater or equal than MIN_CAPACITY allowed.
+	 */
+	int k;
+
+	/**
+	 * Number of samples added.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long count = 0;
+
+	/**
+	 * Minimum and maximum samples (they are kept exactly).
+	 * <p>
+	 * All values allowed.
+	 */
+	double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Items of each level (the first levelSizes[h] positions of levels[h] are used).
+	 * <p>
+	 * Levels not allocated yet are null.
+	 */
+	double[][] levels = new double[1][];
+
+	/**
+	 * Number of items of each level.
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	int[] levelSizes = new int[1];
+
+	/**
+	 * State of the pseudo-random generator (xorshift) that chooses the items promoted by each compaction (the even or the odd ones).
+	 * <p>
+	 * Values different from 0 allowed.
+	 */
+	long random = SEED;
+
+	/**
+	 * Constructor of a sketch with a given error bound.
+	 *
+	 * @param rankError normalized rank error of the quantiles (for instance, 0.01 gives quantiles whose rank is within 1% of the number of samples)
+	 */
+	public QuantileSketch(double rankError){
+		this(getCapacity(rankError));
+	}
+
+	/**
+	 * Constructor of a sketch with a given capacity.
+	 *
+	 * @param k capacity of the top level (see getCapacity)
+	 */
+	QuantileSketch(int k){
+		this.k = Math.max(MIN_CAPACITY, k);
+	}
+
+	/**
+	 * Computes the capacity of the top level that gives a rank error.
+	 *
+	 * @param rankError normalized rank error of the quantiles
+	 * @return the capacity
+	 */
+	public static int getCapacity(double rankError){
+		return((int) Math.max(MIN_CAPACITY, Math.min(1 << 20, Math.ceil(3.0D / rankError))));
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @param sample the sample value
+	 */
+	public void add(double sample){
+		if(sample < min){
+			min = sample;
+		}
+		if(sample > max){
+			max = sample;
+		}
+		count++;
+		append(0, sample);
+		if(levelSizes[0] >= getLevelCapacity(0)){
+			compress();
+		}
+	}
+
+	/**
+	 * Adds several samples with the same value. The value is added once to each level whose weight is a bit of the number of samples, so the sketch is the same as if the samples were compacted.
+	 *
+	 * @param sample the sample value
+	 * @param times number of samples with the value
+	 */
+	public void add(double sample, long times){
+		if(times <= 0){
+			return;
+		}
+		if(sample < min){
+			min = sample;
+		}
+		if(sample > max){
+			max = sample;
+		}
+		count += times;
+		for(int h = 0; times != 0; h++, times >>>= 1){
+			if((times & 1) != 0){
+				ensureLevels(h + 1);
+				append(h, sample);
+			}
+		}
+		compress();
+	}
+
+	/**
+	 * Merges another sketch into this one.
+	 *
+	 * @param other the sketch to be merged
+	 */
+	public void merge(QuantileSketch other){
+		if(other.count == 0){
+			return;
+		}
+		if(other.min < min){
+			min = other.min;
+		}
+		if(other.max > max){
+			max = other.max;
+		}
+		count += other.count;
+		//The state of the generator depends on both sketches, so merging the same sketches in the same order always gives the same result
+		random = random * 0x9E3779B97F4A7C15L + other.random;
+		if(random == 0){
+			random = SEED;
+		}
+		ensureLevels(other.levels.length);
+		for(int h = 0; h < other.levels.length; h++){
+			for(int i = 0; i < other.levelSizes[h]; i++){
+				append(h, other.levels[h][i]);
+			}
+		}
+		compress();
+	}
+
+	/**
+	 * Appends an item to a level, growing its array if needed.
+	 *
+	 * @param h the level
+	 * @param item the item
+	 */
+	void append(int h, double item){
+		double[] level = levels[h];
+		if(level == null){
+			level = levels[h] = new double[Math.min(getLevelCapacity(h), 64)];
+		}else if(levelSizes[h] == level.length){
+			level = levels[h] = Arrays.copyOf(level, 2 * level.length);
+		}
+		level[levelSizes[h]++] = item;
+	}
+
+	/**
+	 * Makes sure that the sketch has a number of levels.
+	 *
+	 * @param number number of levels
+	 */
+	void ensureLevels(int number){
+		if(levels.length < number){
+			levels = Arrays.copyOf(levels, number);
+			levelSizes = Arrays.copyOf(levelSizes, number);
+		}
+	}
+
+	/**
+	 * Computes the capacity of a level (it depends on the number of levels).
+	 *
+	 * @param h the level
+	 * @return the maximum number of items of the level
+	 */
+	int getLevelCapacity(int h){
+		int depth = levels.length - 1 - h;
+		return((int) Math.max(MIN_CAPACITY, Math.ceil(k * Math.pow(CAPACITY_RATIO, depth))));
+	}
+
+	/**
+	 * Compacts the levels, from the lowest one, until all of them are within their capacity.
+	 */
+	void compress(){
+		for(int h = 0; h < levels.length; h++){
+			if(levelSizes[h] >= getLevelCapacity(h)){
+				if((h == levels.length - 1) && (levels.length < MAX_LEVELS)){
+					ensureLevels(levels.length + 1);
+				}
+				if(h < levels.length - 1){
+					compact(h);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sorts a level and promotes one of each two consecutive items to the next level. If the level has an odd number of items, its largest item stays in the level.
+	 *
+	 * @param h the level
+	 */
+	void compact(int h){
+		double[] level = levels[h];
+		int size = levelSizes[h];
+		Arrays.sort(level, 0, size);
+		int pairs = size / 2;
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		int first = (int) (random >>> 63);
+		for(int i = 0; i < pairs; i++){
+			append(h + 1, level[2 * i + first]);
+		}
+		if((size & 1) != 0){
+			level[0] = level[size - 1];
+			levelSizes[h] = 1;
+		}else{
+			levelSizes[h] = 0;
+		}
+	}
+
+	/**
+	 * Computes some quantiles. The quantile q is the smallest value whose estimated rank (number of samples less or equal than it) is at least q times the number of samples, so 0 gives the minimum, 0.5 the median and 1 the maximum.
+	 *
+	 * @param fractions the quantiles to compute (between 0 and 1)
+	 * @return the value of each quantile (NaN if the sketch is empty)
+	 */
+	public double[] getQuantiles(double[] fractions){
+		double[] quantiles = new double[fractions.length];
+		if(count == 0){
+			Arrays.fill(quantiles, Double.NaN);
+			return(quantiles);
+		}
+		//Items of all the levels sorted by value (each level is sorted and merged with the previous ones), with the sum of their weights
+		double[] values = new double[0];
+		long[] cumulative = new long[0];
+		for(int h = 0; h < levels.length; h++){
+			int size = levelSizes[h];
+			if(size > 0){
+				double[] level = Arrays.copyOf(levels[h], size);
+				Arrays.sort(level);
+				double[] mergedValues = new double[values.length + size];
+				long[] mergedCumulative = new long[values.length + size];
+				long weight = 1L << h;
+				long total = 0;
+				int i = 0, j = 0;
+				for(int m = 0; m < mergedValues.length; m++){
+					if((j == size) || ((i < values.length) && (values[i] <= level[j]))){
+						total += cumulative[i] - (i > 0 ? cumulative[i - 1]: 0);
+						mergedValues[m] = values[i++];
+					}else{
+						total += weight;
+						mergedValues[m] = level[j++];
+					}
+					mergedCumulative[m] = total;
+				}
+				values = mergedValues;
+				cumulative = mergedCumulative;
+			}
+		}
+		for(int q = 0; q < fractions.length; q++){
+			quantiles[q] = getQuantile(fractions[q], values, cumulative);
+		}
+		return(quantiles);
+	}
+
+	/**
+	 * Selects a quantile from the sorted items.
+	 *
+	 * @param fraction the quantile (between 0 and 1)
+	 * @param values values of the items, sorted
+	 * @param cumulative sum of the weights of the items up to each one (the last one is the number of samples)
+	 * @return the value of the quantile
+	 */
+	double getQuantile(double fraction, double[] values, long[] cumulative){
+		if(fraction <= 0){
+			return(min);
+		}
+		if(fraction >= 1){
+			return(max);
+		}
+		double rank = Math.ceil(fraction * count);
+		int low = 0, high = cumulative.length - 1;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(cumulative[middle] < rank){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return(values[low]);
+	}
+
+	/**
+	 * Writes the sketch so it can be read back with read.
+	 *
+	 * @param out the output where the sketch is written
+	 * @throws IOException when the sketch cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeInt(k);
+		out.writeLong(count);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeLong(random);
+		out.writeInt(levels.length);
+		for(int h = 0; h < levels.length; h++){
+			out.writeInt(levelSizes[h]);
+			for(int i = 0; i < levelSizes[h]; i++){
+				out.writeDouble(levels[h][i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a sketch written with write.
+	 *
+	 * @param in the input where the sketch is read
+	 * @return the sketch
+	 * @throws IOException when the sketch cannot be read
+	 */
+	public static QuantileSketch read(DataInput in) throws IOException{
+		QuantileSketch sketch = new QuantileSketch(in.readInt());
+		sketch.count = in.readLong();
+		sketch.min = in.readDouble();
+		sketch.max = in.readDouble();
+		sketch.random = in.readLong();
+		int levelCount = in.readInt();
+		if((sketch.random == 0) || (levelCount <= 0) || (levelCount > MAX_LEVELS)){
+			throw new IOException("Malformed quantile sketch.");
+		}
+		sketch.ensureLevels(levelCount);
+		for(int h = 0; h < levelCount; h++){
+			int size = in.readInt();
+			if((size < 0) || (size > (1 << 24))){
+				throw new IOException("Malformed quantile sketch.");
+			}
+			for(int i = 0; i < size; i++){
+				sketch.append(h, in.readDouble());
+			}
+		}
+		return(sketch);
+	}
+
+	/**
+	 * @return count definition in this class
+	 */
+	public long getCount(){
+		return(count);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+
+
+/**
+ * Interface of the kernels that reduce a row of samples to its minimum, maximum, sum and sum of squares in a single pass.<br>
+ * StatisticalAccumulator uses them instead of its scalar loops when they are available (see {@link #VECTOR_KERNELS_CLASS}).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public interface RowKernels{
+
+	/**
+	 * Name of the class that implements the kernels with the Java Vector API. It is loaded by reflection, so the application runs (with the scalar loops) when the jdk.incubator.vector module is not available.
+	 */
+	String VECTOR_KERNELS_CLASS = "GiciAnalysis.VectorRowKernels";
+
+	/**
+	 * Number of partial sums of the float rows. Sample x of a row (counted from its first sample) is added to the partial sum x % FLOAT_STRIPES while there are whole groups of FLOAT_STRIPES samples, and the remaining samples are added after the partial sums are combined (see {@link StatisticalAccumulator#reduceFloatRow}). The order of every floating point operation is fixed, so all the implementations give the same bits.
+	 */
+	int FLOAT_STRIPES = 8;
+
+	/**
+	 * Reduces a row of float samples, giving the same bits as {@link StatisticalAccumulator#reduceFloatRow}. Deviations are taken from the first sample of the row and accumulated in double precision, as the squared samples. NaN samples are ignored by the minimum and the maximum (as the comparisons of the scalar loops do), so a row with only NaN samples gives an infinite minimum and maximum that do not change the running ones.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row (positive)
+	 * @param result array where the minimum, the maximum, the sum of deviations, the sum of squared deviations and the sum of squared samples are stored (in this order)
+	 */
+	void floatRow(float[] row, int offset, int length, double[] result);
+
+	/**
+	 * Reduces a row of 2 bytes samples with exact integer arithmetic.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row (positive)
+	 * @param unsigned true if the samples are unsigned (char), false otherwise
+	 * @param result array where the minimum, the maximum, the sum and the sum of squares are stored (in this order)
+	 */
+	void shortRow(short[] row, int offset, int length, boolean unsigned, long[] result);
+
+	/**
+	 * Reduces a row of unsigned 1 byte samples with exact integer arithmetic.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row (positive)
+	 * @param result array where the minimum, the maximum, the sum and the sum of squares are stored (in this order)
+	 */
+	void byteRow(byte[] row, int offset, int length, long[] result);
+}
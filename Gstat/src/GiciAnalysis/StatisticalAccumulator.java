@@ -0,0 +1,1090 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * This class accumulates, in a single pass over the samples, all the statistical information of a set of samples (usually one image component).<br>
+ * Rows of samples are added one by one, in their native type, and the variance is kept as a running mean and sum of squared deviations (Welford/Chan), so no second pass is needed (the third and fourth moments are merged in the same way, see {@link CentralMoments}). Two accumulators can be merged. Only the statistics selected when the accumulator is created are computed.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class StatisticalAccumulator{
+
+	/**
+	 * Number of samples accumulated.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long count = 0;
+
+	/**
+	 * Minimum sample value.
+	 * <p>
+	 * All values allowed.
+	 */
+	double min = Float.POSITIVE_INFINITY;
+
+	/**
+	 * Maximum sample value.
+	 * <p>
+	 * All values allowed.
+	 */
+	double max = Float.NEGATIVE_INFINITY;
+
+	/**
+	 * Sum of the floating-point samples (integer samples are summed in integerSum).
+	 * <p>
+	 * All values allowed.
+	 */
+	double sum = 0;
+
+	/**
+	 * Exact sum of the integer samples.
+	 * <p>
+	 * Never null.
+	 */
+	IntegerSum integerSum = new IntegerSum();
+
+	/**
+	 * Running mean of the samples, used together with m2 to compute the variance.
+	 * <p>
+	 * All values allowed.
+	 */
+	double mean = 0;
+
+	/**
+	 * Sum of the squared deviations from the running mean.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	double m2 = 0;
+
+	/**
+	 * Sum of the squared floating-point and 8-byte integer samples (the squares of the other integer samples are summed in integerEnergy).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	double energy = 0;
+
+	/**
+	 * Exact sum of the squared integer samples of 1, 2 or 4 bytes.
+	 * <p>
+	 * Never null.
+	 */
+	IntegerSum integerEnergy = new IntegerSum();
+
+	/**
+	 * Statistics computed by this accumulator (a combination of the constants defined in {@link ImageStatistical}).
+	 * <p>
+	 * Only combinations of those constants are allowed.
+	 */
+	int mask;
+
+	/**
+	 * How many times each value (absolute value lower than 256) appears.
+	 * <p>
+	 * Null if counted values are not computed.
+	 */
+	long[] countedValues = null;
+
+	/**
+	 * Histogram of the samples (used to compute the entropy).
+	 * <p>
+	 * Null if the entropy is not computed.
+	 */
+	Histogram histogram = null;
+
+	/**
+	 * Counts of each value of 1 and 2 bytes samples, used to select exact quantiles.
+	 * <p>
+	 * Null if quantiles are not computed.
+	 */
+	Histogram quantileCounts = null;
+
+	/**
+	 * Sketch of the samples of the other types, used to estimate quantiles.
+	 * <p>
+	 * Null if quantiles are not computed.
+	 */
+	QuantileSketch quantileSketch = null;
+
+	/**
+	 * Central moments up to the fourth one, used to compute the skewness and the kurtosis.
+	 * <p>
+	 * Null if the moments are not computed.
+	 */
+	CentralMoments moments = null;
+
+	/**
+	 * Counts of each value of a row of 1 byte samples (reused between rows).
+	 * <p>
+	 * Null until the first row of 1 byte samples is added.
+	 */
+	int[] byteCounts = null;
+
+	/**
+	 * Statistics obtained from the reductions of the row kernels.
+	 */
+	static final int REDUCED = ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE | ImageStatistical.AVERAGE | ImageStatistical.ENERGY | ImageStatistical.VARIANCE;
+
+	/**
+	 * Kernels loaded by default (null if the Vector API is not available or the system property gstat.vectorKernels is false).
+	 */
+	static final RowKernels DEFAULT_KERNELS = loadKernels();
+
+	/**
+	 * Kernels used to reduce the rows (if null, the scalar loops of this class are used).
+	 * <p>
+	 * All values allowed.
+	 */
+	RowKernels kernels = DEFAULT_KERNELS;
+
+	/**
+	 * Results of the float kernel (reused between rows).
+	 */
+	double[] floatResult = null;
+
+	/**
+	 * Results of the integer kernels (reused between rows).
+	 */
+	long[] integerResult = null;
+
+	/**
+	 * Constructor of an accumulator that computes all the statistics.
+	 */
+	public StatisticalAccumulator(){
+		this(ImageStatistical.ALL);
+	}
+
+	/**
+	 * Constructor of an accumulator that computes only the selected statistics.
+	 *
+	 * @param mask statistics to compute (a combination of the constants defined in {@link ImageStatistical})
+	 */
+	public StatisticalAccumulator(int mask){
+		this(mask, 0);
+	}
+
+	/**
+	 * Constructor of an accumulator that computes only the selected statistics.
+	 *
+	 * @param mask statistics to compute (a combination of the constants defined in {@link ImageStatistical})
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 */
+	public StatisticalAccumulator(int mask, double binWidth){
+		this(mask, binWidth, QuantileSketch.DEFAULT_RANK_ERROR);
+	}
+
+	/**
+	 * Constructor of an accumulator that computes only the selected statistics.
+	 *
+	 * @param mask statistics to compute (a combination of the constants defined in {@link ImageStatistical})
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 * @param rankError normalized rank error of the quantiles of samples that are not 1 or 2 bytes integers (see {@link QuantileSketch})
+	 */
+	public StatisticalAccumulator(int mask, double binWidth, double rankError){
+		this.mask = mask;
+		if((mask & ImageStatistical.COUNTED_VALUES) != 0){
+			countedValues = new long[256];
+		}
+		if((mask & ImageStatistical.ENTROPY) != 0){
+			histogram = new Histogram(binWidth);
+		}
+		if((mask & ImageStatistical.QUANTILES) != 0){
+			quantileCounts = new Histogram();
+			quantileSketch = new QuantileSketch(rankError);
+		}
+		if((mask & ImageStatistical.MOMENTS) != 0){
+			moments = new CentralMoments();
+		}
+	}
+
+	/**
+	 * Loads the kernels implemented with the Java Vector API, if the module jdk.incubator.vector is available.
+	 *
+	 * @return the vector kernels, or null if they cannot be loaded
+	 */
+	static RowKernels loadKernels(){
+		RowKernels loaded = null;
+		if(Boolean.parseBoolean(System.getProperty("gstat.vectorKernels", "true"))){
+			try{
+				loaded = (RowKernels) Class.forName(RowKernels.VECTOR_KERNELS_CLASS).getConstructor().newInstance();
+			}catch(Throwable e){
+				//Module not present (or not resolved): scalar loops are used
+				loaded = null;
+			}
+		}
+		return(loaded);
+	}
+
+	/**
+	 * Sets the kernels used to reduce the rows.
+	 *
+	 * @param kernels the kernels (null to use the scalar loops)
+	 */
+	public void setKernels(RowKernels kernels){
+		this.kernels = kernels;
+	}
+
+	/**
+	 * Adds a row of samples of any type to the accumulator, calling the kernel specialized for the sample type.
+	 *
+	 * @param samples a primitive array that contains the samples (see {@link GiciFile.ImageSamples})
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 * @param sampleType sample type (see {@link GiciFile.ImageSamples})
+	 */
+	public void addRow(Object samples, int offset, int length, int sampleType){
+		switch(sampleType){
+		case 0: //boolean
+		case 1: //unsigned int (1 byte)
+			addRow((byte[]) samples, offset, length);
+			break;
+		case 2: //unsigned int (2 bytes)
+			addRow((short[]) samples, offset, length, true);
+			break;
+		case 3: //signed short (2 bytes)
+			addRow((short[]) samples, offset, length, false);
+			break;
+		case 4: //signed int (4 bytes)
+			addRow((int[]) samples, offset, length);
+			break;
+		case 5: //signed long (8 bytes)
+			addRow((long[]) samples, offset, length);
+			break;
+		case 6: //float (4 bytes)
+			addRow((float[]) samples, offset, length);
+			break;
+		case 7: //double (8 bytes)
+			addRow((double[]) samples, offset, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+	}
+
+	/**
+	 * Adds a row of unsigned 1 byte samples. The values of the row are counted and all the statistics are computed from the counts, using exact integer arithmetic.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(byte[] row, int offset, int length){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length);
+		}
+		//The counts are only needed for counted values, entropy and quantiles, otherwise the row is reduced directly
+		if((kernels != null) && (countedValues == null) && (histogram == null) && (quantileCounts == null)){
+			long[] r = getIntegerResult();
+			kernels.byteRow(row, offset, length, r);
+			addIntegerRow(length, (int) r[0], (int) r[1], r[2], r[3]);
+			return;
+		}
+		if(byteCounts == null){
+			byteCounts = new int[256];
+		}
+		int end = offset + length;
+		for(int x = offset; x < end; x++){
+			byteCounts[row[x] & 0xff]++;
+		}
+		int rowMin = 255;
+		int rowMax = 0;
+		long rowSum = 0;
+		long rowSquares = 0;
+		for(int value = 0; value < 256; value++){
+			int times = byteCounts[value];
+			if(times > 0){
+				rowMin = Math.min(rowMin, value);
+				rowMax = value;
+				rowSum += (long)times * value;
+				rowSquares += (long)times * value * value;
+				if(countedValues != null){
+					countedValues[value] += times;
+				}
+				if(histogram != null){
+					histogram.addInteger(value, times);
+				}
+				if(quantileCounts != null){
+					quantileCounts.addInteger(value, times);
+				}
+				byteCounts[value] = 0;
+			}
+		}
+		addIntegerRow(length, rowMin, rowMax, rowSum, rowSquares);
+	}
+
+	/**
+	 * Adds a row of 2 bytes samples, using exact integer arithmetic.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 * @param unsigned true if the samples are unsigned (char), false otherwise
+	 */
+	public void addRow(short[] row, int offset, int length, boolean unsigned){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length, unsigned);
+		}
+		int end = offset + length;
+		int valueMask = unsigned ? 0xffff: 0xffffffff;
+		int rowMin = Integer.MAX_VALUE;
+		int rowMax = Integer.MIN_VALUE;
+		long rowSum = 0;
+		long rowSquares = 0;
+		if((kernels != null) && ((mask & REDUCED) != 0)){
+			long[] r = getIntegerResult();
+			kernels.shortRow(row, offset, length, unsigned, r);
+			rowMin = (int) r[0];
+			rowMax = (int) r[1];
+			rowSum = r[2];
+			rowSquares = r[3];
+		}else{
+			if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+				for(int x = offset; x < end; x++){
+					int sample = row[x] & valueMask;
+					rowMin = Math.min(rowMin, sample);
+					rowMax = Math.max(rowMax, sample);
+				}
+			}
+			if((mask & (ImageStatistical.AVERAGE | ImageStatistical.ENERGY | ImageStatistical.VARIANCE)) != 0){
+				for(int x = offset; x < end; x++){
+					long sample = row[x] & valueMask;
+					rowSum += sample;
+					rowSquares += sample * sample;
+				}
+			}
+		}
+		if(countedValues != null){
+			for(int x = offset; x < end; x++){
+				int sample = Math.abs(row[x] & valueMask);
+				if(sample < 256){
+					countedValues[sample]++;
+				}
+			}
+		}
+		if(histogram != null){
+			for(int x = offset; x < end; x++){
+				histogram.addInteger(row[x] & valueMask, 1);
+			}
+		}
+		if(quantileCounts != null){
+			for(int x = offset; x < end; x++){
+				quantileCounts.addInteger(row[x] & valueMask, 1);
+			}
+		}
+		addIntegerRow(length, rowMin, rowMax, rowSum, rowSquares);
+	}
+
+	/**
+	 * Adds a row of signed 4 bytes samples. The sum and the energy are computed with exact integer arithmetic (the sum of the squares in 128 bits); the variance is computed in double precision.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(int[] row, int offset, int length){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length);
+		}
+		int end = offset + length;
+		if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+			int rowMin = Integer.MAX_VALUE;
+			int rowMax = Integer.MIN_VALUE;
+			for(int x = offset; x < end; x++){
+				rowMin = Math.min(rowMin, row[x]);
+				rowMax = Math.max(rowMax, row[x]);
+			}
+			addMinMax(rowMin, rowMax);
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			long rowSum = 0;
+			for(int x = offset; x < end; x++){
+				rowSum += row[x];
+			}
+			integerSum.add(rowSum);
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			//Each square fits in a long, their sum is kept in 128 bits
+			long energyHigh = 0;
+			long energyLow = 0;
+			for(int x = offset; x < end; x++){
+				long square = (long)row[x] * row[x];
+				energyLow += square;
+				if(Long.compareUnsigned(energyLow, square) < 0){
+					energyHigh++;
+				}
+			}
+			integerEnergy.add(energyHigh, energyLow);
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			//Deviations from the first sample are exact in a long
+			long shift = row[offset];
+			long shiftedSum = 0;
+			double shiftedSquares = 0;
+			for(int x = offset; x < end; x++){
+				long deviation = row[x] - shift;
+				shiftedSum += deviation;
+				shiftedSquares += (double)deviation * deviation;
+			}
+			merge(length, shift + (double)shiftedSum / length, shiftedSquares - (double)shiftedSum * shiftedSum / length);
+		}else{
+			count += length;
+		}
+		if(countedValues != null){
+			for(int x = offset; x < end; x++){
+				int sample = Math.abs(row[x]);
+				if((sample >= 0) && (sample < 256)){
+					countedValues[sample]++;
+				}
+			}
+		}
+		if(histogram != null){
+			for(int x = offset; x < end; x++){
+				histogram.addInteger(row[x], 1);
+			}
+		}
+		if(quantileSketch != null){
+			for(int x = offset; x < end; x++){
+				quantileSketch.add(row[x]);
+			}
+		}
+	}
+
+	/**
+	 * Adds a row of signed 8 bytes samples. The sum is computed exactly; the energy and the variance are computed in double precision.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(long[] row, int offset, int length){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length);
+		}
+		int end = offset + length;
+		if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+			long rowMin = Long.MAX_VALUE;
+			long rowMax = Long.MIN_VALUE;
+			for(int x = offset; x < end; x++){
+				rowMin = Math.min(rowMin, row[x]);
+				rowMax = Math.max(rowMax, row[x]);
+			}
+			addMinMax(rowMin, rowMax);
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			for(int x = offset; x < end; x++){
+				integerSum.add(row[x]);
+			}
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			double rowEnergy = energy;
+			for(int x = offset; x < end; x++){
+				rowEnergy += (double)row[x] * row[x];
+			}
+			energy = rowEnergy;
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			double shift = row[offset];
+			double shiftedSum = 0;
+			double shiftedSquares = 0;
+			for(int x = offset; x < end; x++){
+				double deviation = row[x] - shift;
+				shiftedSum += deviation;
+				shiftedSquares += deviation * deviation;
+			}
+			merge(length, shift + shiftedSum / length, shiftedSquares - shiftedSum * shiftedSum / length);
+		}else{
+			count += length;
+		}
+		if(countedValues != null){
+			for(int x = offset; x < end; x++){
+				long sample = Math.abs(row[x]);
+				if((sample >= 0) && (sample < 256)){
+					countedValues[(int)sample]++;
+				}
+			}
+		}
+		if(histogram != null){
+			for(int x = offset; x < end; x++){
+				histogram.addInteger(row[x], 1);
+			}
+		}
+		if(quantileSketch != null){
+			for(int x = offset; x < end; x++){
+				quantileSketch.add(row[x]);
+			}
+		}
+	}
+
+	/**
+	 * Adds a row of float samples. Sums are computed in double precision, with the same operations whether the vector kernels are used or not (see {@link #reduceFloatRow}).
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(float[] row, int offset, int length){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length);
+		}
+		int end = offset + length;
+		if((mask & REDUCED) != 0){
+			addReducedRow(row, offset, length);
+		}else{
+			count += length;
+		}
+		if(countedValues != null){
+			for(int x = offset; x < end; x++){
+				float sample = Math.abs(row[x]);
+				if(sample < 256){
+					countedValues[(int)sample]++;
+				}
+			}
+		}
+		if(histogram != null){
+			for(int x = offset; x < end; x++){
+				histogram.add(row[x]);
+			}
+		}
+		if(quantileSketch != null){
+			for(int x = offset; x < end; x++){
+				quantileSketch.add(row[x]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the min, max, sum, energy and variance of a row of float samples, reduced by the kernels or by reduceFloatRow. The sum is obtained from the deviations to the first sample.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	void addReducedRow(float[] row, int offset, int length){
+		if(floatResult == null){
+			floatResult = new double[5];
+		}
+		if(kernels != null){
+			kernels.floatRow(row, offset, length, floatResult);
+		}else{
+			reduceFloatRow(row, offset, length, floatResult);
+		}
+		double shift = row[offset];
+		double shiftedSum = floatResult[2];
+		double shiftedSquares = floatResult[3];
+		if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+			addMinMax(floatResult[0], floatResult[1]);
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			sum += shiftedSum + length * shift;
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			energy += floatResult[4];
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			merge(length, shift + shiftedSum / length, shiftedSquares - shiftedSum * shiftedSum / length);
+		}else{
+			count += length;
+		}
+	}
+
+	/**
+	 * Reduces a row of float samples in one scalar loop (see {@link RowKernels#floatRow}). Each sample is added to one of FLOAT_STRIPES partial sums, which are combined by finishFloatRow, so the vector kernels can compute the same operations in their lanes.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row (positive)
+	 * @param result array where the minimum, the maximum, the sum of deviations, the sum of squared deviations and the sum of squared samples are stored (in this order)
+	 */
+	static void reduceFloatRow(float[] row, int offset, int length, double[] result){
+		final int stripes = RowKernels.FLOAT_STRIPES;
+		float shift = row[offset];
+		double rowMin = Double.POSITIVE_INFINITY;
+		double rowMax = Double.NEGATIVE_INFINITY;
+		double[] sums = new double[stripes];
+		double[] squares = new double[stripes];
+		double[] energies = new double[stripes];
+		int bound = offset + (length - length % stripes);
+		for(int x = offset; x < bound; x += stripes){
+			for(int k = 0; k < stripes; k++){
+				float sample = row[x + k];
+				if(sample == sample){
+					rowMin = Math.min(rowMin, sample);
+					rowMax = Math.max(rowMax, sample);
+				}
+				double deviation = (double)sample - shift;
+				sums[k] += deviation;
+				squares[k] += deviation * deviation;
+				energies[k] += (double)sample * sample;
+			}
+		}
+		finishFloatRow(row, bound, offset + length, shift, rowMin, rowMax, sums, squares, energies, result);
+	}
+
+	/**
+	 * Combines the partial sums of a float row (pairwise, in a fixed order) and adds the remaining samples of the row one by one.
+	 *
+	 * @param row an array that contains the samples
+	 * @param begin position of the first remaining sample
+	 * @param end position after the last sample of the row
+	 * @param shift first sample of the row
+	 * @param rowMin minimum of the samples already reduced (NaN samples ignored)
+	 * @param rowMax maximum of the samples already reduced (NaN samples ignored)
+	 * @param sums partial sums of the deviations
+	 * @param squares partial sums of the squared deviations
+	 * @param energies partial sums of the squared samples
+	 * @param result array where the results are stored (see reduceFloatRow)
+	 */
+	static void finishFloatRow(float[] row, int begin, int end, float shift, double rowMin, double rowMax, double[] sums, double[] squares, double[] energies, double[] result){
+		double shiftedSum = sumStripes(sums);
+		double shiftedSquares = sumStripes(squares);
+		double rowEnergy = sumStripes(energies);
+		for(int x = begin; x < end; x++){
+			float sample = row[x];
+			if(sample == sample){
+				rowMin = Math.min(rowMin, sample);
+				rowMax = Math.max(rowMax, sample);
+			}
+			double deviation = (double)sample - shift;
+			shiftedSum += deviation;
+			shiftedSquares += deviation * deviation;
+			rowEnergy += (double)sample * sample;
+		}
+		result[0] = rowMin;
+		result[1] = rowMax;
+		result[2] = shiftedSum;
+		result[3] = shiftedSquares;
+		result[4] = rowEnergy;
+	}
+
+	/**
+	 * Adds the FLOAT_STRIPES partial sums of a float row pairwise: ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7)).
+	 *
+	 * @param stripes the partial sums
+	 * @return their sum
+	 */
+	static double sumStripes(double[] stripes){
+		return(((stripes[0] + stripes[1]) + (stripes[2] + stripes[3])) + ((stripes[4] + stripes[5]) + (stripes[6] + stripes[7])));
+	}
+
+	/**
+	 * Adds a row of double samples.
+	 *
+	 * @param row an array that contains the samples
+	 * @param offset position of the first sample of the row
+	 * @param length number of samples of the row
+	 */
+	public void addRow(double[] row, int offset, int length){
+		if(length <= 0){
+			return;
+		}
+		if(moments != null){
+			moments.addRow(row, offset, length);
+		}
+		int end = offset + length;
+		if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+			double rowMin = min;
+			double rowMax = max;
+			for(int x = offset; x < end; x++){
+				double sample = row[x];
+				if(sample < rowMin){
+					rowMin = sample;
+				}
+				if(sample > rowMax){
+					rowMax = sample;
+				}
+			}
+			min = rowMin;
+			max = rowMax;
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			double rowSum = sum;
+			for(int x = offset; x < end; x++){
+				rowSum += row[x];
+			}
+			sum = rowSum;
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			double rowEnergy = energy;
+			for(int x = offset; x < end; x++){
+				rowEnergy += row[x] * row[x];
+			}
+			energy = rowEnergy;
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			double shift = row[offset];
+			double shiftedSum = 0;
+			double shiftedSquares = 0;
+			for(int x = offset; x < end; x++){
+				double deviation = row[x] - shift;
+				shiftedSum += deviation;
+				shiftedSquares += deviation * deviation;
+			}
+			merge(length, shift + shiftedSum / length, shiftedSquares - shiftedSum * shiftedSum / length);
+		}else{
+			count += length;
+		}
+		if(countedValues != null){
+			for(int x = offset; x < end; x++){
+				double sample = Math.abs(row[x]);
+				if(sample < 256){
+					countedValues[(int)sample]++;
+				}
+			}
+		}
+		if(histogram != null){
+			for(int x = offset; x < end; x++){
+				histogram.add(row[x]);
+			}
+		}
+		if(quantileSketch != null){
+			for(int x = offset; x < end; x++){
+				quantileSketch.add(row[x]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the array where the integer kernels store their results.
+	 *
+	 * @return an array of 4 positions
+	 */
+	long[] getIntegerResult(){
+		if(integerResult == null){
+			integerResult = new long[4];
+		}
+		return(integerResult);
+	}
+
+	/**
+	 * Updates the min and max values with the ones of a row.
+	 *
+	 * @param rowMin minimum of the row
+	 * @param rowMax maximum of the row
+	 */
+	void addMinMax(double rowMin, double rowMax){
+		if(rowMin < min){
+			min = rowMin;
+		}
+		if(rowMax > max){
+			max = rowMax;
+		}
+	}
+
+	/**
+	 * Adds the exact integer sums of a row of 1 or 2 bytes samples. The variance of the row is computed from the deviations to the rounded row mean, which are obtained exactly from the sums.
+	 *
+	 * @param length number of samples of the row
+	 * @param rowMin minimum of the row
+	 * @param rowMax maximum of the row
+	 * @param rowSum sum of the samples of the row
+	 * @param rowSquares sum of the squared samples of the row
+	 */
+	void addIntegerRow(int length, int rowMin, int rowMax, long rowSum, long rowSquares){
+		if((mask & (ImageStatistical.MIN_MAX | ImageStatistical.CENTER_RANGE)) != 0){
+			addMinMax(rowMin, rowMax);
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			integerSum.add(rowSum);
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			integerEnergy.add(rowSquares);
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			long shift = Math.round((double)rowSum / length);
+			long shiftedSum = rowSum - length * shift;
+			long shiftedSquares = rowSquares - 2 * shift * rowSum + length * shift * shift;
+			merge(length, shift + (double)shiftedSum / length, shiftedSquares - (double)shiftedSum * shiftedSum / length);
+		}else{
+			count += length;
+		}
+	}
+
+	/**
+	 * Merges the running mean and sum of squared deviations of another set of samples (Chan et al.).
+	 *
+	 * @param otherCount number of samples of the other set
+	 * @param otherMean mean of the other set
+	 * @param otherM2 sum of squared deviations of the other set
+	 */
+	void merge(long otherCount, double otherMean, double otherM2){
+		if(otherCount == 0){
+			return;
+		}
+		long newCount = count + otherCount;
+		double delta = otherMean - mean;
+		mean += delta * otherCount / newCount;
+		m2 += otherM2 + delta * delta * ((double)count * otherCount / newCount);
+		count = newCount;
+	}
+
+	/**
+	 * Merges all the statistical information of another accumulator into this one.
+	 *
+	 * @param other the accumulator to be merged
+	 */
+	public void merge(StatisticalAccumulator other){
+		if(other.count == 0){
+			return;
+		}
+		if(other.min < min){
+			min = other.min;
+		}
+		if(other.max > max){
+			max = other.max;
+		}
+		sum += other.sum;
+		integerSum.add(other.integerSum);
+		energy += other.energy;
+		integerEnergy.add(other.integerEnergy);
+		if((countedValues != null) && (other.countedValues != null)){
+			for(int i = 0; i < countedValues.length; i++){
+				countedValues[i] += other.countedValues[i];
+			}
+		}
+		if((histogram != null) && (other.histogram != null)){
+			histogram.merge(other.histogram);
+		}
+		if((quantileCounts != null) && (other.quantileCounts != null)){
+			quantileCounts.merge(other.quantileCounts);
+			quantileSketch.merge(other.quantileSketch);
+		}
+		if((moments != null) && (other.moments != null)){
+			moments.merge(other.moments);
+		}
+		merge(other.count, other.mean, other.m2);
+	}
+
+	/**
+	 * Writes all the accumulated information (counted values and histogram included) so it can be read back with read.
+	 *
+	 * @param out the output where the accumulator is written
+	 * @throws IOException when the accumulator cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeInt(mask);
+		out.writeLong(count);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeDouble(sum);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+		out.writeDouble(energy);
+		integerSum.write(out);
+		integerEnergy.write(out);
+		out.writeBoolean(countedValues != null);
+		if(countedValues != null){
+			for(int i = 0; i < countedValues.length; i++){
+				out.writeLong(countedValues[i]);
+			}
+		}
+		out.writeBoolean(histogram != null);
+		if(histogram != null){
+			histogram.write(out);
+		}
+		out.writeBoolean(quantileCounts != null);
+		if(quantileCounts != null){
+			quantileCounts.write(out);
+			quantileSketch.write(out);
+		}
+		out.writeBoolean(moments != null);
+		if(moments != null){
+			moments.write(out);
+		}
+	}
+
+	/**
+	 * Reads an accumulator written with write.
+	 *
+	 * @param in the input where the accumulator is read
+	 * @return the accumulator
+	 * @throws IOException when the accumulator cannot be read
+	 */
+	public static StatisticalAccumulator read(DataInput in) throws IOException{
+		StatisticalAccumulator accumulator = new StatisticalAccumulator(0);
+		accumulator.mask = in.readInt();
+		accumulator.count = in.readLong();
+		accumulator.min = in.readDouble();
+		accumulator.max = in.readDouble();
+		accumulator.sum = in.readDouble();
+		accumulator.mean = in.readDouble();
+		accumulator.m2 = in.readDouble();
+		accumulator.energy = in.readDouble();
+		accumulator.integerSum = IntegerSum.read(in);
+		accumulator.integerEnergy = IntegerSum.read(in);
+		if(in.readBoolean()){
+			accumulator.countedValues = new long[256];
+			for(int i = 0; i < accumulator.countedValues.length; i++){
+				accumulator.countedValues[i] = in.readLong();
+			}
+		}
+		if(in.readBoolean()){
+			accumulator.histogram = Histogram.read(in);
+		}
+		if(in.readBoolean()){
+			accumulator.quantileCounts = Histogram.read(in);
+			accumulator.quantileSketch = QuantileSketch.read(in);
+		}
+		if(in.readBoolean()){
+			accumulator.moments = CentralMoments.read(in);
+		}
+		return(accumulator);
+	}
+
+	/**
+	 * @return count definition in this class
+	 */
+	public long getCount(){
+		return(count);
+	}
+
+	/**
+	 * @return min definition in this class
+	 */
+	public double getMin(){
+		return(min);
+	}
+
+	/**
+	 * @return max definition in this class
+	 */
+	public double getMax(){
+		return(max);
+	}
+
+	/**
+	 * @return the average of the accumulated samples (the exact sum of the integer samples is rounded only here)
+	 */
+	public double getAverage(){
+		return((sum + integerSum.doubleValue()) / count);
+	}
+
+	/**
+	 * @return the sum of the squared samples (the exact sum of the integer ones is rounded only here)
+	 */
+	public double getEnergy(){
+		return(energy + integerEnergy.doubleValue());
+	}
+
+	/**
+	 * @return the variance of the accumulated samples
+	 */
+	public double getVariance(){
+		return(m2 / count);
+	}
+
+	/**
+	 * @return countedValues definition in this class
+	 */
+	public long[] getCountedValues(){
+		return(countedValues);
+	}
+
+	/**
+	 * @return histogram definition in this class
+	 */
+	public Histogram getHistogram(){
+		return(histogram);
+	}
+
+	/**
+	 * Computes the entropy (in bits) of the histogram of the accumulated samples.
+	 *
+	 * @return the entropy of the accumulated samples
+	 */
+	public double getEntropy(){
+		return(histogram != null ? histogram.getEntropy(): 0.0D);
+	}
+
+	/**
+	 * @return moments definition in this class
+	 */
+	public CentralMoments getMoments(){
+		return(moments);
+	}
+
+	/**
+	 * Computes the skewness of the accumulated samples (see {@link CentralMoments}).
+	 *
+	 * @return the skewness of the accumulated samples
+	 */
+	public double getSkewness(){
+		return(moments != null ? moments.getSkewness(): 0.0D);
+	}
+
+	/**
+	 * Computes the excess kurtosis of the accumulated samples (see {@link CentralMoments}).
+	 *
+	 * @return the kurtosis of the accumulated samples
+	 */
+	public double getKurtosis(){
+		return(moments != null ? moments.getKurtosis(): 0.0D);
+	}
+
+	/**
+	 * Computes some quantiles of the accumulated samples. They are exact for 1 and 2 bytes integer samples, and estimated by the sketch for the other types (if samples of both kinds have been merged, the counts are added to a copy of the sketch).
+	 *
+	 * @param fractions the quantiles to compute (between 0 and 1, for instance 0.5 for the median)
+	 * @return the value of each quantile (NaN if there are no samples), or null if quantiles are not computed
+	 */
+	public double[] getQuantiles(double[] fractions){
+		if(quantileCounts == null){
+			return(null);
+		}
+		if(quantileSketch.getCount() == 0){
+			return(quantileCounts.getQuantiles(fractions));
+		}
+		if(quantileCounts.getCount() == 0){
+			return(quantileSketch.getQuantiles(fractions));
+		}
+		QuantileSketch all = new QuantileSketch(quantileSketch.k);
+		all.merge(quantileSketch);
+		quantileCounts.addTo(all);
+		return(all.getQuantiles(fractions));
+	}
+}
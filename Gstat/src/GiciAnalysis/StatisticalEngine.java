@@ -0,0 +1,417 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import GiciFile.ArrayImageSamples;
+import GiciFile.ImageSamples;
+import GiciFile.RowConsumer;
+
+
+/**
+ * This class computes the statistical accumulators of each image component using several threads.<br>
+ * The image is split in tiles of consecutive rows of one component, and the range of tiles is recursively halved between threads. The partial accumulators are merged following the same halving tree, so partial results are freed as soon as they are merged. The tile size only depends on the image width and the tree only depends on the number of tiles, so the results do not depend on the number of threads.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class StatisticalEngine{
+
+	/**
+	 * Approximate number of samples of each tile.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int TILE_SAMPLES = 1 << 16;
+
+	/**
+	 * Maximum number of pixels of the blocks of the covariance (each block has all the components; it has whole rows, or a piece of one row when the rows are wider).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int BLOCK_PIXELS = 1 << 10;
+
+	/**
+	 * Maximum number of consecutive blocks of the covariance computed by a task with the same buffer.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int TASK_BLOCKS = 8;
+
+	/**
+	 * Statistics to compute (a combination of the constants defined in {@link ImageStatistical}).
+	 * <p>
+	 * Only combinations of those constants are allowed.
+	 */
+	int mask;
+
+	/**
+	 * Number of threads used to compute the statistics (0 uses all the available processors).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int threads;
+
+	/**
+	 * Width of the histogram bins (0 to use the integer part of the samples).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	double binWidth;
+
+	/**
+	 * Normalized rank error of the quantile sketches (see {@link QuantileSketch}).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	double rankError;
+
+	/**
+	 * Constructor of the engine.
+	 *
+	 * @param mask statistics to compute (a combination of the constants defined in {@link ImageStatistical})
+	 * @param threads number of threads (0 uses all the available processors)
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 */
+	public StatisticalEngine(int mask, int threads, double binWidth){
+		this(mask, threads, binWidth, QuantileSketch.DEFAULT_RANK_ERROR);
+	}
+
+	/**
+	 * Constructor of the engine.
+	 *
+	 * @param mask statistics to compute (a combination of the constants defined in {@link ImageStatistical})
+	 * @param threads number of threads (0 uses all the available processors)
+	 * @param binWidth width of the histogram bins (0 to use the integer part of the samples)
+	 * @param rankError normalized rank error of the quantile sketches
+	 */
+	public StatisticalEngine(int mask, int threads, double binWidth, double rankError){
+		this.mask = mask;
+		this.threads = threads;
+		this.binWidth = binWidth;
+		this.rankError = rankError;
+	}
+
+	/**
+	 * Creates an empty accumulator for the statistics of this engine.
+	 *
+	 * @return a new accumulator
+	 */
+	public StatisticalAccumulator createAccumulator(){
+		return(new StatisticalAccumulator(mask, binWidth, rankError));
+	}
+
+	/**
+	 * Computes the statistical accumulator of each component of the image.
+	 *
+	 * @param imageSamples a 3D float array that contains image samples
+	 * @return an array with the accumulator of each component
+	 */
+	public StatisticalAccumulator[] compute(float[][][] imageSamples){
+		return(compute(new ArrayImageSamples(imageSamples)));
+	}
+
+	/**
+	 * Computes the statistical accumulator of each component of the image, reading the samples in their native type.
+	 *
+	 * @param image the image samples
+	 * @return an array with the accumulator of each component
+	 */
+	public StatisticalAccumulator[] compute(ImageSamples image){
+		int ySize = image.getYSize();
+
+		//Tiling
+		int tileRows = getTileRows(ySize, image.getXSize());
+		int tilesPerComponent = (ySize + tileRows - 1) / tileRows;
+		TileTask task = new TileTask(this, image, tileRows, tilesPerComponent, 0, image.getZSize() * tilesPerComponent);
+
+		ForkJoinPool pool = new ForkJoinPool(getParallelism());
+		try{
+			return(pool.invoke(task).accumulators);
+		}finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the covariance between all the components of the image. Pixels are split in blocks of at most BLOCK_PIXELS pixels (with all the components): consecutive rows, or pieces of a row when the rows are wider. The range of blocks is halved between threads as the tiles of compute; each task reuses one block buffer for a few consecutive blocks. The blocks and the tree only depend on the image size, so the result does not depend on the number of threads.
+	 *
+	 * @param image the image samples
+	 * @return the covariance of the components
+	 */
+	public BandCovariance computeCovariance(ImageSamples image){
+		int blockWidth = Math.max(1, Math.min(image.getXSize(), BLOCK_PIXELS));
+		int blockRows = Math.max(1, Math.min(image.getYSize(), BLOCK_PIXELS / blockWidth));
+		int rowPieces = (Math.max(1, image.getXSize()) + blockWidth - 1) / blockWidth;
+		long blocks = (long) ((image.getYSize() + blockRows - 1) / blockRows) * rowPieces;
+		if(blocks > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Image too large to compute the covariance.");
+		}
+		BlockTask task = new BlockTask(image, blockRows, blockWidth, 0, (int) blocks);
+
+		ForkJoinPool pool = new ForkJoinPool(getParallelism());
+		try{
+			return(pool.invoke(task));
+		}finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the number of rows of each tile (it only depends on the image size).
+	 *
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @return the number of rows of each tile
+	 */
+	static int getTileRows(int ySize, int xSize){
+		return(Math.max(1, Math.min(ySize, TILE_SAMPLES / Math.max(1, xSize))));
+	}
+
+	/**
+	 * @return the number of threads used by this engine
+	 */
+	int getParallelism(){
+		return(threads > 0 ? threads: Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a consumer that computes the statistics of an image whose rows are received one by one, in order (see {@link StatisticalStream}).
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type of the rows (see {@link GiciFile.ImageSamples})
+	 * @return the stream consumer
+	 */
+	public StatisticalStream createStream(int zSize, int ySize, int xSize, int sampleType){
+		return(new StatisticalStream(this, zSize, ySize, xSize, sampleType, false));
+	}
+
+	/**
+	 * Creates a consumer that computes the statistics of an image whose rows are received one by one, in order: component by component, or row by row with all the components if the image is interleaved (see {@link StatisticalStream}).
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type of the rows (see {@link GiciFile.ImageSamples})
+	 * @param interleaved true if rows are received row by row with all the components
+	 * @return the stream consumer
+	 */
+	public StatisticalStream createStream(int zSize, int ySize, int xSize, int sampleType, boolean interleaved){
+		return(new StatisticalStream(this, zSize, ySize, xSize, sampleType, interleaved));
+	}
+
+	/**
+	 * Accumulators of a range of consecutive components.
+	 */
+	static class PartialResult{
+
+		/**
+		 * First component of the range.
+		 */
+		int firstComponent;
+
+		/**
+		 * Accumulator of each component of the range.
+		 */
+		StatisticalAccumulator[] accumulators;
+
+		PartialResult(int firstComponent, StatisticalAccumulator[] accumulators){
+			this.firstComponent = firstComponent;
+			this.accumulators = accumulators;
+		}
+
+		/**
+		 * Merges the result of the following range of tiles (which can begin in the last component of this range).
+		 *
+		 * @param next the result of the following tiles
+		 * @return the merged result
+		 */
+		PartialResult merge(PartialResult next){
+			int shared = (firstComponent + accumulators.length - 1 == next.firstComponent) ? 1: 0;
+			StatisticalAccumulator[] merged = new StatisticalAccumulator[accumulators.length + next.accumulators.length - shared];
+			System.arraycopy(accumulators, 0, merged, 0, accumulators.length);
+			if(shared == 1){
+				merged[accumulators.length - 1].merge(next.accumulators[0]);
+			}
+			System.arraycopy(next.accumulators, shared, merged, accumulators.length, next.accumulators.length - shared);
+			return(new PartialResult(firstComponent, merged));
+		}
+	}
+
+	/**
+	 * Task that computes the accumulators of a range of tiles, halving the range between threads.
+	 */
+	static class TileTask extends RecursiveTask<PartialResult>{
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Engine that creates the accumulators.
+		 */
+		final StatisticalEngine engine;
+
+		/**
+		 * Image samples.
+		 */
+		final ImageSamples image;
+
+		/**
+		 * Number of rows of each tile.
+		 */
+		final int tileRows;
+
+		/**
+		 * Number of tiles of each component.
+		 */
+		final int tilesPerComponent;
+
+		/**
+		 * First tile (inclusive) and last tile (exclusive) computed by this task.
+		 */
+		final int firstTile, lastTile;
+
+		TileTask(StatisticalEngine engine, ImageSamples image, int tileRows, int tilesPerComponent, int firstTile, int lastTile){
+			this.engine = engine;
+			this.image = image;
+			this.tileRows = tileRows;
+			this.tilesPerComponent = tilesPerComponent;
+			this.firstTile = firstTile;
+			this.lastTile = lastTile;
+		}
+
+		protected PartialResult compute(){
+			if(lastTile - firstTile == 1){
+				return(computeTile(firstTile));
+			}
+			int middle = (firstTile + lastTile) >>> 1;
+			TileTask first = new TileTask(engine, image, tileRows, tilesPerComponent, firstTile, middle);
+			TileTask second = new TileTask(engine, image, tileRows, tilesPerComponent, middle, lastTile);
+			second.fork();
+			PartialResult result = first.compute();
+			return(result.merge(second.join()));
+		}
+
+		/**
+		 * Computes the accumulator of one tile.
+		 *
+		 * @param tile the tile index
+		 * @return the result of the tile
+		 */
+		PartialResult computeTile(int tile){
+			final int xSize = image.getXSize();
+			final int sampleType = image.getSampleType();
+			int z = tile / tilesPerComponent;
+			int yBegin = (tile % tilesPerComponent) * tileRows;
+			int yEnd = Math.min(image.getYSize(), yBegin + tileRows);
+			final StatisticalAccumulator accumulator = engine.createAccumulator();
+			image.readRows(z, yBegin, yEnd, new RowConsumer(){
+				public void consumeRow(int z, int y, Object samples, int offset){
+					accumulator.addRow(samples, offset, xSize, sampleType);
+				}
+			});
+			return(new PartialResult(z, new StatisticalAccumulator[] {accumulator}));
+		}
+	}
+
+	/**
+	 * Task that computes the covariance of a range of blocks of rows, halving the range between threads.
+	 */
+	static class BlockTask extends RecursiveTask<BandCovariance>{
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Image samples.
+		 */
+		final ImageSamples image;
+
+		/**
+		 * Number of rows and of columns of each block (the rows are split in pieces of blockWidth columns).
+		 */
+		final int blockRows, blockWidth;
+
+		/**
+		 * First block (inclusive) and last block (exclusive) computed by this task.
+		 */
+		final int firstBlock, lastBlock;
+
+		BlockTask(ImageSamples image, int blockRows, int blockWidth, int firstBlock, int lastBlock){
+			this.image = image;
+			this.blockRows = blockRows;
+			this.blockWidth = blockWidth;
+			this.firstBlock = firstBlock;
+			this.lastBlock = lastBlock;
+		}
+
+		protected BandCovariance compute(){
+			if(lastBlock - firstBlock <= TASK_BLOCKS){
+				return(computeBlocks());
+			}
+			int middle = (firstBlock + lastBlock) >>> 1;
+			BlockTask first = new BlockTask(image, blockRows, blockWidth, firstBlock, middle);
+			BlockTask second = new BlockTask(image, blockRows, blockWidth, middle, lastBlock);
+			second.fork();
+			BandCovariance result = first.compute();
+			result.merge(second.join());
+			return(result);
+		}
+
+		/**
+		 * Computes the covariance of the blocks of this task, one after the other. The pieces of the rows of each component are widened to double in the buffer of the block, so the buffer has at most BLOCK_PIXELS samples per component whatever the image width is.
+		 *
+		 * @return the covariance of the blocks
+		 */
+		BandCovariance computeBlocks(){
+			final int zSize = image.getZSize();
+			final int sampleType = image.getSampleType();
+			int rowPieces = (Math.max(1, image.getXSize()) + blockWidth - 1) / blockWidth;
+			//An even number of rows (the last one, zeros) lets the products be computed in 2x2 tiles
+			final double[][] block = new double[zSize + (zSize & 1)][blockRows * blockWidth];
+			BandCovariance covariance = new BandCovariance(zSize);
+			double[] blockMean = new double[zSize];
+			double[] blockComoments = new double[zSize * (zSize + 1) / 2];
+			for(int b = firstBlock; b < lastBlock; b++){
+				final int yBegin = (b / rowPieces) * blockRows;
+				int yEnd = Math.min(image.getYSize(), yBegin + blockRows);
+				int xBegin = (b % rowPieces) * blockWidth;
+				final int width = Math.min(image.getXSize(), xBegin + blockWidth) - xBegin;
+				for(int z = 0; z < zSize; z++){
+					final double[] row = block[z];
+					image.readRows(z, yBegin, yEnd, xBegin, xBegin + width, new RowConsumer(){
+						public void consumeRow(int z, int y, Object samples, int offset){
+							ImageSamples.toDouble(samples, offset, row, (y - yBegin) * width, width, sampleType);
+						}
+					});
+				}
+				covariance.addBlock(block, (yEnd - yBegin) * width, blockMean, blockComoments);
+			}
+			return(covariance);
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import GiciFile.ArrayImageSamples;
+import GiciFile.RowConsumer;
+
+
+/**
+ * This class computes the statistics of an image whose rows are received one by one, in order (for instance, while a file is read sequentially), so the image does not need to be stored.<br>
+ * Rows are copied to tile buffers with the same tiling used by {@link StatisticalEngine}; each full tile is computed by a thread of the pool while next rows are received. At most two tiles per thread are buffered and only the results waiting for their sibling in the merging tree (one per level) are kept, so the memory used is proportional to one row-block, not to the image. This bound includes the histograms of the entropy and of the exact percentiles, which never have more than 2^16 bins (bins are merged beyond that), and the quantile sketches, whose size only depends on the rank error bound. Tile results are merged following the same halving tree as the engine, so the results are the same as the ones computed with the whole image in memory.<br>
+ * Rows of interleaved images (band-interleaved by line or by pixel) can be received row by row, with all the components of each row: then each component has its own tile buffer, and the results of the tiles of each component are merged following the part of the halving tree of that component, which gives the same results.<br>
+ * Usage: create it with {@link StatisticalEngine#createStream}, give it all the rows of the image and call finish.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class StatisticalStream implements RowConsumer{
+
+	/**
+	 * Engine that creates the accumulators.
+	 */
+	StatisticalEngine engine;
+
+	/**
+	 * Image geometry and sample type.
+	 */
+	int zSize, ySize, xSize, sampleType;
+
+	/**
+	 * Indicates whether rows are received row by row with all the components (true) or component by component (false).
+	 */
+	boolean interleaved;
+
+	/**
+	 * Number of rows of each tile.
+	 */
+	int tileRows;
+
+	/**
+	 * Number of tiles of each component.
+	 */
+	int tilesPerComponent;
+
+	/**
+	 * Pool of threads that compute the tiles.
+	 */
+	ForkJoinPool pool;
+
+	/**
+	 * Maximum number of tiles being computed.
+	 */
+	int maxPending;
+
+	/**
+	 * Tiles being computed, in order.
+	 */
+	LinkedList<Future<StatisticalAccumulator>> pending = new LinkedList<Future<StatisticalAccumulator>>();
+
+	/**
+	 * Index of each tile being computed, in the same order than pending.
+	 */
+	LinkedList<Integer> pendingTiles = new LinkedList<Integer>();
+
+	/**
+	 * Buffers of the tiles being computed, in the same order than pending.
+	 */
+	LinkedList<ArrayImageSamples> pendingBuffers = new LinkedList<ArrayImageSamples>();
+
+	/**
+	 * Tile buffers that can be reused.
+	 */
+	ArrayList<ArrayImageSamples> freeBuffers = new ArrayList<ArrayImageSamples>();
+
+	/**
+	 * Buffer of the tile being received of each component (null when no row of the tile has been received). Images received component by component only use the first one.
+	 */
+	ArrayImageSamples[] tileBuffers;
+
+	/**
+	 * Number of tiles received.
+	 */
+	int tile = 0;
+
+	/**
+	 * Partial results of the merging tree that are waiting for their sibling (with the range of tiles of each one).
+	 */
+	ArrayList<StatisticalEngine.PartialResult> stack = new ArrayList<StatisticalEngine.PartialResult>();
+
+	/**
+	 * First and last (exclusive) tile of each partial result of the stack.
+	 */
+	ArrayList<int[]> stackRanges = new ArrayList<int[]>();
+
+	/**
+	 * Accumulators of the merging tree of each component of interleaved images that are waiting for their sibling, and their range of tiles.
+	 */
+	ArrayList<ArrayList<StatisticalAccumulator>> componentStacks = null;
+	ArrayList<ArrayList<int[]>> componentRanges = null;
+
+	/**
+	 * Constructor (see {@link StatisticalEngine#createStream}).
+	 *
+	 * @param engine engine that creates the accumulators
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type of the rows (see {@link GiciFile.ImageSamples})
+	 * @param interleaved true if rows are received row by row with all the components, false if they are received component by component
+	 */
+	StatisticalStream(StatisticalEngine engine, int zSize, int ySize, int xSize, int sampleType, boolean interleaved){
+		this.engine = engine;
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		this.sampleType = sampleType;
+		this.interleaved = interleaved;
+		tileBuffers = new ArrayImageSamples[interleaved ? zSize: 1];
+		if(interleaved){
+			componentStacks = new ArrayList<ArrayList<StatisticalAccumulator>>(zSize);
+			componentRanges = new ArrayList<ArrayList<int[]>>(zSize);
+			for(int z = 0; z < zSize; z++){
+				componentStacks.add(new ArrayList<StatisticalAccumulator>());
+				componentRanges.add(new ArrayList<int[]>());
+			}
+		}
+		tileRows = StatisticalEngine.getTileRows(ySize, xSize);
+		tilesPerComponent = (ySize + tileRows - 1) / tileRows;
+		int parallelism = engine.getParallelism();
+		pool = new ForkJoinPool(parallelism);
+		maxPending = 2 * parallelism;
+	}
+
+	/**
+	 * Receives a row of the image. Rows must be received in order: component by component and row by row, or, if the stream is interleaved, row by row and component by component.
+	 *
+	 * @param z component of the row
+	 * @param y row index
+	 * @param samples a primitive array that contains the row (it is copied)
+	 * @param offset position of the first sample of the row in the array
+	 */
+	public void consumeRow(int z, int y, Object samples, int offset){
+		int b = interleaved ? z: 0;
+		if(tileBuffers[b] == null){
+			tileBuffers[b] = freeBuffers.isEmpty() ? new ArrayImageSamples(1, tileRows, xSize, sampleType): freeBuffers.remove(freeBuffers.size() - 1);
+		}
+		int row = y % tileRows;
+		System.arraycopy(samples, offset, tileBuffers[b].getRowArray(0, row), tileBuffers[b].getRowOffset(0, row), xSize);
+		if((row == tileRows - 1) || (y == ySize - 1)){
+			submitTile(b, z * tilesPerComponent + y / tileRows, row + 1);
+		}
+	}
+
+	/**
+	 * Submits a tile that has been received to the pool. If there are too many tiles being computed, waits for the first one.
+	 *
+	 * @param b tile buffer of the tile
+	 * @param tileIndex index of the tile
+	 * @param rows number of rows of the tile
+	 */
+	void submitTile(int b, int tileIndex, final int rows){
+		final ArrayImageSamples buffer = tileBuffers[b];
+		tileBuffers[b] = null;
+		pending.add(pool.submit(new Callable<StatisticalAccumulator>(){
+			public StatisticalAccumulator call(){
+				final StatisticalAccumulator accumulator = engine.createAccumulator();
+				buffer.readRows(0, 0, rows, new RowConsumer(){
+					public void consumeRow(int z, int y, Object samples, int offset){
+						accumulator.addRow(samples, offset, xSize, sampleType);
+					}
+				});
+				return(accumulator);
+			}
+		}));
+		pendingBuffers.add(buffer);
+		pendingTiles.add(tileIndex);
+		tile++;
+		while(pending.size() > maxPending){
+			mergeFirstPending();
+		}
+	}
+
+	/**
+	 * Waits for the first tile being computed and merges its result.
+	 */
+	void mergeFirstPending(){
+		StatisticalAccumulator accumulator;
+		try{
+			accumulator = pending.removeFirst().get();
+		}catch(InterruptedException e){
+			throw new RuntimeException(e);
+		}catch(ExecutionException e){
+			throw new RuntimeException(e.getCause());
+		}
+		freeBuffers.add(pendingBuffers.removeFirst());
+		int tileIndex = pendingTiles.removeFirst();
+		int z = tileIndex / tilesPerComponent;
+		if(interleaved){
+			pushComponent(z, accumulator, tileIndex);
+		}else{
+			push(new StatisticalEngine.PartialResult(z, new StatisticalAccumulator[] {accumulator}), tileIndex);
+		}
+	}
+
+	/**
+	 * Pushes the result of a tile to the merging tree, merging it with its siblings of the halving tree as soon as they are available.
+	 *
+	 * @param result result of the tile
+	 * @param tileIndex index of the tile
+	 */
+	void push(StatisticalEngine.PartialResult result, int tileIndex){
+		stack.add(result);
+		stackRanges.add(new int[] {tileIndex, tileIndex + 1});
+		int tiles = zSize * tilesPerComponent;
+		while(stack.size() >= 2){
+			int[] left = stackRanges.get(stackRanges.size() - 2);
+			int[] right = stackRanges.get(stackRanges.size() - 1);
+			if(!isNode(left[0], right[1], 0, tiles)){
+				break;
+			}
+			StatisticalEngine.PartialResult rightResult = stack.remove(stack.size() - 1);
+			stackRanges.remove(stackRanges.size() - 1);
+			stack.set(stack.size() - 1, stack.get(stack.size() - 1).merge(rightResult));
+			left[1] = right[1];
+		}
+	}
+
+	/**
+	 * Pushes the result of a tile of an interleaved image to the merging tree of its component. Tiles of each component are received in order, and two results are merged when they are the part of the component of two siblings of the halving tree (so the accumulator of each component is merged as in the whole tree).
+	 *
+	 * @param z component of the tile
+	 * @param accumulator result of the tile
+	 * @param tileIndex index of the tile
+	 */
+	void pushComponent(int z, StatisticalAccumulator accumulator, int tileIndex){
+		ArrayList<StatisticalAccumulator> componentStack = componentStacks.get(z);
+		ArrayList<int[]> ranges = componentRanges.get(z);
+		componentStack.add(accumulator);
+		ranges.add(new int[] {tileIndex, tileIndex + 1});
+		int tiles = zSize * tilesPerComponent;
+		while(componentStack.size() >= 2){
+			int[] left = ranges.get(ranges.size() - 2);
+			int[] right = ranges.get(ranges.size() - 1);
+			if(!isNode(left[0], right[1], 0, tiles, z * tilesPerComponent, (z + 1) * tilesPerComponent)){
+				break;
+			}
+			StatisticalAccumulator rightAccumulator = componentStack.remove(componentStack.size() - 1);
+			ranges.remove(ranges.size() - 1);
+			componentStack.get(componentStack.size() - 1).merge(rightAccumulator);
+			left[1] = right[1];
+		}
+	}
+
+	/**
+	 * Checks whether a range of tiles is a node of the halving tree used by {@link StatisticalEngine}.
+	 *
+	 * @param first first tile of the range
+	 * @param last last tile of the range (exclusive)
+	 * @param nodeFirst first tile of the node where the search begins
+	 * @param nodeLast last tile of the node where the search begins (exclusive)
+	 * @return true if the range is a node
+	 */
+	static boolean isNode(int first, int last, int nodeFirst, int nodeLast){
+		return(isNode(first, last, nodeFirst, nodeLast, nodeFirst, nodeLast));
+	}
+
+	/**
+	 * Checks whether a range of tiles is the part inside some limits of a node of the halving tree used by {@link StatisticalEngine}.
+	 *
+	 * @param first first tile of the range
+	 * @param last last tile of the range (exclusive)
+	 * @param nodeFirst first tile of the node where the search begins
+	 * @param nodeLast last tile of the node where the search begins (exclusive)
+	 * @param clipFirst first tile of the limits
+	 * @param clipLast last tile of the limits (exclusive)
+	 * @return true if the range is the part of a node inside the limits
+	 */
+	static boolean isNode(int first, int last, int nodeFirst, int nodeLast, int clipFirst, int clipLast){
+		while(true){
+			if((first == Math.max(nodeFirst, clipFirst)) && (last == Math.min(nodeLast, clipLast))){
+				return(true);
+			}
+			int middle = (nodeFirst + nodeLast) >>> 1;
+			if(last <= middle){
+				nodeLast = middle;
+			}else if(first >= middle){
+				nodeFirst = middle;
+			}else{
+				return(false);
+			}
+			if(nodeLast - nodeFirst < 1){
+				return(false);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the tiles being computed and returns the accumulators of the image. All the rows must have been received.
+	 *
+	 * @return an array with the accumulator of each component
+	 */
+	public StatisticalAccumulator[] finish(){
+		try{
+			while(!pending.isEmpty()){
+				mergeFirstPending();
+			}
+		}finally{
+			pool.shutdown();
+		}
+		if(tile != zSize * tilesPerComponent){
+			throw new IllegalStateException("The stream has not received all the rows of the image.");
+		}
+		if(interleaved){
+			StatisticalAccumulator[] accumulators = new StatisticalAccumulator[zSize];
+			for(int z = 0; z < zSize; z++){
+				if(componentStacks.get(z).size() != 1){
+					throw new IllegalStateException("The stream has not received all the rows of the image.");
+				}
+				accumulators[z] = componentStacks.get(z).get(0);
+			}
+			return(accumulators);
+		}
+		if(stack.size() != 1){
+			throw new IllegalStateException("The stream has not received all the rows of the image.");
+		}
+		return(stack.get(0).accumulators);
+	}
+}
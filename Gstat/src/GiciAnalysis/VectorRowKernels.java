@@ -0,0 +1,243 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciAnalysis;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Row kernels implemented with the Java Vector API (module jdk.incubator.vector).<br>
+ * The preferred species of the platform is used, except for float rows, whose lanes are the fixed partial sums of {@link RowKernels#FLOAT_STRIPES} so they give the same bits as the scalar loop. Integer samples are biased to signed values (unsigned samples are XORed with the sign bit) so that the lanes can be compared and widened with signed operations; the bias is removed from the exact reductions at the end. Lane accumulators are flushed to long values before they can lose precision or overflow.<br>
+ * This class must only be loaded by reflection (see {@link RowKernels#VECTOR_KERNELS_CLASS}).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class VectorRowKernels implements RowKernels{
+
+	/**
+	 * Species used for float samples: one lane for each partial sum of the float rows (see {@link RowKernels#FLOAT_STRIPES}), whatever the preferred species of the platform is.
+	 */
+	static final VectorSpecies<Float> FLOAT = FloatVector.SPECIES_256;
+
+	/**
+	 * Species used for the double partial sums of the float rows (each one holds half of the partial sums).
+	 */
+	static final VectorSpecies<Double> STRIPES = DoubleVector.SPECIES_256;
+
+	/**
+	 * Species used for the double accumulators.
+	 */
+	static final VectorSpecies<Double> DOUBLE = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Species used for 2 bytes samples.
+	 */
+	static final VectorSpecies<Short> SHORT = ShortVector.SPECIES_PREFERRED;
+
+	/**
+	 * Species used for 1 byte samples.
+	 */
+	static final VectorSpecies<Byte> BYTE = ByteVector.SPECIES_PREFERRED;
+
+	/**
+	 * Species used for the int accumulators.
+	 */
+	static final VectorSpecies<Integer> INT = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * Number of double vectors obtained widening a short vector.
+	 */
+	static final int SHORT_PARTS = SHORT.length() / DOUBLE.length();
+
+	/**
+	 * Number of int vectors obtained widening a byte vector.
+	 */
+	static final int BYTE_PARTS = BYTE.length() / INT.length();
+
+	/**
+	 * Iterations after which the short lane accumulators are flushed (each lane adds at most SHORT_PARTS * 2^30 per iteration, and must stay exact below 2^53).
+	 */
+	static final int SHORT_FLUSH = 1 << 16;
+
+	/**
+	 * Iterations after which the byte lane accumulators are flushed (each lane adds at most BYTE_PARTS * 2^14 per iteration, and must stay below 2^31).
+	 */
+	static final int BYTE_FLUSH = 1 << 12;
+
+	/**
+	 * Constructor. Fails if the vector species cannot be widened as expected.
+	 */
+	public VectorRowKernels(){
+		if((SHORT_PARTS < 1) || (BYTE_PARTS < 1) || (FLOAT.length() != FLOAT_STRIPES) || (2 * STRIPES.length() != FLOAT_STRIPES)){
+			throw new UnsupportedOperationException("Unexpected vector shapes.");
+		}
+	}
+
+	public void floatRow(float[] row, int offset, int length, double[] result){
+		float shift = row[offset];
+		FloatVector vMin = FloatVector.broadcast(FLOAT, Float.POSITIVE_INFINITY);
+		FloatVector vMax = FloatVector.broadcast(FLOAT, Float.NEGATIVE_INFINITY);
+		DoubleVector vShift = DoubleVector.broadcast(STRIPES, shift);
+		//Lanes of the low and high halves are the partial sums 0 to 3 and 4 to 7
+		DoubleVector sumLow = DoubleVector.zero(STRIPES);
+		DoubleVector sumHigh = DoubleVector.zero(STRIPES);
+		DoubleVector squaresLow = DoubleVector.zero(STRIPES);
+		DoubleVector squaresHigh = DoubleVector.zero(STRIPES);
+		DoubleVector energyLow = DoubleVector.zero(STRIPES);
+		DoubleVector energyHigh = DoubleVector.zero(STRIPES);
+		int x = offset;
+		int bound = offset + (length - length % FLOAT_STRIPES);
+		for(; x < bound; x += FLOAT_STRIPES){
+			FloatVector v = FloatVector.fromArray(FLOAT, row, x);
+			//NaN lanes keep the running min and max, so NaN samples are ignored as in the scalar comparisons
+			VectorMask<Float> nan = v.test(VectorOperators.IS_NAN);
+			vMin = vMin.min(v.blend(vMin, nan));
+			vMax = vMax.max(v.blend(vMax, nan));
+			DoubleVector low = (DoubleVector) v.convertShape(VectorOperators.F2D, STRIPES, 0);
+			DoubleVector high = (DoubleVector) v.convertShape(VectorOperators.F2D, STRIPES, 1);
+			energyLow = energyLow.add(low.mul(low));
+			energyHigh = energyHigh.add(high.mul(high));
+			low = low.sub(vShift);
+			high = high.sub(vShift);
+			sumLow = sumLow.add(low);
+			sumHigh = sumHigh.add(high);
+			squaresLow = squaresLow.add(low.mul(low));
+			squaresHigh = squaresHigh.add(high.mul(high));
+		}
+		double[] sums = new double[FLOAT_STRIPES];
+		double[] squares = new double[FLOAT_STRIPES];
+		double[] energies = new double[FLOAT_STRIPES];
+		sumLow.intoArray(sums, 0);
+		sumHigh.intoArray(sums, STRIPES.length());
+		squaresLow.intoArray(squares, 0);
+		squaresHigh.intoArray(squares, STRIPES.length());
+		energyLow.intoArray(energies, 0);
+		energyHigh.intoArray(energies, STRIPES.length());
+		StatisticalAccumulator.finishFloatRow(row, bound, offset + length, shift, vMin.reduceLanes(VectorOperators.MIN), vMax.reduceLanes(VectorOperators.MAX), sums, squares, energies, result);
+	}
+
+	public void shortRow(short[] row, int offset, int length, boolean unsigned, long[] result){
+		int end = offset + length;
+		short bias = unsigned ? Short.MIN_VALUE: 0;
+		ShortVector vMin = ShortVector.broadcast(SHORT, Short.MAX_VALUE);
+		ShortVector vMax = ShortVector.broadcast(SHORT, Short.MIN_VALUE);
+		DoubleVector vSum = DoubleVector.zero(DOUBLE);
+		DoubleVector vSquares = DoubleVector.zero(DOUBLE);
+		long biasedSum = 0;
+		long biasedSquares = 0;
+		int x = offset;
+		int bound = offset + SHORT.loopBound(length);
+		int iterations = 0;
+		for(; x < bound; x += SHORT.length()){
+			ShortVector v = ShortVector.fromArray(SHORT, row, x).lanewise(VectorOperators.XOR, bias);
+			vMin = vMin.min(v);
+			vMax = vMax.max(v);
+			for(int part = 0; part < SHORT_PARTS; part++){
+				DoubleVector d = (DoubleVector) v.convertShape(VectorOperators.S2D, DOUBLE, part);
+				vSum = vSum.add(d);
+				vSquares = vSquares.add(d.mul(d));
+			}
+			if(++iterations == SHORT_FLUSH){
+				biasedSum += (long) vSum.reduceLanes(VectorOperators.ADD);
+				biasedSquares += (long) vSquares.reduceLanes(VectorOperators.ADD);
+				vSum = DoubleVector.zero(DOUBLE);
+				vSquares = DoubleVector.zero(DOUBLE);
+				iterations = 0;
+			}
+		}
+		biasedSum += (long) vSum.reduceLanes(VectorOperators.ADD);
+		biasedSquares += (long) vSquares.reduceLanes(VectorOperators.ADD);
+		int rowMin = vMin.reduceLanes(VectorOperators.MIN);
+		int rowMax = vMax.reduceLanes(VectorOperators.MAX);
+		for(; x < end; x++){
+			int sample = (short)(row[x] ^ bias);
+			rowMin = Math.min(rowMin, sample);
+			rowMax = Math.max(rowMax, sample);
+			biasedSum += sample;
+			biasedSquares += (long)sample * sample;
+		}
+		//Bias removal: sum(s + c) = sum(s) + n*c, sum((s + c)^2) = sum(s^2) + 2*c*sum(s) + n*c^2
+		long c = unsigned ? 1 << 15: 0;
+		result[0] = rowMin + c;
+		result[1] = rowMax + c;
+		result[2] = biasedSum + length * c;
+		result[3] = biasedSquares + 2 * c * biasedSum + length * c * c;
+	}
+
+	public void byteRow(byte[] row, int offset, int length, long[] result){
+		int end = offset + length;
+		ByteVector vMin = ByteVector.broadcast(BYTE, Byte.MAX_VALUE);
+		ByteVector vMax = ByteVector.broadcast(BYTE, Byte.MIN_VALUE);
+		IntVector vSum = IntVector.zero(INT);
+		IntVector vSquares = IntVector.zero(INT);
+		long biasedSum = 0;
+		long biasedSquares = 0;
+		int x = offset;
+		int bound = offset + BYTE.loopBound(length);
+		int iterations = 0;
+		for(; x < bound; x += BYTE.length()){
+			ByteVector v = ByteVector.fromArray(BYTE, row, x).lanewise(VectorOperators.XOR, Byte.MIN_VALUE);
+			vMin = vMin.min(v);
+			vMax = vMax.max(v);
+			for(int part = 0; part < BYTE_PARTS; part++){
+				IntVector i = (IntVector) v.convertShape(VectorOperators.B2I, INT, part);
+				vSum = vSum.add(i);
+				vSquares = vSquares.add(i.mul(i));
+			}
+			if(++iterations == BYTE_FLUSH){
+				biasedSum += vSum.reduceLanesToLong(VectorOperators.ADD);
+				biasedSquares += vSquares.reduceLanesToLong(VectorOperators.ADD);
+				vSum = IntVector.zero(INT);
+				vSquares = IntVector.zero(INT);
+				iterations = 0;
+			}
+		}
+		biasedSum += vSum.reduceLanesToLong(VectorOperators.ADD);
+		biasedSquares += vSquares.reduceLanesToLong(VectorOperators.ADD);
+		int rowMin = vMin.reduceLanes(VectorOperators.MIN);
+		int rowMax = vMax.reduceLanes(VectorOperators.MAX);
+		for(; x < end; x++){
+			int sample = (byte)(row[x] ^ Byte.MIN_VALUE);
+			rowMin = Math.min(rowMin, sample);
+			rowMax = Math.max(rowMax, sample);
+			biasedSum += sample;
+			biasedSquares += sample * sample;
+		}
+		long c = 1 << 7;
+		result[0] = rowMin + c;
+		result[1] = rowMax + c;
+		result[2] = biasedSum + length * c;
+		result[3] = biasedSquares + 2 * c * biasedSum + length * c * c;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+
+
+/**
+ * Image container that keeps the samples in Java primitive arrays of their native type (byte[], short[], int[], long[], float[] or double[]).<br>
+ * Samples are stored in chunks of consecutive rows of one component, so no array is larger than MAX_CHUNK_SAMPLES (or than one row). A 3D float array can also be wrapped without copying it (one chunk per row).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ArrayImageSamples extends ImageSamples{
+
+	/**
+	 * Maximum number of samples of a chunk (unless the image width is larger).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int MAX_CHUNK_SAMPLES = 1 << 24;
+
+	/**
+	 * Arrays where the samples are stored. The chunk c holds rows c*rowsPerChunk to (c+1)*rowsPerChunk - 1 of one component.
+	 * <p>
+	 * Arrays of the type given by {@link ImageSamples#createRowArray}.
+	 */
+	Object[] chunks;
+
+	/**
+	 * Number of rows of each chunk.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowsPerChunk;
+
+	/**
+	 * Number of chunks of each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int chunksPerComponent;
+
+	/**
+	 * Allocates an image with all the samples set to 0.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 */
+	public ArrayImageSamples(int zSize, int ySize, int xSize, int sampleType){
+		super(zSize, ySize, xSize, sampleType);
+		rowsPerChunk = Math.max(1, Math.min(ySize, MAX_CHUNK_SAMPLES / Math.max(1, xSize)));
+		chunksPerComponent = (ySize + rowsPerChunk - 1) / rowsPerChunk;
+		chunks = new Object[zSize * chunksPerComponent];
+		for(int z = 0; z < zSize; z++){
+			for(int chunk = 0; chunk < chunksPerComponent; chunk++){
+				int rows = Math.min(rowsPerChunk, ySize - chunk * rowsPerChunk);
+				chunks[z * chunksPerComponent + chunk] = createRowArray(sampleType, rows * xSize);
+			}
+		}
+	}
+
+	/**
+	 * Wraps a 3D float array (the samples are not copied).
+	 *
+	 * @param imageSamples a 3D float array that contains image samples (index meaning [z][y][x])
+	 */
+	public ArrayImageSamples(float[][][] imageSamples){
+		super(imageSamples.length, imageSamples[0].length, imageSamples[0][0].length, 6);
+		rowsPerChunk = 1;
+		chunksPerComponent = ySize;
+		chunks = new Object[zSize * ySize];
+		for(int z = 0; z < zSize; z++){
+			for(int y = 0; y < ySize; y++){
+				chunks[z * ySize + y] = imageSamples[z][y];
+			}
+		}
+	}
+
+	/**
+	 * Returns the array where a row is stored.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @return a primitive array (see {@link ImageSamples#createRowArray})
+	 */
+	public Object getRowArray(int z, int y){
+		return(chunks[z * chunksPerComponent + y / rowsPerChunk]);
+	}
+
+	/**
+	 * Returns the position of the first sample of a row in the array returned by getRowArray.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @return the offset of the row
+	 */
+	public int getRowOffset(int z, int y){
+		return((y % rowsPerChunk) * xSize);
+	}
+
+	/**
+	 * Gives some consecutive rows of a component to a consumer, directly from the arrays where they are stored.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, RowConsumer consumer){
+		for(int y = yBegin; y < yEnd; y++){
+			consumer.consumeRow(z, y, getRowArray(z, y), getRowOffset(z, y));
+		}
+	}
+}
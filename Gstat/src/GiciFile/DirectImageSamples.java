@@ -0,0 +1,270 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Image container that keeps the samples off the Java heap, in direct byte buffers in the native byte order.<br>
+ * All the rows of the image (component after component) are laid out consecutively, so a sample is addressed by a 64-bit offset (see getSampleOffset). The layout is split in blocks of whole rows of at most MAX_BLOCK_BYTES (a single buffer is limited to 2 GB), and the Java heap only holds the buffer objects, whatever the image size. The memory is released by free as soon as the image is not needed, without waiting for the garbage collector.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class DirectImageSamples extends ImageSamples{
+
+	/**
+	 * Maximum number of bytes of each block (unless a row is larger).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final long MAX_BLOCK_BYTES = 1L << 30;
+
+	/**
+	 * Blocks of memory. The block b holds the rows b*rowsPerBlock to (b+1)*rowsPerBlock - 1 of the image, counting the rows of all the components in order.
+	 * <p>
+	 * Null once the memory is freed.
+	 */
+	ByteBuffer[] blocks;
+
+	/**
+	 * Number of rows of each block.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowsPerBlock;
+
+	/**
+	 * Number of bytes of a row.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowBytes;
+
+	/**
+	 * Method that releases the memory of a direct buffer (sun.misc.Unsafe.invokeCleaner), and the object it is called on (null if the virtual machine does not have it).
+	 * <p>
+	 * All values allowed.
+	 */
+	static Method cleaner = null;
+	static Object unsafe = null;
+
+	static{
+		try{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		}catch(Exception e){
+			//Buffers are released by the garbage collector
+			cleaner = null;
+		}
+	}
+
+	/**
+	 * Allocates an image with all the samples set to 0.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 *
+	 * @throws OutOfMemoryError when there is not enough direct memory (see the -XX:MaxDirectMemorySize option of the virtual machine)
+	 */
+	public DirectImageSamples(int zSize, int ySize, int xSize, int sampleType){
+		super(zSize, ySize, xSize, sampleType);
+		long longRowBytes = (long) xSize * getSampleBytes(sampleType);
+		if(longRowBytes > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Rows larger than " + Integer.MAX_VALUE + " bytes can not be stored.");
+		}
+		rowBytes = (int) Math.max(1, longRowBytes);
+		long rows = (long) zSize * ySize;
+		rowsPerBlock = (int) Math.max(1, Math.min(rows, MAX_BLOCK_BYTES / rowBytes));
+		int blockCount = (int) ((rows + rowsPerBlock - 1) / rowsPerBlock);
+		blocks = new ByteBuffer[blockCount];
+		try{
+			for(int b = 0; b < blockCount; b++){
+				long blockRows = Math.min(rowsPerBlock, rows - (long) b * rowsPerBlock);
+				blocks[b] = ByteBuffer.allocateDirect((int) (blockRows * rowBytes)).order(ByteOrder.nativeOrder());
+			}
+		}catch(OutOfMemoryError e){
+			free();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the position of a sample in the layout of the image.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param x the column
+	 * @return the offset of the sample, in samples (it can exceed the range of int)
+	 */
+	public long getSampleOffset(int z, int y, int x){
+		return(((long) z * ySize + y) * xSize + x);
+	}
+
+	/**
+	 * Returns a view of a row (no samples are copied). The view is positioned at the first byte of the row, its limit is the end of the row and its byte order is the native one. Views of different rows can be used by different threads.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @return a byte buffer of rowBytes bytes
+	 */
+	public ByteBuffer getRowBuffer(int z, int y){
+		long row = (long) z * ySize + y;
+		ByteBuffer view = blocks[(int) (row / rowsPerBlock)].duplicate();
+		int position = (int) (row % rowsPerBlock) * rowBytes;
+		view.limit(position + rowBytes);
+		view.position(position);
+		return(view.slice().order(ByteOrder.nativeOrder()));
+	}
+
+	/**
+	 * Stores a row of samples.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @param row array with the samples (see {@link ImageSamples#createRowArray})
+	 * @param offset position of the first sample of the row in the array
+	 */
+	public void writeRow(int z, int y, Object row, int offset){
+		encodeRow(getRowBuffer(z, y), sampleType, row, offset, xSize);
+	}
+
+	/**
+	 * Returns a consumer that stores the rows it receives (see writeRow). It can be called by several threads for different rows.
+	 *
+	 * @return the consumer
+	 */
+	public RowConsumer getWriter(){
+		return(new RowConsumer(){
+			public void consumeRow(int z, int y, Object row, int offset){
+				writeRow(z, y, row, offset);
+			}
+		});
+	}
+
+	/**
+	 * Gives some consecutive rows of a component to a consumer, decoding each row to a reusable array.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, RowConsumer consumer){
+		Object row = createRowArray(sampleType, xSize);
+		for(int y = yBegin; y < yEnd; y++){
+			MappedImageSamples.decodeRow(getRowBuffer(z, y), sampleType, row, 0, xSize);
+			consumer.consumeRow(z, y, row, 0);
+		}
+	}
+
+	/**
+	 * Gives a range of columns of some consecutive rows of a component to a consumer, decoding only the range to a reusable array.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param xBegin first column (inclusive)
+	 * @param xEnd last column (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, int xBegin, int xEnd, RowConsumer consumer){
+		Object row = createRowArray(sampleType, xEnd - xBegin);
+		int sampleBytes = getSampleBytes(sampleType);
+		for(int y = yBegin; y < yEnd; y++){
+			ByteBuffer buffer = getRowBuffer(z, y);
+			buffer.position(xBegin * sampleBytes);
+			MappedImageSamples.decodeRow(buffer, sampleType, row, 0, xEnd - xBegin);
+			consumer.consumeRow(z, y, row, 0);
+		}
+	}
+
+	/**
+	 * Releases the memory of the samples. The image can not be used afterwards.
+	 */
+	public synchronized void free(){
+		if(blocks != null){
+			ByteBuffer[] released = blocks;
+			blocks = null;
+			if(cleaner != null){
+				for(int b = 0; b < released.length; b++){
+					if(released[b] != null){
+						try{
+							cleaner.invoke(unsafe, released[b]);
+						}catch(Exception e){
+							//The buffer is released by the garbage collector
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes a row of samples with bulk puts to a typed view of the buffer (the inverse of {@link MappedImageSamples#decodeRow}).
+	 *
+	 * @param buffer buffer positioned at the first byte of the row, with the byte order of the samples
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param row array with the samples (see {@link ImageSamples#createRowArray})
+	 * @param offset position of the first sample in the array
+	 * @param length number of samples
+	 */
+	public static void encodeRow(ByteBuffer buffer, int sampleType, Object row, int offset, int length){
+		switch(sampleType){
+		case 0: //boolean (1 byte)
+		case 1: //unsigned int (1 byte)
+			buffer.put((byte[]) row, offset, length);
+			break;
+		case 2: //unsigned int (2 bytes)
+		case 3: //signed short (2 bytes)
+			buffer.asShortBuffer().put((short[]) row, offset, length);
+			break;
+		case 4: //signed int (4 bytes)
+			buffer.asIntBuffer().put((int[]) row, offset, length);
+			break;
+		case 5: //signed long (8 bytes)
+			buffer.asLongBuffer().put((long[]) row, offset, length);
+			break;
+		case 6: //float (4 bytes)
+			buffer.asFloatBuffer().put((float[]) row, offset, length);
+			break;
+		case 7: //double (8 bytes)
+			buffer.asDoubleBuffer().put((double[]) row, offset, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+	}
+}
@@ -0,0 +1,626 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * Index of checkpoints of a gzip file that allows to start inflating it near any position of the uncompressed data (as zran of zlib does).<br>
+ * A checkpoint is the beginning of a deflate block: its position in the uncompressed data, the position of its first bit in the file, and the 32 KB of uncompressed data before it (the window that its matches may refer to). Checkpoints are taken every span bytes of uncompressed data and at the beginning of each gzip member (whose checkpoints have no window). The index is built with one pass of {@link GzipIndexBuilder} and stored in a sidecar file (the name of the gzip file followed by EXTENSION), which is used while the size and modification time of the gzip file do not change.<br>
+ * Streams opened at different positions (see openStream) are independent, so several threads can inflate different parts of the file at the same time.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class GzipIndex{
+
+	/**
+	 * First bytes of the sidecar file ("GZIX").
+	 */
+	static final int MAGIC = 0x475a4958;
+
+	/**
+	 * Version of the sidecar file.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Extension added to the name of the gzip file to get the name of its sidecar file.
+	 */
+	public static final String EXTENSION = ".gzidx";
+
+	/**
+	 * Number of bytes of the window of deflate.
+	 */
+	static final int WINDOW_SIZE = 32768;
+
+	/**
+	 * Minimum number of bytes of uncompressed data between two checkpoints. Each checkpoint stores a compressed window, which takes about as much as the compressed data of WINDOW_SIZE bytes, so with this span the index takes at most about an eighth of the compressed file (zran uses 1 MB).
+	 */
+	public static final long MIN_SPAN = 8 * WINDOW_SIZE;
+
+	/**
+	 * Fields (value and number of bits) of the empty dynamic block of the primers: not final, dynamic Huffman codes, 257 literal/length codes, 1 distance code, 19 code length codes whose lengths are 1 for the symbols 18 and 1 (positions 2 and 17 of the order of deflate) and 0 for the rest, then 256 zero lengths (two 18 symbols, coded as 1, repeating 138 and 118 zeros), two lengths 1 (two 1 symbols, coded as 0) for the end of block and the distance 0, and the end of block (coded as 0).
+	 */
+	static final int[] PRIMER_DYNAMIC = {0, 1, 2, 2, 0, 5, 0, 5, 15, 4,
+		0, 3, 0, 3, 1, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 0, 3, 1, 3, 0, 3,
+		1, 1, 127, 7, 1, 1, 107, 7, 0, 1, 0, 1, 0, 1};
+
+	/**
+	 * Name of the gzip file.
+	 * <p>
+	 * All values allowed.
+	 */
+	String gzipFile;
+
+	/**
+	 * Size and modification time of the gzip file when the index was built.
+	 * <p>
+	 * All values allowed.
+	 */
+	long fileLength, lastModified;
+
+	/**
+	 * Number of bytes of uncompressed data between two checkpoints.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	long span;
+
+	/**
+	 * Number of bytes of the uncompressed data.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long uncompressedLength;
+
+	/**
+	 * Number of checkpoints.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int points = 0;
+
+	/**
+	 * Position of each checkpoint in the uncompressed data (increasing).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long[] outPositions = new long[16];
+
+	/**
+	 * Position in the file of the byte with the first bit of each checkpoint.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long[] inPositions = new long[16];
+
+	/**
+	 * Number of bits of that byte that belong to the previous block.
+	 * <p>
+	 * Only 0 to 7 allowed.
+	 */
+	byte[] bits = new byte[16];
+
+	/**
+	 * Number of bytes of the window of each checkpoint (-1 for the beginning of a gzip member).
+	 * <p>
+	 * Only -1 to WINDOW_SIZE allowed.
+	 */
+	int[] windowLengths = new int[16];
+
+	/**
+	 * Window of each checkpoint, compressed with zlib (null for the beginning of a gzip member).
+	 * <p>
+	 * All values allowed.
+	 */
+	byte[][] windows = new byte[16][];
+
+	/**
+	 * Constructor of an empty index.
+	 *
+	 * @param gzipFile name of the gzip file
+	 * @param span number of bytes of uncompressed data between two checkpoints
+	 */
+	GzipIndex(String gzipFile, long span){
+		File file = new File(gzipFile);
+		this.gzipFile = gzipFile;
+		this.fileLength = file.length();
+		this.lastModified = file.lastModified();
+		this.span = span;
+	}
+
+	/**
+	 * Returns the index of a gzip file: the one of its sidecar file if it is up to date, or a new one otherwise (which is stored in the sidecar file if it can be written).
+	 *
+	 * @param gzipFile name of the gzip file
+	 * @param span number of bytes of uncompressed data between two checkpoints of a new index (spans lower than MIN_SPAN are raised to it)
+	 * @return the index
+	 * @throws IOException when the gzip file cannot be read or it is corrupted
+	 */
+	public static GzipIndex open(String gzipFile, long span) throws IOException{
+		File sidecar = new File(gzipFile + EXTENSION);
+		if(sidecar.isFile()){
+			try{
+				GzipIndex index = read(gzipFile, sidecar);
+				if(index != null){
+					return(index);
+				}
+			}catch(IOException e){
+				//A damaged sidecar file is built again
+			}
+		}
+		GzipIndex index = new GzipIndexBuilder(gzipFile, Math.max(span, MIN_SPAN)).build();
+		try{
+			index.write(sidecar);
+		}catch(IOException e){
+			//The index is used even if it cannot be stored (e.g. a read-only archive)
+			sidecar.delete();
+		}
+		return(index);
+	}
+
+	/**
+	 * Adds a checkpoint.
+	 *
+	 * @param out position of the checkpoint in the uncompressed data
+	 * @param in position in the file of the byte with the first bit of the block
+	 * @param bit number of bits of that byte that belong to the previous block
+	 * @param window uncompressed data before the checkpoint (null at the beginning of a gzip member)
+	 * @param windowLength number of bytes of the window
+	 * @param deflater deflater used to compress the window
+	 */
+	void addPoint(long out, long in, int bit, byte[] window, int windowLength, Deflater deflater){
+		if(points == outPositions.length){
+			int capacity = points * 2;
+			outPositions = Arrays.copyOf(outPositions, capacity);
+			inPositions = Arrays.copyOf(inPositions, capacity);
+			bits = Arrays.copyOf(bits, capacity);
+			windowLengths = Arrays.copyOf(windowLengths, capacity);
+			windows = Arrays.copyOf(windows, capacity);
+		}
+		outPositions[points] = out;
+		inPositions[points] = in;
+		bits[points] = (byte) bit;
+		windowLengths[points] = window == null ? -1: windowLength;
+		if(window != null){
+			deflater.reset();
+			deflater.setInput(window, 0, windowLength);
+			deflater.finish();
+			byte[] compressed = new byte[windowLength + 64];
+			int length = 0;
+			while(!deflater.finished()){
+				if(length == compressed.length){
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			windows[points] = Arrays.copyOf(compressed, length);
+		}
+		points++;
+	}
+
+	/**
+	 * Reads the sidecar file of a gzip file.
+	 *
+	 * @param gzipFile name of the gzip file
+	 * @param sidecar the sidecar file
+	 * @return the index, or null if the gzip file has changed since it was built
+	 * @throws IOException when the sidecar file cannot be read or it is not valid
+	 */
+	static GzipIndex read(String gzipFile, File sidecar) throws IOException{
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 1 << 16));
+		try{
+			if((dis.readInt() != MAGIC) || (dis.readInt() != FORMAT_VERSION)){
+				throw new IOException("Not a gzip index.");
+			}
+			long fileLength = dis.readLong();
+			long lastModified = dis.readLong();
+			GzipIndex index = new GzipIndex(gzipFile, dis.readLong());
+			if((index.fileLength != fileLength) || (index.lastModified != lastModified)){
+				return(null);
+			}
+			index.uncompressedLength = dis.readLong();
+			int points = dis.readInt();
+			if(points <= 0){
+				throw new IOException("Gzip index without checkpoints.");
+			}
+			index.outPositions = new long[points];
+			index.inPositions = new long[points];
+			index.bits = new byte[points];
+			index.windowLengths = new int[points];
+			index.windows = new byte[points][];
+			for(int p = 0; p < points; p++){
+				index.outPositions[p] = dis.readLong();
+				index.inPositions[p] = dis.readLong();
+				index.bits[p] = dis.readByte();
+				index.windowLengths[p] = dis.readInt();
+				if(index.windowLengths[p] >= 0){
+					index.windows[p] = new byte[dis.readInt()];
+					dis.readFully(index.windows[p]);
+				}
+			}
+			index.points = points;
+			return(index);
+		}finally{
+			dis.close();
+		}
+	}
+
+	/**
+	 * Writes the index to a sidecar file.
+	 *
+	 * @param sidecar the sidecar file
+	 * @throws IOException when the file cannot be written
+	 */
+	void write(File sidecar) throws IOException{
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar), 1 << 16));
+		try{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeLong(fileLength);
+			dos.writeLong(lastModified);
+			dos.writeLong(span);
+			dos.writeLong(uncompressedLength);
+			dos.writeInt(points);
+			for(int p = 0; p < points; p++){
+				dos.writeLong(outPositions[p]);
+				dos.writeLong(inPositions[p]);
+				dos.writeByte(bits[p]);
+				dos.writeInt(windowLengths[p]);
+				if(windowLengths[p] >= 0){
+					dos.writeInt(windows[p].length);
+					dos.write(windows[p]);
+				}
+			}
+		}finally{
+			dos.close();
+		}
+	}
+
+	/**
+	 * Returns the last checkpoint that is not after a position of the uncompressed data.
+	 *
+	 * @param position position in the uncompressed data
+	 * @return the number of the checkpoint
+	 */
+	int findPoint(long position){
+		int low = 0;
+		int high = points - 1;
+		while(low < high){
+			int middle = (low + high + 1) >>> 1;
+			if(outPositions[middle] <= position){
+				low = middle;
+			}else{
+				high = middle - 1;
+			}
+		}
+		return(low);
+	}
+
+	/**
+	 * Returns the position of the last checkpoint that is not after a position of the uncompressed data (inflation of that position starts there).
+	 *
+	 * @param position position in the uncompressed data
+	 * @return the position of the checkpoint in the uncompressed data
+	 */
+	public long getCheckpoint(long position){
+		return(outPositions[findPoint(position)]);
+	}
+
+	/**
+	 * Opens a stream of the uncompressed data that starts at a position. Inflation starts at the last checkpoint before the position.
+	 *
+	 * @param position position of the first byte of the stream in the uncompressed data
+	 * @return the stream
+	 * @throws IOException when the file cannot be read or it is corrupted
+	 */
+	public InputStream openStream(long position) throws IOException{
+		IndexedStream stream = new IndexedStream(findPoint(position));
+		try{
+			stream.skipFully(position - stream.position);
+		}catch(IOException e){
+			stream.close();
+			throw e;
+		}
+		return(stream);
+	}
+
+	/**
+	 * Builds the primer of a checkpoint that begins inside a byte: non-final empty deflate blocks whose length in bits is a multiple of 8 plus the number of bits of the previous block in that byte. Fixed Huffman blocks have 10 bits, and the dynamic block of PRIMER_DYNAMIC (a code with only the end of block) has 93 bits, so at most one dynamic and three fixed blocks are needed.
+	 *
+	 * @param shift number of bits of the previous block in the byte of the checkpoint (1 to 7)
+	 * @return the primer, whose last byte only has its lower shift bits set
+	 */
+	static byte[] getPrimer(int shift){
+		boolean dynamic = (shift & 1) == 1;
+		int fixedBlocks = (((shift - (dynamic ? 93: 0)) % 8 + 8) % 8) / 2;
+		int length = (dynamic ? 93: 0) + 10 * fixedBlocks;
+		byte[] primer = new byte[(length + 7) / 8];
+		int bit = 0;
+		if(dynamic){
+			for(int field = 0; field < PRIMER_DYNAMIC.length; field += 2){
+				bit = putBits(primer, bit, PRIMER_DYNAMIC[field], PRIMER_DYNAMIC[field + 1]);
+			}
+		}
+		for(int block = 0; block < fixedBlocks; block++){
+			//Not final, fixed Huffman codes, and the 7 zero bits of the end of block
+			bit = putBits(primer, bit, 0, 1);
+			bit = putBits(primer, bit, 1, 2);
+			bit = putBits(primer, bit, 0, 7);
+		}
+		return(primer);
+	}
+
+	/**
+	 * Writes bits in a byte array (the first bit is the lowest one of the first byte, as in deflate).
+	 *
+	 * @param bytes the byte array
+	 * @param bit position of the first bit
+	 * @param value the bits (the lowest one is written first)
+	 * @param bits number of bits
+	 * @return position of the next bit
+	 */
+	static int putBits(byte[] bytes, int bit, int value, int bits){
+		for(int i = 0; i < bits; i++, bit++){
+			bytes[bit >>> 3] |= ((value >>> i) & 1) << (bit & 7);
+		}
+		return(bit);
+	}
+
+	/**
+	 * @return span
+	 */
+	public long getSpan(){
+		return(span);
+	}
+
+	/**
+	 * @return uncompressedLength
+	 */
+	public long getUncompressedLength(){
+		return(uncompressedLength);
+	}
+
+	/**
+	 * @return points
+	 */
+	public int getPoints(){
+		return(points);
+	}
+
+	/**
+	 * Stream of the uncompressed data that starts inflating at a checkpoint.<br>
+	 * The Inflater can only start at the first bit of a byte, so checkpoints that begin inside a byte are started with a primer: empty deflate blocks whose length in bits ends at the checkpoint, placed before the byte of the checkpoint (see getPrimer). The bytes of the file keep their alignment, which stored blocks need. When a gzip member ends, inflation continues at the checkpoint of the next member, so the gzip header and trailer are never parsed.
+	 */
+	class IndexedStream extends InputStream{
+
+		/**
+		 * Channel of the gzip file.
+		 */
+		FileChannel channel;
+
+		/**
+		 * Position of the next byte read from the file.
+		 */
+		long filePosition;
+
+		/**
+		 * Bytes read from the file that are given to the inflater.
+		 */
+		ByteBuffer input = ByteBuffer.allocate(1 << 16);
+
+		/**
+		 * Inflater of the current gzip member.
+		 */
+		Inflater inflater = new Inflater(true);
+
+		/**
+		 * Checkpoint of the beginning of the current gzip member.
+		 */
+		int member;
+
+		/**
+		 * Position of the next byte of the stream in the uncompressed data.
+		 */
+		long position;
+
+		/**
+		 * Buffer of single byte reads and skips.
+		 */
+		byte[] scratch = null;
+
+		/**
+		 * Opens the stream at a checkpoint.
+		 *
+		 * @param point the checkpoint
+		 * @throws IOException when the file cannot be read or it is corrupted
+		 */
+		IndexedStream(int point) throws IOException{
+			channel = new RandomAccessFile(gzipFile, "r").getChannel();
+			member = point;
+			while(windowLengths[member] >= 0){
+				member--;
+			}
+			try{
+				start(point);
+			}catch(IOException e){
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Starts inflating at a checkpoint.
+		 *
+		 * @param point the checkpoint
+		 * @throws IOException when the file cannot be read or the window is corrupted
+		 */
+		void start(int point) throws IOException{
+			inflater.reset();
+			filePosition = inPositions[point];
+			position = outPositions[point];
+			if(windowLengths[point] > 0){
+				Inflater windowInflater = new Inflater();
+				try{
+					byte[] window = new byte[windowLengths[point]];
+					windowInflater.setInput(windows[point]);
+					int length = 0;
+					while((length < window.length) && !windowInflater.finished()){
+						length += windowInflater.inflate(window, length, window.length - length);
+					}
+					inflater.setDictionary(window, 0, length);
+				}catch(DataFormatException e){
+					throw new ZipException("Corrupted gzip index of \"" + gzipFile + "\".");
+				}finally{
+					windowInflater.end();
+				}
+			}
+			int shift = bits[point];
+			if(shift > 0){
+				//The bits of the previous block in the first byte are replaced by the end of the primer
+				input.clear();
+				input.limit(1);
+				if(channel.read(input, filePosition) <= 0){
+					throw new EOFException("Unexpected end of gzip file \"" + gzipFile + "\".");
+				}
+				filePosition++;
+				byte[] primer = getPrimer(shift);
+				primer[primer.length - 1] |= input.get(0) & (0xff << shift);
+				inflater.setInput(primer);
+			}
+		}
+
+		/**
+		 * Gives the next bytes of the file to the inflater.
+		 *
+		 * @return false if the file has ended
+		 * @throws IOException when the file cannot be read
+		 */
+		boolean fill() throws IOException{
+			input.clear();
+			int read = channel.read(input, filePosition);
+			if(read <= 0){
+				return(false);
+			}
+			filePosition += read;
+			inflater.setInput(input.array(), 0, read);
+			return(true);
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			if(len == 0){
+				return(0);
+			}
+			while(true){
+				int inflated;
+				try{
+					inflated = inflater.inflate(b, off, len);
+				}catch(DataFormatException e){
+					throw new ZipException("Corrupted gzip file \"" + gzipFile + "\".");
+				}
+				if(inflated > 0){
+					position += inflated;
+					return(inflated);
+				}
+				if(inflater.finished()){
+					//Inflation continues at the next gzip member
+					int next = member + 1;
+					while((next < points) && (windowLengths[next] >= 0)){
+						next++;
+					}
+					if(next == points){
+						return(-1);
+					}
+					member = next;
+					start(next);
+				}else if(inflater.needsDictionary()){
+					throw new ZipException("Corrupted gzip file \"" + gzipFile + "\".");
+				}else if(inflater.needsInput() && !fill()){
+					throw new EOFException("Unexpected end of gzip file \"" + gzipFile + "\".");
+				}
+			}
+		}
+
+		public int read() throws IOException{
+			if(scratch == null){
+				scratch = new byte[8192];
+			}
+			int read = read(scratch, 0, 1);
+			return(read < 0 ? -1: scratch[0] & 0xff);
+		}
+
+		public long skip(long n) throws IOException{
+			if(scratch == null){
+				scratch = new byte[8192];
+			}
+			long skipped = 0;
+			while(skipped < n){
+				int read = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+				if(read < 0){
+					break;
+				}
+				skipped += read;
+			}
+			return(skipped);
+		}
+
+		/**
+		 * Skips bytes of the uncompressed data.
+		 *
+		 * @param n number of bytes
+		 * @throws IOException when the data ends before (EOFException) or the file cannot be read
+		 */
+		void skipFully(long n) throws IOException{
+			if(skip(n) < n){
+				throw new EOFException("Unexpected end of gzip file \"" + gzipFile + "\".");
+			}
+		}
+
+		public void close() throws IOException{
+			inflater.end();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,532 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * Builds the index of a gzip file (see {@link GzipIndex}) with one pass over the file.<br>
+ * Deflate blocks are inflated here instead of with the Inflater because the position of the first bit of each block is needed, and the Inflater does not report it. Only the window of the uncompressed data is kept (the data is not returned), so the memory used does not depend on the size of the file. Concatenated gzip members are supported, and bytes after the last member that are not a gzip member are ignored (as GZIPInputStream does).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+class GzipIndexBuilder{
+
+	/**
+	 * Base lengths and number of extra bits of the length symbols (257 to 285).
+	 */
+	static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+
+	/**
+	 * Base distances and number of extra bits of the distance symbols (0 to 29).
+	 */
+	static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+	/**
+	 * Order of the code lengths of the code length alphabet in dynamic blocks.
+	 */
+	static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	/**
+	 * Mask of the positions of the window.
+	 */
+	static final int WINDOW_MASK = GzipIndex.WINDOW_SIZE - 1;
+
+	/**
+	 * Name of the gzip file.
+	 */
+	String gzipFile;
+
+	/**
+	 * Number of bytes of uncompressed data between two checkpoints.
+	 */
+	long span;
+
+	/**
+	 * Stream of the gzip file, and the bytes read from it.
+	 */
+	InputStream in = null;
+	byte[] buffer = new byte[1 << 20];
+	int bufferPos = 0, bufferLimit = 0;
+
+	/**
+	 * Position in the file of the first byte of the buffer.
+	 */
+	long bufferStart = 0;
+
+	/**
+	 * Bits read from the buffer that have not been used yet (the next one is the lowest), and their number.
+	 */
+	long bitBuffer = 0;
+	int bitCount = 0;
+
+	/**
+	 * Number of zero bytes added to the bit buffer after the end of the file (their bits can be looked at, but not used).
+	 */
+	long padding = 0;
+
+	/**
+	 * Last bytes of uncompressed data (circular) and the position of the next one.
+	 */
+	byte[] window = new byte[GzipIndex.WINDOW_SIZE];
+	int windowPos = 0;
+
+	/**
+	 * Window copied in order for a checkpoint.
+	 */
+	byte[] windowCopy = new byte[GzipIndex.WINDOW_SIZE];
+
+	/**
+	 * Number of bytes of uncompressed data, and the ones at the beginning of the current gzip member.
+	 */
+	long out = 0, memberOut = 0;
+
+	/**
+	 * Decoding tables of the fixed Huffman codes.
+	 */
+	int[] fixedLiteralTable, fixedDistanceTable;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gzipFile name of the gzip file
+	 * @param span number of bytes of uncompressed data between two checkpoints
+	 */
+	GzipIndexBuilder(String gzipFile, long span){
+		this.gzipFile = gzipFile;
+		this.span = span;
+	}
+
+	/**
+	 * Reads the whole file and builds its index.
+	 *
+	 * @return the index
+	 * @throws IOException when the file cannot be read or it is not a valid gzip file
+	 */
+	GzipIndex build() throws IOException{
+		GzipIndex index = new GzipIndex(gzipFile, span);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		in = new FileInputStream(gzipFile);
+		try{
+			boolean first = true;
+			while(first || !atEnd()){
+				if(!readHeader()){
+					if(first){
+						throw new ZipException("File \"" + gzipFile + "\" is not in gzip format.");
+					}
+					break;
+				}
+				first = false;
+				memberOut = out;
+				index.addPoint(out, getBitPosition() >>> 3, 0, null, 0, deflater);
+				long lastPoint = out;
+				boolean lastBlock;
+				do{
+					if(out - lastPoint >= span){
+						long bitPosition = getBitPosition();
+						int windowLength = copyWindow();
+						index.addPoint(out, bitPosition >>> 3, (int) (bitPosition & 7), windowCopy, windowLength, deflater);
+						lastPoint = out;
+					}
+					lastBlock = getBits(1) == 1;
+					switch(getBits(2)){
+					case 0:
+						inflateStored();
+						break;
+					case 1:
+						if(fixedLiteralTable == null){
+							buildFixedTables();
+						}
+						inflateBlock(fixedLiteralTable, fixedDistanceTable);
+						break;
+					case 2:
+						inflateDynamic();
+						break;
+					default:
+						throw new ZipException("Invalid block type in \"" + gzipFile + "\".");
+					}
+					checkEnd();
+				}while(!lastBlock);
+				//Trailer: CRC and size of the member
+				bitBuffer >>>= bitCount & 7;
+				bitCount -= bitCount & 7;
+				getBits(16);
+				getBits(16);
+				long size = getBits(16) | ((long) getBits(16) << 16);
+				checkEnd();
+				if(size != ((out - memberOut) & 0xffffffffL)){
+					throw new ZipException("Corrupted gzip file \"" + gzipFile + "\" (wrong size of a member).");
+				}
+			}
+			index.uncompressedLength = out;
+		}finally{
+			deflater.end();
+			in.close();
+		}
+		return(index);
+	}
+
+	/**
+	 * Reads the header of a gzip member.
+	 *
+	 * @return false if the bytes are not a gzip header
+	 * @throws IOException when the file cannot be read
+	 */
+	boolean readHeader() throws IOException{
+		if((getBits(8) != 0x1f) || (getBits(8) != 0x8b) || (getBits(8) != 8)){
+			return(false);
+		}
+		int flags = getBits(8);
+		//Modification time, extra flags and operating system
+		for(int i = 0; i < 6; i++){
+			getBits(8);
+		}
+		if((flags & 4) != 0){
+			int extraLength = getBits(16);
+			for(int i = 0; i < extraLength; i++){
+				getBits(8);
+			}
+		}
+		if((flags & 8) != 0){
+			while(getBits(8) != 0);
+		}
+		if((flags & 16) != 0){
+			while(getBits(8) != 0);
+		}
+		if((flags & 2) != 0){
+			getBits(16);
+		}
+		checkEnd();
+		return(true);
+	}
+
+	/**
+	 * Inflates a stored block.
+	 *
+	 * @throws IOException when the file cannot be read or the block is not valid
+	 */
+	void inflateStored() throws IOException{
+		bitBuffer >>>= bitCount & 7;
+		bitCount -= bitCount & 7;
+		int length = getBits(16);
+		if(length != (~getBits(16) & 0xffff)){
+			throw new ZipException("Invalid stored block in \"" + gzipFile + "\".");
+		}
+		out += length;
+		while((length > 0) && (bitCount > 0)){
+			window[windowPos] = (byte) getBits(8);
+			windowPos = (windowPos + 1) & WINDOW_MASK;
+			length--;
+		}
+		while(length > 0){
+			if((bufferPos == bufferLimit) && !refill()){
+				throw new EOFException("Unexpected end of gzip file \"" + gzipFile + "\".");
+			}
+			int bytes = Math.min(length, Math.min(bufferLimit - bufferPos, GzipIndex.WINDOW_SIZE - windowPos));
+			System.arraycopy(buffer, bufferPos, window, windowPos, bytes);
+			windowPos = (windowPos + bytes) & WINDOW_MASK;
+			bufferPos += bytes;
+			length -= bytes;
+		}
+	}
+
+	/**
+	 * Reads the Huffman codes of a dynamic block and inflates it.
+	 *
+	 * @throws IOException when the file cannot be read or the block is not valid
+	 */
+	void inflateDynamic() throws IOException{
+		int literals = getBits(5) + 257;
+		int distances = getBits(5) + 1;
+		int codeLengths = getBits(4) + 4;
+		if((literals > 286) || (distances > 30)){
+			throw new ZipException("Invalid dynamic block in \"" + gzipFile + "\".");
+		}
+		int[] lengths = new int[19];
+		for(int i = 0; i < codeLengths; i++){
+			lengths[CODE_LENGTH_ORDER[i]] = getBits(3);
+		}
+		int[] codeLengthTable = buildTable(lengths, 19);
+		lengths = new int[literals + distances];
+		int i = 0;
+		while(i < lengths.length){
+			int symbol = decode(codeLengthTable);
+			if(symbol < 16){
+				lengths[i++] = symbol;
+			}else{
+				int previous = 0;
+				int repeat;
+				if(symbol == 16){
+					if(i == 0){
+						throw new ZipException("Invalid dynamic block in \"" + gzipFile + "\".");
+					}
+					previous = lengths[i - 1];
+					repeat = 3 + getBits(2);
+				}else if(symbol == 17){
+					repeat = 3 + getBits(3);
+				}else{
+					repeat = 11 + getBits(7);
+				}
+				if(i + repeat > lengths.length){
+					throw new ZipException("Invalid dynamic block in \"" + gzipFile + "\".");
+				}
+				while(repeat-- > 0){
+					lengths[i++] = previous;
+				}
+			}
+		}
+		if(lengths[256] == 0){
+			throw new ZipException("Invalid dynamic block in \"" + gzipFile + "\".");
+		}
+		int[] distanceLengths = new int[distances];
+		System.arraycopy(lengths, literals, distanceLengths, 0, distances);
+		inflateBlock(buildTable(lengths, literals), buildTable(distanceLengths, distances));
+	}
+
+	/**
+	 * Inflates the symbols of a compressed block until its end.
+	 *
+	 * @param literalTable decoding table of the literal/length code
+	 * @param distanceTable decoding table of the distance code
+	 * @throws IOException when the file cannot be read or the block is not valid
+	 */
+	void inflateBlock(int[] literalTable, int[] distanceTable) throws IOException{
+		while(true){
+			int symbol = decode(literalTable);
+			if(symbol < 256){
+				window[windowPos] = (byte) symbol;
+				windowPos = (windowPos + 1) & WINDOW_MASK;
+				out++;
+			}else if(symbol == 256){
+				return;
+			}else{
+				symbol -= 257;
+				if(symbol >= 29){
+					throw new ZipException("Invalid length in \"" + gzipFile + "\".");
+				}
+				int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+				symbol = decode(distanceTable);
+				if(symbol >= 30){
+					throw new ZipException("Invalid distance in \"" + gzipFile + "\".");
+				}
+				int distance = DISTANCE_BASE[symbol] + getBits(DISTANCE_EXTRA[symbol]);
+				if(distance > out - memberOut){
+					throw new ZipException("Invalid distance in \"" + gzipFile + "\".");
+				}
+				int from = (windowPos - distance) & WINDOW_MASK;
+				for(int i = 0; i < length; i++){
+					window[windowPos] = window[from];
+					windowPos = (windowPos + 1) & WINDOW_MASK;
+					from = (from + 1) & WINDOW_MASK;
+				}
+				out += length;
+			}
+		}
+	}
+
+	/**
+	 * Builds the decoding tables of the fixed Huffman codes.
+	 *
+	 * @throws ZipException never (the codes are valid)
+	 */
+	void buildFixedTables() throws ZipException{
+		int[] lengths = new int[288];
+		for(int i = 0; i < 288; i++){
+			lengths[i] = i < 144 ? 8: i < 256 ? 9: i < 280 ? 7: 8;
+		}
+		fixedLiteralTable = buildTable(lengths, 288);
+		lengths = new int[30];
+		for(int i = 0; i < 30; i++){
+			lengths[i] = 5;
+		}
+		fixedDistanceTable = buildTable(lengths, 30);
+	}
+
+	/**
+	 * Builds the decoding table of a canonical Huffman code. The table is indexed by the next bits of the input (as many as the longest code), and each entry has the symbol in its upper bits and the length of its code in its lower 4 bits (0 for unused codes).
+	 *
+	 * @param lengths length of the code of each symbol (0 if the symbol is not used)
+	 * @param symbols number of symbols
+	 * @return the decoding table
+	 * @throws ZipException when the lengths are not a valid code
+	 */
+	int[] buildTable(int[] lengths, int symbols) throws ZipException{
+		int[] lengthCount = new int[16];
+		int maxLength = 1;
+		for(int s = 0; s < symbols; s++){
+			lengthCount[lengths[s]]++;
+			maxLength = Math.max(maxLength, lengths[s]);
+		}
+		lengthCount[0] = 0;
+		int[] nextCode = new int[16];
+		int code = 0;
+		for(int length = 1; length < 16; length++){
+			code = (code + lengthCount[length - 1]) << 1;
+			nextCode[length] = code;
+		}
+		int[] table = new int[1 << maxLength];
+		for(int s = 0; s < symbols; s++){
+			int length = lengths[s];
+			if(length > 0){
+				code = nextCode[length]++;
+				if(code >= (1 << length)){
+					throw new ZipException("Invalid Huffman code in \"" + gzipFile + "\".");
+				}
+				for(int i = Integer.reverse(code) >>> (32 - length); i < table.length; i += 1 << length){
+					table[i] = (s << 4) | length;
+				}
+			}
+		}
+		return(table);
+	}
+
+	/**
+	 * Decodes a symbol.
+	 *
+	 * @param table decoding table of the code (see buildTable)
+	 * @return the symbol
+	 * @throws IOException when the file cannot be read or the code is not valid
+	 */
+	int decode(int[] table) throws IOException{
+		int mask = table.length - 1;
+		while(bitCount < 16){
+			nextByte();
+		}
+		int entry = table[(int) bitBuffer & mask];
+		int length = entry & 15;
+		if(length == 0){
+			throw new ZipException("Invalid Huffman code in \"" + gzipFile + "\".");
+		}
+		bitBuffer >>>= length;
+		bitCount -= length;
+		return(entry >>> 4);
+	}
+
+	/**
+	 * Reads bits of the input (the first one is the lowest).
+	 *
+	 * @param bits number of bits (0 to 16)
+	 * @return the bits
+	 * @throws IOException when the file cannot be read
+	 */
+	int getBits(int bits) throws IOException{
+		while(bitCount < bits){
+			nextByte();
+		}
+		int value = (int) bitBuffer & ((1 << bits) - 1);
+		bitBuffer >>>= bits;
+		bitCount -= bits;
+		return(value);
+	}
+
+	/**
+	 * Adds the next byte of the file to the bit buffer (a zero byte after the end of the file, as long as the bits used are inside the file).
+	 *
+	 * @throws IOException when the file cannot be read (EOFException if the bits used are after its end)
+	 */
+	void nextByte() throws IOException{
+		int b = 0;
+		if((bufferPos < bufferLimit) || refill()){
+			b = buffer[bufferPos++] & 0xff;
+		}else{
+			checkEnd();
+			padding++;
+		}
+		bitBuffer |= (long) b << bitCount;
+		bitCount += 8;
+	}
+
+	/**
+	 * Reads the next bytes of the file into the buffer.
+	 *
+	 * @return false if the file has ended
+	 * @throws IOException when the file cannot be read
+	 */
+	boolean refill() throws IOException{
+		bufferStart += bufferLimit;
+		bufferPos = 0;
+		bufferLimit = 0;
+		int read = 0;
+		while(read == 0){
+			read = in.read(buffer, 0, buffer.length);
+		}
+		bufferLimit = Math.max(read, 0);
+		return(read > 0);
+	}
+
+	/**
+	 * Position in the file of the next bit that is used.
+	 *
+	 * @return the position in bits
+	 */
+	long getBitPosition(){
+		return((bufferStart + bufferPos + padding) * 8 - bitCount);
+	}
+
+	/**
+	 * Checks that the bits used are inside the file.
+	 *
+	 * @throws EOFException when the file has ended before
+	 */
+	void checkEnd() throws EOFException{
+		if(padding * 8 > bitCount){
+			throw new EOFException("Unexpected end of gzip file \"" + gzipFile + "\".");
+		}
+	}
+
+	/**
+	 * Indicates whether all the bytes of the file have been used.
+	 *
+	 * @return true if there are no more bytes
+	 * @throws IOException when the file cannot be read
+	 */
+	boolean atEnd() throws IOException{
+		return((bitCount <= padding * 8) && (bufferPos == bufferLimit) && !refill());
+	}
+
+	/**
+	 * Copies the window of the current position in order (the last 32 KB of the current gzip member).
+	 *
+	 * @return number of bytes copied to windowCopy
+	 */
+	int copyWindow(){
+		int length = (int) Math.min(GzipIndex.WINDOW_SIZE, out - memberOut);
+		int start = (windowPos - length) & WINDOW_MASK;
+		int first = Math.min(length, GzipIndex.WINDOW_SIZE - start);
+		System.arraycopy(window, start, windowCopy, 0, first);
+		System.arraycopy(window, 0, windowCopy, first, length - first);
+		return(length);
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+
+/**
+ * This class chooses the codec used to load and save standard image formats.<br>
+ * Readers and writers of javax.imageio (available in every JVM for PNG, BMP, GIF, JPEG, WBMP and TIFF) are preferred; JAI (see {@link JaiWrapper}) is only used for the formats that javax.imageio cannot handle, and only if it is installed. The javax.imageio readers can decode a region of the image and subsample it.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageCodecs{
+
+	/**
+	 * Loads a whole image.
+	 *
+	 * @param imageFile the name of the image file
+	 * @return the decoded image
+	 *
+	 * @throws WarningException when no codec can decode the file
+	 */
+	public static BufferedImage load(String imageFile) throws WarningException{
+		return(load(imageFile, null, 1, 1));
+	}
+
+	/**
+	 * Loads a region of an image, optionally subsampled. Region and subsampling are only applied by javax.imageio readers; when JAI decodes the image they are applied to the decoded image. Regions exceeding the image are clipped to it.
+	 *
+	 * @param imageFile the name of the image file
+	 * @param region region of the image to decode (null decodes the whole image)
+	 * @param xSubsampling distance between the decoded columns (1 decodes all the columns)
+	 * @param ySubsampling distance between the decoded rows (1 decodes all the rows)
+	 * @return the decoded image
+	 *
+	 * @throws WarningException when no codec can decode the file
+	 */
+	public static BufferedImage load(String imageFile, Rectangle region, int xSubsampling, int ySubsampling) throws WarningException{
+		File file = new File(imageFile);
+		if(!file.isFile()){
+			throw new WarningException("File \"" + imageFile + "\" cannot be read.");
+		}
+		BufferedImage buffImage = null;
+		try{
+			ImageInputStream input = ImageIO.createImageInputStream(file);
+			if(input == null){
+				throw new WarningException("File \"" + imageFile + "\" cannot be read.");
+			}
+			try{
+				//The reader is chosen by the content of the file
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+				if(readers.hasNext()){
+					ImageReader reader = readers.next();
+					try{
+						reader.setInput(input, true, true);
+						ImageReadParam param = reader.getDefaultReadParam();
+						if(region != null){
+							param.setSourceRegion(region);
+						}
+						if((xSubsampling > 1) || (ySubsampling > 1)){
+							param.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+						}
+						buffImage = reader.read(0, param);
+					}finally{
+						reader.dispose();
+					}
+				}
+			}finally{
+				input.close();
+			}
+		}catch(IOException e){
+			throw new WarningException("Error decoding \"" + imageFile + "\": " + e.getMessage());
+		}catch(RuntimeException e){
+			//Some readers report malformed files with unchecked exceptions
+			throw new WarningException("Error decoding \"" + imageFile + "\": " + e.getMessage());
+		}
+		if(buffImage == null){
+			if(!JaiWrapper.isAvailable()){
+				throw new WarningException("No decoder available for \"" + imageFile + "\" (Java Advanced Imaging API (JAI) is not installed).");
+			}
+			buffImage = JaiWrapper.jaiLoad(imageFile);
+			if(region != null){
+				//Regions exceeding the image are clipped, as javax.imageio readers do
+				Rectangle clipped = region.intersection(new Rectangle(0, 0, buffImage.getWidth(), buffImage.getHeight()));
+				if(clipped.isEmpty()){
+					throw new WarningException("Region of \"" + imageFile + "\" is outside the image.");
+				}
+				buffImage = buffImage.getSubimage(clipped.x, clipped.y, clipped.width, clipped.height);
+			}
+			if((xSubsampling > 1) || (ySubsampling > 1)){
+				buffImage = subsample(buffImage, xSubsampling, ySubsampling);
+			}
+		}
+		return(buffImage);
+	}
+
+	/**
+	 * Subsamples an image decoded by JAI.
+	 *
+	 * @param buffImage the image
+	 * @param xSubsampling distance between the kept columns
+	 * @param ySubsampling distance between the kept rows
+	 * @return a new image with the kept pixels
+	 */
+	static BufferedImage subsample(BufferedImage buffImage, int xSubsampling, int ySubsampling){
+		int width = (buffImage.getWidth() + xSubsampling - 1) / xSubsampling;
+		int height = (buffImage.getHeight() + ySubsampling - 1) / ySubsampling;
+		WritableRaster raster = buffImage.getRaster().createCompatibleWritableRaster(width, height);
+		Raster source = buffImage.getRaster();
+		Object pixel = null;
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				pixel = source.getDataElements(source.getMinX() + x * xSubsampling, source.getMinY() + y * ySubsampling, pixel);
+				raster.setDataElements(x, y, pixel);
+			}
+		}
+		return(new BufferedImage(buffImage.getColorModel(), raster, buffImage.isAlphaPremultiplied(), null));
+	}
+
+	/**
+	 * Saves an image with a javax.imageio writer or, if no writer can encode it, with JAI.
+	 *
+	 * @param buffImage the image
+	 * @param imageFile the name of the image file
+	 * @param format the format name (JAI names: PNM, TIFF, PNG, JPEG or BMP)
+	 *
+	 * @throws WarningException when no codec can encode the image
+	 */
+	public static void save(BufferedImage buffImage, String imageFile, String format) throws WarningException{
+		Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(buffImage), format);
+		if(writers.hasNext()){
+			ImageWriter writer = writers.next();
+			try{
+				File file = new File(imageFile);
+				file.delete();
+				ImageOutputStream output = ImageIO.createImageOutputStream(file);
+				try{
+					writer.setOutput(output);
+					writer.write(buffImage);
+				}finally{
+					output.close();
+				}
+			}catch(IOException e){
+				throw new WarningException("Error encoding \"" + imageFile + "\": " + e.getMessage());
+			}finally{
+				writer.dispose();
+			}
+		}else{
+			if(!JaiWrapper.isAvailable()){
+				throw new WarningException("No encoder available for format " + format + " (Java Advanced Imaging API (JAI) is not installed).");
+			}
+			JaiWrapper.jaiSave(buffImage, imageFile, format);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import GiciException.*;
+
+/**
+ * Region of interest of an image: a range of components, rows and columns, each one with a stride (the distance between the selected positions).<br>
+ * Ends are exclusive, and an end of -1 means the size of the image. A region must be resolved against the sizes of an image (see resolve) before its sizes are used.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageRegion{
+
+	/**
+	 * First component, row and column of the region.
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	int zBegin, yBegin, xBegin;
+
+	/**
+	 * End (exclusive) of the components, rows and columns of the region.
+	 * <p>
+	 * -1 means the size of the image, other values must be greater than the beginning.
+	 */
+	int zEnd, yEnd, xEnd;
+
+	/**
+	 * Distance between the selected components, rows and columns.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int zStride, yStride, xStride;
+
+	/**
+	 * Constructor of a region.
+	 *
+	 * @param zBegin first component
+	 * @param zEnd end of the components (exclusive, -1 for the number of components)
+	 * @param zStride distance between the selected components
+	 * @param yBegin first row
+	 * @param yEnd end of the rows (exclusive, -1 for the height)
+	 * @param yStride distance between the selected rows
+	 * @param xBegin first column
+	 * @param xEnd end of the columns (exclusive, -1 for the width)
+	 * @param xStride distance between the selected columns
+	 */
+	public ImageRegion(int zBegin, int zEnd, int zStride, int yBegin, int yEnd, int yStride, int xBegin, int xEnd, int xStride){
+		this.zBegin = zBegin;
+		this.zEnd = zEnd;
+		this.zStride = zStride;
+		this.yBegin = yBegin;
+		this.yEnd = yEnd;
+		this.yStride = yStride;
+		this.xBegin = xBegin;
+		this.xEnd = xEnd;
+		this.xStride = xStride;
+	}
+
+	/**
+	 * Checks the region against the sizes of an image, replacing the ends of -1 by the sizes.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @return the resolved region
+	 *
+	 * @throws WarningException when the region is empty or exceeds the image
+	 */
+	public ImageRegion resolve(int zSize, int ySize, int xSize) throws WarningException{
+		ImageRegion region = new ImageRegion(
+			zBegin, zEnd < 0 ? zSize: zEnd, zStride,
+			yBegin, yEnd < 0 ? ySize: yEnd, yStride,
+			xBegin, xEnd < 0 ? xSize: xEnd, xStride);
+		check("component", region.zBegin, region.zEnd, region.zStride, zSize);
+		check("row", region.yBegin, region.yEnd, region.yStride, ySize);
+		check("column", region.xBegin, region.xEnd, region.xStride, xSize);
+		return(region);
+	}
+
+	/**
+	 * Checks a range of the region.
+	 *
+	 * @param name name of the dimension
+	 * @param begin first position
+	 * @param end end of the positions (exclusive)
+	 * @param stride distance between positions
+	 * @param size size of the image in this dimension
+	 *
+	 * @throws WarningException when the range is empty or exceeds the image
+	 */
+	static void check(String name, int begin, int end, int stride, int size) throws WarningException{
+		if((begin < 0) || (end <= begin) || (end > size)){
+			throw new WarningException("Region " + name + " range [" + begin + ", " + end + ") is not inside [0, " + size + ").");
+		}
+		if(stride <= 0){
+			throw new WarningException("Region " + name + " stride must be positive.");
+		}
+	}
+
+	/**
+	 * Copies the selected rows and columns of the selected components of an image (only those rows are read, so images mapped in memory only read the pages of the region).
+	 *
+	 * @param samples the image, with the sizes the region has been resolved against
+	 * @return a new image with the samples of the region
+	 */
+	public ImageSamples crop(ImageSamples samples){
+		final int width = getXSize();
+		final ArrayImageSamples region = new ArrayImageSamples(getZSize(), getYSize(), width, samples.getSampleType());
+		for(int zr = 0; zr < region.getZSize(); zr++){
+			final int z = zr;
+			for(int yr = 0; yr < region.getYSize(); yr++){
+				final int y = yr;
+				int sourceY = yBegin + yr * yStride;
+				samples.readRows(zBegin + zr * zStride, sourceY, sourceY + 1, new RowConsumer(){
+					public void consumeRow(int rowZ, int rowY, Object row, int offset){
+						copyStrided(row, offset + xBegin, xStride, region.getRowArray(z, y), region.getRowOffset(z, y), width);
+					}
+				});
+			}
+		}
+		return(region);
+	}
+
+	/**
+	 * Copies samples that are at a constant distance in a row array to consecutive positions of another one.
+	 *
+	 * @param source the source row array (see {@link ImageSamples#createRowArray})
+	 * @param sourceOffset position of the first copied sample
+	 * @param stride distance between the copied samples
+	 * @param destination the destination row array, of the same type
+	 * @param destinationOffset position where the first sample is copied
+	 * @param length number of copied samples
+	 */
+	public static void copyStrided(Object source, int sourceOffset, int stride, Object destination, int destinationOffset, int length){
+		if(stride == 1){
+			System.arraycopy(source, sourceOffset, destination, destinationOffset, length);
+		}else if(source instanceof byte[]){
+			byte[] s = (byte[]) source, d = (byte[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}else if(source instanceof short[]){
+			short[] s = (short[]) source, d = (short[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}else if(source instanceof int[]){
+			int[] s = (int[]) source, d = (int[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}else if(source instanceof long[]){
+			long[] s = (long[]) source, d = (long[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}else if(source instanceof float[]){
+			float[] s = (float[]) source, d = (float[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}else{
+			double[] s = (double[]) source, d = (double[]) destination;
+			for(int i = 0; i < length; i++) d[destinationOffset + i] = s[sourceOffset + i * stride];
+		}
+	}
+
+	/**
+	 * @return number of selected components (the region must be resolved)
+	 */
+	public int getZSize(){
+		return((zEnd - zBegin + zStride - 1) / zStride);
+	}
+
+	/**
+	 * @return number of selected rows (the region must be resolved)
+	 */
+	public int getYSize(){
+		return((yEnd - yBegin + yStride - 1) / yStride);
+	}
+
+	/**
+	 * @return number of selected columns (the region must be resolved)
+	 */
+	public int getXSize(){
+		return((xEnd - xBegin + xStride - 1) / xStride);
+	}
+
+	/**
+	 * @return zBegin definition in this class
+	 */
+	public int getZBegin(){
+		return(zBegin);
+	}
+
+	/**
+	 * @return zEnd definition in this class
+	 */
+	public int getZEnd(){
+		return(zEnd);
+	}
+
+	/**
+	 * @return zStride definition in this class
+	 */
+	public int getZStride(){
+		return(zStride);
+	}
+
+	/**
+	 * @return yBegin definition in this class
+	 */
+	public int getYBegin(){
+		return(yBegin);
+	}
+
+	/**
+	 * @return yEnd definition in this class
+	 */
+	public int getYEnd(){
+		return(yEnd);
+	}
+
+	/**
+	 * @return yStride definition in this class
+	 */
+	public int getYStride(){
+		return(yStride);
+	}
+
+	/**
+	 * @return xBegin definition in this class
+	 */
+	public int getXBegin(){
+		return(xBegin);
+	}
+
+	/**
+	 * @return xEnd definition in this class
+	 */
+	public int getXEnd(){
+		return(xEnd);
+	}
+
+	/**
+	 * @return xStride definition in this class
+	 */
+	public int getXStride(){
+		return(xStride);
+	}
+
+	/**
+	 * @return the region as z0:z1:zs,y0:y1:ys,x0:x1:xs
+	 */
+	public String toString(){
+		return(zBegin + ":" + zEnd + ":" + zStride + "," + yBegin + ":" + yEnd + ":" + yStride + "," + xBegin + ":" + xEnd + ":" + xStride);
+	}
+}
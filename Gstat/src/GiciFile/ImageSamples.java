@@ -0,0 +1,347 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+
+
+/**
+ * This class is the base of the image containers that keep the samples in their native type (as they are read from disk) instead of widening them to float.<br>
+ * Samples are accessed row by row through a {@link RowConsumer}. The sample type is one of the data types of raw images:
+ * <ul>
+ *   <li> 0- boolean (stored in a byte[] as 0 or 1)
+ *   <li> 1- unsigned int, 1 byte (stored in a byte[])
+ *   <li> 2- unsigned int, 2 bytes (stored in a short[])
+ *   <li> 3- signed int, 2 bytes (stored in a short[])
+ *   <li> 4- signed int, 4 bytes (stored in an int[])
+ *   <li> 5- signed int, 8 bytes (stored in a long[])
+ *   <li> 6- float, 4 bytes (stored in a float[])
+ *   <li> 7- double, 8 bytes (stored in a double[])
+ * </ul>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public abstract class ImageSamples{
+
+	/**
+	 * Number of image components.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int zSize;
+
+	/**
+	 * Image height.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int ySize;
+
+	/**
+	 * Image width.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	int xSize;
+
+	/**
+	 * Sample type (see the class description).
+	 * <p>
+	 * Only values between 0 and 7 are allowed.
+	 */
+	int sampleType;
+
+	/**
+	 * Constructor that sets the geometry of the image.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see the class description)
+	 */
+	protected ImageSamples(int zSize, int ySize, int xSize, int sampleType){
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		this.sampleType = sampleType;
+	}
+
+	/**
+	 * Gives some consecutive rows of a component to a consumer, in increasing order.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public abstract void readRows(int z, int yBegin, int yEnd, RowConsumer consumer);
+
+	/**
+	 * Gives a range of columns of some consecutive rows of a component to a consumer, in increasing order. The offset given to the consumer is the position of the first column of the range. Containers that decode the rows override it to decode only the range.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param xBegin first column (inclusive)
+	 * @param xEnd last column (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, final int xBegin, int xEnd, final RowConsumer consumer){
+		readRows(z, yBegin, yEnd, new RowConsumer(){
+			public void consumeRow(int z, int y, Object samples, int offset){
+				consumer.consumeRow(z, y, samples, offset + xBegin);
+			}
+		});
+	}
+
+	/**
+	 * Releases the memory of the samples when it is not managed by the garbage collector (see {@link DirectImageSamples}). The image can not be used afterwards. Containers on the heap do nothing.
+	 */
+	public void free(){
+	}
+
+	/**
+	 * Widens the samples to a 3D float array (index meaning [z][y][x]). Samples of long and double images may lose precision.
+	 *
+	 * @return a 3D float array that contains image samples
+	 */
+	public float[][][] toFloat(){
+		final float[][][] imageSamples = new float[zSize][ySize][xSize];
+		RowConsumer widen = new RowConsumer(){
+			public void consumeRow(int z, int y, Object samples, int offset){
+				toFloat(samples, offset, imageSamples[z][y], sampleType);
+			}
+		};
+		for(int z = 0; z < zSize; z++){
+			readRows(z, 0, ySize, widen);
+		}
+		return(imageSamples);
+	}
+
+	/**
+	 * Widens a row of samples to float.
+	 *
+	 * @param samples the row array
+	 * @param offset position of the first sample
+	 * @param row float array where the samples are stored (its length is the number of samples)
+	 * @param sampleType sample type (see the class description)
+	 */
+	public static void toFloat(Object samples, int offset, float[] row, int sampleType){
+		switch(sampleType){
+		case 0: //boolean
+		case 1: //unsigned int (1 byte)
+			byte[] bytes = (byte[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = bytes[offset + x] & 0xff;
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			short[] chars = (short[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = chars[offset + x] & 0xffff;
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			short[] shorts = (short[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = shorts[offset + x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			int[] ints = (int[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = ints[offset + x];
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			long[] longs = (long[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = longs[offset + x];
+			}
+			break;
+		case 6: //float (4 bytes)
+			System.arraycopy((float[]) samples, offset, row, 0, row.length);
+			break;
+		case 7: //double (8 bytes) - lost of precision
+			double[] doubles = (double[]) samples;
+			for(int x = 0; x < row.length; x++){
+				row[x] = (float) doubles[offset + x];
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Widens a row of samples to double (without loss of precision, except for long samples beyond 2^53).
+	 *
+	 * @param samples the row array
+	 * @param offset position of the first sample
+	 * @param row double array where the samples are stored
+	 * @param rowOffset position of row where the first sample is stored
+	 * @param length number of samples
+	 * @param sampleType sample type (see the class description)
+	 */
+	public static void toDouble(Object samples, int offset, double[] row, int rowOffset, int length, int sampleType){
+		switch(sampleType){
+		case 0: //boolean
+		case 1: //unsigned int (1 byte)
+			byte[] bytes = (byte[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = bytes[offset + x] & 0xff;
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			short[] chars = (short[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = chars[offset + x] & 0xffff;
+			}
+			break;
+		case 3: //signed short (2 bytes)
+			short[] shorts = (short[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = shorts[offset + x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			int[] ints = (int[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = ints[offset + x];
+			}
+			break;
+		case 5: //signed long (8 bytes)
+			long[] longs = (long[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = longs[offset + x];
+			}
+			break;
+		case 6: //float (4 bytes)
+			float[] floats = (float[]) samples;
+			for(int x = 0; x < length; x++){
+				row[rowOffset + x] = floats[offset + x];
+			}
+			break;
+		case 7: //double (8 bytes)
+			System.arraycopy((double[]) samples, offset, row, rowOffset, length);
+			break;
+		}
+	}
+
+	/**
+	 * Allocates a primitive array able to store samples of the given type.
+	 *
+	 * @param sampleType sample type (see the class description)
+	 * @param length number of samples
+	 * @return a byte[], short[], int[], long[], float[] or double[] array
+	 */
+	public static Object createRowArray(int sampleType, int length){
+		Object array = null;
+		switch(sampleType){
+		case 0: //boolean
+		case 1: //unsigned int (1 byte)
+			array = new byte[length];
+			break;
+		case 2: //unsigned int (2 bytes)
+		case 3: //signed short (2 bytes)
+			array = new short[length];
+			break;
+		case 4: //signed int (4 bytes)
+			array = new int[length];
+			break;
+		case 5: //signed long (8 bytes)
+			array = new long[length];
+			break;
+		case 6: //float (4 bytes)
+			array = new float[length];
+			break;
+		case 7: //double (8 bytes)
+			array = new double[length];
+			break;
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+		return(array);
+	}
+
+	/**
+	 * Returns the number of bytes of a sample of the given type.
+	 *
+	 * @param sampleType sample type (see the class description)
+	 * @return the size of the sample in bytes
+	 */
+	public static int getSampleBytes(int sampleType){
+		switch(sampleType){
+		case 0: //boolean
+		case 1: //unsigned int (1 byte)
+			return(1);
+		case 2: //unsigned int (2 bytes)
+		case 3: //signed short (2 bytes)
+			return(2);
+		case 4: //signed int (4 bytes)
+		case 6: //float (4 bytes)
+			return(4);
+		case 5: //signed long (8 bytes)
+		case 7: //double (8 bytes)
+			return(8);
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return sampleType definition in this class
+	 */
+	public int getSampleType(){
+		return(sampleType);
+	}
+
+	/**
+	 * @return number of samples of all the components (it can exceed the range of int)
+	 */
+	public long getSampleCount(){
+		return((long) zSize * ySize * xSize);
+	}
+}
@@ -1,90 +1,104 @@
 package GiciFile;
 
 import java.awt.Point;
+import java.awt.image.BandedSampleModel;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferFloat;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 
 import GiciException.WarningException;
 
 /**
  * This is a JAI-dependency-free wrapper for JAI that doesn't require JAI to be installed to
- * compile or run any application using it. Strong use of reflection is required, and code is
- * a little complicated. Equivalent functions are included as comments at the end of this class.
+ * compile or run any application using it. JAI methods are looked up by reflection only once
+ * and kept as method handles; when JAI is not installed the handles are null and the calls
+ * throw a WarningException. Equivalent functions are included as comments at the end of this class.
  * 
  * @author ian
  */
 public class JaiWrapper {
 
+	/**
+	 * Handles of the JAI methods, resolved when this class is first used (null if JAI is not installed).
+	 */
+	static final MethodHandle JAI_CREATE_LOAD, JAI_CREATE_SAVE, GET_AS_BUFFERED_IMAGE, DISPOSE;
+
+	static {
+		MethodHandle createLoad = null, createSave = null, getAsBufferedImage = null, dispose = null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> jai = Class.forName("javax.media.jai.JAI");
+			Class<?> renderedOp = Class.forName("javax.media.jai.RenderedOp");
+			createLoad = lookup.unreflect(jai.getMethod("create", String.class, Object.class));
+			createSave = lookup.unreflect(jai.getMethod("create", String.class, RenderedImage.class, Object.class, Object.class));
+			getAsBufferedImage = lookup.unreflect(renderedOp.getMethod("getAsBufferedImage"));
+			dispose = lookup.unreflect(renderedOp.getMethod("dispose"));
+		} catch (Exception e){
+			//JAI is not installed (or it is not usable)
+			createLoad = null;
+		}
+		if(createLoad == null){
+			createSave = getAsBufferedImage = dispose = null;
+		}
+		JAI_CREATE_LOAD = createLoad;
+		JAI_CREATE_SAVE = createSave;
+		GET_AS_BUFFERED_IMAGE = getAsBufferedImage;
+		DISPOSE = dispose;
+	}
+
+	/**
+	 * @return true if JAI is installed
+	 */
+	public static boolean isAvailable(){
+		return(JAI_CREATE_LOAD != null);
+	}
+
 	static BufferedImage jaiLoad(String imageFile) throws WarningException {
+		checkAvailable();
 		BufferedImage buffImage = null;
-		
 		try {
-			Method JaiCreate = Class.forName("javax.media.jai.JAI").getMethod("create", String.class, Object.class);
-			Method getAsBufferedImage = Class.forName("javax.media.jai.RenderedOp").getMethod("getAsBufferedImage");
-			Method dispose = Class.forName("javax.media.jai.RenderedOp").getMethod("dispose");
-
 			//RenderedOp img = JAI.create("FileLoad", imageFile);
-			Object img = JaiCreate.invoke(null, "FileLoad", imageFile);
+			Object img = JAI_CREATE_LOAD.invoke("FileLoad", (Object) imageFile);
 
 			//BufferedImage buffImage = img.getAsBufferedImage();
-			buffImage = (BufferedImage) getAsBufferedImage.invoke(img);
+			buffImage = (BufferedImage) GET_AS_BUFFERED_IMAGE.invoke(img);
 			
 			//img.dispose();
-			dispose.invoke(img);
-		} catch (ClassNotFoundException e){
-			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
-		} catch (InvocationTargetException e) {
-			throw new WarningException(e.getTargetException().getMessage());
-		} catch (Exception e){
-			e.printStackTrace();
-			throw new Error("JAI error: " + e.getMessage());
+			DISPOSE.invoke(img);
+		} catch (Throwable e){
+			throw new WarningException("JAI error: " + e.getMessage());
 		}
 
 		return buffImage;
 	}
 
 	static Raster createRaster (int xSize, int ySize, int zSize, DataBufferFloat dbf) throws WarningException {
-		Raster r = null;
-
-		try {
-			Method createBandedSampleModel = Class.forName("javax.media.jai.RasterFactory").getMethod("createBandedSampleModel", int.class, int.class, int.class, int.class);
-			Method createRaster = Class.forName("javax.media.jai.RasterFactory").getMethod("createRaster", SampleModel.class, DataBuffer.class, Point.class);
-
-			//SampleModel sm = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, xSize, ySize, zSize);
-			SampleModel sm = (SampleModel) createBandedSampleModel.invoke(null, DataBuffer.TYPE_FLOAT, xSize, ySize, zSize);
-			//Raster r = RasterFactory.createRaster(sm, dbf, new Point(0,0));
-			r = (Raster) createRaster.invoke(null, sm, dbf, new Point(0,0));
-		} catch (ClassNotFoundException e){
-			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
-		} catch (InvocationTargetException e) {
-			throw new WarningException(e.getTargetException().getMessage());
-		} catch (Exception e){
-			e.printStackTrace();
-			throw new Error("JAI error: " + e.getMessage());
-		}
-		
-		return r;
+		//Banded float rasters are created by java.awt.image as JAI RasterFactory does
+		SampleModel sm = new BandedSampleModel(DataBuffer.TYPE_FLOAT, xSize, ySize, zSize);
+		return Raster.createRaster(sm, dbf, new Point(0,0));
 	}
 	
 	static void jaiSave(BufferedImage buffImage, String imageFile, String format) throws WarningException {
+		checkAvailable();
 		try {
-			Method JaiCreate = Class.forName("javax.media.jai.JAI").getMethod("create", String.class, RenderedImage.class, Object.class, Object.class);
-			
 			//JAI.create("filestore", buffImage, imageFile, format);
-			JaiCreate.invoke(null, "filestore", buffImage, imageFile, format);
-		} catch (ClassNotFoundException e){
-			throw new Error("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
-		} catch (InvocationTargetException e) {
-			throw new WarningException(e.getTargetException().getMessage());
-		} catch (Exception e){
-			e.printStackTrace();
-			throw new Error("JAI error: " + e.getMessage());
+			JAI_CREATE_SAVE.invoke("filestore", (RenderedImage) buffImage, (Object) imageFile, (Object) format);
+		} catch (Throwable e){
+			throw new WarningException("JAI error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @throws WarningException when JAI is not installed
+	 */
+	static void checkAvailable() throws WarningException {
+		if(!isAvailable()){
+			throw new WarningException("Java Advanced Imaging API (JAI) must be installed in order to be able to operate with this specific file format.");
 		}
 	}
 	
@@ -29,8 +29,13 @@ import GiciException.*;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
+import java.awt.Rectangle;
 import java.awt.image.*;
 
 
@@ -54,6 +59,76 @@ public class LoadFile{
 	 * All values allowed.
 	 */
 	float[][][] imageSamples = null;
+
+	/**
+	 * Image samples in their native type (the 3D float array is only built when getImage is called).
+	 * <p>
+	 * All values allowed.
+	 */
+	ImageSamples samples = null;
+
+	/**
+	 * Consumer that receives the rows of a streamed raw image (null if the image is stored).
+	 * <p>
+	 * All values allowed.
+	 */
+	RowConsumer streamConsumer = null;
+
+	/**
+	 * Number of blocks read ahead while rows are decoded in raw loads (0 reads and decodes each row in the calling thread).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	static int readQueueDepth = 4;
+
+	/**
+	 * Size in bytes of the blocks read ahead.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static int readBufferSize = 4 << 20;
+
+	/**
+	 * Number of threads that decode the blocks read ahead (streamed images are always decoded by one thread).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static int readDecoders = 1;
+
+	/**
+	 * Number of threads that extract the samples of images decoded by JAI (0 uses all the available processors).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	static int rasterThreads = 0;
+
+	/**
+	 * Number of bytes of uncompressed data between two checkpoints of the gzip indexes of compressed raw files (0 does not use gzip indexes). See {@link GzipIndex}.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	static long gzipIndexSpan = 0;
+
+	/**
+	 * Number of threads that inflate groups of components of compressed raw files with a gzip index (0 uses all the available processors).
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	static int gzipIndexThreads = 0;
+
+	/**
+	 * If true, raw images read as regions are stored off the Java heap (see {@link DirectImageSamples}).
+	 * <p>
+	 * All values allowed.
+	 */
+	static boolean offHeap = false;
+
+	/**
+	 * Pipeline used in the last raw load (null if it has not been used).
+	 * <p>
+	 * All values allowed.
+	 */
+	ReadPipeline readPipeline = null;
 	
 	
 	/**
@@ -81,6 +156,28 @@ public class LoadFile{
 	 * First component where the image is load
 	 */
 	int zBegin;
+
+	/**
+	 * Region of the image that is loaded (null loads the whole image). Image sizes are the ones of the region.
+	 * <p>
+	 * All values allowed.
+	 */
+	ImageRegion region = null;
+
+	/**
+	 * Number of bytes read at once when rows of a region are consecutive in the file.
+	 */
+	static final int REGION_BLOCK_BYTES = 4 << 20;
+
+	/**
+	 * Sample orders of raw files: band sequential (component, row and column), band interleaved by line (row, component and column) and band interleaved by pixel (row, column and component).
+	 */
+	public static final int BSQ = 0, BIL = 1, BIP = 2;
+
+	/**
+	 * Number of pixels of band interleaved by pixel rows that are separated in components at once (the block stays in cache while its samples are copied to the rows of all the components).
+	 */
+	static final int DEINTERLEAVE_PIXELS = 256;
 	
 	/**
 	 * Type of the sample (byte, float, etc) for each component.
@@ -109,6 +206,18 @@ public class LoadFile{
 	 * @throws WarningException when the file cannot be load 
 	 */
 	public void LoadPGM(String imageFile) throws WarningException{
+		LoadPGM(imageFile, false);
+	}
+
+	/**
+	 * Loads a pgm image, optionally mapping uncompressed binary (P5) files in memory.
+	 * 
+	 * @param imageFile an string that contains the name of the image file
+	 * @param memoryMappedPGM if true, uncompressed P5 files are mapped in memory instead of being read (see {@link MappedImageSamples})
+	 * 
+	 * @throws WarningException when the file cannot be load 
+	 */
+	public void LoadPGM(String imageFile, boolean memoryMappedPGM) throws WarningException{
 		try{
 			// test for .gz and read on the fly with GZIPInputStream
 			String extension = "";
@@ -157,118 +266,171 @@ public class LoadFile{
 			}while(classHeader.startsWith("#"));
 			int maxValue = Integer.parseInt(classHeader);
 			
-			imageSamples = new float[zSize][ySize][xSize];
 			samplesType = new Class[zSize];
 			if(maxValue<=255){
 				samplesType[0] = Byte.TYPE;
 			} else {
 				samplesType[0] = Short.TYPE;
 			}
+			int pgmType = maxValue <= 255 ? 1: 2;
+			boolean regionLoaded = false;
 			
 			if (pgmHeader.equals("P5")){
-				DataInputStream dis = null;
-				
-				if (extension.compareToIgnoreCase("gz") == 0){
-					dis = new DataInputStream(new GZIPInputStream(new FileInputStream(imageFile)));
-				} else {
-					dis = new DataInputStream(new FileInputStream(imageFile));	
-				}
-				
-				for(int k=0;k<headerLength;k++){
-					dis.readByte();
-				}
-				if (samplesType[0]==Byte.TYPE){
-					ByteBuffer buffer = ByteBuffer.allocate(xSize);
-					for(int y=0;y<ySize;y++){
-						int bytes_read = 0;
-						int buffer_fill = 0;
-						
-						try{
-							// Keep trying till we get enough
-							byte[] b = buffer.array();
-							do {
-								buffer_fill += bytes_read;
-								bytes_read = dis.read(b, buffer_fill, xSize - buffer_fill);
-							} while (bytes_read >= 0 && bytes_read + buffer_fill < xSize);
-							
-							if (bytes_read >= 0) {
-								bytes_read += buffer_fill;
-							}
-						}catch(IOException e){
-							throw new WarningException("I/O file reading error.");
-						}
-						
-						if(bytes_read < 0) {
+				boolean compressed = extension.compareToIgnoreCase("gz") == 0;
+				if(memoryMappedPGM && !compressed){
+					//Samples are read from the mapped file (big endian) when they are used
+					samples = new MappedImageSamples(imageFile, zSize, ySize, xSize, pgmType, 0, (long) headerLength);
+				}else if((region != null) && (!compressed || usesGzipIndex(imageFile))){
+					//Only the rows of the region are read
+					regionLoad(imageFile, headerLength, zSize, ySize, xSize, pgmType, 0, BSQ, region.resolve(zSize, ySize, xSize));
+					regionLoaded = true;
+				}else{
+					InputStream is = null;
+					if (compressed){
+						is = new GZIPInputStream(new FileInputStream(imageFile), 1024*1024);
+					} else {
+						is = new BufferedInputStream(new FileInputStream(imageFile), 1024*1024);
+					}
+					long skipped = 0;
+					while(skipped < headerLength){
+						long skip = is.skip(headerLength - skipped);
+						if(skip <= 0){
 							throw new WarningException("File reading error (end of file reached before the full file has been read).");
 						}
-						
-						if(bytes_read != xSize){
-							throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + xSize + " needed).");
-						}
-						
-						for(int x=0;x<xSize;x++){
-							imageSamples[0][y][x] = buffer.get(x) & 0xff;
-						}
-						
-						buffer.clear();
+						skipped += skip;
 					}
-				} else {
-					//FIXME this is really slow! it must be as the byte case
-					
+					//Rows are read in bulk and converted from big endian in their native type
+					ArrayImageSamples pgmSamples = new ArrayImageSamples(zSize, ySize, xSize, pgmType);
+					int rowBytes = xSize * ImageSamples.getSampleBytes(pgmType);
+					ByteBuffer buffer = ByteBuffer.allocate(rowBytes).order(ByteOrder.BIG_ENDIAN);
 					for(int y=0;y<ySize;y++){
-						for(int x=0;x<xSize;x++){							
-							imageSamples[0][y][x] = dis.readChar();
+						int fill = 0;
+						while(fill < rowBytes){
+							int read = is.read(buffer.array(), fill, rowBytes - fill);
+							if(read < 0){
+								throw new WarningException("File reading error (end of file reached before the full file has been read).");
+							}
+							fill += read;
 						}
+						buffer.clear();
+						MappedImageSamples.decodeRow(buffer, pgmType, pgmSamples.getRowArray(0, y), pgmSamples.getRowOffset(0, y), xSize);
 					}
-				} 
-				dis = null;
+					is.close();
+					samples = pgmSamples;
+				}
 			} else {//pgm contains data stored in ascii
-				String line = br.readLine();
-				int[] integerArray = getIntegerArray(line);
-				int arrayPosition = 0;
+				ArrayImageSamples pgmSamples = new ArrayImageSamples(zSize, ySize, xSize, pgmType);
+				AsciiTokenizer tokenizer = new AsciiTokenizer(br);
 				for(int y=0;y<ySize;y++){
-					for(int x=0;x<xSize;x++){
-						if (arrayPosition==integerArray.length){
-							arrayPosition = 0;
-							line = br.readLine();
-							integerArray = getIntegerArray(line);
+					Object row = pgmSamples.getRowArray(0, y);
+					int offset = pgmSamples.getRowOffset(0, y);
+					if(pgmType == 1){
+						byte[] bytes = (byte[]) row;
+						for(int x=0;x<xSize;x++){
+							bytes[offset + x] = (byte) tokenizer.nextInt();
+						}
+					}else{
+						short[] shorts = (short[]) row;
+						for(int x=0;x<xSize;x++){
+							shorts[offset + x] = (short) tokenizer.nextInt();
 						}
-						imageSamples[0][y][x] = integerArray[arrayPosition];
-						arrayPosition++;
-						
 					}
 				}
-				
+				samples = pgmSamples;
 			}
 			
+			br.close();
 			br = null;
+			if((region != null) && !regionLoaded){
+				//Images that are not read by regions are cropped once loaded
+				ImageRegion resolved = region.resolve(zSize, ySize, xSize);
+				samples = resolved.crop(samples);
+				setRegionSizes(resolved);
+			}
 			this.signedPixels = new int[zSize];
 			for(int z=0;z<zSize;z++){
 				this.signedPixels[z] = 0;
 			}
+		} catch(WarningException e){
+			if(region == null){
+				throw new WarningException("File \"" + imageFile + "\" can not be loaded."); 
+			}
+			throw e;
 		} catch(Exception e){
 			throw new WarningException("File \"" + imageFile + "\" can not be loaded."); 
 		}
 	}
 	
 	/**
-	 * Receives a String that contains a sequence of integer numbers and returns an array with the integers in the String
-	 *  
-	 * @param line String containing integers separated by blank spaces
-	 * 
-	 * @return an array of integers containing the numbers of the String in the same order
+	 * Tokenizer of the samples of ASCII (P2) PGM files. Characters are read in blocks and integers are parsed directly from them (no strings are created). Comments (from # to the end of the line) are skipped.
 	 */
-	int[] getIntegerArray(String line){
-		int[] array=null;
-		if (line!=null){
-			
-			String values[] = line.split(" ");
-			array = new int[values.length];
-			for(int k=0;k<array.length;k++){
-				array[k] = Integer.parseInt(values[k]);
+	static class AsciiTokenizer{
+
+		/**
+		 * Reader of the samples.
+		 */
+		Reader reader;
+
+		/**
+		 * Block of characters read.
+		 */
+		char[] block = new char[64 * 1024];
+
+		/**
+		 * Number of characters in block and position of the next one.
+		 */
+		int length = 0, position = 0;
+
+		AsciiTokenizer(Reader reader){
+			this.reader = reader;
+		}
+
+		/**
+		 * Returns the next character.
+		 *
+		 * @return the character, or -1 at the end of the file
+		 * @throws IOException when the file cannot be read
+		 */
+		int next() throws IOException{
+			if(position == length){
+				length = reader.read(block, 0, block.length);
+				position = 0;
+				if(length <= 0){
+					length = 0;
+					return(-1);
+				}
+			}
+			return(block[position++]);
+		}
+
+		/**
+		 * Parses the next non-negative integer.
+		 *
+		 * @return the integer
+		 * @throws IOException when the file cannot be read or the end of file is reached
+		 */
+		int nextInt() throws IOException{
+			int c = next();
+			while((c != -1) && ((c < '0') || (c > '9'))){
+				if(c == '#'){
+					while((c != -1) && (c != '\n') && (c != '\r')){
+						c = next();
+					}
+				}else if(!Character.isWhitespace(c)){
+					throw new IOException("Invalid character in ASCII PGM samples.");
+				}
+				c = next();
+			}
+			if(c == -1){
+				throw new IOException("File reading error (end of file reached before the full file has been read).");
 			}
+			int value = 0;
+			while((c >= '0') && (c <= '9')){
+				value = value * 10 + (c - '0');
+				c = next();
+			}
+			return(value);
 		}
-		return array;
 	}
 	
 	/**
@@ -278,7 +440,33 @@ public class LoadFile{
 	 *
 	 * @throws WarningException when the file cannot be load
 	 */
-	public LoadFile(String imageFile) throws WarningException{	
+	public LoadFile(String imageFile) throws WarningException{
+		this(imageFile, false);
+	}
+
+	/**
+	 * Loads an image (JAI loading), optionally mapping uncompressed binary PGM files in memory.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param memoryMapped if true, uncompressed binary PGM files are mapped in memory instead of being read
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	public LoadFile(String imageFile, boolean memoryMapped) throws WarningException{	
+		this(imageFile, memoryMapped, null);
+	}
+
+	/**
+	 * Loads a region of an image (JAI loading), optionally mapping uncompressed binary PGM files in memory. Rows and columns of the region are decoded by javax.imageio readers (ranges exceeding the image are clipped to it), and components are selected once decoded. Uncompressed binary PGM files read only the rows of the region.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param memoryMapped if true, uncompressed binary PGM files are mapped in memory instead of being read
+	 * @param region region of the image that is loaded (null loads the whole image)
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	public LoadFile(String imageFile, boolean memoryMapped, ImageRegion region) throws WarningException{
+		this.region = region;
 		String extension = "";
 		int dotPos = imageFile.lastIndexOf(".");
 		
@@ -294,8 +482,15 @@ public class LoadFile{
 		}
 		
 		if (extension.compareToIgnoreCase("pgm") != 0){
-			//Image load with JAI
-			BufferedImage buffImage = JaiWrapper.jaiLoad(imageFile);
+			//Image load with javax.imageio (or JAI)
+			BufferedImage buffImage = null;
+			if(region == null){
+				buffImage = ImageCodecs.load(imageFile);
+			}else{
+				int width = region.getXEnd() < 0 ? Integer.MAX_VALUE - region.getXBegin(): region.getXEnd() - region.getXBegin();
+				int height = region.getYEnd() < 0 ? Integer.MAX_VALUE - region.getYBegin(): region.getYEnd() - region.getYBegin();
+				buffImage = ImageCodecs.load(imageFile, new Rectangle(region.getXBegin(), region.getYBegin(), width, height), region.getXStride(), region.getYStride());
+			}
 			
 			//Get size
 			zSize = buffImage.getRaster().getNumBands();
@@ -303,7 +498,6 @@ public class LoadFile{
 			xSize = buffImage.getWidth();
 			
 			//Memory allocation
-			imageSamples = new float[zSize][ySize][xSize];
 			samplesType = new Class[zSize];
 			
 			//Sample type set
@@ -379,23 +573,32 @@ public class LoadFile{
 				}
 			}
 			
-			//Set the samples
-			float pixel[] = new float[zSize];
-			for(int y = buffImage.getMinY(); y < buffImage.getMinY() + ySize; y++){
-				for(int x = buffImage.getMinX(); x < buffImage.getMinX() + xSize; x++){
-					buffImage.getRaster().getPixel(x,y,pixel);
-					for(int z = 0; z < zSize; z++){
-						imageSamples[z][y][x] = pixel[z];
+			//Set the samples (copied in their native type, the 3D float array is built by getImage)
+			Raster raster = buffImage.getRaster();
+			if(region != null){
+				//Rows and columns are already selected by the decoder, components are selected from the raster
+				ImageRegion bands = new ImageRegion(region.getZBegin(), region.getZEnd(), region.getZStride(), 0, -1, 1, 0, -1, 1).resolve(zSize, ySize, xSize);
+				if(bands.getZSize() != zSize){
+					int[] bandList = new int[bands.getZSize()];
+					Class[] bandTypes = new Class[bandList.length];
+					for(int z = 0; z < bandList.length; z++){
+						bandList[z] = bands.getZBegin() + z * bands.getZStride();
+						bandTypes[z] = samplesType[bandList[z]];
 					}
+					raster = raster.createChild(raster.getMinX(), raster.getMinY(), xSize, ySize, raster.getMinX(), raster.getMinY(), bandList);
+					zSize = bandList.length;
+					samplesType = bandTypes;
+					RGBComponents = false;
 				}
 			}
+			samples = new RasterExtractor(raster).extract(rasterThreads);
 			//Free JAI memory
 			buffImage.flush();
 //			img.dispose();
 			buffImage = null;
 			//img = null;
 		} else {//the pgm is loaded
-			LoadPGM(imageFile);
+			LoadPGM(imageFile, memoryMapped);
 		}
 	}
 
@@ -435,7 +638,151 @@ public class LoadFile{
 		this.zBegin = zBegin;
 		rawLoad(imageFile, zSize, ySize, xSize, getClass(sampleType), byteOrder,RGBComponents);
 	}
+
+	/**
+	 * Streams a raw data image: the file is read sequentially and each row is given to the consumer as soon as it is decoded. Rows are not stored (getImage and getImageSamples return null), so the memory used does not depend on the image size.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param zBegin first component where the image is begun to be load
+	 * @param consumer consumer that receives the rows in order, in their native type (see {@link ImageSamples})
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents, int zBegin, RowConsumer consumer) throws WarningException{
+		setSignedPixels(sampleType,zSize);
+		this.zBegin = zBegin;
+		this.streamConsumer = consumer;
+		rawLoad(imageFile, zSize, ySize, xSize, getClass(sampleType), byteOrder,RGBComponents);
+	}
+
+	/**
+	 * Interface to call raw data image load, optionally mapping the file in memory.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param zBegin first component where the image is begun to be load
+	 * @param memoryMapped if true, uncompressed files are mapped in memory instead of being read (see {@link MappedImageSamples})
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents, int zBegin, boolean memoryMapped) throws WarningException{
+		setSignedPixels(sampleType,zSize);
+		this.zBegin = zBegin;
+		if(memoryMapped && !imageFile.toLowerCase().endsWith(".gz")){
+			mapLoad(imageFile, zSize, ySize, xSize, sampleType, byteOrder, RGBComponents);
+		}else{
+			rawLoad(imageFile, zSize, ySize, xSize, getClass(sampleType), byteOrder,RGBComponents);
+		}
+	}
 	
+	/**
+	 * Loads a region of a raw data image. Uncompressed files are read with positional reads of the file channel (or mapped in memory), so only the bytes of the selected rows are read; compressed files are inflated sequentially, skipping the bytes that are not needed. Image sizes are the ones of the region.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param region region of the image that is loaded
+	 * @param memoryMapped if true, uncompressed files are mapped in memory and the region is copied from the mapping
+	 *
+	 * @throws WarningException when the file cannot be load or the region is not inside the image
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents, ImageRegion region, boolean memoryMapped) throws WarningException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, BSQ, RGBComponents, region, memoryMapped);
+	}
+
+	/**
+	 * Loads a region of a raw data image stored in any sample order. Band interleaved files are read line by line: each line is separated in the rows of its components as it is read (rows of band interleaved by pixel files are separated by blocks of DEINTERLEAVE_PIXELS pixels), so the file is never transposed as a whole. They are not mapped in memory.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param sampleOrder order of the samples in the file (BSQ, BIL or BIP)
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param region region of the image that is loaded
+	 * @param memoryMapped if true, uncompressed band sequential files are mapped in memory and the region is copied from the mapping
+	 *
+	 * @throws WarningException when the file cannot be load or the region is not inside the image
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, int sampleOrder, boolean RGBComponents, ImageRegion region, boolean memoryMapped) throws WarningException{
+		ImageRegion resolved = region.resolve(zSize, ySize, xSize);
+		this.region = region;
+		setSignedPixels(sampleType, resolved.getZSize());
+		if(memoryMapped && (sampleOrder == BSQ) && !imageFile.toLowerCase().endsWith(".gz")){
+			mapLoad(imageFile, zSize, ySize, xSize, sampleType, byteOrder, RGBComponents);
+			samples = resolved.crop(samples);
+			setRegionSizes(resolved);
+			samplesType = new Class[this.zSize];
+			for(int z = 0; z < this.zSize; z++){
+				samplesType[z] = getClass(sampleType);
+			}
+		}else{
+			regionLoad(imageFile, 0, zSize, ySize, xSize, sampleType, byteOrder, sampleOrder, resolved);
+		}
+		this.RGBComponents = RGBComponents && (resolved.getZSize() == zSize);
+	}
+
+	/**
+	 * Streams a region of a raw data image: each row of the region is given to the consumer as soon as it is read, and rows are not stored.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param region region of the image that is loaded
+	 * @param consumer consumer that receives the rows of the region in order, in their native type (see {@link ImageSamples})
+	 *
+	 * @throws WarningException when the file cannot be load or the region is not inside the image
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents, ImageRegion region, RowConsumer consumer) throws WarningException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, BSQ, RGBComponents, region, consumer);
+	}
+
+	/**
+	 * Streams a region of a raw data image stored in any sample order: each row of the region is given to the consumer as soon as it is read, and rows are not stored. Rows of band interleaved files are given row by row, with all the components of each row.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param sampleOrder order of the samples in the file (BSQ, BIL or BIP)
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 * @param region region of the image that is loaded
+	 * @param consumer consumer that receives the rows of the region in order, in their native type (see {@link ImageSamples})
+	 *
+	 * @throws WarningException when the file cannot be load or the region is not inside the image
+	 */
+	public LoadFile(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, int sampleOrder, boolean RGBComponents, ImageRegion region, RowConsumer consumer) throws WarningException{
+		ImageRegion resolved = region.resolve(zSize, ySize, xSize);
+		this.region = region;
+		this.streamConsumer = consumer;
+		setSignedPixels(sampleType, resolved.getZSize());
+		regionLoad(imageFile, 0, zSize, ySize, xSize, sampleType, byteOrder, sampleOrder, resolved);
+		this.RGBComponents = RGBComponents && (resolved.getZSize() == zSize);
+	}
+
 	/**
 	 * Interface to call raw data image load.
 	 *
@@ -508,7 +855,6 @@ public class LoadFile{
 		this.xSize = xSize;
 
 		//Memory allocation
-		imageSamples = new float[zSize][ySize][xSize];
 		samplesType = new Class[zSize];
 
 		//Sample type set
@@ -577,6 +923,16 @@ public class LoadFile{
 			throw new WarningException("Sample type unrecognized.");
 		}
 		buffer = ByteBuffer.allocate(byte_xSize);
+		//Streamed images are decoded row by row in a reusable array
+		ArrayImageSamples rawSamples = null;
+		Object streamRow = null;
+		if(streamConsumer == null){
+			rawSamples = new ArrayImageSamples(zSize, ySize, xSize, t);
+		}else{
+			streamRow = ImageSamples.createRowArray(t, xSize);
+		}
+		imageSamples = null;
+		samples = rawSamples;
 
 		switch(byteOrder){
 		case 0: //BIG ENDIAN
@@ -591,105 +947,620 @@ public class LoadFile{
 		//Further speed improvements can be achieved in the worst case where image width is little by fixing a min read size and not reading less than it
 		if (zBegin != 0){
 			try{
-				dis.skip(zBegin * ySize * byte_xSize);
+				dis.skip((long) zBegin * ySize * byte_xSize);
 			}catch(IOException e){
 				throw new WarningException("I/O file skipping error.");
 			}
 		}
 		
-		for(int z = 0; z < zSize; z++){
-			for(int y = 0; y < ySize; y++){
+		if(readQueueDepth > 0){
+			//Blocks of rows are read (and inflated) by a thread while they are decoded
+			readRaw(dis, t, buffer.order(), rawSamples, streamRow);
+		}else{
+			for(int z = 0; z < zSize; z++){
+				for(int y = 0; y < ySize; y++){
 				
-				int bytes_read = 0;
-				int buffer_fill = 0;
+					int bytes_read = 0;
+					int buffer_fill = 0;
 				
-				try{
-					// Keep trying till we get enough
-					do {
-						buffer_fill += bytes_read;
-						bytes_read = dis.read(buffer.array(), buffer_fill, byte_xSize - buffer_fill);
-					} while (bytes_read >= 0 && bytes_read + buffer_fill < byte_xSize);
+					try{
+						// Keep trying till we get enough
+						do {
+							buffer_fill += bytes_read;
+							bytes_read = dis.read(buffer.array(), buffer_fill, byte_xSize - buffer_fill);
+						} while (bytes_read >= 0 && bytes_read + buffer_fill < byte_xSize);
 					
-					if (bytes_read >= 0) {
-						bytes_read += buffer_fill;
+						if (bytes_read >= 0) {
+							bytes_read += buffer_fill;
+						}
+					}catch(IOException e){
+						throw new WarningException("I/O file reading error.");
 					}
-				}catch(IOException e){
-					throw new WarningException("I/O file reading error.");
-				}
 				
-				if(bytes_read < 0) {
-					throw new WarningException("File reading error (end of file reached before the full file has been read).");
-				}
+					if(bytes_read < 0) {
+						throw new WarningException("File reading error (end of file reached before the full file has been read).");
+					}
 				
-				if(bytes_read != byte_xSize){
-					throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + byte_xSize + " needed).");
-				}
+					if(bytes_read != byte_xSize){
+						throw new WarningException("File reading error (" + bytes_read + " bytes read, but " + byte_xSize + " needed).");
+					}
 				
-				switch(t){
-				case 0: //boolean (1 byte)
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = buffer.get(x) == 0 ? 0.0F : 1.0F;
+					//Samples are copied in their native type
+					buffer.clear();
+					if(streamConsumer == null){
+						MappedImageSamples.decodeRow(buffer, t, rawSamples.getRowArray(z, y), rawSamples.getRowOffset(z, y), xSize);
+					}else{
+						MappedImageSamples.decodeRow(buffer, t, streamRow, 0, xSize);
+						streamConsumer.consumeRow(z, y, streamRow, 0);
 					}
-					break;
-				case 1: //unsigned int (1 byte)
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = buffer.get(x) & 0xff;
+				}
+			}
+		}
+
+		//Close .raw file
+		try{
+			fis.close();
+		}catch(IOException e){
+			throw new WarningException("Error closing file \"" + imageFile + "\".");
+		}
+	}
+
+	/**
+	 * Reads the rows of a region of an image stored as raw samples (the sizes of the image become the ones of the region). Consecutive rows are read in blocks of REGION_BLOCK_BYTES. Compressed files with a gzip index (see setGzipIndex) start inflating at the checkpoint nearest to each part of the region, and stored images are read in parallel by groups of components (or of rows, if the file is band interleaved), each one from its own checkpoints. Stored images are kept off the Java heap when it is selected (see setOffHeap).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param dataOffset position of the first sample in the file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param sampleOrder order of the samples in the file (BSQ, BIL or BIP)
+	 * @param resolved region of the image, resolved against its sizes
+	 *
+	 * @throws WarningException when the file cannot be read
+	 */
+	void regionLoad(final String imageFile, final long dataOffset, final int zSize, final int ySize, final int xSize, final int sampleType, final int byteOrder, final int sampleOrder, final ImageRegion resolved) throws WarningException{
+		setRegionSizes(resolved);
+		samplesType = new Class[this.zSize];
+		for(int z = 0; z < this.zSize; z++){
+			samplesType[z] = getClass(sampleType);
+		}
+		boolean stored = streamConsumer == null;
+		DirectImageSamples directSamples = null;
+		if(stored && offHeap){
+			//Rows are read as if they were streamed and stored off the heap
+			directSamples = new DirectImageSamples(this.zSize, this.ySize, this.xSize, sampleType);
+			streamConsumer = directSamples.getWriter();
+		}
+		final ArrayImageSamples regionSamples = stored && (directSamples == null) ? new ArrayImageSamples(this.zSize, this.ySize, this.xSize, sampleType): null;
+		imageSamples = null;
+		samples = directSamples != null ? directSamples: regionSamples;
+
+		boolean complete = false;
+		try{
+			GzipIndex index = null;
+			if(usesGzipIndex(imageFile)){
+				index = GzipIndex.open(imageFile, gzipIndexSpan);
+			}
+			int threads = gzipIndexThreads > 0 ? gzipIndexThreads: Runtime.getRuntime().availableProcessors();
+			final int parts = sampleOrder == BSQ ? this.zSize: this.ySize;
+			int groups = (index != null) && stored ? Math.min(threads, parts): 1;
+			if(groups <= 1){
+				readRegion(imageFile, index, dataOffset, zSize, ySize, xSize, sampleType, byteOrder, sampleOrder, resolved, 0, parts, regionSamples);
+			}else{
+				//Each group of components (or rows) is inflated by a thread from its own checkpoints
+				final GzipIndex groupIndex = index;
+				ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(groups);
+				for(int group = 0; group < groups; group++){
+					final int partBegin = (int) ((long) group * parts / groups);
+					final int partEnd = (int) ((long) (group + 1) * parts / groups);
+					tasks.add(new Callable<Void>(){
+						public Void call() throws IOException{
+							readRegion(imageFile, groupIndex, dataOffset, zSize, ySize, xSize, sampleType, byteOrder, sampleOrder, resolved, partBegin, partEnd, regionSamples);
+							return(null);
+						}
+					});
+				}
+				ExecutorService pool = Executors.newFixedThreadPool(groups);
+				try{
+					for(Future<Void> task: pool.invokeAll(tasks)){
+						task.get();
 					}
-					break;
-				case 2: //unsigned int (2 bytes)
-					CharBuffer cb = buffer.asCharBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = cb.get(x) & 0xffff;
+				}catch(InterruptedException e){
+					throw new IOException("Interrupted while reading \"" + imageFile + "\".");
+				}catch(ExecutionException e){
+					if(e.getCause() instanceof IOException){
+						throw (IOException) e.getCause();
 					}
-					break;
-				case 3: //signed short (2 bytes)
-					ShortBuffer sb = buffer.asShortBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = sb.get(x);
+					throw new IOException(e.getCause());
+				}finally{
+					pool.shutdown();
+				}
+			}
+			complete = true;
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}catch(EOFException e){
+			throw new WarningException("File reading error (end of file reached before the full file has been read).");
+		}catch(ZipException e){
+			throw new WarningException("File \"" + imageFile + "\" may be corrupted (or not in gzip format).");
+		}catch(IOException e){
+			throw new WarningException("I/O file reading error.");
+		}finally{
+			if(directSamples != null){
+				streamConsumer = null;
+				if(!complete){
+					directSamples.free();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of some components of a region of a band sequential file, or the rows of some lines of a band interleaved file (see regionLoad).
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param index gzip index of the file (null if it is not used)
+	 * @param dataOffset position of the first sample in the file
+	 * @param zSize image depth
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param sampleOrder order of the samples in the file (BSQ, BIL or BIP)
+	 * @param resolved region of the image, resolved against its sizes
+	 * @param partBegin first component (BSQ) or row (BIL and BIP) of the region that is read (inclusive)
+	 * @param partEnd last component (BSQ) or row (BIL and BIP) of the region that is read (exclusive)
+	 * @param regionSamples container of the region (null if it is streamed)
+	 *
+	 * @throws IOException when the file cannot be read
+	 */
+	void readRegion(String imageFile, GzipIndex index, long dataOffset, int zSize, int ySize, int xSize, int sampleType, int byteOrder, int sampleOrder, ImageRegion resolved, int partBegin, int partEnd, ArrayImageSamples regionSamples) throws IOException{
+		int sampleBytes = ImageSamples.getSampleBytes(sampleType);
+		int xStride = resolved.getXStride();
+		int zStride = resolved.getZStride();
+		//Samples from the first to the last selected column of a row
+		int spanSamples = (this.xSize - 1) * xStride + 1;
+		//Bytes of the region in each line of the file (a row for BSQ), the position of the first one in the line, and the bytes of a line
+		long lineBytes, lineOffset, fileLineBytes;
+		switch(sampleOrder){
+		case BIL: //lines with the rows of all the components
+			lineBytes = ((long) (this.zSize - 1) * zStride + 1) * xSize * sampleBytes;
+			lineOffset = (long) resolved.getZBegin() * xSize * sampleBytes;
+			fileLineBytes = (long) zSize * xSize * sampleBytes;
+			break;
+		case BIP: //lines with the samples of all the components of each pixel
+			lineBytes = (long) spanSamples * zSize * sampleBytes;
+			lineOffset = (long) resolved.getXBegin() * zSize * sampleBytes;
+			fileLineBytes = (long) xSize * zSize * sampleBytes;
+			break;
+		default:
+			lineBytes = (long) spanSamples * sampleBytes;
+			lineOffset = (long) resolved.getXBegin() * sampleBytes;
+			fileLineBytes = (long) xSize * sampleBytes;
+			break;
+		}
+		if(lineBytes > Integer.MAX_VALUE - 8){
+			throw new IOException("Lines of \"" + imageFile + "\" are too long.");
+		}
+		boolean consecutive = (lineBytes == fileLineBytes) && (resolved.getYStride() == 1);
+		int blockLines = consecutive ? (int) Math.max(1, Math.min(this.ySize, REGION_BLOCK_BYTES / lineBytes)): 1;
+		ByteBuffer buffer = ByteBuffer.allocate((int) (blockLines * lineBytes)).order(byteOrder == 0 ? ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+		Object spanRow = null;
+		if(sampleOrder == BIP){
+			spanRow = ImageSamples.createRowArray(sampleType, spanSamples * zSize);
+		}else if(xStride > 1){
+			spanRow = ImageSamples.createRowArray(sampleType, spanSamples);
+		}
+		Object streamRow = null;
+		Object[] streamRows = null;
+		if(regionSamples == null){
+			if(sampleOrder == BIP){
+				streamRows = new Object[this.zSize];
+				for(int zr = 0; zr < this.zSize; zr++){
+					streamRows[zr] = ImageSamples.createRowArray(sampleType, this.xSize);
+				}
+			}else{
+				streamRow = ImageSamples.createRowArray(sampleType, this.xSize);
+			}
+		}
+
+		RegionInput input = new RegionInput(imageFile, index);
+		try{
+			if(sampleOrder == BSQ){
+				for(int zr = partBegin; zr < partEnd; zr++){
+					long z = resolved.getZBegin() + (long) zr * zStride;
+					for(int yr = 0; yr < this.ySize; yr += blockLines){
+						int rows = Math.min(blockLines, this.ySize - yr);
+						long y = resolved.getYBegin() + (long) yr * resolved.getYStride();
+						buffer.clear();
+						buffer.limit((int) (rows * lineBytes));
+						input.read(dataOffset + (z * ySize + y) * fileLineBytes + lineOffset, buffer);
+						for(int r = 0; r < rows; r++){
+							buffer.limit((int) ((r + 1) * lineBytes));
+							buffer.position((int) (r * lineBytes));
+							decodeRegionRow(buffer, sampleType, spanRow, xStride, zr, yr + r, regionSamples, streamRow);
+						}
 					}
-					break;
-				case 4: //signed int (4 bytes)
-					IntBuffer ib = buffer.asIntBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = ib.get(x);
+				}
+			}else{
+				for(int yr = partBegin; yr < partEnd; yr += blockLines){
+					int lines = Math.min(blockLines, partEnd - yr);
+					long y = resolved.getYBegin() + (long) yr * resolved.getYStride();
+					buffer.clear();
+					buffer.limit((int) (lines * lineBytes));
+					input.read(dataOffset + y * fileLineBytes + lineOffset, buffer);
+					for(int l = 0; l < lines; l++){
+						if(sampleOrder == BIL){
+							//Each selected component is a row of the line
+							for(int zr = 0; zr < this.zSize; zr++){
+								int rowPosition = (int) (l * lineBytes + ((long) zr * zStride * xSize + (long) resolved.getXBegin()) * sampleBytes);
+								buffer.limit(rowPosition + spanSamples * sampleBytes);
+								buffer.position(rowPosition);
+								decodeRegionRow(buffer, sampleType, spanRow, xStride, zr, yr + l, regionSamples, streamRow);
+							}
+						}else{
+							//Pixels are decoded and then separated in the rows of the components by blocks
+							buffer.limit((int) ((l + 1) * lineBytes));
+							buffer.position((int) (l * lineBytes));
+							MappedImageSamples.decodeRow(buffer, sampleType, spanRow, 0, spanSamples * zSize);
+							for(int xr = 0; xr < this.xSize; xr += DEINTERLEAVE_PIXELS){
+								int pixels = Math.min(DEINTERLEAVE_PIXELS, this.xSize - xr);
+								for(int zr = 0; zr < this.zSize; zr++){
+									int z = resolved.getZBegin() + zr * zStride;
+									Object row = regionSamples != null ? regionSamples.getRowArray(zr, yr + l): streamRows[zr];
+									int offset = regionSamples != null ? regionSamples.getRowOffset(zr, yr + l): 0;
+									ImageRegion.copyStrided(spanRow, xr * xStride * zSize + z, xStride * zSize, row, offset + xr, pixels);
+								}
+							}
+							if(regionSamples == null){
+								for(int zr = 0; zr < this.zSize; zr++){
+									streamConsumer.consumeRow(zr, yr + l, streamRows[zr], 0);
+								}
+							}
+						}
 					}
-					break;
-				case 5: //signed long (8 bytes)
-					LongBuffer lb = buffer.asLongBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = lb.get(x);
+				}
+			}
+		}finally{
+			input.close();
+		}
+	}
+
+	/**
+	 * Decodes a row of a region from the bytes of its selected columns (from the first to the last one) and stores it, or gives it to the stream consumer.
+	 *
+	 * @param buffer bytes of the row, from its position to its limit
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param spanRow array where all the columns are decoded when not all of them are selected (null otherwise)
+	 * @param xStride distance between the selected columns
+	 * @param zr component of the row in the region
+	 * @param yr row index in the region
+	 * @param regionSamples container of the region (null if it is streamed)
+	 * @param streamRow array of the streamed row
+	 */
+	void decodeRegionRow(ByteBuffer buffer, int sampleType, Object spanRow, int xStride, int zr, int yr, ArrayImageSamples regionSamples, Object streamRow){
+		Object row = regionSamples != null ? regionSamples.getRowArray(zr, yr): streamRow;
+		int offset = regionSamples != null ? regionSamples.getRowOffset(zr, yr): 0;
+		if(spanRow == null){
+			MappedImageSamples.decodeRow(buffer, sampleType, row, offset, this.xSize);
+		}else{
+			MappedImageSamples.decodeRow(buffer, sampleType, spanRow, 0, (this.xSize - 1) * xStride + 1);
+			ImageRegion.copyStrided(spanRow, 0, xStride, row, offset, this.xSize);
+		}
+		if(regionSamples == null){
+			streamConsumer.consumeRow(zr, yr, streamRow, 0);
+		}
+	}
+
+	/**
+	 * Sets the image sizes to the ones of a region.
+	 *
+	 * @param resolved the region, resolved against the sizes of the image
+	 */
+	void setRegionSizes(ImageRegion resolved){
+		zSize = resolved.getZSize();
+		ySize = resolved.getYSize();
+		xSize = resolved.getXSize();
+	}
+
+	/**
+	 * Input of the regions of a file: uncompressed files are read with positional reads of their channel, and compressed files are inflated sequentially (so positions must be increasing, unless the file has a gzip index: then inflation starts again at the nearest checkpoint when a position is before the current one or after the next checkpoint).
+	 */
+	static class RegionInput{
+
+		/**
+		 * Channel of an uncompressed file (null if it is compressed).
+		 */
+		FileChannel channel = null;
+
+		/**
+		 * Inflated stream of a compressed file (null if it is uncompressed).
+		 */
+		InputStream stream = null;
+
+		/**
+		 * Position of the inflated stream.
+		 */
+		long streamPosition = 0;
+
+		/**
+		 * Gzip index of a compressed file (null if it is not used).
+		 */
+		GzipIndex index = null;
+
+		/**
+		 * Opens a file.
+		 *
+		 * @param imageFile name of the file (compressed if it ends with .gz)
+		 * @param index gzip index of a compressed file (null inflates it from its beginning)
+		 * @throws IOException when the file cannot be opened
+		 */
+		RegionInput(String imageFile, GzipIndex index) throws IOException{
+			this.index = index;
+			if(index != null){
+				//The stream is opened at the first position that is read
+			}else if(imageFile.toLowerCase().endsWith(".gz")){
+				stream = new GZIPInputStream(new FileInputStream(imageFile), 1024*1024);
+			}else{
+				channel = new RandomAccessFile(imageFile, "r").getChannel();
+			}
+		}
+
+		/**
+		 * Reads bytes until the buffer is full, and flips it.
+		 *
+		 * @param position position of the first byte in the file
+		 * @param buffer buffer where the bytes are stored (from its position to its limit)
+		 * @throws IOException when the bytes cannot be read (EOFException if the file ends before)
+		 */
+		void read(long position, ByteBuffer buffer) throws IOException{
+			if(channel != null){
+				while(buffer.hasRemaining()){
+					int read = channel.read(buffer, position);
+					if(read < 0){
+						throw new EOFException();
 					}
-					break;
-				case 6: //float (4 bytes)
-					buffer.asFloatBuffer().get(imageSamples[z][y]);
-					break;
-				case 7: //double (8 bytes) - lost of precision
-					DoubleBuffer db = buffer.asDoubleBuffer();
-					for(int x = 0; x < xSize; x++){
-						imageSamples[z][y][x] = (float) db.get(x);
+					position += read;
+				}
+			}else{
+				if((index != null) && ((stream == null) || (position < streamPosition) || (index.getCheckpoint(position) > streamPosition))){
+					if(stream != null){
+						stream.close();
 					}
-					break;
+					stream = index.openStream(position);
+					streamPosition = position;
+				}
+				while(streamPosition < position){
+					long skipped = stream.skip(position - streamPosition);
+					if(skipped <= 0){
+						if(stream.read() < 0){
+							throw new EOFException();
+						}
+						skipped = 1;
+					}
+					streamPosition += skipped;
+				}
+				while(buffer.hasRemaining()){
+					int read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+					if(read < 0){
+						throw new EOFException();
+					}
+					buffer.position(buffer.position() + read);
+					streamPosition += read;
 				}
 			}
+			buffer.flip();
 		}
 
-		//Close .raw file
+		/**
+		 * Closes the file (errors are ignored, the bytes have already been read).
+		 */
+		void close(){
+			try{
+				if(channel != null){
+					channel.close();
+				}else if(stream != null){
+					stream.close();
+				}
+			}catch(IOException e){
+				//Nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of a raw image with a read-ahead pipeline (see {@link ReadPipeline}).
+	 *
+	 * @param dis stream positioned at the first row to be read
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param order byte order of the samples
+	 * @param rawSamples image where the rows are stored (null if they are streamed)
+	 * @param streamRow array where streamed rows are decoded (null if they are stored)
+	 *
+	 * @throws WarningException when the file cannot be read
+	 */
+	void readRaw(InputStream dis, final int sampleType, ByteOrder order, final ArrayImageSamples rawSamples, final Object streamRow) throws WarningException{
+		final int rowBytes = xSize * ImageSamples.getSampleBytes(sampleType);
+		final int width = xSize;
+		final int height = ySize;
+		final RowConsumer consumer = streamConsumer;
+		readPipeline = new ReadPipeline(dis, rowBytes, (long) zSize * ySize, order, readQueueDepth, readBufferSize, consumer == null ? readDecoders: 1);
 		try{
-			fis.close();
+			readPipeline.run(new ReadPipeline.BlockDecoder(){
+				public void decode(ByteBuffer block, long firstRow, int rows){
+					for(int r = 0; r < rows; r++){
+						int z = (int)((firstRow + r) / height);
+						int y = (int)((firstRow + r) % height);
+						block.limit((r + 1) * rowBytes);
+						block.position(r * rowBytes);
+						if(consumer == null){
+							MappedImageSamples.decodeRow(block, sampleType, rawSamples.getRowArray(z, y), rawSamples.getRowOffset(z, y), width);
+						}else{
+							MappedImageSamples.decodeRow(block, sampleType, streamRow, 0, width);
+							consumer.consumeRow(z, y, streamRow, 0);
+						}
+					}
+				}
+			});
 		}catch(IOException e){
-			throw new WarningException("Error closing file \"" + imageFile + "\".");
+			throw new WarningException(e.getMessage() != null ? e.getMessage(): "I/O file reading error.");
 		}
 	}
 
 	/**
-	 * Returns the samples of the image.
+	 * Sets the read-ahead pipeline used to load raw images.
+	 *
+	 * @param queueDepth number of blocks read ahead (0 reads and decodes each row in the calling thread)
+	 * @param bufferSize size in bytes of the blocks
+	 * @param decoders number of threads that decode the blocks
+	 */
+	public static void setReadPipeline(int queueDepth, int bufferSize, int decoders){
+		readQueueDepth = queueDepth;
+		readBufferSize = bufferSize;
+		readDecoders = decoders;
+	}
+
+	/**
+	 * Sets the number of threads that extract the samples of images decoded by JAI.
+	 *
+	 * @param threads number of threads (0 uses all the available processors)
+	 */
+	public static void setRasterThreads(int threads){
+		rasterThreads = threads;
+	}
+
+	/**
+	 * Sets the use of gzip indexes for compressed raw files. The index of a file is built the first time it is read and stored in a sidecar file (see {@link GzipIndex}).
+	 *
+	 * @param span number of bytes of uncompressed data between two checkpoints (0 does not use gzip indexes)
+	 * @param threads number of threads that inflate groups of components (0 uses all the available processors)
+	 */
+	public static void setGzipIndex(long span, int threads){
+		gzipIndexSpan = span;
+		gzipIndexThreads = threads;
+	}
+
+	/**
+	 * Indicates whether a file is read with a gzip index.
+	 *
+	 * @param imageFile name of the file
+	 * @return true if gzip indexes are used and the file is compressed
+	 */
+	public static boolean usesGzipIndex(String imageFile){
+		return((gzipIndexSpan > 0) && imageFile.toLowerCase().endsWith(".gz"));
+	}
+
+	/**
+	 * Sets where raw images read as regions are stored.
+	 *
+	 * @param direct if true, samples are stored off the Java heap (see {@link DirectImageSamples}), otherwise in Java arrays
+	 */
+	public static void setOffHeap(boolean direct){
+		offHeap = direct;
+	}
+
+	/**
+	 * @return true if raw images read as regions are stored off the Java heap
+	 */
+	public static boolean usesOffHeap(){
+		return(offHeap);
+	}
+
+	/**
+	 * Returns the pipeline used in the last raw load (it reports the throughput of each stage).
+	 *
+	 * @return the pipeline, or null if it has not been used
+	 */
+	public ReadPipeline getReadPipeline(){
+		return(readPipeline);
+	}
+
+	/**
+	 * Maps a raw data image in memory. Samples are read from the file when they are used.
+	 *
+	 * @param imageFile an string that contains the name of the image file
+	 * @param zSize an integer of image depth
+	 * @param ySize an integer of image height
+	 * @param xSize an integer of image width
+	 * @param sampleType an integer representing the class of image samples type
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param RGBComponents a boolean that indicates if the three first components are RGB (true, otherwise false)
+	 *
+	 * @throws WarningException when the file cannot be mapped
+	 */
+	public void mapLoad(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, boolean RGBComponents) throws WarningException{
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		samplesType = new Class[zSize];
+		for(int z = 0; z < zSize; z++){
+			this.samplesType[z] = getClass(sampleType);
+		}
+		this.RGBComponents = RGBComponents;
+		if(!new File(imageFile).exists()){
+			throw new WarningException("File \"" + imageFile + "\" not found.");
+		}
+		try{
+			samples = new MappedImageSamples(imageFile, zSize, ySize, xSize, sampleType, byteOrder, zBegin);
+		}catch(IOException e){
+			throw new WarningException("File \"" + imageFile + "\" can not be mapped: " + e.getMessage());
+		}
+		imageSamples = null;
+	}
+
+	/**
+	 * Returns the samples of the image. Images loaded in their native type are widened to float the first time this function is called.
 	 *
 	 * @return a 3D float array that contains image samples
 	 */
 	public float[][][] getImage(){
+		if((imageSamples == null) && (samples != null)){
+			imageSamples = samples.toFloat();
+		}
 		return(imageSamples);
 	}
 
+	/**
+	 * Returns the samples of the image in their native type.
+	 *
+	 * @return the image samples
+	 */
+	public ImageSamples getImageSamples(){
+		return(samples);
+	}
+
+	/**
+	 * Releases the memory of the samples that is not managed by the garbage collector (see {@link ImageSamples#free}). The image can not be used afterwards.
+	 */
+	public void free(){
+		if(samples != null){
+			samples.free();
+		}
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
 	/**
 	 * Returns the type of the image components.
 	 *
@@ -0,0 +1,243 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Image container whose samples are read directly from a memory-mapped raw file (samples are not copied to the heap).<br>
+ * The file is mapped with FileChannel.map in several regions of whole rows (a single map is limited to 2 GB), so files of any size can be mapped. Rows are exposed as byte buffers in the byte order of the file (see getRowBuffer), and readRows decodes each row in a small reusable array before giving it to the consumer, so the decoded image is never stored.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class MappedImageSamples extends ImageSamples{
+
+	/**
+	 * Maximum number of bytes of each mapped region.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final long MAX_MAP_BYTES = 1L << 30;
+
+	/**
+	 * Mapped regions. The region m holds rows m*rowsPerMap to (m+1)*rowsPerMap - 1 of one component.
+	 * <p>
+	 * Read only buffers.
+	 */
+	MappedByteBuffer[] maps;
+
+	/**
+	 * Number of rows of each mapped region.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowsPerMap;
+
+	/**
+	 * Number of mapped regions of each component.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int mapsPerComponent;
+
+	/**
+	 * Number of bytes of a row.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowBytes;
+
+	/**
+	 * Byte order of the samples in the file.
+	 * <p>
+	 * BIG_ENDIAN or LITTLE_ENDIAN.
+	 */
+	ByteOrder byteOrder;
+
+	/**
+	 * Maps a raw file.
+	 *
+	 * @param imageFile the name of the raw file (it can not be compressed)
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param zBegin number of components of the file skipped before the first mapped component
+	 *
+	 * @throws IOException when the file cannot be mapped or it is too short
+	 */
+	public MappedImageSamples(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, int zBegin) throws IOException{
+		this(imageFile, zSize, ySize, xSize, sampleType, byteOrder, (long) zBegin * ySize * xSize * getSampleBytes(sampleType));
+	}
+
+	/**
+	 * Maps the samples of a file that begin after some bytes (for instance, a header).
+	 *
+	 * @param imageFile the name of the file (it can not be compressed)
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 * @param dataOffset position of the first sample in the file (in bytes)
+	 *
+	 * @throws IOException when the file cannot be mapped or it is too short
+	 */
+	public MappedImageSamples(String imageFile, int zSize, int ySize, int xSize, int sampleType, int byteOrder, long dataOffset) throws IOException{
+		super(zSize, ySize, xSize, sampleType);
+		this.byteOrder = byteOrder == 0 ? ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN;
+		long longRowBytes = (long) xSize * getSampleBytes(sampleType);
+		if(longRowBytes > MAX_MAP_BYTES){
+			throw new IOException("Rows larger than " + MAX_MAP_BYTES + " bytes can not be mapped.");
+		}
+		rowBytes = (int) longRowBytes;
+		rowsPerMap = (int) Math.max(1, Math.min(ySize, MAX_MAP_BYTES / rowBytes));
+		mapsPerComponent = (ySize + rowsPerMap - 1) / rowsPerMap;
+		long componentBytes = (long) ySize * rowBytes;
+
+		RandomAccessFile file = new RandomAccessFile(imageFile, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			long needed = dataOffset + zSize * componentBytes;
+			if(channel.size() < needed){
+				throw new IOException("File reading error (end of file reached before the full file has been read).");
+			}
+			maps = new MappedByteBuffer[zSize * mapsPerComponent];
+			for(int z = 0; z < zSize; z++){
+				for(int m = 0; m < mapsPerComponent; m++){
+					int rows = Math.min(rowsPerMap, ySize - m * rowsPerMap);
+					long position = dataOffset + z * componentBytes + (long) m * rowsPerMap * rowBytes;
+					maps[z * mapsPerComponent + m] = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) rows * rowBytes);
+				}
+			}
+		}finally{
+			//Mapped regions remain valid once the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns a view of a row of the file (no samples are copied). The view is positioned at the first byte of the row, its limit is the end of the row and its byte order is the one of the file.
+	 *
+	 * @param z the component
+	 * @param y the row
+	 * @return a read only byte buffer of rowBytes bytes
+	 */
+	public ByteBuffer getRowBuffer(int z, int y){
+		ByteBuffer view = maps[z * mapsPerComponent + y / rowsPerMap].duplicate();
+		int position = (y % rowsPerMap) * rowBytes;
+		view.limit(position + rowBytes);
+		view.position(position);
+		return(view.slice().order(byteOrder));
+	}
+
+	/**
+	 * Gives some consecutive rows of a component to a consumer, decoding each row from the mapped file to a reusable array.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, RowConsumer consumer){
+		Object row = createRowArray(sampleType, xSize);
+		for(int y = yBegin; y < yEnd; y++){
+			decodeRow(getRowBuffer(z, y), sampleType, row, 0, xSize);
+			consumer.consumeRow(z, y, row, 0);
+		}
+	}
+
+	/**
+	 * Gives a range of columns of some consecutive rows of a component to a consumer, decoding only the range to a reusable array.
+	 *
+	 * @param z the component
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 * @param xBegin first column (inclusive)
+	 * @param xEnd last column (exclusive)
+	 * @param consumer the consumer of the rows
+	 */
+	public void readRows(int z, int yBegin, int yEnd, int xBegin, int xEnd, RowConsumer consumer){
+		Object row = createRowArray(sampleType, xEnd - xBegin);
+		int sampleBytes = getSampleBytes(sampleType);
+		for(int y = yBegin; y < yEnd; y++){
+			ByteBuffer buffer = getRowBuffer(z, y);
+			buffer.position(xBegin * sampleBytes);
+			decodeRow(buffer, sampleType, row, 0, xEnd - xBegin);
+			consumer.consumeRow(z, y, row, 0);
+		}
+	}
+
+	/**
+	 * Decodes a row of raw samples with bulk gets of a typed view of the buffer. Boolean samples are normalized to 0 or 1.
+	 *
+	 * @param buffer buffer positioned at the first byte of the row, with the byte order of the samples
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 * @param row array where the samples are stored (see {@link ImageSamples#createRowArray})
+	 * @param offset position of the first sample in the array
+	 * @param length number of samples
+	 */
+	public static void decodeRow(ByteBuffer buffer, int sampleType, Object row, int offset, int length){
+		switch(sampleType){
+		case 0: //boolean (1 byte)
+			byte[] booleans = (byte[]) row;
+			buffer.get(booleans, offset, length);
+			for(int x = offset; x < offset + length; x++){
+				booleans[x] = booleans[x] == 0 ? (byte) 0: (byte) 1;
+			}
+			break;
+		case 1: //unsigned int (1 byte)
+			buffer.get((byte[]) row, offset, length);
+			break;
+		case 2: //unsigned int (2 bytes)
+		case 3: //signed short (2 bytes)
+			buffer.asShortBuffer().get((short[]) row, offset, length);
+			break;
+		case 4: //signed int (4 bytes)
+			buffer.asIntBuffer().get((int[]) row, offset, length);
+			break;
+		case 5: //signed long (8 bytes)
+			buffer.asLongBuffer().get((long[]) row, offset, length);
+			break;
+		case 6: //float (4 bytes)
+			buffer.asFloatBuffer().get((float[]) row, offset, length);
+			break;
+		case 7: //double (8 bytes)
+			buffer.asDoubleBuffer().get((double[]) row, offset, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Sample type unrecognized.");
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.awt.image.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * This class copies the samples of a Raster (as decoded by JAI or ImageIO) to an image container that keeps them in their native type.<br>
+ * When the raster uses a ComponentSampleModel (banded or pixel interleaved samples, one element per sample) rows are copied directly from the banks of the DataBuffer. Other sample models (packed pixels) are read band by band with Raster.getSamples in strips of rows. Strips are extracted in parallel.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class RasterExtractor{
+
+	/**
+	 * Approximate number of samples of each strip of rows.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int STRIP_SAMPLES = 1 << 18;
+
+	/**
+	 * Raster whose samples are extracted.
+	 * <p>
+	 * All values allowed.
+	 */
+	Raster raster;
+
+	/**
+	 * Container where the samples are copied.
+	 * <p>
+	 * All values allowed.
+	 */
+	ArrayImageSamples samples;
+
+	/**
+	 * Bank array of each band (null if the DataBuffer cannot be accessed directly).
+	 * <p>
+	 * Arrays of the type given by {@link ImageSamples#createRowArray}.
+	 */
+	Object[] bandArrays = null;
+
+	/**
+	 * Position in the bank array of the first sample of each band of the raster.
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	int[] bandOffsets = null;
+
+	/**
+	 * Distance between two samples of a row, and between two rows, in the bank arrays.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int pixelStride, scanlineStride;
+
+	/**
+	 * Prepares the extraction of the samples of a raster.
+	 *
+	 * @param raster the raster
+	 */
+	public RasterExtractor(Raster raster){
+		this.raster = raster;
+		samples = new ArrayImageSamples(raster.getNumBands(), raster.getHeight(), raster.getWidth(), getSampleType(raster));
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		if((sampleModel instanceof ComponentSampleModel) && (getBankArray(dataBuffer, 0) != null)){
+			ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+			int[] banks = componentModel.getBankIndices();
+			int[] offsets = componentModel.getBandOffsets();
+			pixelStride = componentModel.getPixelStride();
+			scanlineStride = componentModel.getScanlineStride();
+			//Position of the first sample of the raster in the sample model coordinates
+			int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+			int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+			bandArrays = new Object[banks.length];
+			bandOffsets = new int[banks.length];
+			for(int band = 0; band < banks.length; band++){
+				bandArrays[band] = getBankArray(dataBuffer, banks[band]);
+				bandOffsets[band] = dataBuffer.getOffsets()[banks[band]] + offsets[band] + y0 * scanlineStride + x0 * pixelStride;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sample type (see {@link ImageSamples}) able to keep the samples of a raster without loss.
+	 *
+	 * @param raster the raster
+	 * @return the sample type
+	 */
+	public static int getSampleType(Raster raster){
+		SampleModel sampleModel = raster.getSampleModel();
+		if(sampleModel instanceof ComponentSampleModel){
+			switch(sampleModel.getDataType()){
+			case DataBuffer.TYPE_BYTE:
+				return(1);
+			case DataBuffer.TYPE_USHORT:
+				return(2);
+			case DataBuffer.TYPE_SHORT:
+				return(3);
+			case DataBuffer.TYPE_INT:
+				return(4);
+			case DataBuffer.TYPE_FLOAT:
+				return(6);
+			case DataBuffer.TYPE_DOUBLE:
+				return(7);
+			}
+		}
+		//Packed samples are unsigned integers of at most 32 bits
+		int bits = 0;
+		for(int band = 0; band < sampleModel.getNumBands(); band++){
+			bits = Math.max(bits, sampleModel.getSampleSize(band));
+		}
+		return(bits <= 8 ? 1: bits <= 16 ? 2: bits <= 31 ? 4: 5);
+	}
+
+	/**
+	 * Returns a bank of a DataBuffer as a primitive array.
+	 *
+	 * @param dataBuffer the DataBuffer
+	 * @param bank the bank index
+	 * @return the bank array, or null if the DataBuffer is not one of the standard classes
+	 */
+	static Object getBankArray(DataBuffer dataBuffer, int bank){
+		if(dataBuffer instanceof DataBufferByte){
+			return(((DataBufferByte) dataBuffer).getData(bank));
+		}else if(dataBuffer instanceof DataBufferUShort){
+			return(((DataBufferUShort) dataBuffer).getData(bank));
+		}else if(dataBuffer instanceof DataBufferShort){
+			return(((DataBufferShort) dataBuffer).getData(bank));
+		}else if(dataBuffer instanceof DataBufferInt){
+			return(((DataBufferInt) dataBuffer).getData(bank));
+		}else if(dataBuffer instanceof DataBufferFloat){
+			return(((DataBufferFloat) dataBuffer).getData(bank));
+		}else if(dataBuffer instanceof DataBufferDouble){
+			return(((DataBufferDouble) dataBuffer).getData(bank));
+		}
+		return(null);
+	}
+
+	/**
+	 * Extracts the samples of the raster.
+	 *
+	 * @param threads number of threads that extract strips of rows (0 uses all the available processors)
+	 * @return the samples of the raster (index meaning of the container: band, row and column of the raster)
+	 */
+	public ArrayImageSamples extract(int threads){
+		int ySize = samples.getYSize();
+		int stripRows = Math.max(1, STRIP_SAMPLES / Math.max(1, samples.getXSize() * samples.getZSize()));
+		if((threads == 1) || (ySize <= stripRows)){
+			extractRows(0, ySize);
+		}else{
+			ForkJoinPool pool = new ForkJoinPool(threads > 0 ? threads: Runtime.getRuntime().availableProcessors());
+			try{
+				pool.invoke(new StripTask(0, ySize, stripRows));
+			}finally{
+				pool.shutdown();
+			}
+		}
+		return(samples);
+	}
+
+	/**
+	 * Extracts some consecutive rows of all the bands.
+	 *
+	 * @param yBegin first row (inclusive)
+	 * @param yEnd last row (exclusive)
+	 */
+	void extractRows(int yBegin, int yEnd){
+		int zSize = samples.getZSize();
+		int xSize = samples.getXSize();
+		int sampleType = samples.getSampleType();
+		if(bandArrays != null){
+			for(int z = 0; z < zSize; z++){
+				for(int y = yBegin; y < yEnd; y++){
+					copyRow(bandArrays[z], bandOffsets[z] + y * scanlineStride, pixelStride, samples.getRowArray(z, y), samples.getRowOffset(z, y), xSize, sampleType);
+				}
+			}
+			return;
+		}
+		int rows = yEnd - yBegin;
+		int minX = raster.getMinX();
+		int minY = raster.getMinY() + yBegin;
+		for(int z = 0; z < zSize; z++){
+			Object strip;
+			switch(sampleType){
+			case 6: //float (4 bytes)
+				strip = raster.getSamples(minX, minY, xSize, rows, z, (float[]) null);
+				break;
+			case 7: //double (8 bytes)
+				strip = raster.getSamples(minX, minY, xSize, rows, z, (double[]) null);
+				break;
+			default:
+				strip = raster.getSamples(minX, minY, xSize, rows, z, (int[]) null);
+				break;
+			}
+			for(int y = yBegin; y < yEnd; y++){
+				narrowRow(strip, (y - yBegin) * xSize, samples.getRowArray(z, y), samples.getRowOffset(z, y), xSize, sampleType);
+			}
+		}
+	}
+
+	/**
+	 * Copies a row whose samples are separated by a stride to a row array of the same type.
+	 *
+	 * @param source the bank array
+	 * @param sourcePos position of the first sample in the bank array
+	 * @param stride distance between two samples in the bank array
+	 * @param row the row array
+	 * @param rowPos position of the first sample in the row array
+	 * @param length number of samples
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 */
+	static void copyRow(Object source, int sourcePos, int stride, Object row, int rowPos, int length, int sampleType){
+		if(stride == 1){
+			System.arraycopy(source, sourcePos, row, rowPos, length);
+			return;
+		}
+		switch(sampleType){
+		case 1: //unsigned int (1 byte)
+			byte[] bytesIn = (byte[]) source, bytesOut = (byte[]) row;
+			for(int x = 0; x < length; x++, sourcePos += stride){
+				bytesOut[rowPos + x] = bytesIn[sourcePos];
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+		case 3: //signed short (2 bytes)
+			short[] shortsIn = (short[]) source, shortsOut = (short[]) row;
+			for(int x = 0; x < length; x++, sourcePos += stride){
+				shortsOut[rowPos + x] = shortsIn[sourcePos];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			int[] intsIn = (int[]) source, intsOut = (int[]) row;
+			for(int x = 0; x < length; x++, sourcePos += stride){
+				intsOut[rowPos + x] = intsIn[sourcePos];
+			}
+			break;
+		case 6: //float (4 bytes)
+			float[] floatsIn = (float[]) source, floatsOut = (float[]) row;
+			for(int x = 0; x < length; x++, sourcePos += stride){
+				floatsOut[rowPos + x] = floatsIn[sourcePos];
+			}
+			break;
+		case 7: //double (8 bytes)
+			double[] doublesIn = (double[]) source, doublesOut = (double[]) row;
+			for(int x = 0; x < length; x++, sourcePos += stride){
+				doublesOut[rowPos + x] = doublesIn[sourcePos];
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copies a row returned by Raster.getSamples (int[] for integer samples) to a row array of the given type.
+	 *
+	 * @param source array returned by Raster.getSamples
+	 * @param sourcePos position of the first sample in the source array
+	 * @param row the row array
+	 * @param rowPos position of the first sample in the row array
+	 * @param length number of samples
+	 * @param sampleType sample type (see {@link ImageSamples})
+	 */
+	static void narrowRow(Object source, int sourcePos, Object row, int rowPos, int length, int sampleType){
+		switch(sampleType){
+		case 1: //unsigned int (1 byte)
+			int[] bytesIn = (int[]) source;
+			byte[] bytesOut = (byte[]) row;
+			for(int x = 0; x < length; x++){
+				bytesOut[rowPos + x] = (byte) bytesIn[sourcePos + x];
+			}
+			break;
+		case 2: //unsigned int (2 bytes)
+			int[] shortsIn = (int[]) source;
+			short[] shortsOut = (short[]) row;
+			for(int x = 0; x < length; x++){
+				shortsOut[rowPos + x] = (short) shortsIn[sourcePos + x];
+			}
+			break;
+		case 4: //signed int (4 bytes)
+			System.arraycopy(source, sourcePos, row, rowPos, length);
+			break;
+		case 5: //unsigned 32 bits stored in a long
+			int[] longsIn = (int[]) source;
+			long[] longsOut = (long[]) row;
+			for(int x = 0; x < length; x++){
+				longsOut[rowPos + x] = longsIn[sourcePos + x] & 0xffffffffL;
+			}
+			break;
+		case 6: //float (4 bytes)
+		case 7: //double (8 bytes)
+			System.arraycopy(source, sourcePos, row, rowPos, length);
+			break;
+		}
+	}
+
+	/**
+	 * Task that extracts a range of rows, halving the range between threads.
+	 */
+	class StripTask extends RecursiveAction{
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * First row (inclusive), last row (exclusive) and maximum number of rows extracted without splitting.
+		 */
+		final int yBegin, yEnd, stripRows;
+
+		StripTask(int yBegin, int yEnd, int stripRows){
+			this.yBegin = yBegin;
+			this.yEnd = yEnd;
+			this.stripRows = stripRows;
+		}
+
+		protected void compute(){
+			if(yEnd - yBegin <= stripRows){
+				extractRows(yBegin, yEnd);
+			}else{
+				int half = yBegin + (yEnd - yBegin) / 2;
+				invokeAll(new StripTask(yBegin, half, stripRows), new StripTask(half, yEnd, stripRows));
+			}
+		}
+	}
+}
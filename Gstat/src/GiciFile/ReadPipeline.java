@@ -0,0 +1,337 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class reads a raw file with a pipeline of threads: one thread reads (and inflates, when the stream is compressed) blocks of whole rows into a pool of reusable buffers, while one or more threads decode the rows of the blocks already read. So reading, inflating and decoding overlap.<br>
+ * The number of buffers waiting to be decoded (queue depth), the size of the buffers and the number of decoding threads can be set. The time each stage is busy is measured, and the throughput of each stage can be reported (see getReport).
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ReadPipeline{
+
+	/**
+	 * Interface of the decoders of the blocks of rows. Blocks can be decoded by several threads at the same time (except when there is only one decoding thread, which decodes them in order).
+	 */
+	public interface BlockDecoder{
+
+		/**
+		 * Decodes the rows of a block.
+		 *
+		 * @param block a buffer with the bytes of the rows (with the byte order of the file), beginning at position 0
+		 * @param firstRow index of the first row of the block (counted from the beginning of the read data)
+		 * @param rows number of rows of the block
+		 */
+		void decode(ByteBuffer block, long firstRow, int rows);
+	}
+
+	/**
+	 * Buffer of a block of rows.
+	 */
+	static class Block{
+
+		/**
+		 * Bytes of the block.
+		 */
+		byte[] data;
+
+		/**
+		 * First row of the block.
+		 */
+		long firstRow;
+
+		/**
+		 * Number of rows of the block (negative for the end-of-data marker).
+		 */
+		int rows;
+
+		Block(byte[] data){
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Stream where the data is read from (positioned at the first row).
+	 */
+	InputStream input;
+
+	/**
+	 * Number of bytes of each row.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowBytes;
+
+	/**
+	 * Number of rows to be read.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long rows;
+
+	/**
+	 * Number of rows of each block.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int rowsPerBlock;
+
+	/**
+	 * Number of blocks that can wait to be decoded.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int queueDepth;
+
+	/**
+	 * Number of decoding threads (the calling thread is one of them).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int decoders;
+
+	/**
+	 * Byte order of the samples.
+	 */
+	ByteOrder byteOrder;
+
+	/**
+	 * Blocks read and waiting to be decoded.
+	 */
+	ArrayBlockingQueue<Block> filled;
+
+	/**
+	 * Blocks that can be reused by the reading thread.
+	 */
+	ArrayBlockingQueue<Block> free;
+
+	/**
+	 * First error of any stage (null if there is none).
+	 */
+	volatile Throwable error = null;
+
+	/**
+	 * Time (in nanoseconds) spent by the reading thread in read calls.
+	 */
+	volatile long readNanos = 0;
+
+	/**
+	 * Time (in nanoseconds) spent by all the decoding threads decoding blocks.
+	 */
+	long decodeNanos = 0;
+
+	/**
+	 * Elapsed time (in nanoseconds) of the whole pipeline.
+	 */
+	long totalNanos = 0;
+
+	/**
+	 * Constructor of the pipeline.
+	 *
+	 * @param input stream where the data is read from (positioned at the first row)
+	 * @param rowBytes number of bytes of each row
+	 * @param rows number of rows to be read
+	 * @param byteOrder byte order of the samples
+	 * @param queueDepth number of blocks that can wait to be decoded
+	 * @param bufferSize approximate size of each block in bytes (blocks have at least one row)
+	 * @param decoders number of decoding threads
+	 */
+	public ReadPipeline(InputStream input, int rowBytes, long rows, ByteOrder byteOrder, int queueDepth, int bufferSize, int decoders){
+		this.input = input;
+		this.rowBytes = rowBytes;
+		this.rows = rows;
+		this.byteOrder = byteOrder;
+		this.queueDepth = Math.max(1, queueDepth);
+		this.decoders = Math.max(1, decoders);
+		rowsPerBlock = (int) Math.max(1, Math.min(rows, Math.max(1, bufferSize / rowBytes)));
+	}
+
+	/**
+	 * Reads all the rows and decodes them. Returns when all the rows have been decoded.
+	 *
+	 * @param decoder the decoder of the blocks
+	 *
+	 * @throws IOException when the data cannot be read (or the decoder fails)
+	 */
+	public void run(final BlockDecoder decoder) throws IOException{
+		long start = System.nanoTime();
+		int buffers = queueDepth + decoders;
+		free = new ArrayBlockingQueue<Block>(buffers);
+		filled = new ArrayBlockingQueue<Block>(buffers + decoders);
+		for(int b = 0; b < buffers; b++){
+			free.add(new Block(new byte[rowsPerBlock * rowBytes]));
+		}
+
+		Thread reader = new Thread("ReadPipeline-reader"){
+			public void run(){
+				read();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		final long[] nanos = new long[decoders];
+		Thread[] threads = new Thread[decoders - 1];
+		for(int d = 0; d < threads.length; d++){
+			final int index = d + 1;
+			threads[d] = new Thread("ReadPipeline-decoder-" + index){
+				public void run(){
+					nanos[index] = decode(decoder);
+				}
+			};
+			threads[d].setDaemon(true);
+			threads[d].start();
+		}
+		nanos[0] = decode(decoder);
+		try{
+			reader.join();
+			for(int d = 0; d < threads.length; d++){
+				threads[d].join();
+			}
+		}catch(InterruptedException e){
+			throw new IOException("Read interrupted.");
+		}
+		for(int d = 0; d < decoders; d++){
+			decodeNanos += nanos[d];
+		}
+		totalNanos = System.nanoTime() - start;
+		if(error != null){
+			if(error instanceof IOException){
+				throw (IOException) error;
+			}
+			throw new IOException(error.toString());
+		}
+	}
+
+	/**
+	 * Reading stage: fills free blocks with consecutive rows and queues them to be decoded. At the end (or on error) queues one end marker for each decoder.
+	 */
+	void read(){
+		long row = 0;
+		long nanos = 0;
+		try{
+			while((row < rows) && (error == null)){
+				Block block = free.poll(100, TimeUnit.MILLISECONDS);
+				if(block == null){
+					continue;
+				}
+				int blockRows = (int) Math.min(rowsPerBlock, rows - row);
+				int length = blockRows * rowBytes;
+				int fill = 0;
+				long begin = System.nanoTime();
+				while(fill < length){
+					int read = input.read(block.data, fill, length - fill);
+					if(read < 0){
+						throw new IOException("File reading error (end of file reached before the full file has been read).");
+					}
+					fill += read;
+				}
+				nanos += System.nanoTime() - begin;
+				readNanos = nanos;
+				block.firstRow = row;
+				block.rows = blockRows;
+				filled.put(block);
+				row += blockRows;
+			}
+		}catch(Throwable e){
+			if(error == null){
+				error = e;
+			}
+		}finally{
+			for(int d = 0; d < decoders; d++){
+				Block end = new Block(null);
+				end.rows = -1;
+				filled.add(end);
+			}
+		}
+	}
+
+	/**
+	 * Decoding stage: decodes the queued blocks until the end marker is found. After an error, blocks are discarded.
+	 *
+	 * @param decoder the decoder of the blocks
+	 * @return time (in nanoseconds) spent decoding
+	 */
+	long decode(BlockDecoder decoder){
+		long nanos = 0;
+		while(true){
+			Block block;
+			try{
+				block = filled.take();
+			}catch(InterruptedException e){
+				error = e;
+				return(nanos);
+			}
+			if(block.rows < 0){
+				return(nanos);
+			}
+			if(error == null){
+				long begin = System.nanoTime();
+				try{
+					decoder.decode(ByteBuffer.wrap(block.data, 0, block.rows * rowBytes).order(byteOrder), block.firstRow, block.rows);
+				}catch(Throwable e){
+					if(error == null){
+						error = e;
+					}
+				}
+				nanos += System.nanoTime() - begin;
+			}
+			free.add(block);
+		}
+	}
+
+	/**
+	 * Returns a report of the throughput of each stage (bytes divided by the time the stage has been busy) and of the whole pipeline.
+	 *
+	 * @return a text with one line for each stage
+	 */
+	public String getReport(){
+		double megabytes = (double) rows * rowBytes / (1 << 20);
+		return("READ PIPELINE (queue depth " + queueDepth + ", buffer " + rowsPerBlock * rowBytes + " bytes, " + decoders + " decoding threads): " + (float) megabytes + " MB\n"
+			+ "  READ/INFLATE: " + getRate(megabytes, readNanos) + " MB/s\n"
+			+ "  DECODE      : " + getRate(megabytes, decodeNanos / decoders) + " MB/s\n"
+			+ "  TOTAL       : " + getRate(megabytes, totalNanos) + " MB/s");
+	}
+
+	/**
+	 * Computes a throughput.
+	 *
+	 * @param megabytes megabytes processed
+	 * @param nanos time in nanoseconds
+	 * @return the throughput in megabytes per second
+	 */
+	static float getRate(double megabytes, long nanos){
+		return(nanos > 0 ? (float)(megabytes / (nanos / 1e9)): 0F);
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * GICI Library -
+ * Copyright (C) 2007  Group on Interactive Coding of Images (GICI)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Group on Interactive Coding of Images (GICI)
+ * Department of Information and Communication Engineering
+ * Autonomous University of Barcelona
+ * 08193 - Bellaterra - Cerdanyola del Valles (Barcelona)
+ * Spain
+ *
+ * http://gici.uab.es
+ * gici-info@deic.uab.es
+ */
+package GiciFile;
+
+
+/**
+ * Interface of the classes that receive the samples of an image row by row.<br>
+ * Rows are given in their native type, in the array type returned by {@link ImageSamples#createRowArray}.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public interface RowConsumer{
+
+	/**
+	 * Receives a row of samples. The array can be reused by the caller once this function returns.
+	 *
+	 * @param z component of the row
+	 * @param y row index
+	 * @param samples a primitive array (byte[], short[], int[], long[], float[] or double[]) that contains the row
+	 * @param offset position of the first sample of the row in the array
+	 */
+	void consumeRow(int z, int y, Object samples, int offset);
+}
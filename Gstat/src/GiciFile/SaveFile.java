@@ -61,9 +61,13 @@ public class SaveFile{
 		int zSize = imageSamples.length;
 		int ySize = imageSamples[0].length;
 		int xSize = imageSamples[0][0].length;
+		//Rasters have one array per component, indexed by int
+		if((long) ySize * xSize > Integer.MAX_VALUE){
+			throw new WarningException("Components with more than " + Integer.MAX_VALUE + " samples can only be saved as raw data.");
+		}
 
 		//Construct some needed classes
-		
+
 		float[][] imageBanks = new float[zSize][ySize*xSize];
 		for(int z = 0; z < zSize; z++){
 			for(int y = 0; y < ySize; y++){
@@ -90,22 +94,22 @@ public class SaveFile{
 		}
 		buffImage.setData(r);
 
-		//File save with JAI
+		//File save with javax.imageio (or JAI)
 		switch(format){
 		case 0: //PNM
-			JaiWrapper.jaiSave(buffImage, imageFile, "PNM");
+			ImageCodecs.save(buffImage, imageFile, "PNM");
 			break;
 		case 1: //TIFF
-			JaiWrapper.jaiSave(buffImage, imageFile, "TIFF");
+			ImageCodecs.save(buffImage, imageFile, "TIFF");
 			break;
 		case 2: //PNG
-			JaiWrapper.jaiSave(buffImage, imageFile, "PNG");
+			ImageCodecs.save(buffImage, imageFile, "PNG");
 			break;
 		case 3: //JPEG
-			JaiWrapper.jaiSave(buffImage, imageFile, "JPEG");
+			ImageCodecs.save(buffImage, imageFile, "JPEG");
 			break;
 		case 4: //BMP
-			JaiWrapper.jaiSave(buffImage, imageFile, "BMP");
+			ImageCodecs.save(buffImage, imageFile, "BMP");
 			break;
 		default:
 			throw new WarningException("Format file unrecognized.");
@@ -316,6 +320,61 @@ public class SaveFile{
 		}
 	}
 
+	/**
+	 * Saves image samples in raw data in their native type (see {@link ImageSamples}), without widening them to float, so they are saved without loss of precision. Rows are read from the container one by one, so images stored off the heap or mapped in memory are never copied to the heap as a whole.
+	 *
+	 * @param image the image samples
+	 * @param imageFile file name where raw data will be stored
+	 * @param byteOrder 0 if BIG_ENDIAN, 1 if LITTLE_ENDIAN
+	 *
+	 * @throws WarningException when the file cannot be saved
+	 */
+	public static void SaveFileRaw(ImageSamples image, String imageFile, int byteOrder) throws WarningException{
+		final int sampleType = image.getSampleType();
+		final int xSize = image.getXSize();
+		final ByteBuffer buffer = ByteBuffer.allocate(xSize * ImageSamples.getSampleBytes(sampleType)).order(byteOrder == 0 ? ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+
+		//Open file
+		FileOutputStream fos = null;
+		try{
+			fos = new FileOutputStream(imageFile);
+		}catch(FileNotFoundException e){
+			throw new WarningException("File \"" + imageFile + "\" can not be open.");
+		}
+		final BufferedOutputStream bos = new BufferedOutputStream(fos, 1 << 20);
+
+		//Save image
+		final IOException[] error = new IOException[1];
+		RowConsumer writer = new RowConsumer(){
+			public void consumeRow(int z, int y, Object row, int offset){
+				if(error[0] == null){
+					buffer.clear();
+					DirectImageSamples.encodeRow(buffer, sampleType, row, offset, xSize);
+					try{
+						bos.write(buffer.array(), 0, buffer.capacity());
+					}catch(IOException e){
+						error[0] = e;
+					}
+				}
+			}
+		};
+		for(int z = 0; z < image.getZSize(); z++){
+			image.readRows(z, 0, image.getYSize(), writer);
+		}
+
+		//Close file
+		try{
+			bos.close();
+		}catch(IOException e){
+			if(error[0] == null){
+				error[0] = e;
+			}
+		}
+		if(error[0] != null){
+			throw new WarningException("I/O error saving file \"" + imageFile + "\".");
+		}
+	}
+
 	/**
 	 * This functions saves the image samples to an image file with the format specified by its extension.
 	 *
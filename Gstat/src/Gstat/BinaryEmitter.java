@@ -0,0 +1,162 @@
+package Gstat;
+import GiciAnalysis.*;
+import java.io.*;
+
+/**
+ * Emitter of the binary format of Gstat (-f 4), written with {@link DataOutput} (big endian).<br>
+ * The output starts with the int MAGIC and the int FORMAT_VERSION, followed by one record for each image:
+ * <ul>
+ *   <li>Statistics: byte 1, file name (UTF, empty if none), int zSize, ySize and xSize, long number of samples, byte statistic (-s), int number of sections, and each section: int component (-1 for the totals) followed by the selected statistics. Statistics of SCALAR_NAMES are doubles in that order. Counts of statistics 5 and 7 are an int number of values followed by pairs (int value, long count) for 5 and the longs for 7. Percentages of statistics 6 and 8 are the same with floats. Percentiles of statistic 12 are an int number of percentiles followed by pairs (float percentile, double value). Covariances and correlations of statistics 15 and 16 are an int number of values followed by the doubles of the row of the matrix of the component (0 values for the totals). The KLT analysis of statistic 17 is two doubles: the eigenvalue and the energy of the first eigenvalues for each component, and the coding gain and the coding gain in dB for the totals. Then, the int number of compression factors (-1 if the rate calculation is not shown, -2 if it failed followed by the UTF message) and their (float factor, long bytes).</li>
+ *   <li>Error: byte 2, file name (UTF), UTF message.</li>
+ * </ul>
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class BinaryEmitter extends ResultEmitter{
+
+	/**
+	 * First bytes of the output ("GSTR").
+	 */
+	static final int MAGIC = 0x47535452;
+
+	/**
+	 * Version of the format.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Types of records.
+	 */
+	static final byte STATISTICS_RECORD = 1, ERROR_RECORD = 2;
+
+	/**
+	 * Record of the image being written.
+	 * <p>
+	 * Reused for all the images.
+	 */
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+	DataOutputStream record = new DataOutputStream(buffer);
+
+	/**
+	 * Constructor of an emitter for the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	BinaryEmitter(GstatParser parser){
+		super(parser);
+	}
+
+	public void begin(PrintStream out) throws IOException{
+		buffer.reset();
+		record.writeInt(MAGIC);
+		record.writeInt(FORMAT_VERSION);
+		buffer.writeTo(out);
+	}
+
+	public void emit(PrintStream out, String imageFile, ImageStatistical is, ImageSummary summary, long[] rateBytes, String rateError) throws IOException{
+		int zSize = summary.getZSize();
+		long samples = summary.getSamples();
+		prepareCovariance(summary);
+		buffer.reset();
+		record.writeByte(STATISTICS_RECORD);
+		record.writeUTF(imageFile == null ? "": imageFile);
+		record.writeInt(zSize);
+		record.writeInt(summary.getYSize());
+		record.writeInt(summary.getXSize());
+		record.writeLong(samples);
+		record.writeByte(statistic);
+		boolean components = showComponents(zSize);
+		boolean totals = showTotals(zSize);
+		record.writeInt(statistic == 0 ? 0: (components ? zSize: 0) + (totals ? 1: 0));
+		if(statistic > 0){
+			if(components){
+				for(int z = 0; z < zSize; z++){
+					writeSection(is, z, samples);
+				}
+			}
+			if(totals){
+				writeSection(is, -1, samples);
+			}
+		}
+		if(rateError != null){
+			record.writeInt(-2);
+			record.writeUTF(rateError);
+		}else if(rateBytes != null){
+			record.writeInt(rateBytes.length);
+			for(int cf = 0; cf < rateBytes.length; cf++){
+				record.writeFloat(compressionFactors[cf]);
+				record.writeLong(rateBytes[cf]);
+			}
+		}else{
+			record.writeInt(-1);
+		}
+		buffer.writeTo(out);
+	}
+
+	public void emitError(PrintStream out, String imageFile, String message) throws IOException{
+		buffer.reset();
+		record.writeByte(ERROR_RECORD);
+		record.writeUTF(imageFile == null ? "": imageFile);
+		record.writeUTF(message);
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * Writes the selected statistics of a component or the totals.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @param samples number of samples of the image
+	 * @throws IOException when the record cannot be written
+	 */
+	void writeSection(ImageStatistical is, int z, long samples) throws IOException{
+		record.writeInt(z);
+		for(int scalar = 0; scalar < SCALAR_NAMES.length; scalar++){
+			if(isShown(scalar)){
+				record.writeDouble(getScalar(is, z, scalar));
+			}
+		}
+		if(statistic == 12){
+			double[] quantiles = getPercentiles(is, z);
+			record.writeInt(quantiles.length);
+			for(int p = 0; p < quantiles.length; p++){
+				record.writeFloat(percentiles[p]);
+				record.writeDouble(quantiles[p]);
+			}
+		}
+		if(statistic == 17){
+			double[] kltValues = getKltValues(z);
+			record.writeDouble(kltValues == null ? Double.NaN: kltValues[0]);
+			record.writeDouble(kltValues == null ? Double.NaN: kltValues[1]);
+		}
+		if((statistic == 15) || (statistic == 16)){
+			double[] matrixRow = getMatrixRow(z);
+			if(matrixRow == null){
+				record.writeInt(0);
+			}else{
+				record.writeInt(matrixRow.length);
+				for(int j = 0; j < matrixRow.length; j++){
+					record.writeDouble(matrixRow[j]);
+				}
+			}
+		}
+		if((statistic >= 5) && (statistic <= 8)){
+			long[] counts = getCounts(is, z);
+			boolean percent = (statistic == 6) || (statistic == 8);
+			int length = statistic <= 6 ? values.length: counts.length;
+			record.writeInt(length);
+			for(int i = 0; i < length; i++){
+				int value = statistic <= 6 ? values[i]: i;
+				if(statistic <= 6){
+					record.writeInt(value);
+				}
+				if(percent){
+					record.writeFloat(getPercent(counts[value], samples));
+				}else{
+					record.writeLong(counts[value]);
+				}
+			}
+		}
+	}
+}
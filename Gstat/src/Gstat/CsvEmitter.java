@@ -0,0 +1,146 @@
+package Gstat;
+import GiciAnalysis.*;
+import java.io.*;
+
+/**
+ * Emitter of the CSV format of Gstat (-f 2).<br>
+ * After a header, each value is one row with the columns file, component (or "total"), statistic, key and value. The key is the sample value of counts and percentages, the percentile of percentiles, the other component of covariances and correlations (each component has the row of the matrix), and the compression factor of the rate calculation (whose rows have an empty component and the statistic "bytes"). Values of the KLT analysis (eigenvalue and energy of each component, coding gain of the totals) have an empty key. Errors are rows with the statistic "error" and the message as value. The file of the totals of several images is "*".
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class CsvEmitter extends ResultEmitter{
+
+	/**
+	 * Rows of the image being written.
+	 * <p>
+	 * Reused for all the images.
+	 */
+	StringBuilder rows = new StringBuilder(4096);
+
+	/**
+	 * File column of the image being written (quoted if needed).
+	 * <p>
+	 * All values allowed.
+	 */
+	String file;
+
+	/**
+	 * Constructor of an emitter for the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	CsvEmitter(GstatParser parser){
+		super(parser);
+	}
+
+	public void begin(PrintStream out) throws IOException{
+		out.print("file,component,statistic,key,value\n");
+	}
+
+	public void emit(PrintStream out, String imageFile, ImageStatistical is, ImageSummary summary, long[] rateBytes, String rateError) throws IOException{
+		int zSize = summary.getZSize();
+		long samples = summary.getSamples();
+		file = imageFile == null ? "*": quote(imageFile);
+		prepareCovariance(summary);
+		rows.setLength(0);
+		if(showComponents(zSize)){
+			for(int z = 0; z < zSize; z++){
+				appendSection(is, z, samples);
+			}
+		}
+		if(showTotals(zSize)){
+			appendSection(is, -1, samples);
+		}
+		if(rateError != null){
+			rows.append(file).append(",,error,,").append(quote(rateError)).append('\n');
+		}else if(rateBytes != null){
+			for(int cf = 0; cf < rateBytes.length; cf++){
+				rows.append(file).append(",,bytes,").append(compressionFactors[cf]).append(',').append(rateBytes[cf]).append('\n');
+			}
+		}
+		out.append(rows);
+	}
+
+	public void emitError(PrintStream out, String imageFile, String message) throws IOException{
+		out.print((imageFile == null ? "*": quote(imageFile)) + ",,error,," + quote(message) + "\n");
+	}
+
+	/**
+	 * Appends the rows of the selected statistics of a component or the totals.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @param samples number of samples of the image
+	 */
+	void appendSection(ImageStatistical is, int z, long samples){
+		for(int scalar = 0; scalar < SCALAR_NAMES.length; scalar++){
+			if(isShown(scalar)){
+				appendRowStart(z, SCALAR_NAMES[scalar]).append(',').append(getScalar(is, z, scalar)).append('\n');
+			}
+		}
+		if((statistic >= 5) && (statistic <= 8)){
+			long[] counts = getCounts(is, z);
+			boolean percent = (statistic == 6) || (statistic == 8);
+			int length = statistic <= 6 ? values.length: counts.length;
+			for(int i = 0; i < length; i++){
+				int value = statistic <= 6 ? values[i]: i;
+				appendRowStart(z, percent ? "percent": "count").append(value).append(',');
+				if(percent){
+					rows.append(getPercent(counts[value], samples));
+				}else{
+					rows.append(counts[value]);
+				}
+				rows.append('\n');
+			}
+		}
+		if(statistic == 12){
+			double[] quantiles = getPercentiles(is, z);
+			for(int p = 0; p < quantiles.length; p++){
+				appendRowStart(z, "percentile").append(percentiles[p]).append(',').append(quantiles[p]).append('\n');
+			}
+		}
+		double[] kltValues = getKltValues(z);
+		if(kltValues != null){
+			for(int k = 0; k < kltValues.length; k++){
+				appendRowStart(z, z < 0 ? KLT_TOTAL_NAMES[k]: KLT_NAMES[k]).append(',').append(kltValues[k]).append('\n');
+			}
+		}
+		double[] matrixRow = getMatrixRow(z);
+		if(matrixRow != null){
+			for(int j = 0; j < matrixRow.length; j++){
+				appendRowStart(z, getMatrixName()).append(j).append(',').append(matrixRow[j]).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Appends the file, component and statistic columns of a row, and the separator of the key column.
+	 *
+	 * @param z component (-1 for the totals)
+	 * @param name name of the statistic
+	 * @return the rows
+	 */
+	StringBuilder appendRowStart(int z, String name){
+		rows.append(file).append(',');
+		if(z < 0){
+			rows.append("total");
+		}else{
+			rows.append(z);
+		}
+		return(rows.append(',').append(name).append(','));
+	}
+
+	/**
+	 * Quotes a field if it has commas, quotes or line breaks.
+	 *
+	 * @param field the field
+	 * @return the field as it is written in CSV
+	 */
+	static String quote(String field){
+		if((field.indexOf(',') < 0) && (field.indexOf('"') < 0) && (field.indexOf('\n') < 0) && (field.indexOf('\r') < 0)){
+			return(field);
+		}
+		return("\"" + field.replace("\"", "\"\"") + "\"");
+	}
+}
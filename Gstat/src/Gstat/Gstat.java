@@ -3,7 +3,7 @@ import GiciAnalysis.*;
 import GiciException.*;
 import GiciFile.*;
 import java.io.*;
-import java.text.NumberFormat;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Application to show some statitistical of an image.
@@ -13,6 +13,16 @@ import java.text.NumberFormat;
  */
 public class Gstat{
 
+	/**
+	 * Version of the program (it is part of the keys of the statistics cache).
+	 */
+	static final String VERSION = "2.0";
+
+	/**
+	 * Message shown when the format of an image is not recognized.
+	 */
+	static final String LOAD_FORMATS_ERROR = "IMAGE LOAD ERROR Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\"";
+
 	/**
 	 * Main method of Gstat application. It takes program arguments, loads images extracts some statisticals.
 	 *
@@ -22,9 +32,6 @@ public class Gstat{
 	public static void main(String[] args) throws IOException{
 		//Parse arguments
 		GstatParser parser = null;
-		RandomAccessFile energyFile = null;
-		RandomAccessFile varianceFile = null;
-		RandomAccessFile entropyFile = null;
 		try{
 			parser = new GstatParser(args);
 		}catch(ErrorException e){
@@ -38,337 +45,453 @@ public class Gstat{
 			System.exit(2);
 		}
 
+		int[] readPipeline = parser.getReadPipeline();
+		LoadFile.setReadPipeline(readPipeline[0], readPipeline[1] * 1024, readPipeline[2]);
+		LoadFile.setRasterThreads(parser.getThreads());
+		LoadFile.setGzipIndex(parser.getGzipIndex() * 1024L, parser.getThreads());
+		LoadFile.setOffHeap(parser.getOffHeap());
+
+		//Server mode
+		if(parser.getServerPort() >= 0){
+			GstatServer server = new GstatServer(parser.getServerPort(), parser.getServerCache() * 1024L * 1024L, parser.getServerWorkers());
+			server.start();
+			System.out.println("Gstat server listening on http://127.0.0.1:" + server.getPort() + "/");
+			return;
+		}
+
+		//Results are written through one buffered stream, flushed before exiting
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+		ResultEmitter emitter = ResultEmitter.create(parser);
+		emitter.begin(out);
+
+		//Batch mode
+		if(parser.getBatchMode()){
+			//Loading settings are process-wide, so they are set here and not by the batch (which also runs in server requests)
+			int threads = GstatBatch.getImageThreads(parser);
+			LoadFile.setRasterThreads(threads);
+			LoadFile.setGzipIndex(parser.getGzipIndex() * 1024L, threads);
+			int status = new GstatBatch(parser).run(out);
+			out.flush();
+			System.exit(status);
+		}
+
 		//Image load
 		String imageFile = parser.getImageFile();
 		int[]  imageGeometry = parser.getImageGeometry();
-		int[] values = parser.getValues(); 
-		LoadFile image = null;
+		StatisticalEngine engine = createEngine(parser, parser.getThreads());
+		ImageSummary summary = null;
 		try{
-			if(LoadFile.isRaw(imageFile)){
-				image = new LoadFile(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], imageGeometry[4], false);
-			}else{
-				image = new LoadFile(imageFile);
-			}
+			summary = analyzeImage(imageFile, imageGeometry, parser, engine, createCache(parser));
 		}catch(IllegalArgumentException e){
-			System.out.println("IMAGE LOAD ERROR Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\"");
+			emitter.emitError(out, imageFile, LOAD_FORMATS_ERROR);
+			out.flush();
 			System.exit(3);
 			
 		}catch(WarningException e){
-			System.out.println("IMAGE LOAD ERROR: " + e.getMessage());
+			emitter.emitError(out, imageFile, "IMAGE LOAD ERROR: " + e.getMessage());
+			out.flush();
 			System.exit(3);
 		}
-		
+
 		//Images statisticals
-		ImageStatistical is = new ImageStatistical(image.getImage());
-		double[][] minMax = is.getMinMax();
-		double[] totalMinMax = is.getTotalMinMax();
-		double[] average = is.getAverage();
-		double totalAverage = is.getTotalAverage();
-		double[] centerRange = is.getCenterRange();
-		double totalCenterRange = is.getTotalCenterRange();
-		int[][] countedValues = is.getcountedValues();
-		double[] energy = is.getEnergy();
-		double totalEnergy = is.getTotalEnergy();
-		double[] varianze = is.getVariance();
-		double totalVarianze = is.getTotalVariance();
-		double[] entropy = is.getEntropy();
-		double totalEntropy = is.getTotalEntropy();
-		
-		//Show metrics
-		int statistic = parser.getStatistic();
-		int totals = parser.getTotals();
-		int format = parser.getFormat();
-		float[][][] imageSamples = image.getImage();
-		int zSize = imageSamples.length;
-		int ySize = imageSamples[0].length;
-		int xSize = imageSamples[0][0].length;
-		
-		//checking parameters to count values
-		if(statistic >= 5 && statistic <= 6 && values == null){
-			System.out.println("ARGUMENTS ERROR: For this measure specific value/s is/are required");
-			System.exit(3);
+		ImageStatistical is = new ImageStatistical(summary.getAccumulators(), engine);
+		int status = printStatistics(out, parser, is, summary, imageFile, true);
+		out.flush();
+		if(status != 0){
+			System.exit(status);
 		}
-		if(statistic >= 5 && statistic <= 8){
-			int[] samplesType = image.getPixelBitDepth();
-			for(int z = 0; z < samplesType.length; z++){
-				if(samplesType[z] != 8){
-					System.out.println("ERROR image must be Byte type");
-					System.exit(3);
+	}
+
+	/**
+	 * Creates the engine that computes the statistics selected in the program arguments. Only the statistics needed for the selected statistic are computed, unless the statistics cache is used (then all of them are computed and stored, so later executions can show any statistic).
+	 *
+	 * @param parser the program arguments
+	 * @param threads number of threads used to compute the statistics of an image (0 uses all the available processors)
+	 * @return the engine
+	 */
+	static StatisticalEngine createEngine(GstatParser parser, int threads){
+		int mask = parser.getCacheDirectory() != null ? ImageStatistical.ALL: getStatisticMask(parser.getStatistic());
+		return(new StatisticalEngine(mask, threads, parser.getHistogramBinWidth(), parser.getQuantileError()));
+	}
+
+	/**
+	 * Creates the statistics cache selected in the program arguments.
+	 *
+	 * @param parser the program arguments
+	 * @return the cache, or null if it is not used
+	 */
+	static StatisticsCache createCache(GstatParser parser){
+		StatisticsCache cache = null;
+		if(parser.getCacheDirectory() != null){
+			cache = new StatisticsCache(new File(parser.getCacheDirectory()), parser.getCacheSize() * 1024L * 1024L, parser.getCacheHash());
+		}
+		return(cache);
+	}
+
+	/**
+	 * Gets the statistics of an image from the cache or, if they are not cached, loads the image and computes them (storing them in the cache).
+	 *
+	 * @param imageFile name of the image file
+	 * @param imageGeometry geometry of the image if it is raw (see the -ig parameter of {@link GstatParser})
+	 * @param parser the program arguments
+	 * @param engine the engine that computes the statistics
+	 * @param cache the statistics cache (null if it is not used)
+	 * @return the summary of the image
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	static ImageSummary analyzeImage(String imageFile, int[] imageGeometry, GstatParser parser, StatisticalEngine engine, StatisticsCache cache) throws WarningException{
+		String key = null;
+		if(cache != null){
+			try{
+				key = cache.getKey(imageFile, imageGeometry, getRegion(parser), parser.getHistogramBinWidth(), parser.getQuantileError());
+				ImageSummary summary = cache.get(key);
+				//Entries without the covariance are computed again when it is needed
+				if((summary != null) && ((summary.getCovariance() != null) || !needsCovariance(parser.getStatistic()))){
+					return(summary);
 				}
+			}catch(IOException e){
+				//The file cannot be identified, so it is not cached (loading it reports the error)
+				key = null;
 			}
 		}
-		
-		if(statistic == 1 || statistic == 9){
-			energyFile = new RandomAccessFile(imageFile+"_energy", "rw");
+		StatisticalStream stream = createStream(imageFile, imageGeometry, parser, engine);
+		LoadFile image = loadImage(imageFile, imageGeometry, parser, stream);
+		if(parser.getReadStatistics() && (image.getReadPipeline() != null)){
+			System.err.println(image.getReadPipeline().getReport());
 		}
-		if(statistic == 1 || statistic == 10){
-			varianceFile = new RandomAccessFile(imageFile+"_variance", "rw");
-		} 
-		if(statistic == 1 || statistic == 11){
-			entropyFile = new RandomAccessFile(imageFile+"_entropy", "rw");
+		ImageSummary summary = new ImageSummary(image, computeStatistics(image, stream, engine));
+		summary.setCovariance(computeCovariance(image, parser, engine));
+		//The summary has all that is shown, so the samples are released at once
+		image.free();
+		if(key != null){
+			cache.put(key, summary);
 		}
-		
-		if(((zSize > 1) && (totals <= 1)) || (zSize == 1)){
-			for(int z = 0; z < zSize; z++){
-				if((statistic > 0) && (format == 0)) System.out.println("COMPONENT " + z + ":");
-				if((statistic == 1) || (statistic == 2)){
-					if(format == 0) System.out.println("  MIN         : " +(float) minMax[z][0]);
-					if(format == 1) System.out.print((float)minMax[z][0]);
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 2)){
-					if(format == 0) System.out.println("  MAX         : " +(float) minMax[z][1]);
-					if(format == 1) System.out.print(" : "+(float)minMax[z][1]);
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 3)){
-					if(format == 0) System.out.println("  AVERAGE     : " + (float)average[z]);
-					if(format == 1) System.out.print((float)average[z]);
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 4)){
-					if(format == 0) System.out.println("  CENTER RANGE: " + (float)centerRange[z]);
-					if(format == 1) System.out.print((float)centerRange[z]);
-				}
-				if((statistic == 5) && (format == 1)) System.out.print(":");
-				if(statistic == 5){
-					if(format == 0){
-						for(int value = 0; value < values.length; value++){
-							System.out.println(" - NUMBER OF PIXELS WITH VALUE = "+values[value]+" ARE "+countedValues[z][values[value]]);
-						}
-					}
-					if(format == 1){
-						for(int value = 0; value < values.length; value++){
-							System.out.println(values[value]+" - "+countedValues[z][values[value]]);
-						}
-					}
-				}
-				if((statistic == 6) && (format == 1)) System.out.print(":");
-				if(statistic == 6){
-					if(format == 0){
-						for(int value = 0; value < values.length; value++){
-							System.out.println(" - % OF PIXELS VALUES = "+values[value]+" ARE "+((float)countedValues[z][values[value]] * 100  /(zSize*xSize*ySize))+"%");
-						}
-					}
-					if(format == 1){
-						for(int value = 0; value < values.length; value++){
-							System.out.println(values[value]+" - "+((float)countedValues[z][values[value]] * 100  /(zSize*xSize*ySize))+"%");
-						}
-					}
-				}
-				if((statistic == 7) && (format == 1)) System.out.print(":");
-				if(statistic == 7){
-					if(format == 0){
-						for(int value = 0; value < countedValues[z].length; value++){
-								System.out.println(" - NUMBER OF PIXELS WITH VALUE = "+value+" ARE "+countedValues[z][value]);
-						}
-					}
-					if(format == 1){
-						for(int value = 0; value < countedValues[z].length; value++){
-							System.out.println(value+" - "+countedValues[z][value]);
-						}
-					}
-				}
-				if((statistic == 8) && (format == 1)) System.out.print(":");
-				if(statistic == 8){
-					if(format == 0){
-						for(int value = 0; value < countedValues[z].length; value++){
-							System.out.println(" - % OF PIXELS WITH VALUE = "+value+" ARE "+((float)countedValues[z][value] * 100  /(zSize*xSize*ySize))+"%");	
-						}
-					}
-					if(format == 1){
-						for(int value = 0; value < countedValues[z].length; value++){
-							System.out.println(value+" - "+((float)countedValues[z][value] * 100  /(zSize*xSize*ySize))+"%");
-						}
-					}
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 9)){
-					NumberFormat f = NumberFormat.getInstance();
-					f.setMaximumFractionDigits(100);
-					f.setGroupingUsed(false);
-					if(format == 0) System.out.println("  ENERGY      : " + f.format(energy[z])); 
-					if(format == 1) System.out.print(f.format(energy[z]));
-					energyFile.writeBytes(String.valueOf(f.format(energy[z])));
-					energyFile.writeBytes("\n");
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 10)){
-					NumberFormat f = NumberFormat.getInstance();
-					f.setMaximumFractionDigits(100);
-					f.setGroupingUsed(false);
-					if(format == 0) System.out.println("  VARIANCE    : " + f.format(varianze[z]));
-					if(format == 1) System.out.print(f.format(varianze[z]));
-					varianceFile.writeBytes(String.valueOf(f.format(varianze[z])));
-					varianceFile.writeBytes("\n");
-				}
-				if((statistic == 1) && (format == 1)) System.out.print(":");
-				if((statistic == 1) || (statistic == 11)){
-					NumberFormat f = NumberFormat.getInstance();
-					f.setMaximumFractionDigits(100);
-					f.setGroupingUsed(false);
-					if(format == 0) System.out.println("  ENTROPY     : " + f.format(entropy[z]));
-					if(format == 1) System.out.print(f.format(entropy[z]));
-					entropyFile.writeBytes(String.valueOf(f.format(entropy[z])));
-					entropyFile.writeBytes("\n");
+		return(summary);
+	}
+
+	/**
+	 * Creates the stream that computes the statistics of a raw image while it is read, when streaming is selected.
+	 *
+	 * @param imageFile name of the image file
+	 * @param imageGeometry geometry of the raw image (see the -ig parameter of {@link GstatParser})
+	 * @param parser the program arguments
+	 * @param engine the engine that computes the statistics
+	 * @return the stream, or null if the image is not streamed
+	 */
+	static StatisticalStream createStream(String imageFile, int[] imageGeometry, GstatParser parser, StatisticalEngine engine){
+		StatisticalStream stream = null;
+		//The covariance needs all the components of each pixel, so the image is stored
+		if(parser.getStreaming() && LoadFile.isRaw(imageFile) && (imageGeometry != null) && !needsCovariance(parser.getStatistic())){
+			ImageRegion region = getRegion(parser);
+			//Band interleaved files give their rows row by row, with all the components
+			boolean interleaved = getSampleOrder(imageGeometry) != LoadFile.BSQ;
+			if(region == null){
+				stream = engine.createStream(imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], interleaved);
+			}else{
+				try{
+					region = region.resolve(imageGeometry[0], imageGeometry[1], imageGeometry[2]);
+					stream = engine.createStream(region.getZSize(), region.getYSize(), region.getXSize(), imageGeometry[3], interleaved);
+				}catch(WarningException e){
+					//The image is not streamed, loading it reports the error
 				}
-				if((statistic > 0) && (format == 1)) System.out.print("\n");
 			}
 		}
+		return(stream);
+	}
 
-		if((zSize > 1) && (totals >= 1)){
-			if((statistic > 0) && (format == 0)) System.out.println("TOTALS:");
-			if((statistic == 1) || (statistic == 2)){
-				if(format == 0) System.out.println("  MIN         : " + (float)totalMinMax[0]);
-				if(format == 1) System.out.print((float)totalMinMax[0]);
-			}
-			if((statistic ==1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 2)){
-				if(format == 0) System.out.println("  MAX         : " + (float)totalMinMax[1]);
-				if(format == 1) System.out.print(" : "+(float)totalMinMax[1]);
-			}
-			if((statistic == 1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 3)){
-				if(format == 0) System.out.println("  AVERAGE     : " + (float)totalAverage);
-				if(format == 1) System.out.print((float)totalAverage);
-			}
-			if((statistic == 1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 4)){
-				if(format == 0) System.out.println("  CENTER RANGE: " + (float)totalCenterRange);
-				if(format == 1) System.out.print((float)totalCenterRange);
-			}
-			if((statistic == 5) && (format == 1)) System.out.print(":");
-			if(statistic == 5){
-				if(format == 0){
-					for(int value = 0; value < values.length; value++){
-						System.out.println(" - NUMBER OF PIXELS WITH VALUE = "+values[value]+" ARE "+countedValues[0][values[value]]);
-					}
-				}
-				if(format == 1){
-					for(int value = 0; value < values.length; value++){
-						System.out.println(values[value]+" - "+countedValues[0][values[value]]);
-					}
-				}
+	/**
+	 * Returns the sample order of a raw geometry.
+	 *
+	 * @param imageGeometry geometry of the raw image (see the -ig parameter of {@link GstatParser})
+	 * @return the sample order (see {@link LoadFile#BSQ}), band sequential if the geometry does not give it
+	 */
+	static int getSampleOrder(int[] imageGeometry){
+		return(imageGeometry.length > 5 ? imageGeometry[5]: LoadFile.BSQ);
+	}
+
+	/**
+	 * Builds the region of interest selected in the program arguments.
+	 *
+	 * @param parser the program arguments
+	 * @return the region, or null if no region is selected
+	 */
+	static ImageRegion getRegion(GstatParser parser){
+		int[] z = parser.getRegionZ();
+		int[] y = parser.getRegionY();
+		int[] x = parser.getRegionX();
+		if((z == null) && (y == null) && (x == null)){
+			return(null);
+		}
+		int[] all = {0, -1, 1};
+		z = z == null ? all: z;
+		y = y == null ? all: y;
+		x = x == null ? all: x;
+		return(new ImageRegion(z[0], z[1], z[2], y[0], y[1], y[2], x[0], x[1], x[2]));
+	}
+
+	/**
+	 * Loads an image with the options given in the program arguments.
+	 *
+	 * @param imageFile name of the image file
+	 * @param imageGeometry geometry of the image if it is raw (see the -ig parameter of {@link GstatParser})
+	 * @param parser the program arguments
+	 * @param stream stream that receives the rows of a streamed raw image (null to store the image)
+	 * @return the loaded image
+	 *
+	 * @throws WarningException when the file cannot be load
+	 */
+	static LoadFile loadImage(String imageFile, int[] imageGeometry, GstatParser parser, StatisticalStream stream) throws WarningException{
+		LoadFile image = null;
+		ImageRegion region = getRegion(parser);
+		if(LoadFile.isRaw(imageFile)){
+			if(imageGeometry == null){
+				throw new WarningException("Geometry of raw image \"" + imageFile + "\" is unknown.");
 			}
-			if((statistic == 6) && (format == 1)) System.out.print(":");
-			if(statistic == 6){
-				if(format == 0){
-					for(int value = 0; value < values.length; value++){
-						System.out.println(" - % OF PIXELS VALUES = "+values[value]+" ARE "+((float)countedValues[0][values[value]] * 100  /(zSize*xSize*ySize))+"%");
-					}
-				}
-				if(format == 1){
-					for(int value = 0; value < values.length; value++){
-						System.out.println(values[value]+" - "+((float)countedValues[0][values[value]] * 100  /(zSize*xSize*ySize))+"%");
-					}
-				}
+			int sampleOrder = getSampleOrder(imageGeometry);
+			boolean offHeap = LoadFile.usesOffHeap() && (stream == null) && !parser.getMemoryMapped();
+			if((region == null) && (LoadFile.usesGzipIndex(imageFile) || (sampleOrder != LoadFile.BSQ) || offHeap)){
+				//Compressed files with a gzip index, band interleaved files and images stored off the heap are read as a region with all the samples
+				region = new ImageRegion(0, -1, 1, 0, -1, 1, 0, -1, 1);
 			}
-			if((statistic == 7) && (format == 1)) System.out.print(":");
-			if(statistic == 7){
-				if(format == 0){
-					for(int value = 0; value < countedValues[0].length; value++){
-							System.out.println(" - NUMBER OF PIXELS WITH VALUE = "+value+" ARE "+countedValues[0][value]);
-					}
-				}
-				if(format == 1){
-					for(int value = 0; value < countedValues[0].length; value++){
-						System.out.println(value+" - "+countedValues[0][value]);
-					}
+			if(region != null){
+				//Only the region is read
+				if(stream != null){
+					image = new LoadFile(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], imageGeometry[4], sampleOrder, false, region, stream);
+				}else{
+					image = new LoadFile(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], imageGeometry[4], sampleOrder, false, region, parser.getMemoryMapped());
 				}
+			}else if(stream != null){
+				//Statistics are computed while the file is read
+				image = new LoadFile(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], imageGeometry[4], false, 0, stream);
+			}else{
+				image = new LoadFile(imageFile, imageGeometry[0], imageGeometry[1], imageGeometry[2], imageGeometry[3], imageGeometry[4], false, 0, parser.getMemoryMapped());
 			}
-			if((statistic == 8) && (format == 1)) System.out.print(":");
-			if(statistic == 8){
-				if(format == 0){
-					for(int value = 0; value < countedValues[0].length; value++){
-						System.out.println(" - % OF PIXELS WITH VALUE = "+value+" ARE "+((float)countedValues[0][value] * 100  /(zSize*xSize*ySize))+"%");	
-					}
-				}
-				if(format == 1){
-					for(int value = 0; value < countedValues[0].length; value++){
-						System.out.println(value+" - "+((float)countedValues[0][value] * 100  /(zSize*xSize*ySize))+"%");
-					}
+		}else{
+			image = new LoadFile(imageFile, parser.getMemoryMapped(), region);
+		}
+		return(image);
+	}
+
+	/**
+	 * Computes the accumulators of the components of a loaded image.
+	 *
+	 * @param image the loaded image
+	 * @param stream the stream that received the rows of the image (null if the image is stored)
+	 * @param engine the engine that computes the statistics
+	 * @return an array with the statistical accumulator of each component
+	 */
+	static StatisticalAccumulator[] computeStatistics(LoadFile image, StatisticalStream stream, StatisticalEngine engine){
+		return(stream != null ? stream.finish(): engine.compute(image.getImageSamples()));
+	}
+
+	/**
+	 * Computes the covariance between the components of a loaded image, if the selected statistic needs it.
+	 *
+	 * @param image the loaded image (stored, not streamed)
+	 * @param parser the program arguments
+	 * @param engine the engine that computes the statistics
+	 * @return the covariance, or null if it is not needed
+	 */
+	static BandCovariance computeCovariance(LoadFile image, GstatParser parser, StatisticalEngine engine){
+		return(needsCovariance(parser.getStatistic()) ? engine.computeCovariance(image.getImageSamples()): null);
+	}
+
+	/**
+	 * @param statistic statistic to show (see the -s parameter of {@link GstatParser})
+	 * @return true if the statistic is computed from the covariance between the components
+	 */
+	static boolean needsCovariance(int statistic){
+		return((statistic >= 15) && (statistic <= 17));
+	}
+
+	/**
+	 * Shows the statistics of an image (or of a set of images) and stores the side files of the energy, variance and entropy. The compression rates are shown when an image is given.
+	 *
+	 * @param out stream where the statistics are shown
+	 * @param parser the program arguments
+	 * @param is the statistics
+	 * @param summary geometry and sample bit depths of the image (the bit depths are null when the statistics are not computed from a single image)
+	 * @param imageFile name of the image file, used to name the side files
+	 * @param sideFiles false to not store the side files (they are not stored either when imageFile is null)
+	 * @return 0 if the statistics have been shown, 3 if the parameters are not valid for the image or the covariance of the images cannot be computed
+	 * @throws IOException when the side files cannot be written
+	 */
+	static int printStatistics(PrintStream out, GstatParser parser, ImageStatistical is, ImageSummary summary, String imageFile, boolean sideFiles) throws IOException{
+		ResultEmitter emitter = ResultEmitter.create(parser);
+		int statistic = parser.getStatistic();
+		int[] values = parser.getValues();
+
+		//checking parameters to count values
+		if(statistic >= 5 && statistic <= 6 && values == null){
+			emitter.emitError(out, imageFile, "ARGUMENTS ERROR: For this measure specific value/s is/are required");
+			return(3);
+		}
+		if(statistic >= 5 && statistic <= 8 && summary.getSampleBitDepths() != null){
+			int[] samplesType = summary.getSampleBitDepths();
+			for(int z = 0; z < samplesType.length; z++){
+				if(samplesType[z] != 8){
+					emitter.emitError(out, imageFile, "ERROR image must be Byte type");
+					return(3);
 				}
 			}
-			if((statistic == 1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 9)){
-				NumberFormat f = NumberFormat.getInstance();
-				f.setMaximumFractionDigits(100);
-				f.setGroupingUsed(false);
-				if(format == 0) System.out.println("  ENERGY      : " + f.format(totalEnergy));
-				if(format == 1) System.out.print(f.format(totalEnergy));
-				energyFile.writeBytes(String.valueOf(f.format(totalEnergy)));
-				energyFile.writeBytes("\n");
-			}
-			if((statistic == 1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 10)){
-				NumberFormat f = NumberFormat.getInstance();
-				f.setMaximumFractionDigits(100);
-				f.setGroupingUsed(false);
-				if(format == 0) System.out.println("  VARIANCE    : " + f.format(totalVarianze));
-				if(format == 1) System.out.print(f.format(totalVarianze));
-				varianceFile.writeBytes(String.valueOf(f.format(totalVarianze)));
-				varianceFile.writeBytes("\n");
-			}
-			if((statistic == 1) && (format == 1)) System.out.print(":");
-			if((statistic == 1) || (statistic == 11)){
-				NumberFormat f = NumberFormat.getInstance();
-				f.setMaximumFractionDigits(100);
-				f.setGroupingUsed(false);
-				if(format == 0) System.out.println("  ENTROPY     : " + f.format(totalEntropy));
-				if(format == 1) System.out.print(f.format(totalEntropy));
-				entropyFile.writeBytes(String.valueOf(f.format(totalEntropy)));
-				entropyFile.writeBytes("\n");
-			}
-			if((statistic > 0) && (format == 1)) System.out.print("\n");
-			
-			
 		}
-		if(statistic == 9){
-			energyFile.close();
+
+		//The covariance of a set of images is not computed when they have different numbers of components
+		if(needsCovariance(statistic) && (summary.getCovariance() == null)){
+			emitter.emitError(out, imageFile, "ERROR the " + (statistic == 17 ? "KLT of the components": "covariance between components") + " requires images with the same number of components");
+			return(3);
+		}
+
+		//Side files
+		sideFiles = sideFiles && (imageFile != null);
+		if(sideFiles && (statistic == 1 || statistic == 9)){
+			writeSideFile(imageFile + "_energy", emitter, is, summary.getZSize(), 4);
+		}
+		if(sideFiles && (statistic == 1 || statistic == 10)){
+			writeSideFile(imageFile + "_variance", emitter, is, summary.getZSize(), 5);
+		}
+		if(sideFiles && (statistic == 1 || statistic == 11)){
+			writeSideFile(imageFile + "_entropy", emitter, is, summary.getZSize(), 6);
 		}
-		if(statistic == 10){
-			varianceFile.close();
-		} 
-		
+
 		//Compression factors/ratios/bpp calculations
+		long[] rateBytes = null;
+		String rateError = null;
 		try{
-			int rate = parser.getRate();
-			float[] compressionFactors = parser.getCompressionFactors();
+			rateBytes = computeRates(parser, summary);
+		}catch(WarningException e){
+			rateError = e.getMessage();
+		}
 
-			if(rate > 0){
-				int[] sampleBitDepths = image.getPixelBitDepth();
-				for(int z = 1; z < zSize; z++){
-					if(sampleBitDepths[z] != sampleBitDepths[0]){
-						throw new WarningException("Ratios cannor be calculated because sample type differs in some components.");
-					}
-				}
+		emitter.emit(out, imageFile, is, summary, rateBytes, rateError);
+		return(0);
+	}
 
-				double totalImageBytes = (sampleBitDepths[0] * zSize * ySize * xSize) / 8;
-				long compressedImageBytes = 0;
+	/**
+	 * Writes the values of a statistic of the shown components and totals in a side file, one per line. The file is overwritten from its beginning in a single write.
+	 *
+	 * @param fileName name of the side file
+	 * @param emitter emitter that formats the values
+	 * @param is the statistics
+	 * @param zSize number of components of the image
+	 * @param scalar index of the statistic in {@link ResultEmitter#SCALAR_NAMES}
+	 * @throws IOException when the side file cannot be written
+	 */
+	static void writeSideFile(String fileName, ResultEmitter emitter, ImageStatistical is, int zSize, int scalar) throws IOException{
+		StringBuilder text = new StringBuilder();
+		if(emitter.showComponents(zSize)){
+			for(int z = 0; z < zSize; z++){
+				emitter.appendDecimal(text, ResultEmitter.getScalar(is, z, scalar));
+				text.append('\n');
+			}
+		}
+		if(emitter.showTotals(zSize)){
+			emitter.appendDecimal(text, ResultEmitter.getScalar(is, -1, scalar));
+			text.append('\n');
+		}
+		RandomAccessFile sideFile = new RandomAccessFile(fileName, "rw");
+		try{
+			sideFile.write(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}finally{
+			sideFile.close();
+		}
+	}
 
-				if(format == 0) System.out.print("RATIOS NUM BYTES:");
-				for(int cf = 0; cf < compressionFactors.length; cf++){
-					switch(rate){
-					case 1: //Compression factor
-						compressedImageBytes = (long) (totalImageBytes / compressionFactors[cf]);
-						break;
-					case 2: //Compression ratio
-						compressedImageBytes = (long) (totalImageBytes * compressionFactors[cf]);
-						break;
-					case 3: //Bits per Sample
-						compressedImageBytes = (long) ((compressionFactors[cf] * zSize * ySize * xSize) / 8);
-						break;
-					default:
-						throw new WarningException("Unrecognized rate type.");
-					}
-					System.out.print(" " + compressedImageBytes);
-				}
-				System.out.print("\n");
+	/**
+	 * Computes the number of bytes of the image compressed at each compression factor of the program arguments.
+	 *
+	 * @param parser the program arguments
+	 * @param summary geometry and sample bit depths of the image
+	 * @return the number of bytes of each compression factor, or null if the rate calculation is not selected or the statistics are not computed from a single image
+	 * @throws WarningException when the rate cannot be calculated
+	 */
+	static long[] computeRates(GstatParser parser, ImageSummary summary) throws WarningException{
+		int rate = parser.getRate();
+		float[] compressionFactors = parser.getCompressionFactors();
+		if((rate <= 0) || (summary.getSampleBitDepths() == null)){
+			return(null);
+		}
+		int zSize = summary.getZSize();
+		int ySize = summary.getYSize();
+		int xSize = summary.getXSize();
+		int[] sampleBitDepths = summary.getSampleBitDepths();
+		for(int z = 1; z < zSize; z++){
+			if(sampleBitDepths[z] != sampleBitDepths[0]){
+				throw new WarningException("Ratios cannor be calculated because sample type differs in some components.");
 			}
-		}catch(WarningException e){
-			System.out.println("RATE CALCULATION ERROR: " + e.getMessage());
 		}
 
+		long samples = (long) zSize * ySize * xSize;
+		double totalImageBytes = ((long) sampleBitDepths[0] * samples) / 8;
+		long[] compressedImageBytes = new long[compressionFactors.length];
+		for(int cf = 0; cf < compressionFactors.length; cf++){
+			switch(rate){
+			case 1: //Compression factor
+				compressedImageBytes[cf] = (long) (totalImageBytes / compressionFactors[cf]);
+				break;
+			case 2: //Compression ratio
+				compressedImageBytes[cf] = (long) (totalImageBytes * compressionFactors[cf]);
+				break;
+			case 3: //Bits per Sample
+				compressedImageBytes[cf] = (long) (((double) compressionFactors[cf] * samples) / 8);
+				break;
+			default:
+				throw new WarningException("Unrecognized rate type.");
+			}
+		}
+		return(compressedImageBytes);
+	}
+
+	/**
+	 * Selects the statistics that must be computed to show the statistic chosen by the user.
+	 *
+	 * @param statistic statistic to show (see the -s parameter of {@link GstatParser})
+	 * @return a combination of the statistics defined in {@link ImageStatistical}
+	 */
+	static int getStatisticMask(int statistic){
+		int mask = 0;
+		switch(statistic){
+		case 1: //All statistics less 5, 6, 7 and 8
+			mask = ImageStatistical.MIN_MAX | ImageStatistical.AVERAGE | ImageStatistical.CENTER_RANGE | ImageStatistical.ENERGY | ImageStatistical.VARIANCE | ImageStatistical.ENTROPY;
+			break;
+		case 2: //Min and max
+			mask = ImageStatistical.MIN_MAX;
+			break;
+		case 3: //Average
+			mask = ImageStatistical.AVERAGE;
+			break;
+		case 4: //Center range
+			mask = ImageStatistical.CENTER_RANGE;
+			break;
+		case 5: //Counted values
+		case 6:
+		case 7:
+		case 8:
+			mask = ImageStatistical.COUNTED_VALUES;
+			break;
+		case 9: //Energy
+			mask = ImageStatistical.ENERGY;
+			break;
+		case 10: //Variance
+			mask = ImageStatistical.VARIANCE;
+			break;
+		case 11: //Entropy
+			mask = ImageStatistical.ENTROPY;
+			break;
+		case 12: //Percentiles
+			mask = ImageStatistical.QUANTILES;
+			break;
+		case 13: //Skewness
+		case 14: //Kurtosis
+			mask = ImageStatistical.MOMENTS;
+			break;
+		case 15: //Covariance and correlation matrices and KLT analysis (computed apart, see computeCovariance)
+		case 16:
+		case 17:
+			break;
+		}
+		return(mask);
 	}
 
 }
@@ -0,0 +1,453 @@
+package Gstat;
+import GiciAnalysis.*;
+import GiciException.*;
+import GiciFile.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Batch mode of Gstat: analyzes a list of images in the same execution.<br>
+ * Images are given as files, glob patterns or a manifest file (which can also give the geometry of each raw image). They are loaded and analyzed concurrently by a bounded pool of workers, and the result of each image is shown as one record (in the order of the list) as soon as it and the previous ones are finished. Optionally, the accumulators of all the images are merged to show the statistics of the whole set.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class GstatBatch{
+
+	/**
+	 * Program arguments.
+	 * <p>
+	 * All values allowed.
+	 */
+	GstatParser parser;
+
+	/**
+	 * Engine that computes the statistics of each image.
+	 * <p>
+	 * All values allowed.
+	 */
+	StatisticalEngine engine;
+
+	/**
+	 * Number of images analyzed at the same time.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int workers;
+
+	/**
+	 * Statistics cache (null if it is not used).
+	 * <p>
+	 * All values allowed.
+	 */
+	StatisticsCache cache;
+
+	/**
+	 * Accumulators of all the analyzed images (null if no image has been merged yet).
+	 * <p>
+	 * All values allowed.
+	 */
+	StatisticalAccumulator[] totals = null;
+
+	/**
+	 * Covariance between the components of all the analyzed images.
+	 * <p>
+	 * Null if it is not computed or the images have different numbers of components.
+	 */
+	BandCovariance totalCovariance = null;
+
+	/**
+	 * Number of samples of all the merged images.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long totalSamples = 0;
+
+	/**
+	 * Whether the side files of each image are stored (see {@link Gstat#printStatistics}).
+	 * <p>
+	 * All values allowed.
+	 */
+	boolean sideFiles = true;
+
+	/**
+	 * Constructor that prepares the batch with the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	public GstatBatch(GstatParser parser){
+		this.parser = parser;
+		engine = Gstat.createEngine(parser, getImageThreads(parser));
+		cache = Gstat.createCache(parser);
+		workers = parser.getBatchWorkers() > 0 ? parser.getBatchWorkers(): Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets whether the side files of each image are stored.
+	 *
+	 * @param sideFiles false to not store them
+	 */
+	public void setSideFiles(boolean sideFiles){
+		this.sideFiles = sideFiles;
+	}
+
+	/**
+	 * Images are analyzed in parallel, so each one uses 1 thread unless the user chooses otherwise.
+	 *
+	 * @param parser the program arguments
+	 * @return the number of threads used to analyze each image
+	 */
+	static int getImageThreads(GstatParser parser){
+		return(parser.getThreads() > 0 ? parser.getThreads(): 1);
+	}
+
+	/**
+	 * Analyzes the images of the batch and shows their results.
+	 *
+	 * @param out stream where the results are shown
+	 * @return 0 if all the images have been analyzed, otherwise the status of the last failure (see {@link Gstat#printStatistics})
+	 * @throws IOException when the results cannot be written
+	 */
+	public int run(PrintStream out) throws IOException{
+		List<BatchEntry> entries = null;
+		try{
+			entries = getEntries();
+		}catch(WarningException e){
+			ResultEmitter.create(parser).emitError(out, null, "BATCH ERROR: " + e.getMessage());
+			return(3);
+		}
+
+		int status = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayDeque<Future<BatchResult>> pending = new ArrayDeque<Future<BatchResult>>();
+		int next = 0;
+		try{
+			while((next < entries.size()) || !pending.isEmpty()){
+				//Images are submitted ahead of the one being shown, up to twice the number of workers
+				while((next < entries.size()) && (pending.size() < 2 * workers)){
+					final BatchEntry entry = entries.get(next++);
+					pending.add(pool.submit(new Callable<BatchResult>(){
+						public BatchResult call() throws IOException{
+							return(analyze(entry));
+						}
+					}));
+				}
+				BatchResult result = null;
+				try{
+					result = pending.removeFirst().get();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Batch interrupted.");
+				}catch(ExecutionException e){
+					throw new IOException("Batch error: " + e.getCause(), e.getCause());
+				}
+				out.write(result.record);
+				if(result.status != 0){
+					status = result.status;
+				}else if(parser.getBatchTotals()){
+					mergeTotals(result.summary);
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+
+		if(parser.getBatchTotals() && (totals != null)){
+			if(parser.getFormat() <= 1){
+				out.println("FILE: *");
+			}
+			int totalStatus = Gstat.printStatistics(out, parser, new ImageStatistical(totals, engine), getTotalSummary(), null, false);
+			if(totalStatus != 0){
+				status = totalStatus;
+			}
+		}
+		out.flush();
+		return(status);
+	}
+
+	/**
+	 * Loads and analyzes an image, keeping its result in memory.
+	 *
+	 * @param entry the image
+	 * @return the result of the image
+	 * @throws IOException when the result cannot be written
+	 */
+	BatchResult analyze(BatchEntry entry) throws IOException{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer);
+		BatchResult result = new BatchResult();
+		ResultEmitter emitter = ResultEmitter.create(parser);
+		//Records of the text formats start with the file, the other formats include it
+		if(parser.getFormat() <= 1){
+			out.println("FILE: " + entry.imageFile);
+		}
+		try{
+			if(entry.error != null){
+				throw new WarningException(entry.error);
+			}
+			ImageSummary summary = Gstat.analyzeImage(entry.imageFile, entry.imageGeometry, parser, engine, cache);
+			result.status = Gstat.printStatistics(out, parser, new ImageStatistical(summary.getAccumulators(), engine), summary, entry.imageFile, sideFiles);
+			if(result.status == 0){
+				result.summary = summary;
+			}
+		}catch(IllegalArgumentException e){
+			emitter.emitError(out, entry.imageFile, Gstat.LOAD_FORMATS_ERROR);
+			result.status = 3;
+		}catch(WarningException e){
+			emitter.emitError(out, entry.imageFile, "IMAGE LOAD ERROR: " + e.getMessage());
+			result.status = 3;
+		}catch(IOException e){
+			emitter.emitError(out, entry.imageFile, "IMAGE ERROR: " + e.getMessage());
+			result.status = 3;
+		}catch(RuntimeException e){
+			emitter.emitError(out, entry.imageFile, "IMAGE ERROR: " + e);
+			result.status = 3;
+		}
+		out.flush();
+		result.record = buffer.toByteArray();
+		return(result);
+	}
+
+	/**
+	 * Merges the accumulators of an image into the totals of the batch. If the number of components differs from the previous images, all the components are merged in one (and the covariance between them is no longer computed, so the statistics computed from it are shown as an error).
+	 *
+	 * @param summary the summary of the image
+	 */
+	void mergeTotals(ImageSummary summary){
+		StatisticalAccumulator[] accumulators = summary.getAccumulators();
+		BandCovariance covariance = summary.getCovariance();
+		if((totals == null) && (covariance != null)){
+			totalCovariance = new BandCovariance(covariance.getZSize());
+		}
+		if(totalCovariance != null){
+			if((covariance != null) && (covariance.getZSize() == totalCovariance.getZSize())){
+				totalCovariance.merge(covariance);
+			}else{
+				totalCovariance = null;
+			}
+		}
+		if(totals == null){
+			totals = new StatisticalAccumulator[accumulators.length];
+			for(int z = 0; z < totals.length; z++){
+				totals[z] = engine.createAccumulator();
+			}
+		}
+		if((totals.length != accumulators.length) && (totals.length > 1)){
+			StatisticalAccumulator total = engine.createAccumulator();
+			for(int z = 0; z < totals.length; z++){
+				total.merge(totals[z]);
+			}
+			totals = new StatisticalAccumulator[]{total};
+		}
+		for(int z = 0; z < accumulators.length; z++){
+			totals[totals.length == 1 ? 0: z].merge(accumulators[z]);
+		}
+		totalSamples += summary.getSamples();
+	}
+
+	/**
+	 * @return the summary of all the merged images
+	 */
+	ImageSummary getTotalSummary(){
+		ImageSummary summary = new ImageSummary(totals, totalSamples);
+		summary.setCovariance(totalCovariance);
+		return(summary);
+	}
+
+	/**
+	 * Builds the list of images of the batch from the image files, patterns and manifest given in the program arguments.
+	 *
+	 * @return the images, in the order they are analyzed
+	 *
+	 * @throws WarningException when the manifest cannot be read or it is malformed
+	 */
+	List<BatchEntry> getEntries() throws WarningException{
+		List<BatchEntry> entries = new ArrayList<BatchEntry>();
+		if(parser.getImageFile().length() > 0){
+			addEntries(entries, parser.getImageFile(), null, parser.getImageGeometry());
+		}
+		if(parser.getBatchFiles() != null){
+			for(String pattern: parser.getBatchFiles()){
+				addEntries(entries, pattern, null, parser.getImageGeometry());
+			}
+		}
+		if(parser.getBatchManifest() != null){
+			File manifest = new File(parser.getBatchManifest());
+			//Relative names are joined to the directory of the manifest as it is given, so they are named like the images of -b (see addEntries)
+			File baseDir = manifest.getParentFile();
+			try{
+				BufferedReader reader = new BufferedReader(new FileReader(manifest));
+				try{
+					String line;
+					int lineNumber = 0;
+					while((line = reader.readLine()) != null){
+						lineNumber++;
+						line = line.trim();
+						if((line.length() == 0) || line.startsWith("#")){
+							continue;
+						}
+						String[] fields = line.split("\\s+");
+						int[] imageGeometry = parser.getImageGeometry();
+						if((fields.length == 6) || (fields.length == 7)){
+							imageGeometry = new int[fields.length - 1];
+							try{
+								for(int i = 0; i < imageGeometry.length; i++){
+									imageGeometry[i] = Integer.parseInt(fields[i + 1]);
+								}
+								parser.checkImageGeometry(imageGeometry);
+							}catch(NumberFormatException e){
+								throw new WarningException("Line " + lineNumber + " of manifest \"" + manifest + "\" has a malformed geometry.");
+							}catch(ParameterException e){
+								throw new WarningException("Line " + lineNumber + " of manifest \"" + manifest + "\": " + e.getMessage());
+							}
+						}else if(fields.length != 1){
+							throw new WarningException("Line " + lineNumber + " of manifest \"" + manifest + "\" must contain a file and, optionally, the 5 or 6 values of the raw geometry.");
+						}
+						addEntries(entries, fields[0], baseDir, imageGeometry);
+					}
+				}finally{
+					reader.close();
+				}
+			}catch(IOException e){
+				throw new WarningException("Manifest \"" + manifest + "\" cannot be read: " + e.getMessage());
+			}
+		}
+		return(entries);
+	}
+
+	/**
+	 * Adds the images given by a file name or a glob pattern. A pattern that does not match any file adds an entry that fails.<br>
+	 * All the images are named by their path as given, whatever they come from: relative names (and the files matched by relative patterns) stay relative to the working directory, and absolute ones stay absolute. Relative names of a manifest are joined to the directory of the manifest as given in the arguments.
+	 *
+	 * @param entries list where the images are added
+	 * @param pattern file name or glob pattern
+	 * @param baseDir directory of the relative names as given (null for the working directory)
+	 * @param imageGeometry geometry of the raw images (null if it is unknown)
+	 */
+	static void addEntries(List<BatchEntry> entries, String pattern, File baseDir, int[] imageGeometry){
+		if((baseDir != null) && !new File(pattern).isAbsolute()){
+			pattern = new File(baseDir, pattern).getPath();
+		}
+		List<String> files = null;
+		String error = null;
+		try{
+			files = expandPattern(pattern);
+			if(files.isEmpty()){
+				error = "No file matches \"" + pattern + "\".";
+			}
+		}catch(IOException e){
+			error = "Pattern \"" + pattern + "\" cannot be expanded: " + e.getMessage();
+		}
+		if(error != null){
+			entries.add(new BatchEntry(pattern, imageGeometry, error));
+		}else{
+			for(String file: files){
+				entries.add(new BatchEntry(file, imageGeometry, null));
+			}
+		}
+	}
+
+	/**
+	 * Expands a glob pattern. Names without wildcards are returned as they are (even if the file does not exist). Directories are only searched as deep as the pattern requires, unless it contains "**".
+	 *
+	 * @param pattern file name or glob pattern
+	 * @return the matching files in lexicographical order
+	 * @throws IOException when a directory cannot be read
+	 */
+	static List<String> expandPattern(String pattern) throws IOException{
+		List<String> files = new ArrayList<String>();
+		String[] parts = pattern.split("/", -1);
+		int firstWildcard = -1;
+		for(int i = 0; (i < parts.length) && (firstWildcard < 0); i++){
+			if(parts[i].matches(".*[*?\\[{].*")){
+				firstWildcard = i;
+			}
+		}
+		if(firstWildcard < 0){
+			files.add(pattern);
+			return(files);
+		}
+		//The directory before the first wildcard is walked
+		StringBuilder dir = new StringBuilder();
+		for(int i = 0; i < firstWildcard; i++){
+			dir.append(parts[i]).append("/");
+		}
+		final Path base = Paths.get(dir.length() > 0 ? dir.toString(): ".");
+		StringBuilder glob = new StringBuilder();
+		for(int i = firstWildcard; i < parts.length; i++){
+			glob.append(i > firstWildcard ? "/": "").append(parts[i]);
+		}
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		int maxDepth = glob.indexOf("**") >= 0 ? Integer.MAX_VALUE: parts.length - firstWildcard;
+		if(!Files.isDirectory(base)){
+			return(files);
+		}
+		Stream<Path> walk = Files.walk(base, maxDepth);
+		try{
+			for(Object object: walk.toArray()){
+				Path path = (Path) object;
+				if(Files.isRegularFile(path) && matcher.matches(base.relativize(path))){
+					files.add(dir.length() > 0 ? path.toString(): base.relativize(path).toString());
+				}
+			}
+		}finally{
+			walk.close();
+		}
+		Collections.sort(files);
+		return(files);
+	}
+
+	/**
+	 * An image of the batch.
+	 */
+	static class BatchEntry{
+
+		/**
+		 * Name of the image file.
+		 */
+		final String imageFile;
+
+		/**
+		 * Geometry of the image if it is raw (null if it is unknown).
+		 */
+		final int[] imageGeometry;
+
+		/**
+		 * Error found building the list of images (null if the image can be analyzed).
+		 */
+		final String error;
+
+		BatchEntry(String imageFile, int[] imageGeometry, String error){
+			this.imageFile = imageFile;
+			this.imageGeometry = imageGeometry;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * The result of an image of the batch.
+	 */
+	static class BatchResult{
+
+		/**
+		 * Text shown for the image.
+		 */
+		byte[] record;
+
+		/**
+		 * 0 if the image has been analyzed, otherwise the exit status of the failure.
+		 */
+		int status = 0;
+
+		/**
+		 * Summary of the image (null if it failed).
+		 */
+		ImageSummary summary = null;
+	}
+}
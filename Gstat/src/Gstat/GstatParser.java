@@ -1,5 +1,6 @@
 package Gstat;
 import GiciException.*;
+import GiciFile.GzipIndex;
 import GiciFile.LoadFile;
 import GiciParser.*;
 
@@ -19,14 +20,14 @@ public class GstatParser extends ArgumentsParser{
 		{"-i", "--inputImage", "{string}", "", "1", "1",
 			"Input image. Valid formats are: pgm, ppm, pbm, jpg, tiff, png, bmp, gif, fpx. If image is raw data file extension must be \".raw\" or \".img\" and \"-ig1\" parameter is mandatory."
 		},
-		{"-ig", "--inputImageGeometry", "{int int int int int}", "", "0", "1",
-			"Geometry of raw image data. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)"
+		{"-ig", "--inputImageGeometry", "{int int int int int [int]}", "", "0", "1",
+			"Geometry of raw image data. Parameters are:\n    1- zSize (number of image components)\n    2- ySize (image height)\n    3- xSize (image width)\n    4- data type. Possible values are:\n      0- boolean (1 byte)\n      1- unsigned int (1 byte)\n      2- unsigned int (2 bytes)\n      3- signed int (2 bytes)\n      4- signed int (4 bytes)\n      5- signed int (8 bytes)\n      6- float (4 bytes)\n      7- double (8 bytes)\n    5- Byte order (0 if BIG ENDIAN, 1 if LITTLE ENDIAN)\n    6- Sample order (optional). Possible values are:\n      0- band sequential, BSQ (component, row and column; default)\n      1- band interleaved by line, BIL (row, component and column)\n      2- band interleaved by pixel, BIP (row, column and component)"
 		},
 		{"-s", "--statistic", "{int}", "1", "0", "1",
-			"Statistic to show. Valid ones are:\n    0- No show any statistic\n    1- All statistics will be shown less 5, 6, 7 and 8.\n    2- Minimum and maximum values\n    3- Average\n    4- Center of image range\n    5- Number of pixels for especific values (view -v parameter), only for unsigned int (1 byte) images.\n    6- % of pixels for especific values(view -v parameter), only for unsigned int (1 byte) images.\n    7- Number of pixels for all values(view -v parameter), only for unsigned int (1 byte) images.\n    8- % for all values(view -v parameter), only for unsigned int (1 byte) images.\n    9- Energy of the image. The energy of each component is stored in a new File. A file is generated with the following format: 'inputImage_energy'\n    10- Variance of the image. The variance of each component is stored in a new File. A file is generated with the following format: 'inputImage_variance'\n    11- Entropy of the image. The entropy of each component is stored in a new File. A file is generated with the following format: 'inputImage_entropy' "
+			"Statistic to show. Valid ones are:\n    0- No show any statistic\n    1- All statistics will be shown less 5, 6, 7 and 8.\n    2- Minimum and maximum values\n    3- Average\n    4- Center of image range\n    5- Number of pixels for especific values (view -v parameter), only for unsigned int (1 byte) images.\n    6- % of pixels for especific values(view -v parameter), only for unsigned int (1 byte) images.\n    7- Number of pixels for all values(view -v parameter), only for unsigned int (1 byte) images.\n    8- % for all values(view -v parameter), only for unsigned int (1 byte) images.\n    9- Energy of the image. The energy of each component is stored in a new File. A file is generated with the following format: 'inputImage_energy'\n    10- Variance of the image. The variance of each component is stored in a new File. A file is generated with the following format: 'inputImage_variance'\n    11- Entropy of the image. The entropy of each component is stored in a new File. A file is generated with the following format: 'inputImage_entropy'\n    12- Percentiles of the image (view -pc and -qe parameters). They are exact for integer images of 1 or 2 bytes, and estimated with a bounded rank error for the other types.\n    13- Skewness of the image (third central moment divided by the variance raised to 3/2).\n    14- Kurtosis of the image (excess kurtosis: fourth central moment divided by the squared variance, minus 3).\n    15- Covariance matrix of the components (each component shows its row). The image is stored even if -st is given.\n    16- Correlation matrix of the components (each component shows its row). The image is stored even if -st is given.\n    17- KLT (PCA) analysis of the components: each component i shows the i-th largest eigenvalue of the covariance matrix and the fraction of the energy in the first i+1 eigenvalues, and the totals show the coding gain of the KLT (arithmetic mean of the variances divided by the geometric mean of the eigenvalues) and the same in dB. The image is stored even if -st is given."
 		},
 		{"-f", "--format", "{int}", "0", "0", "1",
-			"Format to show measures. Valid ones are:\n    0- Long\n    1- Short (if all measure are shown it will be showed as MIN:MAX:AVERAGE:CENTER:ENERGY:VARIANCE:ENTROPY)"
+			"Format to show measures. Valid ones are:\n    0- Long\n    1- Short (if all measure are shown it will be showed as MIN:MAX:AVERAGE:CENTER:ENERGY:VARIANCE:ENTROPY)\n    2- CSV (one row file,component,statistic,key,value for each value, after a header)\n    3- JSON Lines (one JSON object for each image)\n    4- Binary (big endian records, see BinaryEmitter)"
 		},
 		{"-t", "--totals", "{int}", "1" , "0", "1",
 			"To show total measures (average of all components when image have more than one). Valid values are:\n    0- No show totals (only show components)\n    1- Show components and totals (totals is only shown when image have more than one component)\n    2- Show only totals (only valid when image have more than one component)"
@@ -37,11 +38,85 @@ public class GstatParser extends ArgumentsParser{
 		{"-v", "--values", "{int[ int[ int[ ...]]]}", "", "0", "1",
 			"Values of pixels to be measure."
 		},
+		{"-n", "--threads", "{int}", "0", "0", "1",
+			"Number of threads used to compute the statistics. The image is split in tiles that are computed in parallel; results do not depend on the number of threads. 0 uses all the available processors."
+		},
+		{"-hb", "--histogramBinWidth", "{float}", "0", "0", "1",
+			"Width of the histogram bins used to compute the entropy. 0 uses the integer part of each sample as its bin. Histograms use bounded memory: when there are too many different bins, adjacent bins are merged."
+		},
+		{"-mm", "--memoryMapped", "{boolean}", "0", "0", "1",
+			"Map uncompressed raw images (and binary PGM images) in memory instead of reading them. Samples are read from the file while the statistics are computed, so the image is not stored in memory. Valid values are 0 (read the file) or 1 (map the file)."
+		},
+		{"-st", "--streaming", "{boolean}", "0", "0", "1",
+			"Compute the statistics of raw images while the file is read sequentially, without storing the image (memory used is proportional to one block of rows, not to the image, also for the entropy and the percentiles, whose histograms and sketches have a bounded size). Other formats are loaded as usual. Valid values are 0 (store the image) or 1 (streaming)."
+		},
+		{"-rp", "--readPipeline", "{int int int}", "4 4096 1", "0", "1",
+			"Read-ahead pipeline used to load raw images: a thread reads (and inflates) blocks of rows while other threads decode them. Parameters are:\n    1- Queue depth (number of blocks read ahead, 0 disables the pipeline)\n    2- Block size in KB\n    3- Number of decoding threads (streamed images use always 1)"
+		},
+		{"-rs", "--readStatistics", "{boolean}", "0", "0", "1",
+			"Report (in the standard error) the throughput in MB/s of each stage of the read-ahead pipeline. Valid values are 0 or 1."
+		},
+		{"-b", "--batch", "{string[ string[ ...]]}", "", "0", "1",
+			"Batch mode: analyze several images in the same execution. Parameters are image files or glob patterns (quote them to avoid the shell expansion; \"**\" matches any number of directories). Raw images use the geometry given in \"-ig\" parameter. The result of each image is shown after a line \"FILE: name\", in the order of the list (images are named by their path as given, and the relative names of \"-bm\" are joined to the directory of the manifest as given), and the exit status is not 0 if some image fails."
+		},
+		{"-bm", "--batchManifest", "{string}", "", "0", "1",
+			"Batch mode: text file with the images to analyze (after the ones given in \"-b\" parameter), one per line. Each line contains an image file or glob pattern, optionally followed by the 5 or 6 values of the raw image geometry (as in \"-ig\" parameter). Relative paths are relative to the directory of the manifest. Empty lines and lines beginning with # are ignored."
+		},
+		{"-bw", "--batchWorkers", "{int}", "0", "0", "1",
+			"Number of images analyzed at the same time in batch mode. 0 uses all the available processors. In batch mode, the statistics of each image are computed with the threads given in \"-n\" parameter, or 1 thread if it is 0."
+		},
+		{"-bt", "--batchTotals", "{boolean}", "0", "0", "1",
+			"In batch mode, show also the statistics of all the analyzed images together (after a line \"FILE: *\"). Components are merged one by one if all the images have the same number of components, otherwise all the samples are merged in one component (and statistics 15 to 17, which need the same components in all the images, show an error). Valid values are 0 or 1."
+		},
+		{"-sv", "--server", "{int}", "", "0", "1",
+			"Server mode: instead of analyzing an image, listen in this localhost TCP port (0 chooses a free port, that is shown) and analyze the images requested through HTTP. POST /stat receives the arguments of this program (as a JSON array of strings or separated by white spaces) and answers a JSON object with the statistics and the text that would be shown; GET /metrics answers the number of requests, the cache usage and the latency percentiles; POST /shutdown stops the server. Decoded images are cached between requests. Parameters \"-rp\", \"-gi\", \"-oh\", \"-sv\", \"-sc\" and \"-sw\" and the threads used to extract decoded images are taken from the server arguments (requests that give these parameters are rejected). Requests do not write the side files of the energy, variance and entropy."
+		},
+		{"-sc", "--serverCache", "{int}", "256", "0", "1",
+			"Maximum size in MB of the decoded images cached by the server (0 disables the cache). Images are discarded in least recently used order."
+		},
+		{"-sw", "--serverWorkers", "{int}", "0", "0", "1",
+			"Number of requests served at the same time by the server. 0 uses all the available processors."
+		},
+		{"-cd", "--cacheDirectory", "{string}", "", "0", "1",
+			"Directory of the statistics cache. All the statistics of each analyzed image (histograms included) are stored in this directory, keyed by the path, size and modification time of the file, its raw geometry, the histogram bin width, the quantile error and the program version; later executions show any statistic of a cached image without loading it. If not specified, the cache is not used."
+		},
+		{"-cs", "--cacheSize", "{int}", "1024", "0", "1",
+			"Maximum size in MB of the statistics cache. When it is exceeded, the least recently used entries are deleted."
+		},
+		{"-ch", "--cacheHash", "{boolean}", "0", "0", "1",
+			"Add a SHA-256 hash of the content of the image files to the keys of the statistics cache (files are read once more to compute it). Valid values are 0 or 1."
+		},
+		{"-rz", "--regionZ", "{int int [int]}", "", "0", "1",
+			"Components of the region of interest: first component, end (exclusive, -1 for the number of components) and optionally the distance between the selected components. Only the region is loaded and analyzed; uncompressed raw and binary PGM files only read the bytes of the region. If not specified, all the components are selected."
+		},
+		{"-ry", "--regionY", "{int int [int]}", "", "0", "1",
+			"Rows of the region of interest: first row, end (exclusive, -1 for the height) and optionally the distance between the selected rows. If not specified, all the rows are selected."
+		},
+		{"-rx", "--regionX", "{int int [int]}", "", "0", "1",
+			"Columns of the region of interest: first column, end (exclusive, -1 for the width) and optionally the distance between the selected columns. If not specified, all the columns are selected."
+		},
+		{"-gi", "--gzipIndex", "{int}", "0", "0", "1",
+			"Read compressed raw files (.gz) with a seekable gzip index: the index is built the first time a file is read and stored next to it (the name of the file followed by .gzidx), and then regions and components are inflated from the nearest checkpoint, with groups of components inflated in parallel by the threads of -n. The value is the number of KB of uncompressed data between two checkpoints, at least 256 so the index (which stores 32 KB of compressed data for each checkpoint) is much smaller than the file (1024 is a good choice). If 0, gzip indexes are not used."
+		},
+		{"-oh", "--offHeap", "{boolean}", "0", "0", "1",
+			"Store raw images outside the Java heap, in memory that is released as soon as the statistics are computed, so the heap size and the garbage collection pauses do not depend on the size of the images (the memory is limited by the -XX:MaxDirectMemorySize option of the Java virtual machine). Raw images mapped in memory (-mm) are not stored. Valid values are 0 (Java heap) or 1 (outside the heap)."
+		},
+		{"-pc", "--percentiles", "{float[ float[ ...]]}", "1 5 25 50 75 95 99", "0", "1",
+			"Percentiles shown by statistic 12, between 0 and 100 (50 is the median, 0 the minimum and 100 the maximum). The percentile p is the smallest sample such that at least p% of the samples are lower or equal than it."
+		},
+		{"-qe", "--quantileError", "{float}", "0.01", "0", "1",
+			"Rank error bound of the percentiles of images that are not integers of 1 or 2 bytes, as a fraction of the number of samples (0.01 gives percentiles whose rank is within 1% of the samples). They are estimated with mergeable quantile sketches (KLL) computed in the same pass as the other statistics, whose memory grows as the bound decreases."
+		},
 		{"-h", "--help", "", "", "0", "1",
 			"Displays this help and exits program."
 		}
 	};
 
+	/**
+	 * Highest value of the statistic option (-s).
+	 */
+	static final int MAX_STATISTIC = 17;
+
 	//ARGUMENTS VARIABLES
 	String imageFile = "";
 	int[] imageGeometry = null;
@@ -52,6 +127,29 @@ public class GstatParser extends ArgumentsParser{
 	int measure = -1;
 	int[] values = null;
 	float[] compressionFactors = null;
+	int threads = 0;
+	float histogramBinWidth = 0F;
+	boolean memoryMapped = false;
+	boolean streaming = false;
+	int[] readPipeline = {4, 4096, 1};
+	boolean readStatistics = false;
+	String[] batchFiles = null;
+	String batchManifest = null;
+	int batchWorkers = 0;
+	boolean batchTotals = false;
+	int serverPort = -1;
+	int serverCache = 256;
+	int serverWorkers = 0;
+	String cacheDirectory = null;
+	int cacheSize = 1024;
+	boolean cacheHash = false;
+	int[] regionZ = null;
+	int[] regionY = null;
+	int[] regionX = null;
+	int gzipIndex = 0;
+	boolean offHeap = false;
+	float[] percentiles = {1, 5, 25, 50, 75, 95, 99};
+	float quantileError = 0.01F;
 
 	/**
 	 * Receives program arguments and parses it, setting to arguments variables.
@@ -87,19 +185,19 @@ public class GstatParser extends ArgumentsParser{
 			}
 			break;
 		case  1: //-ig  --inputImageGeometry
-			imageGeometry = parseIntegerArray(options, 5);
+			imageGeometry = parseIntegerArray(options, options.length > 6 ? 6: 5);
 			checkImageGeometry(imageGeometry);
 			break;
 		case  2: //-s --statistic
 			statistic = parseIntegerPositive(options);
-			if((statistic < 0) || (statistic > 11)){
-				throw new ParameterException("Statistic must be between 0 to 11.");
+			if((statistic < 0) || (statistic > MAX_STATISTIC)){
+				throw new ParameterException("Statistic must be between 0 to " + MAX_STATISTIC + ".");
 			}
 			break;
 		case  3: //-f --format
 			format = parseIntegerPositive(options);
-			if((format < 0) || (format > 1)){
-				throw new ParameterException("Format must be between 0 to 1.");
+			if((format < 0) || (format > 4)){
+				throw new ParameterException("Format must be between 0 to 4.");
 			}
 			break;
 		case  4: //-t --totals
@@ -134,7 +232,100 @@ public class GstatParser extends ArgumentsParser{
 				}
 			}
 			break;
-		case  7: //-h  --help
+		case  7: //-n  --threads
+			threads = parseIntegerPositive(options);
+			break;
+		case  8: //-hb  --histogramBinWidth
+			histogramBinWidth = parseFloatPositive(options);
+			break;
+		case  9: //-mm  --memoryMapped
+			memoryMapped = parseBoolean(options);
+			break;
+		case 10: //-st  --streaming
+			streaming = parseBoolean(options);
+			break;
+		case 11: //-rp  --readPipeline
+			readPipeline = parseIntegerArray(options, 3);
+			if((readPipeline[0] < 0) || (readPipeline[1] <= 0) || (readPipeline[2] <= 0)){
+				throw new ParameterException("Read pipeline queue depth must be positive or 0, and block size and decoding threads must be positive.");
+			}
+			break;
+		case 12: //-rs  --readStatistics
+			readStatistics = parseBoolean(options);
+			break;
+		case 13: //-b  --batch
+			if(options.length < 2){
+				throw new ParameterException("Batch mode needs at least one image file or pattern.");
+			}
+			batchFiles = new String[options.length - 1];
+			System.arraycopy(options, 1, batchFiles, 0, batchFiles.length);
+			statArguments[0][4] = "0";
+			break;
+		case 14: //-bm  --batchManifest
+			batchManifest = parseString(options);
+			statArguments[0][4] = "0";
+			break;
+		case 15: //-bw  --batchWorkers
+			batchWorkers = parseIntegerPositive(options);
+			break;
+		case 16: //-bt  --batchTotals
+			batchTotals = parseBoolean(options);
+			break;
+		case 17: //-sv  --server
+			serverPort = parseIntegerPositive(options);
+			if(serverPort > 65535){
+				throw new ParameterException("Server port must be between 0 and 65535.");
+			}
+			statArguments[0][4] = "0";
+			break;
+		case 18: //-sc  --serverCache
+			serverCache = parseIntegerPositive(options);
+			break;
+		case 19: //-sw  --serverWorkers
+			serverWorkers = parseIntegerPositive(options);
+			break;
+		case 20: //-cd  --cacheDirectory
+			cacheDirectory = parseString(options);
+			break;
+		case 21: //-cs  --cacheSize
+			cacheSize = parseIntegerPositive(options);
+			break;
+		case 22: //-ch  --cacheHash
+			cacheHash = parseBoolean(options);
+			break;
+		case 23: //-rz  --regionZ
+			regionZ = parseRange(options);
+			break;
+		case 24: //-ry  --regionY
+			regionY = parseRange(options);
+			break;
+		case 25: //-rx  --regionX
+			regionX = parseRange(options);
+			break;
+		case 26: //-gi  --gzipIndex
+			gzipIndex = parseIntegerPositive(options);
+			if((gzipIndex > 0) && (gzipIndex < GzipIndex.MIN_SPAN / 1024)){
+				throw new ParameterException("Gzip index span must be 0 or at least " + (GzipIndex.MIN_SPAN / 1024) + " KB.");
+			}
+			break;
+		case 27: //-oh  --offHeap
+			offHeap = parseBoolean(options);
+			break;
+		case 28: //-pc  --percentiles
+			percentiles = parseFloatArray(options);
+			for(int p = 0; p < percentiles.length; p++){
+				if(!(percentiles[p] >= 0) || (percentiles[p] > 100)){
+					throw new ParameterException("Percentiles must be between 0 to 100.");
+				}
+			}
+			break;
+		case 29: //-qe  --quantileError
+			quantileError = parseFloatPositive(options);
+			if(!(quantileError > 0) || (quantileError > 0.5F)){
+				throw new ParameterException("Quantile error must be greater than 0 and lower or equal than 0.5.");
+			}
+			break;
+		case 30: //-h  --help
 			showArgsInfo();
 			System.exit(0);
 			break;
@@ -159,6 +350,29 @@ public class GstatParser extends ArgumentsParser{
 		if((imageGeometry[4] != 0) && (imageGeometry[4] != 1)){
 			throw new ParameterException("Image byte order  in \".raw\" or \".img\" data must be 0 or 1 (\"-h\" displays help).");
 		}
+		if((imageGeometry.length > 5) && ((imageGeometry[5] < 0) || (imageGeometry[5] > 2))){
+			throw new ParameterException("Sample order in \".raw\" or \".img\" data must be between 0 to 2 (\"-h\" displays help).");
+		}
+	}
+
+	/**
+	 * Parses a range of the region of interest.
+	 *
+	 * @param options the values of the argument
+	 * @return an array with the beginning, the end and the stride of the range
+	 *
+	 * @throws ParameterException when the range is wrong
+	 */
+	int[] parseRange(String[] options) throws ParameterException{
+		int[] values = parseIntegerArray(options);
+		if((values.length < 2) || (values.length > 3)){
+			throw new ParameterException("Region ranges must have a beginning, an end and optionally a stride (\"-h\" displays help).");
+		}
+		int[] range = {values[0], values[1], values.length == 3 ? values[2]: 1};
+		if((range[0] < 0) || ((range[1] >= 0) && (range[1] <= range[0])) || (range[1] < -1) || (range[2] <= 0)){
+			throw new ParameterException("Region ranges must begin at 0 or later, end after the beginning (or at -1) and have a positive stride (\"-h\" displays help).");
+		}
+		return(range);
 	}
 
 	//ARGUMENTS GET FUNCTIONS
@@ -186,5 +400,77 @@ public class GstatParser extends ArgumentsParser{
 	public int[] getValues(){
 		return(values);
 	}
+	public int getThreads(){
+		return(threads);
+	}
+	public float getHistogramBinWidth(){
+		return(histogramBinWidth);
+	}
+	public boolean getMemoryMapped(){
+		return(memoryMapped);
+	}
+	public boolean getStreaming(){
+		return(streaming);
+	}
+	public int[] getReadPipeline(){
+		return(readPipeline);
+	}
+	public boolean getReadStatistics(){
+		return(readStatistics);
+	}
+	public String[] getBatchFiles(){
+		return(batchFiles);
+	}
+	public String getBatchManifest(){
+		return(batchManifest);
+	}
+	public int getBatchWorkers(){
+		return(batchWorkers);
+	}
+	public boolean getBatchTotals(){
+		return(batchTotals);
+	}
+	public boolean getBatchMode(){
+		return((batchFiles != null) || (batchManifest != null));
+	}
+	public int getServerPort(){
+		return(serverPort);
+	}
+	public int getServerCache(){
+		return(serverCache);
+	}
+	public int getServerWorkers(){
+		return(serverWorkers);
+	}
+	public String getCacheDirectory(){
+		return(cacheDirectory);
+	}
+	public int getCacheSize(){
+		return(cacheSize);
+	}
+	public boolean getCacheHash(){
+		return(cacheHash);
+	}
+	public int[] getRegionZ(){
+		return(regionZ);
+	}
+	public int[] getRegionY(){
+		return(regionY);
+	}
+	public int[] getRegionX(){
+		return(regionX);
+	}
+	public int getGzipIndex(){
+		return(gzipIndex);
+	}
+	public boolean getOffHeap(){
+		return(offHeap);
+	}
+	public float[] getPercentiles(){
+		return(percentiles);
+	}
+	public float getQuantileError(){
+		return(quantileError);
+	}
 
 }
\ No newline at end of file
@@ -0,0 +1,666 @@
+package Gstat;
+import GiciAnalysis.*;
+import GiciException.*;
+import GiciFile.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server mode of Gstat: a long-running process that computes the statistics of images requested through a localhost HTTP port, so the JVM start and the compilation of the kernels are paid only once.<br>
+ * Endpoints:
+ * <ul>
+ *   <li> POST /stat - the body contains the same arguments of the command line, as a JSON array of strings or separated by white spaces. The response is a JSON object with the statistics and the text that the command line would show.
+ *   <li> GET /metrics - JSON object with the number of requests, the cache usage and the percentiles of the request latency.
+ *   <li> POST /shutdown - stops the server.
+ * </ul>
+ * Decoded images are kept in a cache bounded in bytes (least recently used images are discarded), keyed by the file (path, size and modification time) and the loading options. The parameters in SERVER_PARAMETERS apply to the whole process, so they are taken from the server arguments and requests that give them are answered with an error. Requests do not store the side files of the energy, variance and entropy (concurrent requests of the same image would write them at the same time); their values are in the response.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class GstatServer{
+
+	/**
+	 * Number of latencies kept to compute the percentiles (the most recent requests).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	static final int LATENCY_WINDOW = 4096;
+
+	/**
+	 * Parameters that configure the loading of images or the server for the whole process, so they are taken from the server arguments and rejected in the requests.
+	 */
+	static final String[] SERVER_PARAMETERS = {"-rp", "--readPipeline", "-gi", "--gzipIndex", "-oh", "--offHeap", "-sv", "--server", "-sc", "--serverCache", "-sw", "--serverWorkers"};
+
+	/**
+	 * The HTTP server.
+	 * <p>
+	 * All values allowed.
+	 */
+	HttpServer server;
+
+	/**
+	 * Threads that serve the requests.
+	 * <p>
+	 * All values allowed.
+	 */
+	ExecutorService executor;
+
+	/**
+	 * Cache of decoded images.
+	 * <p>
+	 * All values allowed.
+	 */
+	ImageCache cache;
+
+	/**
+	 * Latencies (in nanoseconds) of the last requests, used as a ring buffer.
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	long[] latencies = new long[LATENCY_WINDOW];
+
+	/**
+	 * Number of requests served, and number of them that failed.
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	long requests = 0, failedRequests = 0;
+
+	/**
+	 * Creates the server (it does not accept requests until start is called).
+	 *
+	 * @param port localhost TCP port (0 chooses a free port)
+	 * @param cacheBytes maximum number of bytes of the decoded images kept in the cache (0 disables the cache)
+	 * @param threads number of requests served at the same time (0 uses all the available processors)
+	 * @throws IOException when the port cannot be opened
+	 */
+	public GstatServer(int port, long cacheBytes, int threads) throws IOException{
+		cache = new ImageCache(cacheBytes);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = Executors.newFixedThreadPool(threads > 0 ? threads: Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.createContext("/stat", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				handleStat(exchange);
+			}
+		});
+		server.createContext("/metrics", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				send(exchange, 200, getMetrics());
+			}
+		});
+		server.createContext("/shutdown", new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				send(exchange, 200, "{\"status\": 0}");
+				stop();
+			}
+		});
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start(){
+		server.start();
+	}
+
+	/**
+	 * Stops the server (requests being served are given up to 1 second to finish).
+	 */
+	public void stop(){
+		new Thread("GstatServer-stop"){
+			public void run(){
+				server.stop(1);
+				executor.shutdown();
+			}
+		}.start();
+	}
+
+	/**
+	 * @return the TCP port where the server listens
+	 */
+	public int getPort(){
+		return(server.getAddress().getPort());
+	}
+
+	/**
+	 * Serves a statistics request.
+	 *
+	 * @param exchange the HTTP exchange
+	 * @throws IOException when the response cannot be sent
+	 */
+	void handleStat(HttpExchange exchange) throws IOException{
+		long start = System.nanoTime();
+		int code = 200;
+		String response = null;
+		try{
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			String[] args = parseArguments(body);
+			for(String arg: args){
+				if(arg.equals("-h") || arg.equals("--help")){
+					throw new ParameterException("Help is not available in server mode.");
+				}
+				for(String serverParameter: SERVER_PARAMETERS){
+					if(arg.equals(serverParameter)){
+						throw new ParameterException("Parameter \"" + arg + "\" is taken from the server arguments and cannot be given in a request.");
+					}
+				}
+			}
+			GstatParser parser = null;
+			try{
+				parser = new GstatParser(args);
+			}catch(ErrorException e){
+				throw new ParameterException(e.getMessage());
+			}
+			response = compute(parser);
+		}catch(ParameterException e){
+			code = 400;
+			response = "{\"status\": 2, \"error\": " + quote(e.getMessage()) + "}";
+		}catch(IOException e){
+			code = 500;
+			response = "{\"status\": 1, \"error\": " + quote(e.toString()) + "}";
+		}catch(RuntimeException e){
+			code = 500;
+			response = "{\"status\": 1, \"error\": " + quote(e.toString()) + "}";
+		}
+		send(exchange, code, response);
+		recordLatency(System.nanoTime() - start, code != 200);
+	}
+
+	/**
+	 * Computes the statistics requested by some arguments.
+	 *
+	 * @param parser the arguments of the request
+	 * @return the JSON response
+	 * @throws IOException when the output cannot be written
+	 */
+	String compute(GstatParser parser) throws IOException{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(buffer, false, "UTF-8");
+		StringBuilder json = new StringBuilder();
+		int status = 0;
+		if(parser.getBatchMode()){
+			GstatBatch batch = new GstatBatch(parser);
+			batch.setSideFiles(false);
+			status = batch.run(out);
+			json.append("{\"status\": ").append(status);
+		}else{
+			String imageFile = parser.getImageFile();
+			int[] imageGeometry = parser.getImageGeometry();
+			int mask = Gstat.getStatisticMask(parser.getStatistic());
+			StatisticalEngine engine = Gstat.createEngine(parser, parser.getThreads());
+			StatisticsCache statisticsCache = Gstat.createCache(parser);
+			json.append("{\"file\": ").append(quote(imageFile));
+			try{
+				//Statistics cached on disk are used first, then decoded images cached in memory
+				ImageSummary summary = null;
+				String statisticsKey = null;
+				if(statisticsCache != null){
+					try{
+						statisticsKey = statisticsCache.getKey(imageFile, imageGeometry, Gstat.getRegion(parser), parser.getHistogramBinWidth(), parser.getQuantileError());
+						summary = statisticsCache.get(statisticsKey);
+						if((summary != null) && (summary.getCovariance() == null) && Gstat.needsCovariance(parser.getStatistic())){
+							summary = null;
+						}
+					}catch(IOException e){
+						statisticsKey = null;
+					}
+				}
+				boolean cached = summary != null;
+				if(summary == null){
+					StatisticalStream stream = Gstat.createStream(imageFile, imageGeometry, parser, engine);
+					LoadFile image = null;
+					String key = null;
+					if(stream == null){
+						key = ImageCache.getKey(imageFile, imageGeometry, Gstat.getRegion(parser), parser.getMemoryMapped());
+						image = cache.get(key);
+						cached = image != null;
+					}
+					if(image == null){
+						image = Gstat.loadImage(imageFile, imageGeometry, parser, stream);
+					}
+					summary = new ImageSummary(image, Gstat.computeStatistics(image, stream, engine));
+					summary.setCovariance(Gstat.computeCovariance(image, parser, engine));
+					if((stream == null) && !cached && !cache.put(key, image)){
+						//Images that are not cached are released at once (evicted ones may still be in use by other requests)
+						image.free();
+					}
+					if(statisticsKey != null){
+						statisticsCache.put(statisticsKey, summary);
+					}
+				}
+				int zSize = summary.getZSize();
+				ImageStatistical is = new ImageStatistical(summary.getAccumulators(), engine);
+				status = Gstat.printStatistics(out, parser, is, summary, imageFile, false);
+				json.append(", \"status\": ").append(status);
+				json.append(", \"cached\": ").append(cached);
+				json.append(", \"zSize\": ").append(zSize);
+				json.append(", \"ySize\": ").append(summary.getYSize());
+				json.append(", \"xSize\": ").append(summary.getXSize());
+				if(status == 0){
+					appendStatistics(json, is, mask, zSize, ResultEmitter.create(parser));
+				}
+			}catch(IllegalArgumentException e){
+				status = 3;
+				json.append(", \"status\": 3, \"error\": ").append(quote(Gstat.LOAD_FORMATS_ERROR));
+			}catch(WarningException e){
+				status = 3;
+				json.append(", \"status\": 3, \"error\": ").append(quote("IMAGE LOAD ERROR: " + e.getMessage()));
+			}
+		}
+		out.flush();
+		json.append(", \"output\": ").append(quote(buffer.toString("UTF-8"))).append("}");
+		return(json.toString());
+	}
+
+	/**
+	 * Appends the computed statistics of each component and the totals to a JSON object. The array "components" and the object "totals" are appended when the emitters show them (see the -t parameter of {@link GstatParser}), as in the JSON format.
+	 *
+	 * @param json the JSON object (without the closing brace)
+	 * @param is the statistics
+	 * @param mask the computed statistics (see {@link ImageStatistical})
+	 * @param zSize number of components
+	 * @param emitter emitter of the request, which decides the shown components and totals
+	 */
+	static void appendStatistics(StringBuilder json, ImageStatistical is, int mask, int zSize, ResultEmitter emitter){
+		if(emitter.showComponents(zSize)){
+			appendComponents(json, is, mask, zSize);
+		}
+		if(emitter.showTotals(zSize)){
+			appendTotals(json, is, mask);
+		}
+	}
+
+	/**
+	 * Appends the array "components" with the computed statistics of each component to a JSON object.
+	 *
+	 * @param json the JSON object (without the closing brace)
+	 * @param is the statistics
+	 * @param mask the computed statistics (see {@link ImageStatistical})
+	 * @param zSize number of components
+	 */
+	static void appendComponents(StringBuilder json, ImageStatistical is, int mask, int zSize){
+		json.append(", \"components\": [");
+		for(int z = 0; z < zSize; z++){
+			json.append(z > 0 ? ", {": "{");
+			String separator = "";
+			if((mask & ImageStatistical.MIN_MAX) != 0){
+				json.append("\"min\": ").append(number(is.getMinMax()[z][0])).append(", \"max\": ").append(number(is.getMinMax()[z][1]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.AVERAGE) != 0){
+				json.append(separator).append("\"average\": ").append(number(is.getAverage()[z]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.CENTER_RANGE) != 0){
+				json.append(separator).append("\"centerRange\": ").append(number(is.getCenterRange()[z]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.COUNTED_VALUES) != 0){
+				json.append(separator).append("\"countedValues\": ").append(Arrays.toString(is.getcountedValues()[z]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.ENERGY) != 0){
+				json.append(separator).append("\"energy\": ").append(number(is.getEnergy()[z]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.VARIANCE) != 0){
+				json.append(separator).append("\"variance\": ").append(number(is.getVariance()[z]));
+				separator = ", ";
+			}
+			if((mask & ImageStatistical.ENTROPY) != 0){
+				json.append(separator).append("\"entropy\": ").append(number(is.getEntropy()[z]));
+			}
+			json.append("}");
+		}
+		json.append("]");
+	}
+
+	/**
+	 * Appends the object "totals" with the computed statistics of the whole image to a JSON object.
+	 *
+	 * @param json the JSON object (without the closing brace)
+	 * @param is the statistics
+	 * @param mask the computed statistics (see {@link ImageStatistical})
+	 */
+	static void appendTotals(StringBuilder json, ImageStatistical is, int mask){
+		json.append(", \"totals\": {");
+		String separator = "";
+		if((mask & ImageStatistical.MIN_MAX) != 0){
+			json.append("\"min\": ").append(number(is.getTotalMinMax()[0])).append(", \"max\": ").append(number(is.getTotalMinMax()[1]));
+			separator = ", ";
+		}
+		if((mask & ImageStatistical.AVERAGE) != 0){
+			json.append(separator).append("\"average\": ").append(number(is.getTotalAverage()));
+			separator = ", ";
+		}
+		if((mask & ImageStatistical.CENTER_RANGE) != 0){
+			json.append(separator).append("\"centerRange\": ").append(number(is.getTotalCenterRange()));
+			separator = ", ";
+		}
+		if((mask & ImageStatistical.ENERGY) != 0){
+			json.append(separator).append("\"energy\": ").append(number(is.getTotalEnergy()));
+			separator = ", ";
+		}
+		if((mask & ImageStatistical.VARIANCE) != 0){
+			json.append(separator).append("\"variance\": ").append(number(is.getTotalVariance()));
+			separator = ", ";
+		}
+		if((mask & ImageStatistical.ENTROPY) != 0){
+			json.append(separator).append("\"entropy\": ").append(number(is.getTotalEntropy()));
+		}
+		json.append("}");
+	}
+
+	/**
+	 * Records the latency of a request.
+	 *
+	 * @param nanos latency in nanoseconds
+	 * @param failed true if the request failed
+	 */
+	synchronized void recordLatency(long nanos, boolean failed){
+		latencies[(int)(requests % LATENCY_WINDOW)] = nanos;
+		requests++;
+		if(failed){
+			failedRequests++;
+		}
+	}
+
+	/**
+	 * Builds the metrics of the server: number of requests, cache usage and percentiles 50, 90, 99 and maximum of the latency (in milliseconds) of the last LATENCY_WINDOW requests.
+	 *
+	 * @return a JSON object
+	 */
+	String getMetrics(){
+		long[] window;
+		long served, failed;
+		synchronized(this){
+			served = requests;
+			failed = failedRequests;
+			window = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+		}
+		Arrays.sort(window);
+		StringBuilder json = new StringBuilder();
+		json.append("{\"requests\": ").append(served);
+		json.append(", \"failedRequests\": ").append(failed);
+		json.append(", \"cacheHits\": ").append(cache.getHits());
+		json.append(", \"cacheMisses\": ").append(cache.getMisses());
+		json.append(", \"cacheImages\": ").append(cache.getImages());
+		json.append(", \"cacheBytes\": ").append(cache.getBytes());
+		json.append(", \"latencyMs\": {");
+		json.append("\"p50\": ").append(number(getPercentile(window, 0.50) / 1e6));
+		json.append(", \"p90\": ").append(number(getPercentile(window, 0.90) / 1e6));
+		json.append(", \"p99\": ").append(number(getPercentile(window, 0.99) / 1e6));
+		json.append(", \"max\": ").append(number(window.length > 0 ? window[window.length - 1] / 1e6: 0));
+		json.append("}}");
+		return(json.toString());
+	}
+
+	/**
+	 * Returns a percentile of some sorted values (nearest rank).
+	 *
+	 * @param sorted values in increasing order
+	 * @param fraction the percentile, between 0 and 1
+	 * @return the value of the percentile (0 if there are no values)
+	 */
+	static double getPercentile(long[] sorted, double fraction){
+		if(sorted.length == 0){
+			return(0);
+		}
+		int rank = (int) Math.ceil(fraction * sorted.length);
+		return(sorted[Math.max(0, rank - 1)]);
+	}
+
+	/**
+	 * Sends a JSON response.
+	 *
+	 * @param exchange the HTTP exchange
+	 * @param code HTTP status code
+	 * @param json the response
+	 * @throws IOException when the response cannot be sent
+	 */
+	static void send(HttpExchange exchange, int code, String json) throws IOException{
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+
+	/**
+	 * Splits the body of a request in arguments. The body is a JSON array of strings or, otherwise, arguments separated by white spaces.
+	 *
+	 * @param body the body of the request
+	 * @return the arguments
+	 * @throws ParameterException when the JSON array is malformed
+	 */
+	static String[] parseArguments(String body) throws ParameterException{
+		String text = body.trim();
+		if(!text.startsWith("[")){
+			return(text.length() == 0 ? new String[0]: text.split("\\s+"));
+		}
+		List<String> args = new ArrayList<String>();
+		int pos = skipSpaces(text, 1);
+		if((pos < text.length()) && (text.charAt(pos) == ']')){
+			pos++;
+		}else{
+			while(true){
+				if((pos >= text.length()) || (text.charAt(pos) != '"')){
+					throw new ParameterException("Arguments must be a JSON array of strings.");
+				}
+				StringBuilder arg = new StringBuilder();
+				pos++;
+				while((pos < text.length()) && (text.charAt(pos) != '"')){
+					char c = text.charAt(pos++);
+					if(c == '\\'){
+						if(pos >= text.length()){
+							break;
+						}
+						c = text.charAt(pos++);
+						switch(c){
+						case 'b': c = '\b'; break;
+						case 'f': c = '\f'; break;
+						case 'n': c = '\n'; break;
+						case 'r': c = '\r'; break;
+						case 't': c = '\t'; break;
+						case 'u':
+							if(pos + 4 > text.length()){
+								throw new ParameterException("Arguments must be a JSON array of strings.");
+							}
+							try{
+								c = (char) Integer.parseInt(text.substring(pos, pos + 4), 16);
+							}catch(NumberFormatException e){
+								throw new ParameterException("Arguments must be a JSON array of strings.");
+							}
+							pos += 4;
+							break;
+						}
+					}
+					arg.append(c);
+				}
+				if(pos >= text.length()){
+					throw new ParameterException("Arguments must be a JSON array of strings.");
+				}
+				args.add(arg.toString());
+				pos = skipSpaces(text, pos + 1);
+				if((pos < text.length()) && (text.charAt(pos) == ',')){
+					pos = skipSpaces(text, pos + 1);
+				}else if((pos < text.length()) && (text.charAt(pos) == ']')){
+					pos++;
+					break;
+				}else{
+					throw new ParameterException("Arguments must be a JSON array of strings.");
+				}
+			}
+		}
+		if(skipSpaces(text, pos) != text.length()){
+			throw new ParameterException("Arguments must be a JSON array of strings.");
+		}
+		return(args.toArray(new String[args.size()]));
+	}
+
+	/**
+	 * @param text a text
+	 * @param pos a position of the text
+	 * @return the first position from pos that is not a white space
+	 */
+	static int skipSpaces(String text, int pos){
+		while((pos < text.length()) && Character.isWhitespace(text.charAt(pos))){
+			pos++;
+		}
+		return(pos);
+	}
+
+	/**
+	 * Quotes a string as a JSON string.
+	 *
+	 * @param text the string
+	 * @return the JSON string
+	 */
+	static String quote(String text){
+		if(text == null){
+			return("null");
+		}
+		StringBuilder quoted = new StringBuilder(text.length() + 2);
+		quoted.append('"');
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			switch(c){
+			case '"': quoted.append("\\\""); break;
+			case '\\': quoted.append("\\\\"); break;
+			case '\n': quoted.append("\\n"); break;
+			case '\r': quoted.append("\\r"); break;
+			case '\t': quoted.append("\\t"); break;
+			default:
+				if(c < 0x20){
+					quoted.append(String.format("\\u%04x", (int) c));
+				}else{
+					quoted.append(c);
+				}
+			}
+		}
+		quoted.append('"');
+		return(quoted.toString());
+	}
+
+	/**
+	 * Formats a number as a JSON number (NaN and infinite values, that JSON cannot represent, are null).
+	 *
+	 * @param value the number
+	 * @return the JSON number
+	 */
+	static String number(double value){
+		return(Double.isNaN(value) || Double.isInfinite(value) ? "null": String.valueOf(value));
+	}
+
+	/**
+	 * Cache of decoded images bounded in bytes, that discards the least recently used images.
+	 */
+	static class ImageCache{
+
+		/**
+		 * Maximum number of bytes of the cached images.
+		 */
+		final long maxBytes;
+
+		/**
+		 * Cached images, in access order.
+		 */
+		final LinkedHashMap<String, LoadFile> images = new LinkedHashMap<String, LoadFile>(16, 0.75f, true);
+
+		/**
+		 * Number of bytes of the cached images, and number of hits and misses.
+		 */
+		long bytes = 0, hits = 0, misses = 0;
+
+		ImageCache(long maxBytes){
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * Builds the key of an image: the canonical path, size and modification time of the file and the loading options.
+		 *
+		 * @param imageFile name of the image file
+		 * @param imageGeometry geometry of the raw image (null if it is not raw)
+		 * @param region region of interest of the image (null if the whole image is loaded)
+		 * @param memoryMapped true if the file is mapped in memory
+		 * @return the key
+		 */
+		static String getKey(String imageFile, int[] imageGeometry, ImageRegion region, boolean memoryMapped){
+			File file = new File(imageFile);
+			String path;
+			try{
+				path = file.getCanonicalPath();
+			}catch(IOException e){
+				path = file.getAbsolutePath();
+			}
+			return(path + "|" + file.length() + "|" + file.lastModified() + "|" + Arrays.toString(imageGeometry) + "|" + region + "|" + memoryMapped);
+		}
+
+		/**
+		 * @param image a loaded image
+		 * @return the number of bytes of its samples
+		 */
+		static long getImageBytes(LoadFile image){
+			ImageSamples samples = image.getImageSamples();
+			if(samples != null){
+				return(samples.getSampleCount() * ImageSamples.getSampleBytes(samples.getSampleType()));
+			}
+			return((long) image.getZSize() * image.getYSize() * image.getXSize() * 4);
+		}
+
+		synchronized LoadFile get(String key){
+			LoadFile image = images.get(key);
+			if(image != null){
+				hits++;
+			}else{
+				misses++;
+			}
+			return(image);
+		}
+
+		synchronized boolean put(String key, LoadFile image){
+			long imageBytes = getImageBytes(image);
+			if((imageBytes > maxBytes) || images.containsKey(key)){
+				return(false);
+			}
+			images.put(key, image);
+			bytes += imageBytes;
+			Iterator<Map.Entry<String, LoadFile>> iterator = images.entrySet().iterator();
+			while((bytes > maxBytes) && iterator.hasNext()){
+				bytes -= getImageBytes(iterator.next().getValue());
+				iterator.remove();
+			}
+			return(true);
+		}
+
+		synchronized long getHits(){
+			return(hits);
+		}
+
+		synchronized long getMisses(){
+			return(misses);
+		}
+
+		synchronized int getImages(){
+			return(images.size());
+		}
+
+		synchronized long getBytes(){
+			return(bytes);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package Gstat;
+import GiciAnalysis.*;
+import GiciFile.*;
+import java.io.*;
+
+/**
+ * Result of the analysis of an image: its geometry, the bit depth of its samples, the statistical accumulator of each component and, when it is computed, the covariance between the components. It has all the information needed to show the statistics, so it is what the statistics cache stores instead of the image.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class ImageSummary{
+
+	/**
+	 * Image sizes (components, height and width).
+	 * <p>
+	 * Negative values are not allowed.
+	 */
+	int zSize, ySize, xSize;
+
+	/**
+	 * Bit depth of the samples of each component (null when the summary does not correspond to a single image).
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	int[] sampleBitDepths;
+
+	/**
+	 * Number of samples of all the components.
+	 * <p>
+	 * Negative values are not allowed for this field.
+	 */
+	long samples;
+
+	/**
+	 * Statistical accumulator of each component.
+	 * <p>
+	 * All values allowed.
+	 */
+	StatisticalAccumulator[] accumulators;
+
+	/**
+	 * Covariance between the components.
+	 * <p>
+	 * Null if it is not computed.
+	 */
+	BandCovariance covariance = null;
+
+	/**
+	 * Constructor of the summary of a loaded image.
+	 *
+	 * @param image the loaded image
+	 * @param accumulators the accumulators of its components
+	 */
+	public ImageSummary(LoadFile image, StatisticalAccumulator[] accumulators){
+		this(image.getZSize(), image.getYSize(), image.getXSize(), image.getPixelBitDepth(), accumulators);
+	}
+
+	/**
+	 * Constructor of a summary.
+	 *
+	 * @param zSize number of image components
+	 * @param ySize image height
+	 * @param xSize image width
+	 * @param sampleBitDepths bit depth of the samples of each component (null if unknown)
+	 * @param accumulators the accumulators of the components
+	 */
+	public ImageSummary(int zSize, int ySize, int xSize, int[] sampleBitDepths, StatisticalAccumulator[] accumulators){
+		this.zSize = zSize;
+		this.ySize = ySize;
+		this.xSize = xSize;
+		this.sampleBitDepths = sampleBitDepths;
+		this.accumulators = accumulators;
+		samples = (long) zSize * ySize * xSize;
+	}
+
+	/**
+	 * Constructor of the summary of several images merged (see {@link GstatBatch}).
+	 *
+	 * @param accumulators the merged accumulators
+	 * @param samples number of samples of all the images
+	 */
+	public ImageSummary(StatisticalAccumulator[] accumulators, long samples){
+		this(accumulators.length, 0, 0, null, accumulators);
+		this.samples = samples;
+	}
+
+	/**
+	 * Writes the summary so it can be read back with read.
+	 *
+	 * @param out the output where the summary is written
+	 * @throws IOException when the summary cannot be written
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeInt(zSize);
+		out.writeInt(ySize);
+		out.writeInt(xSize);
+		out.writeLong(samples);
+		out.writeBoolean(sampleBitDepths != null);
+		if(sampleBitDepths != null){
+			for(int z = 0; z < zSize; z++){
+				out.writeInt(sampleBitDepths[z]);
+			}
+		}
+		for(int z = 0; z < zSize; z++){
+			accumulators[z].write(out);
+		}
+		out.writeBoolean(covariance != null);
+		if(covariance != null){
+			covariance.write(out);
+		}
+	}
+
+	/**
+	 * Reads a summary written with write.
+	 *
+	 * @param in the input where the summary is read
+	 * @return the summary
+	 * @throws IOException when the summary cannot be read
+	 */
+	public static ImageSummary read(DataInput in) throws IOException{
+		int zSize = in.readInt();
+		int ySize = in.readInt();
+		int xSize = in.readInt();
+		long samples = in.readLong();
+		if((zSize <= 0) || (ySize < 0) || (xSize < 0)){
+			throw new IOException("Malformed image summary.");
+		}
+		int[] sampleBitDepths = null;
+		if(in.readBoolean()){
+			sampleBitDepths = new int[zSize];
+			for(int z = 0; z < zSize; z++){
+				sampleBitDepths[z] = in.readInt();
+			}
+		}
+		StatisticalAccumulator[] accumulators = new StatisticalAccumulator[zSize];
+		for(int z = 0; z < zSize; z++){
+			accumulators[z] = StatisticalAccumulator.read(in);
+		}
+		ImageSummary summary = new ImageSummary(zSize, ySize, xSize, sampleBitDepths, accumulators);
+		summary.samples = samples;
+		if(in.readBoolean()){
+			summary.covariance = BandCovariance.read(in);
+		}
+		return(summary);
+	}
+
+	/**
+	 * @return zSize definition in this class
+	 */
+	public int getZSize(){
+		return(zSize);
+	}
+
+	/**
+	 * @return ySize definition in this class
+	 */
+	public int getYSize(){
+		return(ySize);
+	}
+
+	/**
+	 * @return xSize definition in this class
+	 */
+	public int getXSize(){
+		return(xSize);
+	}
+
+	/**
+	 * @return sampleBitDepths definition in this class
+	 */
+	public int[] getSampleBitDepths(){
+		return(sampleBitDepths);
+	}
+
+	/**
+	 * @return samples definition in this class
+	 */
+	public long getSamples(){
+		return(samples);
+	}
+
+	/**
+	 * @return accumulators definition in this class
+	 */
+	public StatisticalAccumulator[] getAccumulators(){
+		return(accumulators);
+	}
+
+	/**
+	 * @return covariance definition in this class
+	 */
+	public BandCovariance getCovariance(){
+		return(covariance);
+	}
+
+	/**
+	 * @param covariance the covariance between the components (null if it is not computed)
+	 */
+	public void setCovariance(BandCovariance covariance){
+		this.covariance = covariance;
+	}
+}
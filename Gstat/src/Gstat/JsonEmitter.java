@@ -0,0 +1,161 @@
+package Gstat;
+import GiciAnalysis.*;
+import java.io.*;
+
+/**
+ * Emitter of the JSON Lines format of Gstat (-f 3).<br>
+ * Each image is one JSON object in one line, with the file, the image sizes, an array "components" and an object "totals" (when they are shown) with the selected statistics, and an array "rates" with the bytes of each compression factor. Counts and percentages of selected values are objects keyed by the value, and the ones of all the values are arrays. Percentiles are an object keyed by the percentile. Covariances and correlations are an array with the row of the matrix of each component, and the KLT analysis adds the members "eigenvalue" and "energy" to the components and "codingGain" and "codingGainDb" to the totals. Errors are objects with an "error" member. Not finite numbers are written as null.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class JsonEmitter extends ResultEmitter{
+
+	/**
+	 * JSON object of the image being written.
+	 * <p>
+	 * Reused for all the images.
+	 */
+	StringBuilder json = new StringBuilder(4096);
+
+	/**
+	 * Constructor of an emitter for the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	JsonEmitter(GstatParser parser){
+		super(parser);
+	}
+
+	public void emit(PrintStream out, String imageFile, ImageStatistical is, ImageSummary summary, long[] rateBytes, String rateError) throws IOException{
+		int zSize = summary.getZSize();
+		long samples = summary.getSamples();
+		prepareCovariance(summary);
+		json.setLength(0);
+		json.append("{\"file\": ").append(GstatServer.quote(imageFile));
+		json.append(", \"zSize\": ").append(zSize);
+		json.append(", \"ySize\": ").append(summary.getYSize());
+		json.append(", \"xSize\": ").append(summary.getXSize());
+		json.append(", \"samples\": ").append(samples);
+		if(statistic > 0){
+			if(showComponents(zSize)){
+				json.append(", \"components\": [");
+				for(int z = 0; z < zSize; z++){
+					json.append(z > 0 ? ", ": "");
+					appendSection(is, z, samples);
+				}
+				json.append("]");
+			}
+			if(showTotals(zSize)){
+				json.append(", \"totals\": ");
+				appendSection(is, -1, samples);
+			}
+		}
+		if(rateError != null){
+			json.append(", \"rateError\": ").append(GstatServer.quote(rateError));
+		}else if(rateBytes != null){
+			json.append(", \"rates\": [");
+			for(int cf = 0; cf < rateBytes.length; cf++){
+				json.append(cf > 0 ? ", {": "{").append("\"factor\": ").append(compressionFactors[cf]).append(", \"bytes\": ").append(rateBytes[cf]).append("}");
+			}
+			json.append("]");
+		}
+		json.append("}\n");
+		out.append(json);
+	}
+
+	public void emitError(PrintStream out, String imageFile, String message) throws IOException{
+		out.print("{\"file\": " + GstatServer.quote(imageFile) + ", \"error\": " + GstatServer.quote(message) + "}\n");
+	}
+
+	/**
+	 * Appends the object with the selected statistics of a component or the totals.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @param samples number of samples of the image
+	 */
+	void appendSection(ImageStatistical is, int z, long samples){
+		json.append("{");
+		String separator = "";
+		for(int scalar = 0; scalar < SCALAR_NAMES.length; scalar++){
+			if(isShown(scalar)){
+				json.append(separator).append('"').append(SCALAR_NAMES[scalar]).append("\": ");
+				appendNumber(getScalar(is, z, scalar));
+				separator = ", ";
+			}
+		}
+		if((statistic >= 5) && (statistic <= 8)){
+			long[] counts = getCounts(is, z);
+			boolean percent = (statistic == 6) || (statistic == 8);
+			json.append(percent ? "\"percents\": ": "\"counts\": ").append(statistic <= 6 ? "{": "[");
+			int length = statistic <= 6 ? values.length: counts.length;
+			for(int i = 0; i < length; i++){
+				int value = statistic <= 6 ? values[i]: i;
+				json.append(i > 0 ? ", ": "");
+				if(statistic <= 6){
+					json.append('"').append(value).append("\": ");
+				}
+				if(percent){
+					appendNumber(getPercent(counts[value], samples));
+				}else{
+					json.append(counts[value]);
+				}
+			}
+			json.append(statistic <= 6 ? "}": "]");
+		}
+		if(statistic == 12){
+			double[] quantiles = getPercentiles(is, z);
+			json.append(separator).append("\"percentiles\": {");
+			for(int p = 0; p < quantiles.length; p++){
+				json.append(p > 0 ? ", ": "").append('"').append(percentiles[p]).append("\": ");
+				appendNumber(quantiles[p]);
+			}
+			json.append("}");
+		}
+		double[] kltValues = getKltValues(z);
+		if(kltValues != null){
+			for(int k = 0; k < kltValues.length; k++){
+				json.append(separator).append('"').append(z < 0 ? KLT_TOTAL_NAMES[k]: KLT_NAMES[k]).append("\": ");
+				appendNumber(kltValues[k]);
+				separator = ", ";
+			}
+		}
+		double[] matrixRow = getMatrixRow(z);
+		if(matrixRow != null){
+			json.append(separator).append('"').append(getMatrixName()).append("\": [");
+			for(int j = 0; j < matrixRow.length; j++){
+				json.append(j > 0 ? ", ": "");
+				appendNumber(matrixRow[j]);
+			}
+			json.append("]");
+		}
+		json.append("}");
+	}
+
+	/**
+	 * Appends a number, or null if it is not finite.
+	 *
+	 * @param value the number
+	 */
+	void appendNumber(double value){
+		if(Double.isNaN(value) || Double.isInfinite(value)){
+			json.append("null");
+		}else{
+			json.append(value);
+		}
+	}
+
+	/**
+	 * Appends a number, or null if it is not finite.
+	 *
+	 * @param value the number
+	 */
+	void appendNumber(float value){
+		if(Float.isNaN(value) || Float.isInfinite(value)){
+			json.append("null");
+		}else{
+			json.append(value);
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package Gstat;
+import GiciAnalysis.*;
+import java.io.*;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+
+/**
+ * Writes the statistics of images in one of the output formats of Gstat (see the -f parameter of {@link GstatParser}).<br>
+ * The result of each image is built in a buffer of the emitter and written at once to the output stream (which is expected to be buffered too). Numbers are appended to reusable buffers, so long outputs like the histograms of many components do not create objects for each value. Emitters keep state between calls, so they must not be shared by several threads.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public abstract class ResultEmitter{
+
+	/**
+	 * Names of the statistics with one value for each component (in the order they are shown).
+	 */
+	static final String[] SCALAR_NAMES = {"min", "max", "average", "centerRange", "energy", "variance", "entropy", "skewness", "kurtosis"};
+
+	/**
+	 * Value of the -s parameter that shows each statistic of SCALAR_NAMES (besides 1, that shows all of them up to entropy).
+	 */
+	static final int[] SCALAR_STATISTICS = {2, 2, 3, 4, 9, 10, 11, 13, 14};
+
+	/**
+	 * Names of the values of statistic 17 shown for each component (the i-th eigenvalue and the energy of the first i+1) and for the totals.
+	 */
+	static final String[] KLT_NAMES = {"eigenvalue", "energy"};
+	static final String[] KLT_TOTAL_NAMES = {"codingGain", "codingGainDb"};
+
+	/**
+	 * Statistic to show (see the -s parameter of {@link GstatParser}).
+	 * <p>
+	 * Only values between 0 and 17 allowed.
+	 */
+	int statistic;
+
+	/**
+	 * Whether components and/or totals are shown (see the -t parameter of {@link GstatParser}).
+	 * <p>
+	 * Only values between 0 and 2 allowed.
+	 */
+	int totals;
+
+	/**
+	 * Sample values counted by statistics 5 and 6 (null if not given).
+	 * <p>
+	 * All values allowed.
+	 */
+	int[] values;
+
+	/**
+	 * Percentiles shown by statistic 12, and the same values as fractions.
+	 * <p>
+	 * Values between 0 and 100 (0 and 1 for the fractions).
+	 */
+	float[] percentiles;
+	double[] fractions;
+
+	/**
+	 * Covariance (statistic 15) or correlation (statistic 16) matrix of the image being written. Each component shows its row.
+	 * <p>
+	 * Null if it is not shown or not computed.
+	 */
+	double[][] matrix = null;
+
+	/**
+	 * Analysis of the KLT of the image being written (statistic 17).
+	 * <p>
+	 * Null if it is not shown or not computed.
+	 */
+	KltAnalysis klt = null;
+
+	/**
+	 * Compression factors of the rate calculation (null if not given).
+	 * <p>
+	 * All values allowed.
+	 */
+	float[] compressionFactors;
+
+	/**
+	 * Format of decimal numbers (all the fraction digits, without grouping), its output buffer and field position.
+	 * <p>
+	 * Reused for all the numbers.
+	 */
+	NumberFormat decimalFormat = null;
+	StringBuffer decimalBuffer = null;
+	FieldPosition decimalPosition = null;
+
+	/**
+	 * Constructor of an emitter for the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	ResultEmitter(GstatParser parser){
+		statistic = parser.getStatistic();
+		totals = parser.getTotals();
+		values = parser.getValues();
+		compressionFactors = parser.getCompressionFactors();
+		percentiles = parser.getPercentiles();
+		fractions = new double[percentiles.length];
+		for(int p = 0; p < percentiles.length; p++){
+			fractions[p] = percentiles[p] / 100D;
+		}
+	}
+
+	/**
+	 * Creates the emitter of the format chosen in the program arguments.
+	 *
+	 * @param parser the program arguments
+	 * @return the emitter
+	 */
+	public static ResultEmitter create(GstatParser parser){
+		switch(parser.getFormat()){
+		case 2:
+			return(new CsvEmitter(parser));
+		case 3:
+			return(new JsonEmitter(parser));
+		case 4:
+			return(new BinaryEmitter(parser));
+		default:
+			return(new TextEmitter(parser));
+		}
+	}
+
+	/**
+	 * Writes what goes before the results of the first image (for instance, a header). It must be called once for each output.
+	 *
+	 * @param out stream where the results are written
+	 * @throws IOException when the output cannot be written
+	 */
+	public void begin(PrintStream out) throws IOException{
+	}
+
+	/**
+	 * Writes the statistics of an image and the result of the rate calculation.
+	 *
+	 * @param out stream where the results are written
+	 * @param imageFile name of the image file (null if the statistics are not computed from a single image)
+	 * @param is the statistics
+	 * @param summary geometry of the image
+	 * @param rateBytes number of bytes of each compression factor (null if the rate calculation is not shown)
+	 * @param rateError error of the rate calculation (null if there is no error)
+	 * @throws IOException when the output cannot be written
+	 */
+	public abstract void emit(PrintStream out, String imageFile, ImageStatistical is, ImageSummary summary, long[] rateBytes, String rateError) throws IOException;
+
+	/**
+	 * Writes an error that prevents showing the statistics of an image.
+	 *
+	 * @param out stream where the results are written
+	 * @param imageFile name of the image file (null if the statistics are not computed from a single image)
+	 * @param message the error message
+	 * @throws IOException when the output cannot be written
+	 */
+	public abstract void emitError(PrintStream out, String imageFile, String message) throws IOException;
+
+	/**
+	 * @param zSize number of components of the image
+	 * @return true if the statistics of each component are shown
+	 */
+	boolean showComponents(int zSize){
+		return(((zSize > 1) && (totals <= 1)) || (zSize == 1));
+	}
+
+	/**
+	 * @param zSize number of components of the image
+	 * @return true if the totals of the image are shown
+	 */
+	boolean showTotals(int zSize){
+		return((zSize > 1) && (totals >= 1));
+	}
+
+	/**
+	 * @return true if the section of the totals has some value of the selected statistic (covariances and correlations are only shown for each component)
+	 */
+	boolean hasTotalValues(){
+		return((statistic != 15) && (statistic != 16));
+	}
+
+	/**
+	 * @param scalar index in SCALAR_NAMES
+	 * @return true if the statistic is shown
+	 */
+	boolean isShown(int scalar){
+		return(((statistic == 1) && (SCALAR_STATISTICS[scalar] <= 11)) || (statistic == SCALAR_STATISTICS[scalar]));
+	}
+
+	/**
+	 * Gets a statistic with one value for each component.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @param scalar index in SCALAR_NAMES
+	 * @return the value of the statistic
+	 */
+	static double getScalar(ImageStatistical is, int z, int scalar){
+		double value = 0;
+		switch(scalar){
+		case 0:
+			value = z < 0 ? is.getTotalMinMax()[0]: is.getMinMax()[z][0];
+			break;
+		case 1:
+			value = z < 0 ? is.getTotalMinMax()[1]: is.getMinMax()[z][1];
+			break;
+		case 2:
+			value = z < 0 ? is.getTotalAverage(): is.getAverage()[z];
+			break;
+		case 3:
+			value = z < 0 ? is.getTotalCenterRange(): is.getCenterRange()[z];
+			break;
+		case 4:
+			value = z < 0 ? is.getTotalEnergy(): is.getEnergy()[z];
+			break;
+		case 5:
+			value = z < 0 ? is.getTotalVariance(): is.getVariance()[z];
+			break;
+		case 6:
+			value = z < 0 ? is.getTotalEntropy(): is.getEntropy()[z];
+			break;
+		case 7:
+			value = z < 0 ? is.getTotalSkewness(): is.getSkewness()[z];
+			break;
+		case 8:
+			value = z < 0 ? is.getTotalKurtosis(): is.getKurtosis()[z];
+			break;
+		}
+		return(value);
+	}
+
+	/**
+	 * Computes the matrix shown by statistics 15 and 16 (see matrix) or the KLT analysis of statistic 17 from the covariance of the image. It must be called before the sections of each image are written.
+	 *
+	 * @param summary the summary of the image
+	 */
+	void prepareCovariance(ImageSummary summary){
+		BandCovariance covariance = summary.getCovariance();
+		matrix = null;
+		klt = null;
+		if((covariance != null) && (statistic == 15)){
+			matrix = covariance.getCovariance();
+		}else if((covariance != null) && (statistic == 16)){
+			matrix = covariance.getCorrelation();
+		}else if((covariance != null) && (statistic == 17)){
+			klt = new KltAnalysis(covariance);
+		}
+	}
+
+	/**
+	 * @param z component (-1 for the totals)
+	 * @return the row of the matrix of statistics 15 and 16 shown in the section of the component, or null if none is shown
+	 */
+	double[] getMatrixRow(int z){
+		return(((matrix != null) && (z >= 0)) ? matrix[z]: null);
+	}
+
+	/**
+	 * @param z component (-1 for the totals)
+	 * @return the values of statistic 17 of the component (see KLT_NAMES) or the totals (see KLT_TOTAL_NAMES), or null if they are not shown
+	 */
+	double[] getKltValues(int z){
+		if(klt == null){
+			return(null);
+		}
+		if(z < 0){
+			return(new double[]{klt.getCodingGain(), klt.getCodingGainDb()});
+		}
+		return(new double[]{klt.getEigenvalues()[z], klt.getEnergy()[z]});
+	}
+
+	/**
+	 * @return name of the matrix of statistics 15 and 16
+	 */
+	String getMatrixName(){
+		return(statistic == 15 ? "covariance": "correlation");
+	}
+
+	/**
+	 * Gets the number of samples of each value.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @return the counted values
+	 */
+	long[] getCounts(ImageStatistical is, int z){
+		long[][] countedValues = is.getcountedValues();
+		if(z >= 0){
+			return(countedValues[z]);
+		}
+		long[] counts = new long[countedValues[0].length];
+		for(int c = 0; c < countedValues.length; c++){
+			for(int value = 0; value < counts.length; value++){
+				counts[value] += countedValues[c][value];
+			}
+		}
+		return(counts);
+	}
+
+	/**
+	 * Gets the values of the percentiles of statistic 12.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @return the value of each percentile
+	 */
+	double[] getPercentiles(ImageStatistical is, int z){
+		return(z < 0 ? is.getTotalQuantiles(fractions): is.getQuantiles(z, fractions));
+	}
+
+	/**
+	 * @param count number of samples of a value
+	 * @param samples number of samples of the image
+	 * @return percentage of the samples with the value
+	 */
+	static float getPercent(long count, long samples){
+		return((float) count * 100 / samples);
+	}
+
+	/**
+	 * Appends a decimal number with all its fraction digits and without grouping (as shown by energy, variance and entropy).
+	 *
+	 * @param text where the number is appended
+	 * @param value the number
+	 */
+	void appendDecimal(StringBuilder text, double value){
+		if(decimalFormat == null){
+			decimalFormat = NumberFormat.getInstance();
+			decimalFormat.setMaximumFractionDigits(100);
+			decimalFormat.setGroupingUsed(false);
+			decimalBuffer = new StringBuffer(32);
+			decimalPosition = new FieldPosition(0);
+		}
+		decimalBuffer.setLength(0);
+		decimalFormat.format(value, decimalBuffer, decimalPosition);
+		text.append(decimalBuffer);
+	}
+}
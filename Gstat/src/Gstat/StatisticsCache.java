@@ -0,0 +1,253 @@
+package Gstat;
+import GiciFile.ImageRegion;
+import GiciFile.LoadFile;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent cache of the statistics of images, stored in a directory (one binary file per image).<br>
+ * Entries are keyed by the canonical path, size and modification time of the image file, optionally a SHA-256 hash of its content, the raw geometry, the region of interest, the histogram bin width, the rank error of the quantile sketches and the version of the program. A hit gives the {@link ImageSummary} of the image without loading it. Hits update the modification time of the entry, and when the directory exceeds its maximum size the least recently used entries are deleted. Errors accessing the cache are never fatal: the image is analyzed as if there were no cache.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class StatisticsCache{
+
+	/**
+	 * First bytes of the entries ("GSTC").
+	 */
+	static final int MAGIC = 0x47535443;
+
+	/**
+	 * Version of the format of the entries (part of the key).
+	 */
+	static final int FORMAT_VERSION = 8;
+
+	/**
+	 * Extension of the entries.
+	 */
+	static final String EXTENSION = ".gstat";
+
+	/**
+	 * Directory where the entries are stored.
+	 * <p>
+	 * All values allowed.
+	 */
+	File directory;
+
+	/**
+	 * Maximum number of bytes of all the entries.
+	 * <p>
+	 * Only positive values allowed.
+	 */
+	long maxBytes;
+
+	/**
+	 * Whether the content of the image files is hashed to build the keys.
+	 * <p>
+	 * All values allowed.
+	 */
+	boolean hashContent;
+
+	/**
+	 * Constructor of a cache (the directory is created if it does not exist).
+	 *
+	 * @param directory directory where the entries are stored
+	 * @param maxBytes maximum number of bytes of all the entries
+	 * @param hashContent if true, the content of the image files is hashed to build the keys (files are read once more, but entries are not reused if the content changes without changing size and modification time)
+	 */
+	public StatisticsCache(File directory, long maxBytes, boolean hashContent){
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.hashContent = hashContent;
+		directory.mkdirs();
+	}
+
+	/**
+	 * Builds the key of the statistics of an image.
+	 *
+	 * @param imageFile name of the image file
+	 * @param imageGeometry geometry of the image if it is raw (see the -ig parameter of {@link GstatParser})
+	 * @param region region of interest of the image (null if the whole image is analyzed)
+	 * @param binWidth width of the histogram bins
+	 * @param rankError rank error of the quantile sketches
+	 * @return the key
+	 * @throws IOException when the file cannot be read
+	 */
+	public String getKey(String imageFile, int[] imageGeometry, ImageRegion region, double binWidth, double rankError) throws IOException{
+		File file = new File(imageFile);
+		if(!file.isFile()){
+			throw new FileNotFoundException(imageFile);
+		}
+		StringBuilder key = new StringBuilder();
+		key.append(file.getCanonicalPath());
+		key.append('|').append(file.length());
+		key.append('|').append(file.lastModified());
+		key.append('|').append(hashContent ? hashFile(file): "-");
+		key.append('|').append((imageGeometry != null) && LoadFile.isRaw(imageFile) ? Arrays.toString(imageGeometry): "-");
+		key.append('|').append(region != null ? region.toString(): "-");
+		key.append('|').append(binWidth);
+		key.append('|').append(rankError);
+		key.append('|').append(Gstat.VERSION).append('/').append(FORMAT_VERSION);
+		return(key.toString());
+	}
+
+	/**
+	 * Looks for the statistics of an image.
+	 *
+	 * @param key the key of the image (see getKey)
+	 * @return the summary of the image, or null if it is not in the cache
+	 */
+	public ImageSummary get(String key){
+		File entry = getEntryFile(key);
+		if(!entry.isFile()){
+			return(null);
+		}
+		ImageSummary summary = null;
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry), 1 << 16));
+			try{
+				if((in.readInt() == MAGIC) && in.readUTF().equals(key)){
+					summary = ImageSummary.read(in);
+				}
+			}finally{
+				in.close();
+			}
+			//The entry becomes the most recently used
+			entry.setLastModified(System.currentTimeMillis());
+		}catch(IOException e){
+			summary = null;
+		}
+		return(summary);
+	}
+
+	/**
+	 * Stores the statistics of an image, deleting the least recently used entries if the cache exceeds its maximum size.
+	 *
+	 * @param key the key of the image (see getKey)
+	 * @param summary the summary of the image
+	 */
+	public void put(String key, ImageSummary summary){
+		File entry = getEntryFile(key);
+		File temporary = null;
+		try{
+			//Entries are written in a temporary file and renamed, so concurrent readers never see partial entries
+			temporary = File.createTempFile("entry", ".tmp", directory);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+			try{
+				out.writeInt(MAGIC);
+				out.writeUTF(key);
+				summary.write(out);
+			}finally{
+				out.close();
+			}
+			Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			temporary = null;
+			evict();
+		}catch(IOException e){
+			//The statistics are not cached
+		}finally{
+			if(temporary != null){
+				temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache does not exceed its maximum size.
+	 *
+	 * @throws IOException when the directory cannot be listed
+	 */
+	void evict() throws IOException{
+		File[] files = directory.listFiles(new FilenameFilter(){
+			public boolean accept(File dir, String name){
+				return(name.endsWith(EXTENSION));
+			}
+		});
+		if(files == null){
+			throw new IOException("Cache directory cannot be listed.");
+		}
+		long bytes = 0;
+		List<File> entries = new ArrayList<File>(files.length);
+		for(File file: files){
+			bytes += file.length();
+			entries.add(file);
+		}
+		if(bytes <= maxBytes){
+			return;
+		}
+		Collections.sort(entries, new Comparator<File>(){
+			public int compare(File a, File b){
+				return(Long.compare(a.lastModified(), b.lastModified()));
+			}
+		});
+		for(int i = 0; (i < entries.size()) && (bytes > maxBytes); i++){
+			long length = entries.get(i).length();
+			if(entries.get(i).delete()){
+				bytes -= length;
+			}
+		}
+	}
+
+	/**
+	 * @param key the key of an image
+	 * @return the file of the entry of the image (named after the SHA-256 of the key)
+	 */
+	File getEntryFile(String key){
+		return(new File(directory, toHex(getDigest().digest(key.getBytes(StandardCharsets.UTF_8))) + EXTENSION));
+	}
+
+	/**
+	 * Computes the SHA-256 hash of the content of a file.
+	 *
+	 * @param file the file
+	 * @return the hash in hexadecimal
+	 * @throws IOException when the file cannot be read
+	 */
+	static String hashFile(File file) throws IOException{
+		MessageDigest digest = getDigest();
+		InputStream in = new FileInputStream(file);
+		try{
+			byte[] buffer = new byte[1 << 20];
+			int read;
+			while((read = in.read(buffer)) > 0){
+				digest.update(buffer, 0, read);
+			}
+		}finally{
+			in.close();
+		}
+		return(toHex(digest.digest()));
+	}
+
+	/**
+	 * @return a SHA-256 message digest
+	 */
+	static MessageDigest getDigest(){
+		try{
+			return(MessageDigest.getInstance("SHA-256"));
+		}catch(NoSuchAlgorithmException e){
+			//Every Java platform implements SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param bytes some bytes
+	 * @return the bytes in hexadecimal
+	 */
+	static String toHex(byte[] bytes){
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b: bytes){
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return(hex.toString());
+	}
+}
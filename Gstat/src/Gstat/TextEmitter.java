@@ -0,0 +1,205 @@
+package Gstat;
+import GiciAnalysis.*;
+import java.io.*;
+
+/**
+ * Emitter of the text formats of Gstat: long (-f 0), with one line for each statistic, and short (-f 1), with one line for each component and the statistics separated by colons.
+ *
+ * @author Group on Interactive Coding of Images (GICI)
+ * @version 1.0
+ */
+public class TextEmitter extends ResultEmitter{
+
+	/**
+	 * Line separator of the platform.
+	 */
+	static final String NEWLINE = System.lineSeparator();
+
+	/**
+	 * Labels of the long format of the values of statistic 17 (see {@link ResultEmitter#KLT_NAMES}).
+	 */
+	static final String[] KLT_LABELS = {"  EIGENVALUE  : ", "  ENERGY      : "};
+	static final String[] KLT_TOTAL_LABELS = {"  CODING GAIN : ", "  GAIN (DB)   : "};
+
+	/**
+	 * Text format (0 long, 1 short).
+	 * <p>
+	 * Only 0 and 1 allowed.
+	 */
+	int format;
+
+	/**
+	 * Text of the image being written.
+	 * <p>
+	 * Reused for all the images.
+	 */
+	StringBuilder text = new StringBuilder(4096);
+
+	/**
+	 * Constructor of an emitter for the program arguments.
+	 *
+	 * @param parser the program arguments
+	 */
+	TextEmitter(GstatParser parser){
+		super(parser);
+		format = parser.getFormat();
+	}
+
+	public void emit(PrintStream out, String imageFile, ImageStatistical is, ImageSummary summary, long[] rateBytes, String rateError) throws IOException{
+		int zSize = summary.getZSize();
+		long samples = summary.getSamples();
+		prepareCovariance(summary);
+		text.setLength(0);
+		if(showComponents(zSize)){
+			for(int z = 0; z < zSize; z++){
+				appendSection(is, z, samples);
+			}
+		}
+		if(showTotals(zSize) && hasTotalValues()){
+			appendSection(is, -1, samples);
+		}
+		if(rateError != null){
+			text.append("RATE CALCULATION ERROR: ").append(rateError).append(NEWLINE);
+		}else if(rateBytes != null){
+			if(format == 0) text.append("RATIOS NUM BYTES:");
+			for(int cf = 0; cf < rateBytes.length; cf++){
+				text.append(' ').append(rateBytes[cf]);
+			}
+			text.append('\n');
+		}
+		out.append(text);
+	}
+
+	public void emitError(PrintStream out, String imageFile, String message) throws IOException{
+		out.println(message);
+	}
+
+	/**
+	 * Appends the selected statistics of a component or the totals.
+	 *
+	 * @param is the statistics
+	 * @param z component (-1 for the totals)
+	 * @param samples number of samples of the image
+	 */
+	void appendSection(ImageStatistical is, int z, long samples){
+		if((statistic > 0) && (format == 0)){
+			if(z < 0){
+				text.append("TOTALS:").append(NEWLINE);
+			}else{
+				text.append("COMPONENT ").append(z).append(':').append(NEWLINE);
+			}
+		}
+		if((statistic == 1) || (statistic == 2)){
+			if(format == 0) text.append("  MIN         : ").append((float) getScalar(is, z, 0)).append(NEWLINE);
+			if(format == 1) text.append((float) getScalar(is, z, 0));
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 2)){
+			if(format == 0) text.append("  MAX         : ").append((float) getScalar(is, z, 1)).append(NEWLINE);
+			if(format == 1) text.append(" : ").append((float) getScalar(is, z, 1));
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 3)){
+			if(format == 0) text.append("  AVERAGE     : ").append((float) getScalar(is, z, 2)).append(NEWLINE);
+			if(format == 1) text.append((float) getScalar(is, z, 2));
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 4)){
+			if(format == 0) text.append("  CENTER RANGE: ").append((float) getScalar(is, z, 3)).append(NEWLINE);
+			if(format == 1) text.append((float) getScalar(is, z, 3));
+		}
+		if((statistic >= 5) && (statistic <= 8)){
+			appendCounts(getCounts(is, z), samples);
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 9)){
+			if(format == 0) text.append("  ENERGY      : ");
+			appendDecimal(text, getScalar(is, z, 4));
+			if(format == 0) text.append(NEWLINE);
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 10)){
+			if(format == 0) text.append("  VARIANCE    : ");
+			appendDecimal(text, getScalar(is, z, 5));
+			if(format == 0) text.append(NEWLINE);
+		}
+		if((statistic == 1) && (format == 1)) text.append(':');
+		if((statistic == 1) || (statistic == 11)){
+			if(format == 0) text.append("  ENTROPY     : ");
+			appendDecimal(text, getScalar(is, z, 6));
+			if(format == 0) text.append(NEWLINE);
+		}
+		if(statistic == 13){
+			if(format == 0) text.append("  SKEWNESS    : ");
+			appendDecimal(text, getScalar(is, z, 7));
+			if(format == 0) text.append(NEWLINE);
+		}
+		if(statistic == 14){
+			if(format == 0) text.append("  KURTOSIS    : ");
+			appendDecimal(text, getScalar(is, z, 8));
+			if(format == 0) text.append(NEWLINE);
+		}
+		double[] matrixRow = getMatrixRow(z);
+		if(matrixRow != null){
+			if(format == 0) text.append(statistic == 15 ? "  COVARIANCE  :": "  CORRELATION :");
+			for(int j = 0; j < matrixRow.length; j++){
+				text.append(format == 0 ? " ": (j > 0 ? ":": ""));
+				appendDecimal(text, matrixRow[j]);
+			}
+			if(format == 0) text.append(NEWLINE);
+		}
+		double[] kltValues = getKltValues(z);
+		if(kltValues != null){
+			for(int k = 0; k < kltValues.length; k++){
+				if(format == 0) text.append(z < 0 ? KLT_TOTAL_LABELS[k]: KLT_LABELS[k]);
+				if((format == 1) && (k > 0)) text.append(':');
+				appendDecimal(text, kltValues[k]);
+				if(format == 0) text.append(NEWLINE);
+			}
+		}
+		if(statistic == 12){
+			double[] quantiles = getPercentiles(is, z);
+			for(int p = 0; p < quantiles.length; p++){
+				if(format == 0) text.append("  PERCENTILE ").append(percentiles[p]).append(": ").append((float) quantiles[p]).append(NEWLINE);
+				if(format == 1) text.append(p > 0 ? ":": "").append((float) quantiles[p]);
+			}
+		}
+		if((statistic > 0) && (format == 1)) text.append('\n');
+	}
+
+	/**
+	 * Appends the counted values of statistics 5 to 8.
+	 *
+	 * @param counts number of samples of each value
+	 * @param samples number of samples of the image
+	 */
+	void appendCounts(long[] counts, long samples){
+		if(format == 1) text.append(':');
+		int length = statistic <= 6 ? values.length: counts.length;
+		for(int i = 0; i < length; i++){
+			int value = statistic <= 6 ? values[i]: i;
+			if(format == 0){
+				if((statistic == 5) || (statistic == 7)){
+					text.append(" - NUMBER OF PIXELS WITH VALUE = ").append(value).append(" ARE ").append(counts[value]);
+				}else{
+					text.append(statistic == 6 ? " - % OF PIXELS VALUES = ": " - % OF PIXELS WITH VALUE = ").append(value).append(" ARE ").append(getPercent(counts[value], samples)).append('%');
+				}
+			}else{
+				text.append(value).append(" - ");
+				if((statistic == 5) || (statistic == 7)){
+					text.append(counts[value]);
+				}else{
+					text.append(getPercent(counts[value], samples)).append('%');
+				}
+			}
+			text.append(NEWLINE);
+		}
+	}
+
+	/**
+	 * The totals of the counted values in the text formats are the ones of the first component, as in previous versions.
+	 */
+	long[] getCounts(ImageStatistical is, int z){
+		return(is.getcountedValues()[z < 0 ? 0: z]);
+	}
+}